@@ -0,0 +1,85 @@
+package com.circlet.util.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.BitwiseComparator;
+
+/**
+ * {@code contrast} and {@code compare} of the array and string comparators on
+ * pairs of URL keys that only differ late, the way two keys meeting at a deep
+ * switch do.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ComparatorBenchmark {
+	static final int PAIRS = 1 << 10;
+
+	@Param({ "STRING", "BYTES", "UBYTES", "CHARS" })
+	public KeyType keyType;
+
+	@Param({ "40", "200" })
+	public int length;
+
+	@Param("42")
+	public long seed;
+
+	BitwiseComparator comparator;
+	Object[] left;
+	Object[] right;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		comparator = keyType.comparator;
+		left = new Object[PAIRS];
+		right = new Object[PAIRS];
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < PAIRS; i++) {
+			sb.setLength(0);
+			sb.append("https://host").append(rnd.nextInt(100))
+					.append(".example.com/");
+			while (sb.length() < length)
+				sb.append((char) ('a' + rnd.nextInt(26)));
+			String s = sb.toString();
+			// Differ somewhere in the last quarter
+			int at = length - 1 - rnd.nextInt(length >> 2);
+			sb.setCharAt(at, (char) (s.charAt(at) ^ 1 << rnd.nextInt(5)));
+			left[i] = keyType.fromString(s);
+			right[i] = keyType.fromString(sb.toString());
+		}
+	}
+
+	@Benchmark
+	public int contrast() {
+		int i = index++ & PAIRS - 1;
+		return comparator.contrast(left[i], right[i]);
+	}
+
+	@Benchmark
+	public int compare() {
+		int i = index++ & PAIRS - 1;
+		return comparator.compare(left[i], right[i]);
+	}
+}
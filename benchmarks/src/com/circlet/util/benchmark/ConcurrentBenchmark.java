@@ -0,0 +1,100 @@
+package com.circlet.util.benchmark;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A map shared by reader threads doing {@code get} and a writer thread
+ * inserting and removing absent keys, comparing {@code ConcurrentPatriciaTrie}
+ * with {@code ConcurrentSkipListMap} and a synchronized {@code PatriciaTrie}.
+ * The {@code writers} group has only writer threads, inserting and removing
+ * random keys that seldom share more than a few leading bits, which measures
+ * how much updates of disjoint subtrees contend with one another. Run with
+ * {@code -tg} to change the number of readers and writers.
+ *
+ * @author Jason
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentBenchmark {
+	@Param({ "CONCURRENT", "SKIPLIST", "PATRICIA_SYNCHRONIZED" })
+	public MapType impl;
+
+	@Param({ "STRING", "LONG" })
+	public KeyType keyType;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	Map<Object, Object> map;
+	Object[] hits;
+	Object[] misses;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		Object[] keys = keyType.generate(rnd, size + MapState.PROBES);
+		map = impl.create(keyType.comparator, size);
+		for (int i = 0; i < size; i++)
+			map.put(keys[i], keys[i]);
+		hits = new Object[MapState.PROBES];
+		misses = new Object[MapState.PROBES];
+		for (int i = 0; i < MapState.PROBES; i++) {
+			hits[i] = keys[rnd.nextInt(size)];
+			misses[i] = keys[size + i];
+		}
+	}
+
+	static int next() {
+		return ThreadLocalRandom.current().nextInt() & MapState.PROBE_MASK;
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public Object get() {
+		return map.get(hits[next()]);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public Object putRemove() {
+		Object key = misses[next()];
+		map.put(key, key);
+		return map.remove(key);
+	}
+
+	@Benchmark
+	@Group("writers")
+	@GroupThreads(4)
+	public Object contendedPutRemove() {
+		Object key = misses[next()];
+		map.put(key, key);
+		return map.remove(key);
+	}
+}
@@ -0,0 +1,120 @@
+package com.circlet.util.benchmark;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * {@code prefixEntry} with keys sitting in a larger buffer, the way a request
+ * router sees them in parsed headers: through a {@code CharBuffer} or
+ * {@code ByteBuffer} view with {@code prefixEntryByView}, against
+ * materializing a {@code String} or a
+ * {@code byte[]} for every query. Run with {@code -prof gc} to see the
+ * allocation rates.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlyweightBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	PatriciaTrie<String, Object> strings;
+	PatriciaTrie<byte[], Object> bytes;
+
+	/** The probes, back to back, as they would be in a request buffer */
+	char[] chars;
+	ByteBuffer buffer;
+	int[] offsets;
+	CharBuffer charView;
+	ByteBuffer byteView;
+	ByteBuffer copier;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		Object[] keys = KeyType.STRING.generate(rnd, size);
+		strings = new PatriciaTrie<>(BitwiseComparators.FOR_CHAR_SEQUENCE);
+		bytes = new PatriciaTrie<>(BitwiseComparators.FOR_UBYTE_BUFFER);
+		for (Object key : keys) {
+			String s = (String) key;
+			strings.put(s, s);
+			bytes.put(s.getBytes(StandardCharsets.UTF_8), s);
+		}
+		StringBuilder sb = new StringBuilder();
+		offsets = new int[MapState.PROBES + 1];
+		for (int i = 0; i < MapState.PROBES; i++) {
+			offsets[i] = sb.length();
+			sb.append(KeyType.STRING.extend(keys[rnd.nextInt(size)], rnd));
+		}
+		offsets[MapState.PROBES] = sb.length();
+		chars = sb.toString().toCharArray();
+		buffer = ByteBuffer.allocateDirect(chars.length);
+		buffer.put(sb.toString().getBytes(StandardCharsets.US_ASCII)).clear();
+		charView = CharBuffer.wrap(chars);
+		byteView = buffer.duplicate();
+		copier = buffer.duplicate();
+	}
+
+	final int next() {
+		return index++ & MapState.PROBE_MASK;
+	}
+
+	@Benchmark
+	public Object stringPrefix() {
+		int i = next();
+		int from = offsets[i];
+		return strings.prefixEntry(new String(chars, from, offsets[i + 1]
+				- from));
+	}
+
+	@Benchmark
+	public Object charSequencePrefix() {
+		int i = next();
+		charView.limit(offsets[i + 1]).position(offsets[i]);
+		return strings.prefixEntryByView(charView);
+	}
+
+	@Benchmark
+	public Object byteArrayPrefix() {
+		int i = next();
+		byte[] key = new byte[offsets[i + 1] - offsets[i]];
+		copier.limit(offsets[i + 1]).position(offsets[i]);
+		copier.get(key);
+		return bytes.prefixEntry(key);
+	}
+
+	@Benchmark
+	public Object byteBufferPrefix() {
+		int i = next();
+		byteView.limit(offsets[i + 1]).position(offsets[i]);
+		return bytes.prefixEntryByView(byteView);
+	}
+}
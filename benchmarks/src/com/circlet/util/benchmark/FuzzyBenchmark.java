@@ -0,0 +1,154 @@
+package com.circlet.util.benchmark;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.DistanceMetric;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * All of the keys within {@code distance} of a key near some key of the map,
+ * with {@link PatriciaTrie#fuzzyMatches}, against a scan of every key.
+ * {@code HAMMING} keys are random {@code long}s, {@code LEVENSHTEIN} keys are
+ * random words of 4 to 10 letters, the scan bailing out of a word as soon as
+ * a row of its distance matrix is too far.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class FuzzyBenchmark {
+	@Param({ "1000000", "10000000" })
+	public int size;
+
+	@Param({ "1", "2", "3" })
+	public int distance;
+
+	@Param({ "HAMMING", "LEVENSHTEIN" })
+	public String metric;
+
+	@Param("42")
+	public long seed;
+
+	PatriciaTrie<Long, Object> longTrie;
+	long[] longs;
+	long[] longTargets;
+
+	PatriciaTrie<String, Object> wordTrie;
+	String[] words;
+	String[] wordTargets;
+
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		if (metric.equals("HAMMING")) {
+			longTrie = new PatriciaTrie<>(BitwiseComparators.FOR_LONG);
+			longs = new long[size];
+			for (int i = 0; i < size; i++) {
+				longs[i] = rnd.nextLong();
+				longTrie.put(longs[i], longs[i]);
+			}
+			longTargets = new long[MapState.PROBES];
+			for (int i = 0; i < MapState.PROBES; i++)
+				longTargets[i] = longs[rnd.nextInt(size)]
+						^ 1L << rnd.nextInt(64);
+		} else {
+			wordTrie = new PatriciaTrie<>(BitwiseComparators.FOR_STRING);
+			words = new String[size];
+			for (int i = 0; i < size; i++) {
+				words[i] = randomWord(rnd, 4 + rnd.nextInt(7));
+				wordTrie.put(words[i], words[i]);
+			}
+			wordTargets = new String[MapState.PROBES];
+			for (int i = 0; i < MapState.PROBES; i++) {
+				char[] a = words[rnd.nextInt(size)].toCharArray();
+				a[rnd.nextInt(a.length)] = (char) ('a' + rnd.nextInt(26));
+				wordTargets[i] = new String(a);
+			}
+		}
+	}
+
+	private static String randomWord(Random rnd, int length) {
+		char[] a = new char[length];
+		for (int i = 0; i < length; i++)
+			a[i] = (char) ('a' + rnd.nextInt(26));
+		return new String(a);
+	}
+
+	final int next() {
+		return index++ & MapState.PROBE_MASK;
+	}
+
+	@Benchmark
+	public void trie(Blackhole bh) {
+		Iterator<? extends Map.Entry<?, Object>> it = metric.equals("HAMMING")
+				? longTrie.fuzzyMatches(longTargets[next()], distance,
+						DistanceMetric.HAMMING) : wordTrie.fuzzyMatches(
+						wordTargets[next()], distance, DistanceMetric.LEVENSHTEIN);
+		while (it.hasNext())
+			bh.consume(it.next());
+	}
+
+	@Benchmark
+	public void scan(Blackhole bh) {
+		if (metric.equals("HAMMING")) {
+			long target = longTargets[next()];
+			for (long k : longs)
+				if (Long.bitCount(k ^ target) <= distance)
+					bh.consume(k);
+		} else {
+			String target = wordTargets[next()];
+			int[] row = new int[target.length() + 1];
+			for (String w : words)
+				if (withinDistance(target, w, distance, row))
+					bh.consume(w);
+		}
+	}
+
+	/** Row by row edit distance, stopping once a row is too far */
+	static boolean withinDistance(String s, String t, int max, int[] row) {
+		int m = s.length();
+		if (Math.abs(m - t.length()) > max)
+			return false;
+		for (int i = 0; i <= m; i++)
+			row[i] = i;
+		for (int j = 1; j <= t.length(); j++) {
+			char c = t.charAt(j - 1);
+			int diagonal = row[0], min = row[0] = j;
+			for (int i = 1; i <= m; i++) {
+				int d = Math.min(Math.min(row[i], row[i - 1]) + 1, diagonal
+						+ (s.charAt(i - 1) == c ? 0 : 1));
+				diagonal = row[i];
+				row[i] = d;
+				if (d < min)
+					min = d;
+			}
+			if (min > max)
+				return false;
+		}
+		return row[m] <= max;
+	}
+}
@@ -0,0 +1,114 @@
+package com.circlet.util.benchmark;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.Glob;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * Topic subscriptions: all of the topics {@code region/service/host/metric}
+ * matched by a glob, with {@link PatriciaTrie#match}, against a scan of every
+ * topic. {@code LEADING} globs fix the region and service and wildcard the
+ * rest ({@code eu-3/svc-12/*}{@code /cpu*}), {@code INNER} ones wildcard the
+ * region ({@code *}{@code /svc-12/host-4?/**}), and {@code CLASS} ones start
+ * with a class ({@code [a-e]*}{@code /svc-1[0-3]/*}{@code /mem}).
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GlobBenchmark {
+	private static final String[] REGIONS = { "ap-1", "ap-2", "eu-1", "eu-2",
+			"eu-3", "sa-1", "us-1", "us-2" };
+	private static final String[] METRICS = { "cpu", "cpu-steal", "disk",
+			"load", "mem", "net-in", "net-out" };
+
+	@Param({ "1000000", "10000000" })
+	public int size;
+
+	@Param({ "LEADING", "INNER", "CLASS" })
+	public String shape;
+
+	@Param("42")
+	public long seed;
+
+	PatriciaTrie<String, Object> trie;
+	String[] topics;
+	Glob[] globs;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		int services = 100, hosts = Math.max(1, size / (REGIONS.length
+				* services * METRICS.length));
+		trie = new PatriciaTrie<>(BitwiseComparators.FOR_STRING);
+		topics = new String[size];
+		for (int i = 0; i < size; i++) {
+			topics[i] = REGIONS[rnd.nextInt(REGIONS.length)] + "/svc-"
+					+ rnd.nextInt(services) + "/host-" + rnd.nextInt(hosts)
+					+ '/' + METRICS[rnd.nextInt(METRICS.length)];
+			trie.put(topics[i], topics[i]);
+		}
+		globs = new Glob[MapState.PROBES];
+		for (int i = 0; i < MapState.PROBES; i++) {
+			String region = REGIONS[rnd.nextInt(REGIONS.length)];
+			int service = rnd.nextInt(services);
+			switch (shape) {
+			case "LEADING":
+				globs[i] = Glob.compile(region + "/svc-" + service + "/*/"
+						+ METRICS[rnd.nextInt(METRICS.length)].substring(0, 3)
+						+ '*');
+				break;
+			case "INNER":
+				globs[i] = Glob.compile("*/svc-" + service + "/host-"
+						+ rnd.nextInt(Math.max(1, hosts / 10)) + "?/**");
+				break;
+			default:
+				globs[i] = Glob.compile("[a-e]*/svc-" + service / 10
+						+ "[0-3]/*/" + METRICS[rnd.nextInt(METRICS.length)]);
+			}
+		}
+	}
+
+	final Glob next() {
+		return globs[index++ & MapState.PROBE_MASK];
+	}
+
+	@Benchmark
+	public void trie(Blackhole bh) {
+		Iterator<Map.Entry<String, Object>> it = trie.match(next());
+		while (it.hasNext())
+			bh.consume(it.next());
+	}
+
+	@Benchmark
+	public void scan(Blackhole bh) {
+		Glob glob = next();
+		for (String topic : topics)
+			if (glob.matches(topic))
+				bh.consume(topic);
+	}
+}
@@ -0,0 +1,112 @@
+package com.circlet.util.benchmark;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * The {@code k} closest keys in XOR metric to a random key, among random
+ * 160-bit keys, the way a Kademlia node fills a lookup reply. {@code scan}
+ * keeps the {@code k} closest keys of every key in a bounded heap, which is
+ * what it takes without a trie.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KNearestBenchmark {
+	static final int ID_BYTES = 20;
+
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	@Param("20")
+	public int k;
+
+	@Param("42")
+	public long seed;
+
+	PatriciaTrie<byte[], Object> trie;
+	byte[][] ids;
+
+	byte[][] targets;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		trie = new PatriciaTrie<>(BitwiseComparators.FOR_UBYTE_ARRAY);
+		ids = new byte[size][];
+		for (int i = 0; i < size; i++) {
+			rnd.nextBytes(ids[i] = new byte[ID_BYTES]);
+			trie.put(ids[i], ids[i]);
+		}
+		targets = new byte[MapState.PROBES][ID_BYTES];
+		for (byte[] target : targets)
+			rnd.nextBytes(target);
+	}
+
+	final byte[] next() {
+		return targets[index++ & MapState.PROBE_MASK];
+	}
+
+	@Benchmark
+	public Object nearestEntries() {
+		return trie.nearestEntries(next(), k);
+	}
+
+	@Benchmark
+	public void nearestEntryIterator(Blackhole bh) {
+		Iterator<Map.Entry<byte[], Object>> it = trie.nearestEntryIterator(next());
+		for (int n = k; n > 0 && it.hasNext(); n--)
+			bh.consume(it.next());
+	}
+
+	@Benchmark
+	public Object scan() {
+		byte[] target = next();
+		PriorityQueue<byte[]> farthest = new PriorityQueue<>(k + 1,
+				(a, b) -> compareDistance(target, b, a));
+		for (byte[] id : ids) {
+			farthest.add(id);
+			if (farthest.size() > k)
+				farthest.poll();
+		}
+		byte[][] nearest = farthest.toArray(new byte[0][]);
+		Arrays.sort(nearest, (a, b) -> compareDistance(target, a, b));
+		return nearest;
+	}
+
+	static int compareDistance(byte[] target, byte[] a, byte[] b) {
+		for (int i = 0; i < ID_BYTES; i++) {
+			int d = (a[i] ^ target[i]) & 0xff, e = (b[i] ^ target[i]) & 0xff;
+			if (d != e)
+				return d - e;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,168 @@
+package com.circlet.util.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import com.circlet.util.BitwiseComparator;
+import com.circlet.util.BitwiseComparators;
+
+/**
+ * The key types benchmarked, one per {@link BitwiseComparators} implementation
+ * of interest. String-like keys are generated as URLs sharing host and path
+ * prefixes, which is the workload the trie is meant for; numeric keys are
+ * uniformly random.
+ * <p>
+ * Note that {@code HashMap} hashes array keys by identity, so its numbers for
+ * array key types are only meaningful because the probes reuse the stored key
+ * instances.
+ *
+ * @author Jason
+ */
+@SuppressWarnings("rawtypes")
+public enum KeyType {
+	STRING(BitwiseComparators.FOR_STRING) {
+		Object fromString(String s) { return s; }
+		String toString(Object key) { return (String) key; }
+		Object prefixLimit(Object prefix) {
+			String s = (String) prefix;
+			for (int i = s.length(); --i >= 0;) {
+				char c = s.charAt(i);
+				if (c != Character.MAX_VALUE)
+					return s.substring(0, i) + (char) (c + 1);
+			}
+			return null;
+		}
+	},
+	BYTES(BitwiseComparators.FOR_BYTE_ARRAY) {
+		Object fromString(String s) { return s.getBytes(StandardCharsets.UTF_8); }
+		String toString(Object key) { return new String((byte[]) key, StandardCharsets.UTF_8); }
+		Object prefixLimit(Object prefix) {
+			byte[] a = (byte[]) prefix;
+			for (int i = a.length; --i >= 0;) {
+				if (a[i] != Byte.MAX_VALUE) {
+					a = Arrays.copyOf(a, i + 1);
+					a[i]++;
+					return a;
+				}
+			}
+			return null;
+		}
+	},
+	UBYTES(BitwiseComparators.FOR_UBYTE_ARRAY) {
+		Object fromString(String s) { return s.getBytes(StandardCharsets.UTF_8); }
+		String toString(Object key) { return new String((byte[]) key, StandardCharsets.UTF_8); }
+		Object prefixLimit(Object prefix) {
+			byte[] a = (byte[]) prefix;
+			for (int i = a.length; --i >= 0;) {
+				if (a[i] != (byte) 0xff) {
+					a = Arrays.copyOf(a, i + 1);
+					a[i]++;
+					return a;
+				}
+			}
+			return null;
+		}
+	},
+	CHARS(BitwiseComparators.FOR_CHAR_ARRAY) {
+		Object fromString(String s) { return s.toCharArray(); }
+		String toString(Object key) { return new String((char[]) key); }
+		Object prefixLimit(Object prefix) {
+			char[] a = (char[]) prefix;
+			for (int i = a.length; --i >= 0;) {
+				if (a[i] != Character.MAX_VALUE) {
+					a = Arrays.copyOf(a, i + 1);
+					a[i]++;
+					return a;
+				}
+			}
+			return null;
+		}
+	},
+	INT(BitwiseComparators.FOR_INT) {
+		Object[] generate(Random rnd, int n) {
+			HashSet<Integer> set = new HashSet<>(n << 1);
+			while (set.size() < n)
+				set.add(rnd.nextInt());
+			return set.toArray();
+		}
+		Object truncate(Object key, Random rnd) { return key; }
+		Object extend(Object key, Random rnd) { return key; }
+		Object prefixLimit(Object prefix) {
+			int i = (Integer) prefix;
+			return i == Integer.MAX_VALUE ? null : i + 1;
+		}
+	},
+	LONG(BitwiseComparators.FOR_LONG) {
+		Object[] generate(Random rnd, int n) {
+			HashSet<Long> set = new HashSet<>(n << 1);
+			while (set.size() < n)
+				set.add(rnd.nextLong());
+			return set.toArray();
+		}
+		Object truncate(Object key, Random rnd) { return key; }
+		Object extend(Object key, Random rnd) { return key; }
+		Object prefixLimit(Object prefix) {
+			long i = (Long) prefix;
+			return i == Long.MAX_VALUE ? null : i + 1;
+		}
+	};
+
+	private static final String[] WORDS = { "api", "v1", "v2", "users",
+			"items", "search", "static", "img", "css", "js", "docs", "blog",
+			"news", "shop", "cart", "account", "login", "feed", "tag", "page" };
+
+	final BitwiseComparator comparator;
+
+	KeyType(BitwiseComparator comparator) {
+		this.comparator = comparator;
+	}
+
+	/** Generates {@code n} distinct keys in no particular order. */
+	Object[] generate(Random rnd, int n) {
+		HashSet<String> set = new HashSet<>(n << 1);
+		int hosts = Math.max(1, n >> 7);
+		StringBuilder sb = new StringBuilder(128);
+		while (set.size() < n) {
+			sb.setLength(0);
+			sb.append("https://host").append(rnd.nextInt(hosts))
+					.append(".example.com");
+			for (int i = rnd.nextInt(4); i >= 0; i--)
+				sb.append('/').append(WORDS[rnd.nextInt(WORDS.length)]);
+			sb.append('/').append(rnd.nextInt(1 << 20));
+			set.add(sb.toString());
+		}
+		Object[] keys = new Object[n];
+		int i = 0;
+		for (String s : set)
+			keys[i++] = fromString(s);
+		return keys;
+	}
+
+	/** Returns a proper prefix of the specified key. */
+	Object truncate(Object key, Random rnd) {
+		String s = toString(key);
+		int len = s.length();
+		return fromString(s.substring(0, (len >> 2) + rnd.nextInt(len >> 1)));
+	}
+
+	/** Returns a key prefixed by the specified key. */
+	Object extend(Object key, Random rnd) {
+		return fromString(toString(key) + "/" + rnd.nextInt(1 << 10));
+	}
+
+	/**
+	 * Returns the least key greater than every key prefixed by the specified
+	 * key, or {@code null} if there is no such key.
+	 */
+	abstract Object prefixLimit(Object prefix);
+
+	Object fromString(String s) {
+		throw new UnsupportedOperationException();
+	}
+
+	String toString(Object key) {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,66 @@
+package com.circlet.util.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Basic {@link Map} operations, comparing {@code PatriciaTrie} with the JDK
+ * maps.
+ *
+ * @author Jason
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark extends MapState {
+	@Param({ "PATRICIA", "PATRICIA_LINKED", "TREE", "HASH",
+			"CONCURRENT", "SKIPLIST" })
+	public MapType impl;
+
+	MapType mapType() {
+		return impl;
+	}
+
+	@Benchmark
+	public Object get() {
+		return map.get(hits[next()]);
+	}
+
+	@Benchmark
+	public Object getMiss() {
+		return map.get(misses[next()]);
+	}
+
+	/** Replaces the value of an existing key */
+	@Benchmark
+	public Object put() {
+		Object key = hits[next()];
+		return map.put(key, key);
+	}
+
+	/** Inserts an absent key and removes it again */
+	@Benchmark
+	public Object putRemove() {
+		Object key = misses[next()];
+		map.put(key, key);
+		return map.remove(key);
+	}
+
+	@Benchmark
+	public void entrySetIteration(Blackhole bh) {
+		for (Map.Entry<Object, Object> e : map.entrySet())
+			bh.consume(e.getValue());
+	}
+}
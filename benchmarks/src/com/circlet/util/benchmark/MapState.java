@@ -0,0 +1,68 @@
+package com.circlet.util.benchmark;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Base benchmark state holding a filled map along with precomputed probe keys,
+ * so that key generation never shows up in the measurements.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+public abstract class MapState {
+	static final int PROBES = 1 << 16;
+	static final int PROBE_MASK = PROBES - 1;
+
+	@Param({ "STRING", "BYTES", "UBYTES", "INT", "LONG", "CHARS" })
+	public KeyType keyType;
+
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	Map<Object, Object> map;
+
+	/** Keys present in the map */
+	Object[] hits;
+
+	/** Keys absent from the map */
+	Object[] misses;
+
+	int index;
+
+	abstract MapType mapType();
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		Object[] keys = keyType.generate(rnd, size + PROBES);
+		map = mapType().create(keyType.comparator, size);
+		for (int i = 0; i < size; i++)
+			map.put(keys[i], keys[i]);
+		map = mapType().filled(map);
+
+		hits = new Object[PROBES];
+		misses = new Object[PROBES];
+		for (int i = 0; i < PROBES; i++) {
+			hits[i] = keys[rnd.nextInt(size)];
+			misses[i] = keys[size + i];
+		}
+		setUp(rnd);
+	}
+
+	void setUp(Random rnd) {
+	}
+
+	final int next() {
+		return index++ & PROBE_MASK;
+	}
+}
@@ -0,0 +1,82 @@
+package com.circlet.util.benchmark;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.circlet.util.BitwiseComparator;
+import com.circlet.util.ConcurrentPatriciaTrie;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * The map implementations benchmarked against each other.
+ *
+ * @author Jason
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public enum MapType {
+	PATRICIA {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new PatriciaTrie<>(c);
+		}
+	},
+	/** {@code PatriciaTrie} with parent links */
+	PATRICIA_LINKED {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new PatriciaTrie<>(c, true);
+		}
+	},
+	/** {@code PatriciaTrie} with subtree counts */
+	PATRICIA_COUNTED {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new PatriciaTrie<>(c, false, true);
+		}
+	},
+	/** {@code FrozenPatriciaTrie}, frozen once filled, for read benchmarks */
+	FROZEN {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new PatriciaTrie<>(c);
+		}
+
+		Map<Object, Object> filled(Map<Object, Object> m) {
+			return ((PatriciaTrie) m).freeze();
+		}
+	},
+	TREE {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new TreeMap<>(c);
+		}
+	},
+	HASH {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new HashMap<>(size + (size >> 1));
+		}
+	},
+	/** {@code PatriciaTrie} behind a lock, for concurrent benchmarks */
+	PATRICIA_SYNCHRONIZED {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return Collections.synchronizedNavigableMap(new PatriciaTrie<>(c));
+		}
+	},
+	CONCURRENT {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new ConcurrentPatriciaTrie<>(c);
+		}
+	},
+	SKIPLIST {
+		Map<Object, Object> create(BitwiseComparator c, int size) {
+			return new ConcurrentSkipListMap<>(c);
+		}
+	};
+
+	abstract Map<Object, Object> create(BitwiseComparator c, int size);
+
+	/**
+	 * Returns the map to benchmark, once the created map is filled.
+	 */
+	Map<Object, Object> filled(Map<Object, Object> m) {
+		return m;
+	}
+}
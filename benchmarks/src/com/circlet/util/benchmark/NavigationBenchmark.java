@@ -0,0 +1,59 @@
+package com.circlet.util.benchmark;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link NavigableMap} relational queries with keys absent from the map, and
+ * iteration in both directions.
+ *
+ * @author Jason
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigationBenchmark extends MapState {
+	@Param({ "PATRICIA", "PATRICIA_LINKED", "FROZEN", "TREE", "CONCURRENT",
+			"SKIPLIST" })
+	public MapType impl;
+
+	MapType mapType() {
+		return impl;
+	}
+
+	@Benchmark
+	public Object ceilingEntry() {
+		return ((NavigableMap<Object, Object>) map).ceilingEntry(misses[next()]);
+	}
+
+	@Benchmark
+	public Object floorEntry() {
+		return ((NavigableMap<Object, Object>) map).floorEntry(misses[next()]);
+	}
+
+	@Benchmark
+	public void entrySetIteration(Blackhole bh) {
+		for (Map.Entry<Object, Object> e : map.entrySet())
+			bh.consume(e.getValue());
+	}
+
+	@Benchmark
+	public void descendingIteration(Blackhole bh) {
+		for (Map.Entry<Object, Object> e : ((NavigableMap<Object, Object>) map)
+				.descendingMap().entrySet())
+			bh.consume(e.getValue());
+	}
+}
@@ -0,0 +1,34 @@
+package com.circlet.util.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * XOR metric nearness queries, which have no counterpart in the JDK maps.
+ *
+ * @author Jason
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearestBenchmark extends MapState {
+	MapType mapType() {
+		return MapType.PATRICIA;
+	}
+
+	@Benchmark
+	public Object nearestEntry() {
+		return ((PatriciaTrie<Object, Object>) map).nearestEntry(misses[next()]);
+	}
+}
@@ -0,0 +1,125 @@
+package com.circlet.util.benchmark;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.circlet.util.BitwiseComparator;
+import com.circlet.util.IndexedPrefixMap;
+import com.circlet.util.PrefixMap;
+
+/**
+ * Prefix queries. {@code TREE} answers them the way a {@code TreeMap} user
+ * would have to: {@code prefixEntry} walks down with {@code lowerEntry} until a
+ * prefix is found, and prefix views are bounded by the least key greater than
+ * every prefixed key.
+ *
+ * @author Jason
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class PrefixBenchmark extends MapState {
+	@Param({ "PATRICIA", "PATRICIA_COUNTED", "FROZEN", "CONCURRENT", "TREE" })
+	public MapType impl;
+
+	/** Keys prefixed by a key present in the map */
+	Object[] extended;
+
+	/** Proper prefixes of keys present in the map */
+	Object[] prefixes;
+
+	/** Limits of the prefixes, used by TREE */
+	Object[] limits;
+
+	MapType mapType() {
+		return impl;
+	}
+
+	void setUp(Random rnd) {
+		extended = new Object[PROBES];
+		prefixes = new Object[PROBES];
+		limits = new Object[PROBES];
+		for (int i = 0; i < PROBES; i++) {
+			extended[i] = keyType.extend(hits[i], rnd);
+			prefixes[i] = keyType.truncate(hits[i], rnd);
+			limits[i] = keyType.prefixLimit(prefixes[i]);
+		}
+	}
+
+	@Benchmark
+	public Object prefixEntry() {
+		Object key = extended[next()];
+		if (map instanceof PrefixMap)
+			return ((PrefixMap<Object, Object>) map).prefixEntry(key);
+		NavigableMap<Object, Object> m = (NavigableMap<Object, Object>) map;
+		BitwiseComparator c = keyType.comparator;
+		Map.Entry<Object, Object> e = m.floorEntry(key);
+		while (e != null && !c.checkPrefixed(key, e.getKey(), true))
+			e = m.lowerEntry(e.getKey());
+		return e;
+	}
+
+	private Map<Object, Object> prefixView(int i) {
+		Object prefix = prefixes[i];
+		if (map instanceof PrefixMap)
+			return ((PrefixMap<Object, Object>) map).subMap(prefix, true);
+		NavigableMap<Object, Object> m = (NavigableMap<Object, Object>) map;
+		Object limit = limits[i];
+		return limit == null ? m.tailMap(prefix, true) : m.subMap(prefix,
+				true, limit, false);
+	}
+
+	@Benchmark
+	public void prefixSubMapIteration(Blackhole bh) {
+		for (Map.Entry<Object, Object> e : prefixView(next()).entrySet())
+			bh.consume(e.getValue());
+	}
+
+	@Benchmark
+	public int prefixSubMapSize() {
+		return prefixView(next()).size();
+	}
+
+	static final int PAGE = 10;
+
+	/**
+	 * The page of entries from the middle of those prefixed by a key, the way
+	 * a paginated listing would get it.
+	 */
+	@Benchmark
+	public void prefixPage(Blackhole bh) {
+		int i = next();
+		int count, skip;
+		Iterator<Map.Entry<Object, Object>> it;
+		if (map instanceof IndexedPrefixMap) {
+			IndexedPrefixMap<Object, Object> m = (IndexedPrefixMap<Object, Object>) map;
+			Object prefix = prefixes[i];
+			count = m.countPrefixed(prefix, true);
+			it = m.entryIterator(m.rank(prefix) + (skip = count / 2));
+		} else {
+			Map<Object, Object> view = prefixView(i);
+			count = view.size();
+			it = view.entrySet().iterator();
+			for (int n = skip = count / 2; n > 0; n--)
+				it.next();
+		}
+		for (int n = Math.min(PAGE, count - skip); n > 0; n--)
+			bh.consume(it.next().getValue());
+	}
+}
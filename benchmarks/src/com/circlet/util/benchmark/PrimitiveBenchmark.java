@@ -0,0 +1,108 @@
+package com.circlet.util.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.IntPatriciaTrie;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * {@code IntPatriciaTrie} against a {@code PatriciaTrie<Integer, ?>}, probing
+ * with primitive keys the way an ID table would, so the boxed trie pays for
+ * boxing its probes as well as for chasing its boxed keys.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveBenchmark {
+	@Param({ "1000", "100000", "1000000", "10000000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	IntPatriciaTrie<Object> primitive;
+	PatriciaTrie<Integer, Object> boxed;
+
+	int[] hits;
+	int[] misses;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		Object[] keys = KeyType.INT.generate(rnd, size + MapState.PROBES);
+		primitive = new IntPatriciaTrie<>();
+		boxed = new PatriciaTrie<>(BitwiseComparators.FOR_INT);
+		for (int i = 0; i < size; i++) {
+			Integer key = (Integer) keys[i];
+			primitive.put(key.intValue(), key);
+			boxed.put(key, key);
+		}
+		hits = new int[MapState.PROBES];
+		misses = new int[MapState.PROBES];
+		for (int i = 0; i < MapState.PROBES; i++) {
+			hits[i] = (Integer) keys[rnd.nextInt(size)];
+			misses[i] = (Integer) keys[size + i];
+		}
+	}
+
+	final int next() {
+		return index++ & MapState.PROBE_MASK;
+	}
+
+	@Benchmark
+	public Object primitiveGet() {
+		return primitive.get(hits[next()]);
+	}
+
+	@Benchmark
+	public Object boxedGet() {
+		return boxed.get(hits[next()]);
+	}
+
+	@Benchmark
+	public Object primitiveCeiling() {
+		return primitive.ceilingEntry(misses[next()]);
+	}
+
+	@Benchmark
+	public Object boxedCeiling() {
+		return boxed.ceilingEntry(misses[next()]);
+	}
+
+	/** Inserts an absent key and removes it again */
+	@Benchmark
+	public Object primitivePutRemove() {
+		int key = misses[next()];
+		primitive.put(key, null);
+		return primitive.remove(key);
+	}
+
+	/** Inserts an absent key and removes it again */
+	@Benchmark
+	public Object boxedPutRemove() {
+		int key = misses[next()];
+		boxed.put(key, null);
+		return boxed.remove(key);
+	}
+}
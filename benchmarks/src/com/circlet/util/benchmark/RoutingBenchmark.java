@@ -0,0 +1,115 @@
+package com.circlet.util.benchmark;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.IpPrefix;
+import com.circlet.util.IpRoutingTable;
+
+/**
+ * IPv4 longest-prefix matches of {@code IpRoutingTable} against a
+ * {@code TreeMap} of ranges, where the nested routes are flattened into
+ * disjoint address ranges, each keyed by its first address and mapped to its
+ * most specific route, so that a lookup is a single {@code floorEntry}. Most
+ * routes are /24, the rest from /8 to /32, much like a full routing table.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+	@Param({ "1000", "100000", "1000000" })
+	public int size;
+
+	@Param("42")
+	public long seed;
+
+	IpRoutingTable<Object> table;
+	TreeMap<Long, IpPrefix> ranges;
+
+	int[] addresses;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		Map<IpPrefix, Object> routes = new HashMap<>();
+		while (routes.size() < size) {
+			int length = rnd.nextInt(4) == 0 ? 8 + rnd.nextInt(25) : 24;
+			IpPrefix route = IpPrefix.of(rnd.nextInt(), length);
+			routes.put(route, route);
+		}
+		table = new IpRoutingTable<>();
+		table.putAll(routes);
+
+		List<IpPrefix> sorted = new ArrayList<>(routes.keySet());
+		sorted.sort(BitwiseComparators.FOR_IP_PREFIX);
+		ranges = new TreeMap<>();
+		Deque<IpPrefix> enclosing = new ArrayDeque<>();
+		for (IpPrefix route : sorted) {
+			while (!enclosing.isEmpty() && !enclosing.peek().contains(route))
+				closeRange(enclosing);
+			ranges.put(start(route), route);
+			enclosing.push(route);
+		}
+		while (!enclosing.isEmpty())
+			closeRange(enclosing);
+
+		addresses = new int[MapState.PROBES];
+		for (int i = 0; i < MapState.PROBES; i++)
+			addresses[i] = rnd.nextInt();
+	}
+
+	private static long start(IpPrefix route) {
+		return route.address() & 0xffffffffL;
+	}
+
+	/** Resumes the enclosing route, if any, past the innermost one */
+	private void closeRange(Deque<IpPrefix> enclosing) {
+		IpPrefix route = enclosing.pop();
+		long end = start(route) + (1L << 32 - route.length());
+		if (end <= 0xffffffffL)
+			ranges.put(end, enclosing.peek());
+	}
+
+	final int next() {
+		return index++ & MapState.PROBE_MASK;
+	}
+
+	@Benchmark
+	public Object trieLongestMatch() {
+		return table.longestMatch(addresses[next()]);
+	}
+
+	@Benchmark
+	public Object treeLongestMatch() {
+		Map.Entry<Long, IpPrefix> e = ranges.floorEntry(addresses[next()]
+				& 0xffffffffL);
+		return e == null ? null : e.getValue();
+	}
+}
@@ -0,0 +1,122 @@
+package com.circlet.util.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.PatriciaTrie;
+import com.circlet.util.TrieCodec;
+
+/**
+ * Writing and reading a whole {@code PatriciaTrie}, through Java
+ * serialization and through {@link TrieCodec}, mapping the keys of the map to
+ * their ranks. The sizes of both forms are printed once the trie is filled.
+ *
+ * @author Jason
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class SerializationBenchmark extends MapState {
+
+	PatriciaTrie<Object, Integer> trie;
+
+	TrieCodec<Object, Integer> codec;
+
+	byte[] serialized, encoded;
+
+	ByteArrayOutputStream out;
+
+	MapType mapType() {
+		return MapType.PATRICIA;
+	}
+
+	@Override
+	void setUp(Random rnd) {
+		TrieCodec.Codec c;
+		switch (keyType) {
+		case STRING:
+			c = TrieCodec.STRINGS;
+			break;
+		case CHARS:
+			c = TrieCodec.CHAR_ARRAYS;
+			break;
+		case INT:
+			c = TrieCodec.INTEGERS;
+			break;
+		case LONG:
+			c = TrieCodec.LONGS;
+			break;
+		default:
+			c = TrieCodec.BYTE_ARRAYS;
+		}
+		codec = new TrieCodec<>(c, TrieCodec.INTEGERS);
+		trie = new PatriciaTrie<>(keyType.comparator);
+		int rank = 0;
+		for (Object key : map.keySet())
+			trie.put(key, rank++);
+		try {
+			serialized = javaWrite().toByteArray();
+			encoded = codecWrite().toByteArray();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+		System.out.printf("%nserialized: %d bytes, encoded: %d bytes%n",
+				serialized.length, encoded.length);
+		out = new ByteArrayOutputStream(serialized.length);
+	}
+
+	private ByteArrayOutputStream buffer() {
+		if (out == null)
+			return new ByteArrayOutputStream();
+		out.reset();
+		return out;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream javaWrite() throws IOException {
+		ByteArrayOutputStream bytes = buffer();
+		try (ObjectOutputStream s = new ObjectOutputStream(bytes)) {
+			s.writeObject(trie);
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream codecWrite() throws IOException {
+		ByteArrayOutputStream bytes = buffer();
+		codec.write(trie, new DataOutputStream(bytes));
+		return bytes;
+	}
+
+	@Benchmark
+	public Object javaRead() throws IOException, ClassNotFoundException {
+		try (ObjectInputStream s = new ObjectInputStream(
+				new ByteArrayInputStream(serialized))) {
+			return s.readObject();
+		}
+	}
+
+	@Benchmark
+	public Object codecRead() throws IOException {
+		return codec.read(new DataInputStream(new ByteArrayInputStream(
+				encoded)), new PatriciaTrie<>(keyType.comparator));
+	}
+}
@@ -0,0 +1,114 @@
+package com.circlet.util.benchmark;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.circlet.util.BitwiseComparators;
+import com.circlet.util.PatriciaTrie;
+
+/**
+ * Type-ahead suggestions: the {@code k} most popular phrases starting with a
+ * prefix of 1 to 3 chars of a phrase, with {@code topK()} of a scored trie,
+ * against iterating over the prefix view into a bounded heap. Phrases are a
+ * few words made of common syllables, their popularities following a Zipf
+ * law. Sampled, so that the percentiles of the latency are reported; run with
+ * {@code -p size=30000000} and a large enough heap for a full dictionary.
+ *
+ * @author Jason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class TopKBenchmark {
+	private static final String[] SYLLABLES = { "an", "be", "ca", "de", "el",
+			"fo", "ga", "hi", "in", "jo", "ka", "lo", "ma", "ne", "or", "pa",
+			"qu", "re", "sa", "te", "un", "vi", "wa", "xe", "yo", "ze" };
+
+	@Param({ "1000000", "10000000" })
+	public int size;
+
+	@Param("10")
+	public int k;
+
+	@Param("42")
+	public long seed;
+
+	PatriciaTrie<String, Long> trie;
+	String[] prefixes;
+	int index;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Random rnd = new Random(seed);
+		String[] phrases = new String[size];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.setLength(0);
+			for (int words = 1 + rnd.nextInt(3); words > 0; words--) {
+				if (sb.length() > 0)
+					sb.append(' ');
+				for (int n = 1 + rnd.nextInt(4); n > 0; n--)
+					sb.append(SYLLABLES[rnd.nextInt(SYLLABLES.length)]);
+			}
+			phrases[i] = sb.toString();
+		}
+		Arrays.sort(phrases, BitwiseComparators.FOR_STRING);
+		PatriciaTrie.Builder<String, Long> builder = new PatriciaTrie.Builder<>(
+				BitwiseComparators.FOR_STRING, Long::longValue);
+		String last = null;
+		for (String phrase : phrases) {
+			if (phrase.equals(last))
+				continue;
+			builder.add(phrase, (long) (1e12 / (1 + rnd.nextInt(size))));
+			last = phrase;
+		}
+		trie = builder.build();
+
+		prefixes = new String[MapState.PROBES];
+		for (int i = 0; i < MapState.PROBES; i++) {
+			String phrase = phrases[rnd.nextInt(phrases.length)];
+			prefixes[i] = phrase.substring(0, Math.min(phrase.length(),
+					1 + rnd.nextInt(3)));
+		}
+	}
+
+	final String next() {
+		return prefixes[index++ & MapState.PROBE_MASK];
+	}
+
+	@Benchmark
+	public Object topK() {
+		return trie.topK(next(), k);
+	}
+
+	@Benchmark
+	public Object scan() {
+		PriorityQueue<Map.Entry<String, Long>> top = new PriorityQueue<>(k + 1,
+				(a, b) -> Long.compare(a.getValue(), b.getValue()));
+		for (Map.Entry<String, Long> e : trie.subMap(next(), true).entrySet()) {
+			top.add(e);
+			if (top.size() > k)
+				top.poll();
+		}
+		return top;
+	}
+}
@@ -5,10 +5,13 @@ import java.util.AbstractMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.function.ToLongFunction;
 
 public abstract class AbstractPatriciaTrie<K, V> extends
 		AbstractNavigableMap<K, V> implements BitwiseMap<K, V>,
-		java.io.Serializable {
+		IndexedPrefixMap<K, V>, java.io.Serializable {
 	private static final long serialVersionUID = 1389871297282553574L;
 
 	private final static boolean DEBUG = false;
@@ -27,6 +30,28 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 
 	transient Entry<K, V> root;
 
+	/**
+	 * Whether entries link directly to their parent tracks.
+	 * 
+	 * @serial include
+	 */
+	final boolean parentLinks;
+
+	/**
+	 * Whether entries keep the number of entries in their subtrees.
+	 * 
+	 * @serial include
+	 */
+	final boolean counted;
+
+	/**
+	 * The scores of the values of a scored trie, whose entries keep the
+	 * highest score in their subtrees, or {@code null}.
+	 * 
+	 * @serial include
+	 */
+	final ToLongFunction<? super V> scorer;
+
 	/**
 	 * The number of entries in the tree
 	 */
@@ -37,11 +62,40 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	 */
 	transient int modCount;
 
-	AbstractPatriciaTrie(BitwiseComparator<? super K> comparator) {
+	AbstractPatriciaTrie(BitwiseComparator<? super K> comparator,
+			boolean parentLinks, boolean counted) {
+		this(comparator, parentLinks, counted, null);
+	}
+
+	/**
+	 * Scored tries have neither parent links nor subtree counts.
+	 */
+	AbstractPatriciaTrie(BitwiseComparator<? super K> comparator,
+			boolean parentLinks, boolean counted,
+			ToLongFunction<? super V> scorer) {
+		if (scorer != null && (parentLinks || counted))
+			throw new IllegalArgumentException(
+					"scored tries are neither parent linked nor counted");
 		this.comparator = comparator;
+		this.parentLinks = parentLinks;
+		this.counted = counted;
+		this.scorer = scorer;
 		this.root = new Entry<K, V>();
 	}
 
+	final Entry<K, V> newEntry(K key, V value) {
+		if (scorer != null)
+			return new ScoredEntry<>(key, value, scoreOf(value));
+		if (counted) {
+			if (parentLinks)
+				return new CountedParentLinkedEntry<>(key, value);
+			return new CountedEntry<>(key, value);
+		}
+		if (parentLinks)
+			return new ParentLinkedEntry<>(key, value);
+		return new Entry<>(key, value);
+	}
+
 	@Override
 	public BitwiseComparator<? super K> comparator() {
 		@SuppressWarnings("unchecked")
@@ -96,6 +150,25 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 			Entry<K, V> track, T key, int length) {
 		Entry<K, V> next = track.switches;
 		while (next != null) {
+			SwitchTable<K, V> table = track.table;
+			if (table != null) {
+				// Same as below, but scanning the table instead of the list.
+				// On a wide track, the scan starts from the first bit where
+				// the key leaves the track, the root standing for a run of
+				// clear bits. Otherwise, the contrast costs more than it skips.
+				int from = 0;
+				if (table.size >= SwitchTable.SEARCH_THRESHOLD
+						&& track.prev != DUMMY) {
+					@SuppressWarnings("unchecked")
+					T trackKey = (T) track.key;
+					from = c.contrast(key, trackKey);
+				}
+				next = table.findNearest(c, key, length, from);
+				if (next == null)
+					break;
+				next = (track = next).switches; // Change track
+				continue;
+			}
 			int bit = next.bit;
 			if (bit < 0) {
 				int bitm = bit & BIT_INDEX_MASK;
@@ -127,9 +200,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		if ((track.bit & BIT_INDEX_MASK) > index) {
 			// Find correct track
 			do {
-				Entry<K, V> current = track;
-				while ((track = current.prev).switches != current)
-					current = track;
+				track = parentOf(track);
 			} while ((track.bit & BIT_INDEX_MASK) >= index);
 			if (DEBUG)
 				assert (track.bit & BIT_INDEX_MASK) != index;
@@ -138,6 +209,11 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	}
 
 	static <K, V> Entry<K, V> findInsertionNode(Entry<K, V> cur, int index) {
+		SwitchTable<K, V> table = cur.table;
+		if (table != null) {
+			int i = table.floor(index);
+			return i >= 0 ? table.nodes[i] : null;
+		}
 		Entry<K, V> ins = null;
 		cur = cur.switches;
 		while (cur != null && (cur.bit & BIT_INDEX_MASK) <= index) {
@@ -147,6 +223,18 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	}
 
 	static <K, V> Entry<K, V> findMarkedInsertionNode(Entry<K, V> cur, int index) {
+		SwitchTable<K, V> table = cur.table;
+		if (table != null) {
+			int i = table.floor(index);
+			if (i < 0)
+				return null;
+			Entry<K, V> ins = table.nodes[i];
+			if ((ins.bit & BIT_INDEX_MASK) == index) {
+				ins.bit |= BIT_EDGE_FLAG; // Mark new edge switch
+				table.bits[i] = ins.bit;
+			}
+			return ins;
+		}
 		Entry<K, V> ins = null;
 		cur = cur.switches;
 		for (;;) {
@@ -167,11 +255,64 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 
 	@Override
 	public V put(K key, V value) {
+		int size = this.size;
+		Entry<K, V> entry = putEntry(root, key, value);
+		if (this.size != size)
+			return null;
+		V old = entry.value;
+		entry.value = value;
+		rescore(entry);
+		return old;
+	}
+
+	/**
+	 * Copies all of the mappings from the specified map to this trie. If the
+	 * map is sorted by the same comparator, its keys come in the order of the
+	 * trie, and each of them is put from where the previous one was, going up
+	 * only as far as the two keys have in common instead of down from the
+	 * root.
+	 */
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m) {
+		if (!(m instanceof SortedMap)
+				|| !comparator.equals(((SortedMap<?, ?>) m).comparator())) {
+			super.putAll(m);
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		BitwiseComparator<? super K> c = comparator;
+		Entry<K, V> root = this.root, last = root;
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+			K key = e.getKey();
+			V value = e.getValue();
+			Entry<K, V> track = last;
+			if (track != root) {
+				// Find the track whose subtree holds both keys
+				int index = c.contrast(key, track.key);
+				while ((track.bit & BIT_INDEX_MASK) >= index && track != root)
+					track = parentOf(track);
+			}
+			int size = this.size;
+			last = putEntry(track, key, value);
+			if (this.size == size) {
+				last.value = value;
+				rescore(last);
+			}
+		}
+	}
+
+	/**
+	 * Maps the specified key to the specified value if the key is not in this
+	 * trie, searching for it from the given track, whose subtree must be the
+	 * one holding the key if it were there. Returns the entry of the key,
+	 * whose value is left unchanged if the key was already there.
+	 */
+	final Entry<K, V> putEntry(Entry<K, V> track, K key, V value) {
 		@SuppressWarnings("unchecked")
 		BitwiseComparator<? super K> c = comparator;
 		int length = c.lengthBits(key); // Type (and possibly null) check
 
-		Entry<K, V> track = findNearest(c, root, key, length);
+		track = findNearest(c, track, key, length);
 
 		int index;
 		int otherLength;
@@ -184,7 +325,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				track.value = value;
 				size++;
 				modCount++;
-				return null;
+				return track;
 			}
 			// Otherwise, jump after the other side...
 			index = otherLength = 0;
@@ -193,14 +334,12 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 			index = c.contrast(key, otherKey);
 			if (index < 0) {
 				// Found exact match!
-				V old = track.value;
-				track.value = value;
-				return old;
+				return track;
 			}
 			if (index == length) {
 				// Query key is a prefix
-				Entry<K, V> entry = new Entry<>(key, value);
-				replace(track, entry);
+				Entry<K, V> entry = newEntry(key, value);
+				replaceSwitch(track, entry);
 				track.bit = c.isBitSet(otherKey, length) ? length
 						| BIT_EDGE_FLAG : length | BIT_EDGE_ZERO_SPEC;
 				Entry<K, V> prev = findMarkedInsertionNode(track, index);
@@ -213,20 +352,24 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 					// Give 'track' a new set of switches
 					if ((track.switches = next) != null)
 						next.prev = track;
+					splitTable(track, prev, entry);
+					setParents(entry);
 				} else {
 					// Set 'track' as the new entry's next switch
 					entry.switches = track;
 					track.prev = entry;
+					setParent(track, entry);
 				}
+				recount(track);
 				size++;
 				modCount++;
-				return null;
+				return entry;
 			}
 			// Otherwise, fall through...
 			otherLength = c.lengthBits(otherKey);
 		}
 
-		Entry<K, V> entry = new Entry<>(key, value);
+		Entry<K, V> entry = newEntry(key, value);
 		if (index == otherLength) {
 			// Existing key is a prefix
 			int bit;
@@ -237,6 +380,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				entry.bit = c.isBitSet(key, index) ? index | BIT_EDGE_FLAG
 						: index | BIT_EDGE_ZERO_SPEC;
 				(track.switches = entry).prev = track;
+				setParent(entry, track);
 			} else if ((bit = (prev = lastLinked(prev)).bit) < 0) {
 				// Mismatch at the edge
 				if ((bit & BIT_ZERO_FLAG) != UNSET) {
@@ -249,6 +393,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 					entry.bit = index | BIT_EDGE_ZERO_SPEC;
 					// Found 1-bit edge switch! Append at list end.
 					(entry.prev = prev).next = entry;
+					setParent(entry, track);
 				}
 			} else {
 				entry.bit = c.isBitSet(key, index) ? index | BIT_EDGE_FLAG
@@ -256,6 +401,8 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				// Simply append at the current location
 				append(prev, entry);
 			}
+			addToTable(track, entry);
+			recount(entry);
 		} else {
 			// The query key has a prefix that is a prefix of an existing key
 			// (i.e. the 2 keys have intersecting start bits)
@@ -270,8 +417,10 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				} else {
 					enlist(track, entry);
 				}
+				addToTable(track, entry);
+				recount(entry);
 			} else {
-				replace(track, entry);
+				replaceSwitch(track, entry);
 				track.bit = index;
 				if (prev != null) {
 					// Transfer covered switches
@@ -282,16 +431,20 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 					// Give 'track' a new set of switches
 					if ((track.switches = next) != null)
 						next.prev = track;
+					splitTable(track, prev, entry);
+					setParents(entry);
 				} else {
 					// Set 'track' as the new entry's next switch
 					entry.switches = track;
 					track.prev = entry;
+					setParent(track, entry);
 				}
+				recount(track);
 			}
 		}
 		size++;
 		modCount++;
-		return null;
+		return entry;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -346,9 +499,9 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		return findNearest(c, next, key, length);
 	}
 
-	final Entry<K, V> prefixEntry(K key, boolean neverNull) {
+	final Entry<K, V> prefixEntry(Object key, boolean neverNull) {
 		@SuppressWarnings("unchecked")
-		BitwiseComparator<? super K> c = comparator;
+		BitwiseComparator<? super Object> c = comparator;
 		int length = c.lengthBits(key); // Type (and possibly null) check
 
 		Entry<K, V> track = findNearest(c, root, key, length);
@@ -364,9 +517,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		}
 		for (;;) {
 			int bit = track.bit;
-			Entry<K, V> current = track;
-			while ((track = current.prev).switches != current)
-				current = track;
+			track = parentOf(track);
 			if (bit < 0 && (bit & BIT_INDEX_MASK) <= index) {
 				if (DEBUG)
 					assert (bit & BIT_INDEX_MASK) <= index;
@@ -376,6 +527,118 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		return neverNull || track.bit != ROOT_UNSET ? track : null;
 	}
 
+	/**
+	 * Walks the entries below a track in increasing XOR distance to a key,
+	 * the first one being the one {@code nearestEntry()} would find. Every
+	 * switch splits the keys of its track in two, and the walk goes down the
+	 * side agreeing with the bit of the key, leaving the other side on a
+	 * stack. A side is a track along with the first of its switches still to
+	 * be walked, the key of the track included, so only the tracks leading to
+	 * the returned entries, and their switches, are ever visited.
+	 * <p>
+	 * Edge switches split the keys in three: the track key itself, ending at
+	 * the edge, comes right after the keys agreeing with the bit of the key,
+	 * and first if the key ends there too, the same as with
+	 * {@code findNearest()}.
+	 */
+	static final class NearestWalk<K, V> {
+		final BitwiseComparator<? super Object> comparator;
+		final Object key;
+		final int length;
+
+		Entry<K, V>[] tracks, switches;
+		int depth;
+
+		NearestWalk(BitwiseComparator<?> comparator, Object key,
+				Entry<K, V> track, Entry<K, V> first) {
+			@SuppressWarnings("unchecked")
+			BitwiseComparator<? super Object> c = (BitwiseComparator<? super Object>) comparator;
+			this.comparator = c;
+			this.key = key;
+			this.length = c.lengthBits(key); // Type (and possibly null) check
+			this.tracks = newEntryArray(16);
+			this.switches = newEntryArray(16);
+			if (track != null)
+				defer(track, first);
+		}
+
+		private void defer(Entry<K, V> track, Entry<K, V> first) {
+			int n = depth;
+			if (n == tracks.length) {
+				tracks = java.util.Arrays.copyOf(tracks, n << 1);
+				switches = java.util.Arrays.copyOf(switches, n << 1);
+			}
+			tracks[n] = track;
+			switches[n] = first;
+			depth = n + 1;
+		}
+
+		/**
+		 * Returns the next entry, or {@code null} if there is none left.
+		 */
+		Entry<K, V> nextEntry() {
+			BitwiseComparator<? super Object> c = comparator;
+			while (depth > 0) {
+				Entry<K, V> track = tracks[--depth], next = switches[depth];
+				tracks[depth] = switches[depth] = null;
+				while (next != null) {
+					int bit = next.bit;
+					if (bit >= 0) {
+						if (bit < length && c.isBitSet(key, bit)) {
+							defer(track, next.next);
+							next = (track = next).switches; // Change track
+						} else {
+							defer(next, next.switches);
+							next = next.next;
+						}
+						continue;
+					}
+					// The track key ends here: a 1-bit edge switch, then maybe
+					// a 0-bit one, are the last switches of the track
+					int bitm = bit & BIT_INDEX_MASK;
+					Entry<K, V> one = null, zero = next;
+					if ((bit & BIT_ZERO_FLAG) == UNSET) {
+						one = next;
+						zero = next.next;
+					}
+					Entry<K, V> near = one, far = zero;
+					if (length <= bitm || !c.isBitSet(key, bitm)) {
+						near = zero;
+						far = one;
+					}
+					if (far != null)
+						defer(far, far.switches);
+					if (length <= bitm || near == null) {
+						if (near != null)
+							defer(near, near.switches);
+						next = null; // Stay on the track
+					} else {
+						defer(track, null);
+						next = (track = near).switches; // Change track
+					}
+				}
+				if (track.bit != ROOT_UNSET)
+					return track;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the first {@code k} entries returned by the specified iterator,
+	 * for {@link BitwiseMap#nearestEntries(Object, int)}.
+	 */
+	static <K, V> java.util.List<Map.Entry<K, V>> firstEntries(
+			Iterator<Map.Entry<K, V>> it, int k) {
+		if (k < 0)
+			throw new IllegalArgumentException("k < 0: " + k);
+		java.util.List<Map.Entry<K, V>> entries = new java.util.ArrayList<>(
+				Math.min(k, 32));
+		while (k-- > 0 && it.hasNext())
+			entries.add(it.next());
+		return entries;
+	}
+
 	// Lookup spec modifiers
 	static final int S_NEVER_NULL = 0x80000000; // this is set if spec < 0
 	static final int S_INCLUSIVE = 0x1;
@@ -448,8 +711,8 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	}
 
 	@SuppressWarnings("unchecked")
-	final Entry<K, V> tailOf(K key, int spec) {
-		BitwiseComparator<? super K> c = comparator;
+	final Entry<K, V> tailOf(Object key, int spec) {
+		BitwiseComparator<? super Object> c = comparator;
 		int length = c.lengthBits(key); // Type (and possibly null) check
 
 		Entry<K, V> track = findNearest(c, root, key, length);
@@ -705,6 +968,9 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	static <K, V> Entry<K, V> successorOf(Entry<K, V> node) {
 		Entry<K, V> s = node.switches;
 		if (s != null) {
+			SwitchTable<K, V> table = node.table;
+			if (table != null)
+				return table.nodes[table.size - 1];
 			// same as lastLinked(s)
 			while ((node = s.next) != null)
 				s = node;
@@ -738,13 +1004,12 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				p = node;
 			return p;
 		}
-		// same as parentOf(node)
-		while ((p = node.prev).switches != node)
-			node = p;
-		return p;
+		return parentOf(node);
 	}
 
 	static <K, V> Entry<K, V> parentOf(Entry<K, V> entry) {
+		if (entry instanceof ParentLinkedEntry)
+			return ((ParentLinkedEntry<K, V>) entry).parent;
 		Entry<K, V> prev;
 		while ((prev = entry.prev).switches != entry)
 			entry = prev;
@@ -804,6 +1069,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	static <K, V> void enlist(Entry<K, V> dest, Entry<K, V> node) {
 		Entry<K, V> next = dest.switches;
 		(node.prev = dest).switches = node;
+		setParent(node, dest);
 		if (next != null) {
 			(node.next = next).prev = node;
 		}
@@ -812,6 +1078,8 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	static <K, V> void append(Entry<K, V> dest, Entry<K, V> node) {
 		Entry<K, V> next = dest.next;
 		(node.prev = dest).next = node;
+		if (node instanceof ParentLinkedEntry)
+			((ParentLinkedEntry<K, V>) node).parent = parentOf(dest);
 		if (next != null) {
 			(node.next = next).prev = node;
 		}
@@ -820,6 +1088,8 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	static <K, V> void prepend(Entry<K, V> dest, Entry<K, V> node) {
 		Entry<K, V> prev = dest.prev;
 		node.prev = prev;
+		if (node instanceof ParentLinkedEntry)
+			((ParentLinkedEntry<K, V>) node).parent = parentOf(dest);
 		if (prev.switches == dest) {
 			prev.switches = node;
 		} else {
@@ -832,6 +1102,8 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		Entry<K, V> prev = node.prev;
 		repl.bit = node.bit;
 		repl.prev = prev;
+		if (repl instanceof ParentLinkedEntry)
+			((ParentLinkedEntry<K, V>) repl).parent = parentOf(node);
 		if (prev.switches == node) {
 			prev.switches = repl;
 		} else {
@@ -846,25 +1118,43 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 
 	static <K, V> void detach(Entry<K, V> entry) {
 		Entry<K, V> next = entry.switches;
+		Entry<K, V> owner = tabledOwnerOf(entry);
+		SwitchTable<K, V> table = owner != null ? owner.table : null;
+		Entry<K, V> changed; // The lowest entry whose subtree changed
 		if (next != null) {
-			Entry<K, V> last = next;
+			Entry<K, V> last = changed = next;
 			Entry<K, V> linked = last.next;
 			if (linked != null) {
 				// lastLinked(linked) inlined
 				do {
 					linked = (last = linked).next;
 				} while (linked != null);
-				Entry<K, V> prev = last.prev;
+				Entry<K, V> prev = changed = last.prev;
 				linked = last.switches;
 				prev.bit &= BIT_INDEX_MASK;
 				(next.prev = last).switches = next;
 				if ((prev.next = linked) != null)
 					linked.prev = prev;
+				if (last instanceof ParentLinkedEntry) {
+					// Only the switches taken from 'entry' change parents
+					for (;; next = next.next) {
+						((ParentLinkedEntry<K, V>) next).parent = last;
+						if (next == prev)
+							break;
+					}
+				}
+				// The switch lists were merged
+				if (entry.table != null || last.table != null)
+					last.table = SwitchTable.of(last);
 			}
 			replace(entry, last);
+			if (table != null)
+				table.replace(entry, last);
 		} else {
+			if (table != null && table.remove(entry))
+				owner.table = null;
 			next = entry.next;
-			Entry<K, V> prev = entry.prev;
+			Entry<K, V> prev = changed = entry.prev;
 			if (prev.switches == entry) {
 				prev.switches = next;
 			} else {
@@ -878,16 +1168,398 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		// Null out links to avoid garbage retention in case this entry is
 		// still referenced outside the trie.
 		entry.prev = entry.switches = null;
+		entry.table = null;
+		setParent(entry, null);
+		recount(changed);
 	}
 
-	static <K, V> int destroyLinks(Entry<K, V> node) {
-		// The following uses an unordered traversal to null out all node links.
+	// Parent link maintenance
+
+	static <K, V> void setParent(Entry<K, V> node, Entry<K, V> parent) {
+		if (node instanceof ParentLinkedEntry)
+			((ParentLinkedEntry<K, V>) node).parent = parent;
+	}
 
+	/**
+	 * Links all switches of the specified track to it.
+	 */
+	static <K, V> void setParents(Entry<K, V> track) {
+		Entry<K, V> e = track.switches;
+		if (e instanceof ParentLinkedEntry) {
+			do {
+				((ParentLinkedEntry<K, V>) e).parent = track;
+			} while ((e = e.next) != null);
+		}
+	}
+
+	// Subtree count maintenance
+
+	/**
+	 * Returns the number of entries in the subtree of the specified entry, or
+	 * 0 if it is {@code null}. The subtree of an entry holds the entry itself,
+	 * its {@code next} switches and everything below its own switches, which
+	 * is also every entry whose key falls between the key of its first
+	 * {@code next} switch and the highest key it prefixes.
+	 */
+	static int countOf(Entry<?, ?> node) {
+		if (node instanceof CountedEntry)
+			return ((CountedEntry<?, ?>) node).count;
+		if (node instanceof CountedParentLinkedEntry)
+			return ((CountedParentLinkedEntry<?, ?>) node).count;
+		return 0;
+	}
+
+	/**
+	 * Recomputes the subtree counts of the specified entry and of all the
+	 * entries above it, up to the root, which does not keep one. Does nothing
+	 * if the trie is not counted.
+	 */
+	static <K, V> void recount(Entry<K, V> node) {
+		while (recountOne(node))
+			node = node.prev;
+	}
+
+	private static <K, V> boolean recountOne(Entry<K, V> node) {
+		if (node instanceof ScoredEntry) {
+			ScoredEntry<K, V> e = (ScoredEntry<K, V>) node;
+			e.max = Math.max(e.score, Math.max(maxScoreOf(node.next),
+					maxScoreOf(node.switches)));
+			return true;
+		}
+		if (node instanceof CountedEntry)
+			((CountedEntry<K, V>) node).count = 1 + countOf(node.next)
+					+ countOf(node.switches);
+		else if (node instanceof CountedParentLinkedEntry)
+			((CountedParentLinkedEntry<K, V>) node).count = 1
+					+ countOf(node.next) + countOf(node.switches);
+		else
+			return false;
+		return true;
+	}
+
+	/**
+	 * Computes the subtree counts of all entries of a freshly deserialized
+	 * trie, since they are not part of the serialized form, or their highest
+	 * scores if the trie is scored.
+	 */
+	static <K, V> void countAll(Entry<K, V> root) {
+		// The following uses a post-order traversal, a subtree being counted
+		// once both its next and switches subtrees are.
+
+		Entry<K, V> node = root.switches;
+		if (node == null)
+			return;
+		outer: for (;;) {
+			for (;;) {
+				Entry<K, V> link = node.next;
+				if (link == null && (link = node.switches) == null)
+					break;
+				node = link;
+			}
+			for (;;) {
+				recountOne(node);
+				Entry<K, V> prev = node.prev;
+				if (prev == root)
+					return;
+				if (prev.next == node && prev.switches != null) {
+					node = prev.switches;
+					continue outer;
+				}
+				node = prev;
+			}
+		}
+	}
+
+	// Subtree score maintenance
+
+	/**
+	 * The score of an entry whose value was set through
+	 * {@link Entry#setValue(Object)}, where the scorer is out of reach. Being
+	 * the highest score, it keeps the highest scores above it right, as upper
+	 * bounds, until the entry is scored again.
+	 */
+	static final long UNSCORED = Long.MAX_VALUE;
+
+	/**
+	 * Returns the score of the specified value in a scored trie. Null values
+	 * are not passed to the scorer, and score the lowest.
+	 */
+	final long scoreOf(V value) {
+		return value == null ? Long.MIN_VALUE : scorer.applyAsLong(value);
+	}
+
+	/**
+	 * Returns the highest score in the subtree of the specified entry, the
+	 * same subtree as in {@link #countOf(Entry)}, or
+	 * {@link Long#MIN_VALUE} if it is {@code null}.
+	 */
+	static long maxScoreOf(Entry<?, ?> node) {
+		return node instanceof ScoredEntry ? ((ScoredEntry<?, ?>) node).max
+				: Long.MIN_VALUE;
+	}
+
+	/**
+	 * Scores the value of the specified entry again, and recomputes the
+	 * highest scores up to the root. Does nothing if the trie is not scored,
+	 * or for the root, whose score is never kept.
+	 * 
+	 * @return the score of the entry
+	 */
+	final long rescore(Entry<K, V> node) {
+		if (!(node instanceof ScoredEntry))
+			return Long.MIN_VALUE;
+		long score = scoreOf(node.value);
+		((ScoredEntry<K, V>) node).score = score;
+		recount(node);
+		return score;
+	}
+
+	/**
+	 * Scores all of the entries of a freshly deserialized scored trie, before
+	 * {@link #countAll(Entry)}.
+	 */
+	final void scoreAll() {
+		for (Entry<K, V> e = successorOf(root); e != DUMMY; e = successorOf(e))
+			((ScoredEntry<K, V>) e).score = scoreOf(e.value);
+	}
+
+	/**
+	 * Returns the number of entries lower than the specified entry, using the
+	 * subtree counts of a counted trie, or walking from the first entry
+	 * otherwise.
+	 */
+	final int rankOf(Entry<K, V> node) {
+		if (!counted) {
+			int rank = 0;
+			for (Entry<K, V> e = getFirstEntry(); e != node; e = successorOf(e))
+				rank++;
+			return rank;
+		}
+		if (node == root)
+			return 0;
+		int rank = countOf(node.next);
+		for (Entry<K, V> prev; (prev = node.prev) != DUMMY; node = prev) {
+			if (prev.switches == node) {
+				// Everything along 'prev' itself and its next switches is lower
+				if (prev != root)
+					rank += 1 + countOf(prev.next);
+				else if (prev.bit != ROOT_UNSET)
+					rank++;
+			}
+		}
+		return rank;
+	}
+
+	/**
+	 * Returns the entry having the specified number of lower entries, which
+	 * must be less than the size of the trie, the same way as
+	 * {@link #rankOf(Entry)}.
+	 */
+	final Entry<K, V> entryAt(int index) {
+		Entry<K, V> node = root;
+		if (!counted) {
+			for (node = getFirstEntry(); index > 0; index--)
+				node = successorOf(node);
+			return node;
+		}
+		if (node.bit != ROOT_UNSET) {
+			if (index == 0)
+				return node;
+			index--;
+		}
+		for (node = node.switches;;) {
+			int lower = countOf(node.next);
+			if (index < lower) {
+				node = node.next;
+			} else if (index > lower) {
+				index -= lower + 1;
+				node = node.switches;
+			} else
+				return node;
+		}
+	}
+
+	/**
+	 * Returns the number of entries from {@code lo} to {@code hi}, both
+	 * inclusive, the same way as {@link #rankOf(Entry)}. Either being
+	 * {@code null} denotes an empty range.
+	 */
+	final int countRange(Entry<K, V> lo, Entry<K, V> hi) {
+		if (lo == null || hi == null)
+			return 0;
+		if (!counted) {
+			int count = 1;
+			for (Entry<K, V> e = lo; e != hi; e = successorOf(e))
+				count++;
+			return count;
+		}
+		return Math.max(rankOf(hi) - rankOf(lo) + 1, 0);
+	}
+
+	// Switch table maintenance
+
+	/**
+	 * Updates the switch table of the specified track after the specified
+	 * node was inserted in its switch list, creating the table if the track
+	 * just became wide enough.
+	 */
+	static <K, V> void addToTable(Entry<K, V> track, Entry<K, V> node) {
+		SwitchTable<K, V> table = track.table;
+		if (table != null) {
+			table.insert(node);
+		} else {
+			track.table = SwitchTable.of(track);
+		}
+	}
+
+	/**
+	 * Returns the track holding the specified switch in its list, or
+	 * {@code null} if the list is too narrow to have a switch table, in which
+	 * case the walk back to the track is skipped.
+	 */
+	static <K, V> Entry<K, V> tabledOwnerOf(Entry<K, V> entry) {
+		int n = 1;
+		for (Entry<K, V> e = entry.next; e != null; e = e.next)
+			if (++n == SwitchTable.UNTABLE_THRESHOLD)
+				return parentOf(entry);
+		for (Entry<K, V> e = entry, prev; (prev = e.prev).switches != e; e = prev)
+			if (++n == SwitchTable.UNTABLE_THRESHOLD)
+				return parentOf(prev);
+		return null;
+	}
+
+	/**
+	 * Replaces the specified track with the specified new entry, the same way
+	 * as {@link #replace(Entry, Entry)}, updating the switch table of the list
+	 * holding the track.
+	 */
+	static <K, V> void replaceSwitch(Entry<K, V> track, Entry<K, V> entry) {
+		Entry<K, V> owner = tabledOwnerOf(track);
+		SwitchTable<K, V> table = owner != null ? owner.table : null;
+		replace(track, entry);
+		if (table != null)
+			table.replace(track, entry);
+	}
+
+	/**
+	 * Splits the switch table of the specified track after its switches up to
+	 * and including {@code prev} were transferred to {@code entry}, followed by
+	 * the track itself.
+	 */
+	static <K, V> void splitTable(Entry<K, V> track, Entry<K, V> prev,
+			Entry<K, V> entry) {
+		SwitchTable<K, V> table = track.table;
+		if (table != null) {
+			SwitchTable<K, V> tail = table.split(table.indexOf(prev) + 1);
+			track.table = tail.size >= SwitchTable.UNTABLE_THRESHOLD ? tail
+					: null;
+			table.insert(track);
+			entry.table = table.size >= SwitchTable.UNTABLE_THRESHOLD ? table
+					: null;
+		}
+	}
+
+	/**
+	 * Returns the first switch of the specified track from the specified bit
+	 * index on, or {@code null} if there is no such switch.
+	 */
+	static <K, V> Entry<K, V> switchFrom(Entry<K, V> track, int index) {
+		Entry<K, V> s = track.switches;
+		while (s != null && (s.bit & BIT_INDEX_MASK) < index)
+			s = s.next;
+		return s;
+	}
+
+	/**
+	 * Unlinks the specified switch of the specified track and the switches
+	 * after it, along with all the entries below them, in one splice. From
+	 * {@link #switchFrom(Entry, int)}, these are the entries whose keys are
+	 * prefixed by the first {@code index} bits of the key of the track, the
+	 * track itself excluded. If {@code destroy} is true, the links of the
+	 * unlinked entries are nulled out while counting them, as by
+	 * {@link #clear()}, since some of them might still be referenced outside
+	 * of the trie. Otherwise they keep the links between them, to be taken
+	 * over by another trie, and are only counted, the subtree counts giving
+	 * that number right away if the trie is counted.
+	 * 
+	 * @return the number of entries removed
+	 */
+	final int cutSwitches(Entry<K, V> track, Entry<K, V> s, boolean destroy) {
+		if (s == null)
+			return 0;
+		int removed = destroy ? 0 : counted ? countOf(s) : countLinks(s);
+		Entry<K, V> prev = s.prev;
+		if (prev == track)
+			track.switches = null;
+		else
+			prev.next = null;
+		SwitchTable<K, V> table = track.table;
+		if (table != null) {
+			table.split(table.indexOf(s));
+			if (table.size < SwitchTable.UNTABLE_THRESHOLD)
+				track.table = null;
+		}
+		if (destroy) {
+			removed = destroySwitches(s);
+		} else {
+			s.prev = null;
+			if (s instanceof ParentLinkedEntry) {
+				// Leave no link from the unlinked entries back to the trie
+				for (Entry<K, V> e = s; e != null; e = e.next)
+					((ParentLinkedEntry<K, V>) e).parent = null;
+			}
+		}
+		recount(prev);
+		modCount++;
+		size -= removed;
+		return removed;
+	}
+
+	/**
+	 * Returns the number of entries in the subtree of the specified entry, its
+	 * {@code next} switches included, without changing any link.
+	 */
+	static <K, V> int countLinks(Entry<K, V> top) {
+		// The following uses an unordered traversal similar to destroyLinks()
+
+		Entry<K, V> node = top;
+		outer: for (int i = 1;; i++) {
+			Entry<K, V> link = node.next;
+			if (link == null && (link = node.switches) == null) {
+				for (;;) {
+					if (node == top)
+						return i;
+					Entry<K, V> prev = node.prev;
+					if (prev.next == node && (link = prev.switches) != null)
+						break;
+					node = prev;
+				}
+			}
+			node = link;
+			continue outer;
+		}
+	}
+
+	static <K, V> int destroyLinks(Entry<K, V> node) {
 		Entry<K, V> link = node.switches;
 		if (link == null)
 			return 0;
 		node.switches = null;
-		(node = link).prev = null;
+		node.table = null;
+		return destroySwitches(link);
+	}
+
+	/**
+	 * Nulls out the links of the specified switch, of the switches after it
+	 * and of all the entries below them, and returns the number of these
+	 * entries.
+	 */
+	static <K, V> int destroySwitches(Entry<K, V> node) {
+		// The following uses an unordered traversal to null out all node links.
+
+		Entry<K, V> link;
+		node.prev = null;
+		setParent(node, null);
 
 		outer: for (int i = 1;;) {
 			link = node.next;
@@ -899,6 +1571,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 			link = node.switches;
 			if (link != null) {
 				node.switches = null;
+				node.table = null;
 				node = link;
 				continue;
 			}
@@ -907,10 +1580,12 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				if (link == null)
 					return i;
 				node.prev = null;
+				setParent(node, null);
 				i++;
 				node = link.switches;
 				if (node != null) {
 					link.switches = null;
+					link.table = null;
 					continue outer;
 				}
 				node = link;
@@ -930,6 +1605,14 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	@SuppressWarnings("rawtypes")
 	static final Entry DUMMY = new Entry<>("dummy");
 
+	/**
+	 * Returns a new array of entries, for the stacks of the trie walks.
+	 */
+	@SuppressWarnings("unchecked")
+	static <K, V> Entry<K, V>[] newEntryArray(int length) {
+		return (Entry<K, V>[]) new Entry<?, ?>[length];
+	}
+
 	/** Common value for unset bit flags, that is, 0 */
 	static final int UNSET = 0;
 
@@ -966,7 +1649,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 	 * patricia trie implementation, the 1-bit switch is the right child node
 	 * and the 0-bit switch is the left.
 	 */
-	static final class Entry<K, V> implements Map.Entry<K, V>,
+	static class Entry<K, V> implements Map.Entry<K, V>,
 			java.io.Serializable {
 		private static final long serialVersionUID = 5690857436435870662L;
 
@@ -1000,6 +1683,12 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		 */
 		transient Entry<K, V> prev;
 
+		/**
+		 * An array copy of the {@link #switches} linked list, only present if
+		 * this is a wide track.
+		 */
+		transient SwitchTable<K, V> table;
+
 		Entry(K key, V value) {
 			this.key = key;
 			this.value = value;
@@ -1015,8 +1704,10 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		@SuppressWarnings("unchecked")
 		Entry(Entry<K, V> switches) {
 			this.prev = DUMMY;
-			if (switches != null)
+			if (switches != null) {
 				(switches.prev = this).switches = switches;
+				setParents(this);
+			}
 		}
 
 		// Dummy entry constructor
@@ -1152,6 +1843,275 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		}
 	}
 
+	/**
+	 * An entry that also links directly to its parent track, used by tries
+	 * created with parent links. The {@link Entry#prev} link only leads to the
+	 * parent from the first switch of a list, so finding the parent of any
+	 * other switch otherwise walks back through the list.
+	 */
+	static class ParentLinkedEntry<K, V> extends Entry<K, V> {
+		private static final long serialVersionUID = -6024531728153325873L;
+
+		/**
+		 * The track having this entry in its {@link Entry#switches} list
+		 */
+		transient Entry<K, V> parent;
+
+		ParentLinkedEntry(K key, V value) {
+			super(key, value);
+		}
+
+		ParentLinkedEntry(int bit, Entry<K, V> prev, Entry<K, V> parent) {
+			super(bit, prev);
+			this.parent = parent;
+		}
+	}
+
+	/**
+	 * An entry that also keeps the number of entries in its subtree, used by
+	 * counted tries. See {@link AbstractPatriciaTrie#countOf(Entry)}.
+	 */
+	static final class CountedEntry<K, V> extends Entry<K, V> {
+		private static final long serialVersionUID = 3079142856263452412L;
+
+		transient int count = 1;
+
+		CountedEntry(K key, V value) {
+			super(key, value);
+		}
+
+		CountedEntry(int bit, Entry<K, V> prev) {
+			super(bit, prev);
+		}
+	}
+
+	/**
+	 * A {@link ParentLinkedEntry} that also keeps the number of entries in its
+	 * subtree, used by counted tries created with parent links.
+	 */
+	static final class CountedParentLinkedEntry<K, V> extends
+			ParentLinkedEntry<K, V> {
+		private static final long serialVersionUID = -2508631474103715270L;
+
+		transient int count = 1;
+
+		CountedParentLinkedEntry(K key, V value) {
+			super(key, value);
+		}
+
+		CountedParentLinkedEntry(int bit, Entry<K, V> prev, Entry<K, V> parent) {
+			super(bit, prev, parent);
+		}
+	}
+
+	/**
+	 * An entry that also keeps the score of its value and the highest score in
+	 * its subtree, used by scored tries. See
+	 * {@link AbstractPatriciaTrie#maxScoreOf(Entry)}.
+	 */
+	static final class ScoredEntry<K, V> extends Entry<K, V> {
+		private static final long serialVersionUID = -4371934035566140622L;
+
+		transient long score, max;
+
+		ScoredEntry(K key, V value, long score) {
+			super(key, value);
+			this.score = this.max = score;
+		}
+
+		ScoredEntry(int bit, Entry<K, V> prev) {
+			super(bit, prev);
+			this.score = this.max = UNSCORED;
+		}
+
+		@Override
+		public V setValue(V value) {
+			V old = super.setValue(value);
+			if (prev != null) {
+				// Scored again the next time it is walked to
+				score = UNSCORED;
+				recount(this);
+			}
+			return old;
+		}
+	}
+
+	/**
+	 * A sorted array copy of the switch list of a track, kept along with the
+	 * list once the track has {@link #TABLE_THRESHOLD} switches. Tracks of
+	 * keys sharing long prefixes tend to have dozens of switches, which are
+	 * then scanned without chasing the {@code next} links one node at a time,
+	 * and binary searched by bit index when looking for an insertion node.
+	 * <p>
+	 * The table is kept in sync with the list by {@code put()} and
+	 * {@code detach()}, and is dropped when the track shrinks below
+	 * {@link #UNTABLE_THRESHOLD} switches.
+	 */
+	static final class SwitchTable<K, V> {
+		static final int TABLE_THRESHOLD = 8;
+		static final int UNTABLE_THRESHOLD = 4;
+		/**
+		 * The size from which a lookup searches the bits of the table
+		 * instead of scanning them
+		 */
+		static final int SEARCH_THRESHOLD = 32;
+
+		/**
+		 * The {@link Entry#bit} values of the switches, in list order
+		 */
+		int[] bits;
+		Entry<K, V>[] nodes;
+		int size;
+
+		private SwitchTable(int capacity) {
+			bits = new int[capacity];
+			nodes = newEntryArray(capacity);
+		}
+
+		/**
+		 * Returns a new table for the switches of the specified track, or
+		 * {@code null} if the track is not wide enough to have one.
+		 */
+		static <K, V> SwitchTable<K, V> of(Entry<K, V> track) {
+			Entry<K, V> e = track.switches;
+			int n = 0;
+			for (; n < TABLE_THRESHOLD; n++, e = e.next)
+				if (e == null)
+					return null;
+			for (; e != null; e = e.next)
+				n++;
+			SwitchTable<K, V> table = new SwitchTable<>(n + (n >> 1));
+			n = 0;
+			for (e = track.switches; e != null; e = e.next) {
+				table.bits[n] = e.bit;
+				table.nodes[n++] = e;
+			}
+			table.size = n;
+			return table;
+		}
+
+		/**
+		 * Same as the switch list loop of
+		 * {@link AbstractPatriciaTrie#findNearest}, returning the switch to
+		 * change track to, or {@code null} to stay on the current track.
+		 * <p>
+		 * The key has the bits of the track, which are clear at the indices
+		 * of the regular switches, up to the specified index where it leaves
+		 * the track (negative if it never does), so the switches before that
+		 * index are skipped by a binary search.
+		 */
+		<T> Entry<K, V> findNearest(BitwiseComparator<? super T> c, T key,
+				int length, int from) {
+			if (from < 0)
+				return null;
+			int[] bits = this.bits;
+			for (int i = floor(from - 1) + 1, n = size; i < n; i++) {
+				int bit = bits[i];
+				if (bit < 0) {
+					int bitm = bit & BIT_INDEX_MASK;
+					if (length <= bitm)
+						return null;
+					if (c.isBitSet(key, bitm)) {
+						if ((bit & BIT_ZERO_FLAG) != UNSET)
+							return null;
+					} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+						if (++i == n)
+							return null;
+					}
+					return nodes[i];
+				}
+				if (length <= bit)
+					return null;
+				if (c.isBitSet(key, bit))
+					return nodes[i];
+			}
+			return null;
+		}
+
+		/**
+		 * Returns the position of the last switch whose bit index is less
+		 * than or equal to the specified index, or -1 if there is none.
+		 */
+		int floor(int index) {
+			int[] bits = this.bits;
+			int lo = 0, hi = size - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if ((bits[mid] & BIT_INDEX_MASK) <= index)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi;
+		}
+
+		int indexOf(Entry<K, V> node) {
+			int i = floor(node.bit & BIT_INDEX_MASK);
+			while (nodes[i] != node)
+				i--; // An edge switch sharing its index with another
+			return i;
+		}
+
+		/**
+		 * Inserts the specified switch, which is already in the list.
+		 */
+		void insert(Entry<K, V> node) {
+			int bit = node.bit;
+			// A 0-bit edge switch comes after a 1-bit one of the same index
+			int i = (bit & BIT_ZERO_FLAG) != UNSET ? floor(bit
+					& BIT_INDEX_MASK) + 1 : floor((bit & BIT_INDEX_MASK) - 1) + 1;
+			int n = size;
+			if (n == bits.length) {
+				int capacity = n + (n >> 1) + 1;
+				bits = java.util.Arrays.copyOf(bits, capacity);
+				nodes = java.util.Arrays.copyOf(nodes, capacity);
+			}
+			System.arraycopy(bits, i, bits, i + 1, n - i);
+			System.arraycopy(nodes, i, nodes, i + 1, n - i);
+			bits[i] = bit;
+			nodes[i] = node;
+			size = n + 1;
+		}
+
+		/**
+		 * Replaces the specified switch, after its bit was given to the
+		 * replacement.
+		 */
+		void replace(Entry<K, V> node, Entry<K, V> repl) {
+			int i = indexOf(node);
+			bits[i] = repl.bit;
+			nodes[i] = repl;
+		}
+
+		/**
+		 * Removes the specified switch, returning {@code true} if the table
+		 * is no longer worth keeping.
+		 */
+		boolean remove(Entry<K, V> node) {
+			int i = indexOf(node);
+			int n = --size;
+			System.arraycopy(bits, i + 1, bits, i, n - i);
+			System.arraycopy(nodes, i + 1, nodes, i, n - i);
+			nodes[n] = null;
+			return n < UNTABLE_THRESHOLD;
+		}
+
+		/**
+		 * Moves the switches starting at the specified position to a new
+		 * table, which is returned.
+		 */
+		SwitchTable<K, V> split(int from) {
+			int n = size - from;
+			SwitchTable<K, V> tail = new SwitchTable<>(n + (n >> 1) + 1);
+			System.arraycopy(bits, from, tail.bits, 0, n);
+			System.arraycopy(nodes, from, tail.nodes, 0, n);
+			java.util.Arrays.fill(nodes, from, size, null);
+			tail.size = n;
+			size = from;
+			return tail;
+		}
+	}
+
 	@Override
 	public String toString() {
 		if (DEBUG_TREE) {
@@ -1239,6 +2199,114 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 		}
 	}
 
+	/**
+	 * Creates the switch tables of the wide tracks of a freshly deserialized
+	 * trie, since they are not part of the serialized form.
+	 */
+	static <K, V> void buildTables(Entry<K, V> node) {
+		// The following uses an unordered traversal similar to writeObject()
+
+		outer: for (;;) {
+			Entry<K, V> link = node.switches;
+			if (link != null && link.next != null)
+				node.table = SwitchTable.of(node);
+			link = node.next;
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			for (;;) {
+				Entry<K, V> prev = node.prev;
+				link = prev.switches;
+				if (link != null && link != node) {
+					if (link == prev)
+						break outer; // Found DUMMY
+					node = link;
+					continue outer;
+				}
+				node = prev;
+			}
+		}
+	}
+
+	/**
+	 * Returns a new root holding a copy of every entry of this trie, linked
+	 * the same way, with switch tables and subtree counts of its own.
+	 */
+	final Entry<K, V> copyEntries() {
+		Entry<K, V> node = root;
+		Entry<K, V> copy = new Entry<>();
+		Entry<K, V> top = copy;
+		copy.bit = node.bit;
+		copy.key = node.key;
+		copy.value = node.value;
+
+		// The following uses an unordered traversal similar to writeObject(),
+		// moving 'copy' along with 'node'
+
+		outer: for (;;) {
+			Entry<K, V> link = node.next;
+			if (link != null) {
+				copy = copy.next = newEntry(link, copy,
+						parentLinks ? parentOf(copy) : null);
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				copy = copy.switches = newEntry(link, copy, copy);
+				node = link;
+				continue;
+			}
+			for (;;) {
+				Entry<K, V> prev = node.prev;
+				link = prev.switches;
+				if (link != null && link != node) {
+					if (link == prev)
+						break outer; // Found DUMMY
+					copy = copy.prev;
+					copy = copy.switches = newEntry(link, copy, copy);
+					node = link;
+					continue outer;
+				}
+				node = prev;
+				copy = copy.prev;
+			}
+		}
+		buildTables(top);
+		if (counted || scorer != null)
+			countAll(top);
+		return top;
+	}
+
+	private Entry<K, V> newEntry(Entry<K, V> node, Entry<K, V> prev,
+			Entry<K, V> parent) {
+		Entry<K, V> entry = newEntry(node.bit, prev, parent);
+		entry.key = node.key;
+		entry.value = node.value;
+		if (entry instanceof ScoredEntry)
+			((ScoredEntry<K, V>) entry).score = ((ScoredEntry<K, V>) node).score;
+		return entry;
+	}
+
+	private Entry<K, V> newEntry(int bit, Entry<K, V> prev, Entry<K, V> parent) {
+		if (scorer != null)
+			return new ScoredEntry<>(bit, prev);
+		if (counted) {
+			if (parentLinks)
+				return new CountedParentLinkedEntry<>(bit, prev, parent);
+			return new CountedEntry<>(bit, prev);
+		}
+		if (parentLinks)
+			return new ParentLinkedEntry<>(bit, prev, parent);
+		return new Entry<>(bit, prev);
+	}
+
 	@SuppressWarnings("unchecked")
 	private void readObject(final java.io.ObjectInputStream s)
 			throws java.io.IOException, ClassNotFoundException {
@@ -1251,7 +2319,7 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 			return;
 		if (i < 0) {
 			// Found first edge switch!
-			prev = prev.switches = new Entry<>(i, prev);
+			prev = prev.switches = newEntry(i, prev, prev);
 		} else
 			prev.bit = i; // if 'i' isn't ROOT_SET, the map is left broken
 
@@ -1268,21 +2336,152 @@ public abstract class AbstractPatriciaTrie<K, V> extends
 				} while (prev.switches != prev);
 				if (prev == DUMMY) {
 					size = i;
+					buildTables(root);
+					if (scorer != null)
+						scoreAll();
+					if (counted || scorer != null)
+						countAll(root);
 					return; // Nothing found. We're done here!
 				}
 			case HAS_SWITCH:
-				prev = prev.switches = new Entry<>(s.readInt(), prev);
+				prev = prev.switches = newEntry(s.readInt(), prev, prev);
 				break;
 			case HAS_NEXT | HAS_SWITCH:
 				prev.switches = prev; // Set as placeholder
 			case HAS_NEXT:
-				prev = prev.next = new Entry<>(s.readInt(), prev);
+				prev = prev.next = newEntry(s.readInt(), prev,
+						parentLinks ? parentOf(prev) : null);
 				break;
 			default:
 				throw new java.io.StreamCorruptedException();
 			}
 		}
 	}
+
+	// Compact binary form, see TrieCodec
+
+	private static final int NULL_VALUE = 0x4;
+	private static final int HEADER_SHIFT = 3;
+
+	/**
+	 * Writes the entries in the order of writeObject(), each one as a header
+	 * followed by its key and its value. The header packs the bit, rotated so
+	 * that its flags are the low bits of a variable-length integer, the
+	 * NULL_VALUE flag and the links.
+	 */
+	final void writeEntries(java.io.DataOutput s, TrieCodec<K, V> codec)
+			throws IOException {
+		Entry<K, V> node = this.root;
+		if (node.bit == ROOT_UNSET && (node = node.switches) == null) {
+			TrieCodec.writeVarLong(s, IS_EMPTY);
+			return;
+		}
+
+		// The following uses an unordered traversal similar to writeObject()
+
+		K prevKey = null;
+		outer: for (;;) {
+			Entry<K, V> link = node.next;
+			int links = link != null ? HAS_NEXT : 0;
+			if (node.switches != null)
+				links |= HAS_SWITCH;
+			if (node.value == null)
+				links |= NULL_VALUE;
+			long bit = Integer.rotateLeft(node.bit, 2) & 0xffffffffL;
+			TrieCodec.writeVarLong(s, bit << HEADER_SHIFT | links);
+			codec.keys.write(s, node.key, prevKey);
+			if (node.value != null)
+				codec.values.write(s, node.value);
+			prevKey = node.key;
+
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			for (;;) {
+				Entry<K, V> prev = node.prev;
+				link = prev.switches;
+				if (link != null && link != node) {
+					if (link == prev)
+						break outer; // Found DUMMY
+					node = link;
+					continue outer;
+				}
+				node = prev;
+			}
+		}
+	}
+
+	private static int bitOf(long header) throws java.io.StreamCorruptedException {
+		if (header >>> HEADER_SHIFT > 0xffffffffL)
+			throw new java.io.StreamCorruptedException();
+		return Integer.rotateRight((int) (header >>> HEADER_SHIFT), 2);
+	}
+
+	/**
+	 * Reads the entries written by writeEntries() into this empty trie, the
+	 * same way as readObject().
+	 */
+	@SuppressWarnings("fallthrough")
+	final void readEntries(java.io.DataInput s, TrieCodec<K, V> codec)
+			throws IOException {
+		modCount++;
+		Entry<K, V> prev = root = new Entry<>();
+		long header = TrieCodec.readVarLong(s);
+		if (header == IS_EMPTY)
+			return;
+		int bit = bitOf(header);
+		if (bit < 0) {
+			// Found first edge switch!
+			prev = prev.switches = newEntry(bit, prev, prev);
+		} else if (bit == ROOT_SET)
+			prev.bit = bit;
+		else
+			throw new java.io.StreamCorruptedException();
+
+		K key = null;
+		for (int i = 0;;) {
+			prev.key = key = codec.keys.read(s, key);
+			if ((header & NULL_VALUE) == 0)
+				prev.value = codec.values.read(s);
+			i++;
+
+			switch ((int) header & (HAS_NEXT | HAS_SWITCH)) {
+			case 0:
+				// Search for placeholder
+				do {
+					prev = prev.prev;
+				} while (prev.switches != prev);
+				if (prev == DUMMY) {
+					size = i;
+					buildTables(root);
+					if (scorer != null)
+						scoreAll();
+					if (counted || scorer != null)
+						countAll(root);
+					return; // Nothing found. We're done here!
+				}
+				// fall through
+			case HAS_SWITCH:
+				header = TrieCodec.readVarLong(s);
+				prev = prev.switches = newEntry(bitOf(header), prev, prev);
+				break;
+			case HAS_NEXT | HAS_SWITCH:
+				prev.switches = prev; // Set as placeholder
+				// fall through
+			default: // HAS_NEXT
+				header = TrieCodec.readVarLong(s);
+				prev = prev.next = newEntry(bitOf(header), prev,
+						parentLinks ? parentOf(prev) : null);
+				break;
+			}
+		}
+	}
 }
 
 abstract class AbstractNavigableMap<K, V> extends AbstractMap<K, V> implements
@@ -1291,4 +2490,6 @@ abstract class AbstractNavigableMap<K, V> extends AbstractMap<K, V> implements
 	abstract Iterator<K> keyIterator();
 
 	abstract Iterator<K> descKeyIterator();
+
+	abstract Spliterator<K> keySpliterator();
 }
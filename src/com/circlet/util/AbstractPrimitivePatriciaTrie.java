@@ -0,0 +1,910 @@
+package com.circlet.util;
+
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_ZERO_SPEC;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_ZERO_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.UNSET;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.circlet.util.BitwiseComparators.LongBits;
+
+/**
+ * The Tracks and Switches operations shared by {@link IntPatriciaTrie} and
+ * {@link LongPatriciaTrie}. Keys are handled as their bits, left aligned in a
+ * {@code long}, so that the bit at an index is the same for any key size and
+ * a plain shift tests it once flipped at the sign. Since every key has the
+ * same size, no key can be a prefix of another, and the only edge switches
+ * are the two root switches at bit index 0.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of boxed keys
+ * @param <V> the type of mapped values
+ */
+abstract class AbstractPrimitivePatriciaTrie<K, V> extends AbstractMap<K, V>
+		implements java.io.Serializable {
+	private static final long serialVersionUID = -1284390566257310467L;
+
+	private static final long SIGN_FLIP = LongBits.MASK_BIT;
+
+	/**
+	 * The size of the keys in bits
+	 *
+	 * @serial
+	 */
+	final int keyBits;
+
+	transient Entry<K, V> root;
+
+	/**
+	 * The number of entries in the tree
+	 */
+	transient int size;
+
+	/**
+	 * The number of structural modifications to the tree.
+	 */
+	transient int modCount;
+
+	AbstractPrimitivePatriciaTrie(int keyBits) {
+		this.keyBits = keyBits;
+		this.root = new Root<>();
+	}
+
+	/**
+	 * Creates an entry for the given key bits.
+	 */
+	abstract Entry<K, V> newEntry(long bits, V value);
+
+	/**
+	 * Returns the entry for the given key, or {@code null} if there is none or
+	 * the key is not of the key type.
+	 */
+	abstract Entry<K, V> getEntry(Object key);
+
+	/**
+	 * Writes the key of the given bits, as its own type.
+	 */
+	abstract void writeKey(java.io.ObjectOutputStream s, long bits)
+			throws IOException;
+
+	/**
+	 * Reads a key written by {@link #writeKey}, and returns its bits.
+	 */
+	abstract long readKey(java.io.ObjectInputStream s) throws IOException;
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		modCount++;
+		size = 0;
+		Entry<K, V> node = root;
+		root = new Root<>();
+		destroyLinks(node);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for (Entry<K, V> e = getFirstEntry(); e != null; e = successorOf(e)) {
+			if (e.bit == UNSET)
+				break;
+			if (value == null ? e.value == null : value.equals(e.value))
+				return true;
+		}
+		return false;
+	}
+
+	final V removeBits(long bits) {
+		Entry<K, V> e = findEntry(bits);
+		if (e != null) {
+			deleteEntry(e);
+			return e.value;
+		}
+		return null;
+	}
+
+	// Tracks and Switches operations. These are the same as the ones in
+	// AbstractPatriciaTrie, simplified for keys that are never prefixes of
+	// each other, and with the key bits flipped at the sign so that a plain
+	// shift tests the bit at an index.
+
+	/**
+	 * Follows the middle switches from the specified track, and returns the
+	 * track where the search ended.
+	 */
+	static <K, V> Entry<K, V> findNearest(Entry<K, V> track, long k) {
+		Entry<K, V> next = track.switches;
+		while (next != null) {
+			if (k << next.bit >= 0) {
+				next = next.next;
+				continue;
+			}
+			next = (track = next).switches; // Change track
+		}
+		return track;
+	}
+
+	/**
+	 * Returns the root switch to search the specified flipped key from, or
+	 * {@code null} if there is no such switch.
+	 */
+	final Entry<K, V> edgeOf(long k) {
+		Entry<K, V> e = root.switches;
+		if (e == null)
+			return null;
+		if (k < 0) {
+			if ((e.bit & BIT_ZERO_FLAG) != UNSET)
+				return null;
+		} else if ((e.bit & BIT_ZERO_FLAG) == UNSET) {
+			return e.next;
+		}
+		return e;
+	}
+
+	final Entry<K, V> findEntry(long bits) {
+		long k = bits ^ SIGN_FLIP;
+		Entry<K, V> e = edgeOf(k);
+		if (e == null || (e = findNearest(e, k)).key != bits)
+			return null;
+		return e;
+	}
+
+	final V putBits(long bits, V value) {
+		long k = bits ^ SIGN_FLIP;
+		Entry<K, V> track = edgeOf(k);
+		if (track == null) {
+			// Found no matching root switch, add it
+			Entry<K, V> entry = newEntry(bits, value);
+			Entry<K, V> prev = root.switches;
+			if (prev == null) {
+				entry.bit = k < 0 ? BIT_EDGE_FLAG : BIT_EDGE_ZERO_SPEC;
+				(root.switches = entry).prev = root;
+			} else if (k < 0) {
+				entry.bit = BIT_EDGE_FLAG;
+				// Found 0-bit edge switch! Prepend to it.
+				prepend(prev, entry);
+			} else {
+				entry.bit = BIT_EDGE_ZERO_SPEC;
+				// Found 1-bit edge switch! Append at list end.
+				(entry.prev = prev).next = entry;
+			}
+			size++;
+			modCount++;
+			return null;
+		}
+		track = findNearest(track, k);
+		int index = LongBits.indexOfBit(bits ^ track.key);
+		if (index < 0) {
+			// Found exact match!
+			V old = track.value;
+			track.value = value;
+			return old;
+		}
+
+		Entry<K, V> entry = newEntry(bits, value);
+		track = backwardsRetrace(track, index);
+		Entry<K, V> prev = findInsertionNode(track, index);
+		if (k << index < 0) {
+			entry.bit = index;
+			// Simply insert to the list
+			if (prev != null) {
+				append(prev, entry);
+			} else {
+				enlist(track, entry);
+			}
+		} else {
+			replace(track, entry);
+			track.bit = index;
+			if (prev != null) {
+				// Transfer covered switches
+				(entry.switches = track.switches).prev = entry;
+				Entry<K, V> next = prev.next;
+				// Set 'track' as the new entry's next switch
+				(prev.next = track).prev = prev;
+				// Give 'track' a new set of switches
+				if ((track.switches = next) != null)
+					next.prev = track;
+			} else {
+				// Set 'track' as the new entry's next switch
+				entry.switches = track;
+				track.prev = entry;
+			}
+		}
+		size++;
+		modCount++;
+		return null;
+	}
+
+	final Entry<K, V> getNearestEntry(long bits) {
+		long k = bits ^ SIGN_FLIP;
+		Entry<K, V> next = root.switches;
+		if (next == null)
+			return null;
+		// Without a matching root switch, the nearest keys are the ones in
+		// the other root switch, which are searched by the remaining bits.
+		if (k >= 0 && (next.bit & BIT_ZERO_FLAG) == UNSET) {
+			Entry<K, V> prev;
+			if ((next = (prev = next).next) == null)
+				next = prev;
+		}
+		return findNearest(next, k);
+	}
+
+	final Entry<K, V> headOf(long bits, boolean inclusive) {
+		long k = bits ^ SIGN_FLIP;
+		Entry<K, V> track = edgeOf(k);
+		if (track == null) {
+			// Nothing is lower than root
+			Entry<K, V> s = root.switches;
+			if (s != null && k < 0) {
+				// Found only a 0-bit edge switch; query key > s
+				return apexOf(s);
+			}
+			return null;
+		}
+		track = findNearest(track, k);
+		int index = LongBits.indexOfBit(bits ^ track.key);
+		if (index < 0) {
+			// Found an exact match!
+			if (inclusive)
+				return track;
+		} else {
+			track = backwardsRetrace(track, index);
+			if (k << index < 0) {
+				// The query key is higher
+				Entry<K, V> prev = findInsertionNode(track, index);
+				Entry<K, V> next = prev != null ? prev.next : track.switches;
+				if (next != null)
+					return apexOf(next);
+				return track;
+			}
+			// The query key is lower. Return predecessor entry.
+		}
+		Entry<K, V> next = track.next;
+		if (next != null)
+			return apexOf(next);
+		track = parentOf(track);
+		return track.bit != UNSET ? track : null;
+	}
+
+	final Entry<K, V> tailOf(long bits, boolean inclusive) {
+		long k = bits ^ SIGN_FLIP;
+		Entry<K, V> track = edgeOf(k);
+		if (track == null) {
+			Entry<K, V> prev = root.switches;
+			if (prev != null && k >= 0) {
+				// Found only a 1-bit edge switch; query key < prev
+				return prev;
+			}
+			return null;
+		}
+		track = findNearest(track, k);
+		int index = LongBits.indexOfBit(bits ^ track.key);
+		if (index < 0) {
+			// Found an exact match!
+			Entry<K, V> prev;
+			if (inclusive)
+				return track;
+			if ((prev = track.switches) != null)
+				return lastLinked(prev);
+		} else {
+			track = backwardsRetrace(track, index);
+			if (k << index >= 0) {
+				// Query key < track.key
+				return track;
+			}
+			// Query key > track.key
+			Entry<K, V> prev;
+			if ((prev = findInsertionNode(track, index)) != null)
+				return prev;
+		}
+		track = higherSuccessorOf(track);
+		return track.bit != UNSET ? track : null;
+	}
+
+	final void checkPrefixBits(int prefixBits) {
+		if (prefixBits < 0 || prefixBits > keyBits)
+			throw new BitIndexOutOfBoundsException(prefixBits);
+	}
+
+	/**
+	 * Returns the entry of the key sharing the longest run of leading bits
+	 * with the given key bits, provided that at least {@code prefixBits} are
+	 * shared, or {@code null} if there is no such key.
+	 */
+	final Entry<K, V> getPrefixEntry(long bits, int prefixBits) {
+		checkPrefixBits(prefixBits);
+		Entry<K, V> e = getNearestEntry(bits);
+		if (e == null)
+			return null;
+		int index = LongBits.indexOfBit(bits ^ e.key);
+		return index < 0 || index >= prefixBits ? e : null;
+	}
+
+	/**
+	 * Returns the track holding the least key prefixed by the specified prefix
+	 * bits, or {@code null} if there is no such key.
+	 */
+	final Entry<K, V> getLeastPrefixed(long prefix, int prefixBits) {
+		checkPrefixBits(prefixBits);
+		if (prefixBits == 0)
+			return getFirstEntry();
+		long k = prefix ^ SIGN_FLIP;
+		Entry<K, V> e = edgeOf(k);
+		if (e == null)
+			return null;
+		// findNearest(), stopping at the prefix length
+		for (Entry<K, V> next = e.switches; next != null;) {
+			int bit = next.bit;
+			if (bit >= prefixBits)
+				break;
+			if (k << bit >= 0) {
+				next = next.next;
+				continue;
+			}
+			next = (e = next).switches; // Change track
+		}
+		int index = LongBits.indexOfBit(prefix ^ e.key);
+		if (index >= 0 && index < prefixBits)
+			return null;
+		return e;
+	}
+
+	final Entry<K, V> getLastPrefixed(long prefix, int prefixBits) {
+		if (prefixBits == 0)
+			return getLastEntry();
+		Entry<K, V> e = getLeastPrefixed(prefix, prefixBits);
+		if (e == null)
+			return null;
+		// Skip the switches covered by the prefix
+		Entry<K, V> cur = e.switches;
+		while (cur != null) {
+			if ((cur.bit & BIT_INDEX_MASK) >= prefixBits)
+				return apexOf(cur);
+			cur = cur.next;
+		}
+		return e;
+	}
+
+	final Entry<K, V> getFirstEntry() {
+		Entry<K, V> first = root.switches;
+		if (first != null)
+			return nextOrNode(first);
+		return null;
+	}
+
+	final Entry<K, V> getLastEntry() {
+		Entry<K, V> last = apexOf(root);
+		if (last.bit == UNSET)
+			return null;
+		return last;
+	}
+
+	final Entry<K, V> pollEntry(Entry<K, V> e) {
+		if (e != null)
+			deleteEntry(e);
+		return e;
+	}
+
+	final void deleteEntry(Entry<K, V> e) {
+		modCount++;
+		size--;
+		detach(e);
+	}
+
+	/**
+	 * Returns the key bits of the given entry.
+	 *
+	 * @throws NoSuchElementException if the entry is {@code null}
+	 */
+	static long keyBits(Entry<?, ?> e) {
+		if (e == null)
+			throw new NoSuchElementException();
+		return e.key;
+	}
+
+	// Node navigation operations
+
+	static <K, V> Entry<K, V> backwardsRetrace(Entry<K, V> track, int index) {
+		if ((track.bit & BIT_INDEX_MASK) > index) {
+			// Find correct track
+			do {
+				Entry<K, V> current = track;
+				while ((track = current.prev).switches != current)
+					current = track;
+			} while ((track.bit & BIT_INDEX_MASK) >= index);
+		}
+		return track;
+	}
+
+	static <K, V> Entry<K, V> findInsertionNode(Entry<K, V> cur, int index) {
+		Entry<K, V> ins = null;
+		cur = cur.switches;
+		while (cur != null && (cur.bit & BIT_INDEX_MASK) <= index) {
+			cur = (ins = cur).next;
+		}
+		return ins;
+	}
+
+	static <K, V> Entry<K, V> successorOf(Entry<K, V> node) {
+		Entry<K, V> s = node.switches;
+		if (s != null) {
+			// same as lastLinked(s)
+			while ((node = s.next) != null)
+				s = node;
+			return s;
+		}
+		// same as higherSuccessorOf(node)
+		while ((s = node.prev).switches == node)
+			node = s;
+		return s;
+	}
+
+	static <K, V> Entry<K, V> higherSuccessorOf(Entry<K, V> node) {
+		Entry<K, V> s;
+		while ((s = node.prev).switches == node)
+			node = s;
+		return s;
+	}
+
+	static <K, V> Entry<K, V> parentOf(Entry<K, V> entry) {
+		Entry<K, V> prev;
+		while ((prev = entry.prev).switches != entry)
+			entry = prev;
+		return prev;
+	}
+
+	static <K, V> Entry<K, V> apexOf(Entry<K, V> entry) {
+		for (;;) {
+			Entry<K, V> next = entry.switches;
+			if (next == null)
+				break;
+			entry = next;
+		}
+		return entry;
+	}
+
+	static <K, V> Entry<K, V> nextOrNode(Entry<K, V> node) {
+		Entry<K, V> next = node.next;
+		if (next != null)
+			return next;
+		return node;
+	}
+
+	static <K, V> Entry<K, V> lastLinked(Entry<K, V> node) {
+		for (;;) {
+			Entry<K, V> next = node.next;
+			if (next == null)
+				break;
+			node = next;
+		}
+		return node;
+	}
+
+	// Node manipulation operations
+
+	static <K, V> void enlist(Entry<K, V> dest, Entry<K, V> node) {
+		Entry<K, V> next = dest.switches;
+		(node.prev = dest).switches = node;
+		if (next != null) {
+			(node.next = next).prev = node;
+		}
+	}
+
+	static <K, V> void append(Entry<K, V> dest, Entry<K, V> node) {
+		Entry<K, V> next = dest.next;
+		(node.prev = dest).next = node;
+		if (next != null) {
+			(node.next = next).prev = node;
+		}
+	}
+
+	static <K, V> void prepend(Entry<K, V> dest, Entry<K, V> node) {
+		Entry<K, V> prev = dest.prev;
+		node.prev = prev;
+		if (prev.switches == dest) {
+			prev.switches = node;
+		} else {
+			prev.next = node;
+		}
+		(node.next = dest).prev = node;
+	}
+
+	static <K, V> void replace(Entry<K, V> node, Entry<K, V> repl) {
+		Entry<K, V> prev = node.prev;
+		repl.bit = node.bit;
+		repl.prev = prev;
+		if (prev.switches == node) {
+			prev.switches = repl;
+		} else {
+			prev.next = repl;
+		}
+		Entry<K, V> next = node.next;
+		if (next != null) {
+			(repl.next = next).prev = repl;
+			node.next = null; // null out
+		}
+	}
+
+	static <K, V> void detach(Entry<K, V> entry) {
+		Entry<K, V> next = entry.switches;
+		if (next != null) {
+			Entry<K, V> last = next;
+			Entry<K, V> linked = last.next;
+			if (linked != null) {
+				// lastLinked(linked) inlined
+				do {
+					linked = (last = linked).next;
+				} while (linked != null);
+				Entry<K, V> prev = last.prev;
+				linked = last.switches;
+				prev.bit &= BIT_INDEX_MASK;
+				(next.prev = last).switches = next;
+				if ((prev.next = linked) != null)
+					linked.prev = prev;
+			}
+			replace(entry, last);
+		} else {
+			next = entry.next;
+			Entry<K, V> prev = entry.prev;
+			if (prev.switches == entry) {
+				prev.switches = next;
+			} else {
+				prev.next = next;
+			}
+			if (next != null) {
+				next.prev = prev;
+				entry.next = null; // null out
+			}
+		}
+		// Null out links to avoid garbage retention in case this entry is
+		// still referenced outside the trie.
+		entry.prev = entry.switches = null;
+	}
+
+	static <K, V> void destroyLinks(Entry<K, V> node) {
+		// The following uses an unordered traversal to null out all node links.
+
+		Entry<K, V> link = node.switches;
+		if (link == null)
+			return;
+		node.switches = null;
+		(node = link).prev = null;
+
+		outer: for (;;) {
+			link = node.next;
+			if (link != null) {
+				node.next = null;
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				node.switches = null;
+				node = link;
+				continue;
+			}
+			for (;;) {
+				link = node.prev;
+				if (link == null)
+					return;
+				node.prev = null;
+				node = link.switches;
+				if (node != null) {
+					link.switches = null;
+					continue outer;
+				}
+				node = link;
+			}
+		}
+	}
+
+	// Views
+
+	private transient EntrySet entrySet;
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		EntrySet es = entrySet;
+		return (es != null) ? es : (entrySet = new EntrySet());
+	}
+
+	private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		EntrySet() {
+		}
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			Entry<K, V> e = getEntry(entry.getKey());
+			return e != null && AbstractPatriciaTrie.eq(e.value, entry.getValue());
+		}
+
+		public boolean remove(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			Entry<K, V> e = getEntry(entry.getKey());
+			if (e != null && AbstractPatriciaTrie.eq(e.value, entry.getValue())) {
+				deleteEntry(e);
+				return true;
+			}
+			return false;
+		}
+
+		public int size() {
+			return AbstractPrimitivePatriciaTrie.this.size();
+		}
+
+		public void clear() {
+			AbstractPrimitivePatriciaTrie.this.clear();
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private Entry<K, V> next;
+		private Entry<K, V> lastReturned;
+		private int expectedModCount;
+
+		EntryIterator() {
+			this.expectedModCount = modCount;
+			Entry<K, V> first = getFirstEntry();
+			this.next = first != null ? first : root;
+		}
+
+		public boolean hasNext() {
+			return next.bit != UNSET;
+		}
+
+		public Map.Entry<K, V> next() {
+			Entry<K, V> e = next;
+			if (e.bit == UNSET)
+				throw new NoSuchElementException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			next = successorOf(e);
+			lastReturned = e;
+			return e;
+		}
+
+		public void remove() {
+			Entry<K, V> p = lastReturned;
+			if (p == null)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			deleteEntry(p);
+			expectedModCount = modCount;
+			lastReturned = null;
+		}
+	}
+
+	// Node representation
+
+	@SuppressWarnings("rawtypes")
+	static final Entry DUMMY = new Root<>(true);
+
+	/**
+	 * A map entry of a primitive keyed trie, holding the bits of its key
+	 * inline. With compressed references, a {@code long} takes no more room
+	 * than an {@code int} next to the bit index and the four references.
+	 *
+	 * @param <K> the type of boxed keys
+	 * @param <V> the type of mapped values
+	 */
+	abstract static class Entry<K, V> implements Map.Entry<K, V>,
+			java.io.Serializable {
+		private static final long serialVersionUID = 6710533473540137315L;
+
+		/**
+		 * The bits of the key, left aligned
+		 */
+		final long key;
+		V value;
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#bit
+		 */
+		transient int bit;
+
+		/**
+		 * A linked list of nodes, representing alternative tracks.
+		 */
+		transient Entry<K, V> switches;
+
+		/**
+		 * The next node in the linked list of {@link #switches}.
+		 */
+		transient Entry<K, V> next;
+
+		/**
+		 * Either the parent node or a previous node in the {@link #switches}
+		 * linked list.
+		 */
+		transient Entry<K, V> prev;
+
+		Entry(long key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public V getValue() {
+			return value;
+		}
+
+		@Override
+		public V setValue(V value) {
+			V old = this.value;
+			this.value = value;
+			return old;
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#equals(Object)
+		 */
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return AbstractPatriciaTrie.eq(getKey(), e.getKey())
+					&& AbstractPatriciaTrie.eq(value, e.getValue());
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#hashCode()
+		 */
+		public int hashCode() {
+			K k = getKey();
+			return (k == null ? 0 : k.hashCode())
+					^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return getKey() + "=" + value;
+		}
+	}
+
+	/**
+	 * The root entry, holding no key, and the dummy parent of roots.
+	 */
+	private static final class Root<K, V> extends Entry<K, V> {
+		private static final long serialVersionUID = -3356823167716286025L;
+
+		@SuppressWarnings("unchecked")
+		Root() {
+			super(0, null);
+			this.prev = DUMMY;
+		}
+
+		Root(boolean dummy) {
+			super(0, null);
+			this.prev = this;
+			this.switches = this;
+		}
+
+		@Override
+		public K getKey() {
+			return null;
+		}
+	}
+
+	// Serialization and Deserialization
+
+	private static final byte HAS_NEXT = 0x1;
+	private static final byte HAS_SWITCH = 0x2;
+
+	private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+		s.defaultWriteObject();
+		s.writeInt(size);
+
+		Entry<K, V> node = root.switches;
+		if (node == null)
+			return;
+
+		// The same format as AbstractPatriciaTrie, save for the key being
+		// written as a primitive. The following uses an unordered traversal
+		// similar to destroyLinks().
+
+		outer: for (;;) {
+			s.writeInt(node.bit);
+			writeKey(s, node.key);
+			s.writeObject(node.value);
+
+			Entry<K, V> link = node.next;
+			if (link != null) {
+				s.writeByte(node.switches != null ? HAS_NEXT | HAS_SWITCH
+						: HAS_NEXT);
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				s.writeByte(HAS_SWITCH);
+				node = link;
+				continue;
+			}
+			s.writeByte(0);
+			for (;;) {
+				Entry<K, V> prev = node.prev;
+				link = prev.switches;
+				if (link != null && link != node) {
+					if (link == prev)
+						break outer; // Found DUMMY
+					node = link;
+					continue outer;
+				}
+				node = prev;
+			}
+		}
+	}
+
+	private Entry<K, V> readEntry(java.io.ObjectInputStream s, Entry<K, V> prev)
+			throws IOException, ClassNotFoundException {
+		int bit = s.readInt();
+		long key = readKey(s);
+		@SuppressWarnings("unchecked")
+		Entry<K, V> e = newEntry(key, (V) s.readObject());
+		e.bit = bit;
+		e.prev = prev;
+		return e;
+	}
+
+	@SuppressWarnings("fallthrough")
+	private void readObject(final java.io.ObjectInputStream s)
+			throws java.io.IOException, ClassNotFoundException {
+		s.defaultReadObject();
+		int size = s.readInt();
+		Entry<K, V> prev = root = new Root<>();
+		if (size == 0)
+			return;
+
+		prev = prev.switches = readEntry(s, prev);
+		for (int i = 1;; i++) {
+			switch (s.read()) {
+			case 0:
+				// Search for placeholder
+				do {
+					prev = prev.prev;
+				} while (prev.switches != prev);
+				if (prev == DUMMY) {
+					if (i != size)
+						throw new java.io.StreamCorruptedException();
+					this.size = size;
+					return; // Nothing found. We're done here!
+				}
+				// fall through
+			case HAS_SWITCH:
+				prev = prev.switches = readEntry(s, prev);
+				break;
+			case HAS_NEXT | HAS_SWITCH:
+				prev.switches = prev; // Set as placeholder
+				// fall through
+			case HAS_NEXT:
+				prev = prev.next = readEntry(s, prev);
+				break;
+			default:
+				throw new java.io.StreamCorruptedException();
+			}
+		}
+	}
+}
@@ -0,0 +1,1196 @@
+package com.circlet.util;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+
+/**
+ * The read side of the maps backed by a {@link TrieSnapshot}: lookups, prefix
+ * queries, iterators and views, all reading the trie returned by
+ * {@link #current()}. Subclasses decide how the trie is replaced, and thus
+ * implement the updates, including the polls of the map and of its views.
+ * <p>
+ * Iterators walk the trie current when they were created. Removing through
+ * an iterator, or through a view, removes the key from the backing map.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+@SuppressWarnings("unchecked")
+abstract class AbstractSnapshotTrie<K, V> extends AbstractMap<K, V> implements
+		ConcurrentNavigableMap<K, V>, BitwiseMap<K, V>, java.io.Serializable {
+	private static final long serialVersionUID = 2904426519432580877L;
+
+	/**
+	 * The bitwise comparator used to maintain order in this map.
+	 *
+	 * @serial include
+	 */
+	@SuppressWarnings("rawtypes")
+	final BitwiseComparator comparator;
+
+	AbstractSnapshotTrie(BitwiseComparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Returns the trie this map currently holds.
+	 */
+	abstract TrieSnapshot<K, V> current();
+
+	/**
+	 * Removes and returns the lowest (or highest) entry of the specified view,
+	 * or of the whole map if the view is {@code null}.
+	 */
+	abstract Map.Entry<K, V> pollEntry(SubMap<K, V> range, boolean highest);
+
+	@Override
+	public BitwiseComparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public int size() {
+		return current().size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return current().size == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return current().getEntry(key) != null;
+	}
+
+	@Override
+	public V get(Object key) {
+		AbstractPatriciaTrie.Entry<K, V> e = current().getEntry(key);
+		return e != null ? e.value : null;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		if (value == null)
+			throw new NullPointerException();
+		for (Iterator<V> i = valueIterator(); i.hasNext();) {
+			if (value.equals(i.next()))
+				return true;
+		}
+		return false;
+	}
+
+	// Queries
+
+	@Override
+	public Map.Entry<K, V> nearestEntry(K key) {
+		return exportEntry(current().nearestEntry(key));
+	}
+
+	@Override
+	public K nearestKey(K key) {
+		return keyOrNull(current().nearestEntry(key));
+	}
+
+	@Override
+	public List<Map.Entry<K, V>> nearestEntries(K key, int k) {
+		return AbstractPatriciaTrie.firstEntries(nearestEntryIterator(key), k);
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> nearestEntryIterator(K key) {
+		AbstractPatriciaTrie.Entry<K, V> root = current().root;
+		return new NearestIterator<>(comparator, null, key, root,
+				root.switches);
+	}
+
+	@Override
+	public Map.Entry<K, V> prefixEntry(K key) {
+		return exportEntry(current().prefixEntry(key));
+	}
+
+	@Override
+	public K prefixKey(K key) {
+		return keyOrNull(current().prefixEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> nextPrefixEntry(K key) {
+		return exportEntry(current().nextPrefixEntry(key));
+	}
+
+	@Override
+	public K nextPrefixKey(K key) {
+		return keyOrNull(current().nextPrefixEntry(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> leastPrefixed(K prefixKey, boolean inclusive) {
+		return exportEntry(current().leastPrefixed(prefixKey, inclusive));
+	}
+
+	@Override
+	public Map.Entry<K, V> lastPrefixed(K prefixKey, boolean inclusive) {
+		return exportEntry(current().lastPrefixed(prefixKey, inclusive));
+	}
+
+	@Override
+	public Map.Entry<K, V> lowerEntry(K key) {
+		return exportEntry(current().floorEntry(key, false));
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(current().floorEntry(key, false));
+	}
+
+	@Override
+	public Map.Entry<K, V> floorEntry(K key) {
+		return exportEntry(current().floorEntry(key, true));
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(current().floorEntry(key, true));
+	}
+
+	@Override
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		return exportEntry(current().ceilingEntry(key, true));
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(current().ceilingEntry(key, true));
+	}
+
+	@Override
+	public Map.Entry<K, V> higherEntry(K key) {
+		return exportEntry(current().ceilingEntry(key, false));
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(current().ceilingEntry(key, false));
+	}
+
+	@Override
+	public Map.Entry<K, V> firstEntry() {
+		return exportEntry(current().firstEntry());
+	}
+
+	@Override
+	public Map.Entry<K, V> lastEntry() {
+		return exportEntry(current().lastEntry());
+	}
+
+	@Override
+	public K firstKey() {
+		return key(current().firstEntry());
+	}
+
+	@Override
+	public K lastKey() {
+		return key(current().lastEntry());
+	}
+
+	@Override
+	public Map.Entry<K, V> pollFirstEntry() {
+		return pollEntry(null, false);
+	}
+
+	@Override
+	public Map.Entry<K, V> pollLastEntry() {
+		return pollEntry(null, true);
+	}
+
+	static <K, V> Map.Entry<K, V> exportEntry(AbstractPatriciaTrie.Entry<K, V> e) {
+		return e == null ? null : new AbstractMap.SimpleImmutableEntry<>(
+				e.key, e.value);
+	}
+
+	static <K> K keyOrNull(AbstractPatriciaTrie.Entry<K, ?> e) {
+		return e == null ? null : e.key;
+	}
+
+	static <K> K key(AbstractPatriciaTrie.Entry<K, ?> e) {
+		if (e == null)
+			throw new NoSuchElementException();
+		return e.key;
+	}
+
+	// Views
+	/**
+	 * Fields initialized to contain an instance of the view the first time
+	 * this view is requested. Views are stateless, so there's no reason to
+	 * create more than one.
+	 */
+	private transient KeySet<K> keySet;
+	private transient EntrySet<K, V> entrySet;
+	private transient Values<V> values;
+	private transient SubMap<K, V> descendingMap;
+
+	@Override
+	public NavigableSet<K> keySet() {
+		KeySet<K> ks = keySet;
+		return (ks != null) ? ks : (keySet = new KeySet<>(this));
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		return keySet();
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public Collection<V> values() {
+		Values<V> vs = values;
+		return (vs != null) ? vs : (values = new Values<>(this));
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		EntrySet<K, V> es = entrySet;
+		return (es != null) ? es : (entrySet = new EntrySet<>(this));
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> descendingMap() {
+		SubMap<K, V> dm = descendingMap;
+		return (dm != null) ? dm : (descendingMap = new SubMap<>(this, true,
+				null, false, true, null, false, null, false, true));
+	}
+
+	/**
+	 * @throws ClassCastException {@inheritDoc}
+	 * @throws NullPointerException if {@code fromKey} or {@code toKey} is
+	 *         null
+	 * @throws IllegalArgumentException {@inheritDoc}
+	 */
+	@Override
+	public ConcurrentNavigableMap<K, V> subMap(K fromKey,
+			boolean fromInclusive, K toKey, boolean toInclusive) {
+		if (fromKey == null || toKey == null)
+			throw new NullPointerException();
+		return new SubMap<>(this, false, fromKey, fromInclusive, false, toKey,
+				toInclusive, null, false, false);
+	}
+
+	/**
+	 * @throws ClassCastException {@inheritDoc}
+	 * @throws NullPointerException if {@code toKey} is null
+	 * @throws IllegalArgumentException {@inheritDoc}
+	 */
+	@Override
+	public ConcurrentNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		if (toKey == null)
+			throw new NullPointerException();
+		return new SubMap<>(this, true, null, false, false, toKey, inclusive,
+				null, false, false);
+	}
+
+	/**
+	 * @throws ClassCastException {@inheritDoc}
+	 * @throws NullPointerException if {@code fromKey} is null
+	 * @throws IllegalArgumentException {@inheritDoc}
+	 */
+	@Override
+	public ConcurrentNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		if (fromKey == null)
+			throw new NullPointerException();
+		return new SubMap<>(this, false, fromKey, inclusive, true, null, false,
+				null, false, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The returned map is also a {@link ConcurrentNavigableMap}.
+	 */
+	@Override
+	public BitwiseMap<K, V> subMap(K prefixKey, boolean inclusive) {
+		if (prefixKey == null)
+			throw new NullPointerException();
+		return new PrefixSubMap<>(this, prefixKey, inclusive);
+	}
+
+	final Iterator<K> keyIterator() {
+		return new KeyIterator<>(this, null, false);
+	}
+
+	final Iterator<V> valueIterator() {
+		return new ValueIterator<>(this, null, false);
+	}
+
+	final Iterator<Map.Entry<K, V>> entryIterator() {
+		return new EntryIterator<>(this, null, false);
+	}
+
+	static final class KeySet<E> extends AbstractSet<E> implements
+			NavigableSet<E> {
+		private final ConcurrentNavigableMap<E, ?> m;
+
+		// @formatter:off
+		KeySet(ConcurrentNavigableMap<E, ?> map) { m = map; }
+
+		public Iterator<E> iterator() {
+			if (m instanceof AbstractSnapshotTrie)
+				return ((AbstractSnapshotTrie<E, ?>) m).keyIterator();
+			return ((SubMap<E, ?>) m).keyIterator();
+		}
+		public Iterator<E> descendingIterator() { return descendingSet().iterator(); }
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public boolean contains(Object o) { return m.containsKey(o); }
+		public boolean remove(Object o) { return m.remove(o) != null; }
+		public void clear() { m.clear(); }
+		public E lower(E e) { return m.lowerKey(e); }
+		public E floor(E e) { return m.floorKey(e); }
+		public E ceiling(E e) { return m.ceilingKey(e); }
+		public E higher(E e) { return m.higherKey(e); }
+		public E first() { return m.firstKey(); }
+		public E last() { return m.lastKey(); }
+		public Comparator<? super E> comparator() { return m.comparator(); }
+		public E pollFirst() {
+			Map.Entry<E,?> e = m.pollFirstEntry();
+			return (e == null) ? null : e.getKey();
+		}
+		public E pollLast() {
+			Map.Entry<E,?> e = m.pollLastEntry();
+			return (e == null) ? null : e.getKey();
+		}
+		public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+									  E toElement,   boolean toInclusive) {
+			return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+		}
+		public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+			return new KeySet<>(m.headMap(toElement, inclusive));
+		}
+		public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+			return new KeySet<>(m.tailMap(fromElement, inclusive));
+		}
+		public SortedSet<E> subSet(E fromElement, E toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+		public SortedSet<E> headSet(E toElement) {
+			return headSet(toElement, false);
+		}
+		public SortedSet<E> tailSet(E fromElement) {
+			return tailSet(fromElement, true);
+		}
+		public NavigableSet<E> descendingSet() {
+			return new KeySet<>(m.descendingMap());
+		}
+		// @formatter:on
+	}
+
+	static final class Values<E> extends AbstractCollection<E> {
+		private final ConcurrentNavigableMap<?, E> m;
+
+		// @formatter:off
+		Values(ConcurrentNavigableMap<?, E> map) { m = map; }
+
+		public Iterator<E> iterator() {
+			if (m instanceof AbstractSnapshotTrie)
+				return ((AbstractSnapshotTrie<?, E>) m).valueIterator();
+			return ((SubMap<?, E>) m).valueIterator();
+		}
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public boolean contains(Object o) { return m.containsValue(o); }
+		public void clear() { m.clear(); }
+		// @formatter:on
+	}
+
+	static final class EntrySet<K, V> extends AbstractSet<Map.Entry<K, V>> {
+		private final ConcurrentNavigableMap<K, V> m;
+
+		EntrySet(ConcurrentNavigableMap<K, V> map) {
+			m = map;
+		}
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			if (m instanceof AbstractSnapshotTrie)
+				return ((AbstractSnapshotTrie<K, V>) m).entryIterator();
+			return ((SubMap<K, V>) m).entryIterator();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			V v = m.get(e.getKey());
+			return v != null && v.equals(e.getValue());
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			return m.remove(e.getKey(), e.getValue());
+		}
+
+		// @formatter:off
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public void clear() { m.clear(); }
+		// @formatter:on
+	}
+
+	/**
+	 * Base class for the iterators of the map and of its views, walking the
+	 * trie as it was when the iterator was created. Removing through the
+	 * iterator removes the key of the last entry returned from the map.
+	 */
+	private static abstract class ViewIterator<T, K, V> implements
+			Iterator<T> {
+		private final AbstractSnapshotTrie<K, V> m;
+		private final SubMap<K, V> range;
+		private final boolean descending;
+		private final TrieSnapshot.EntryIterator<K, V> it;
+		private AbstractPatriciaTrie.Entry<K, V> next;
+		private AbstractPatriciaTrie.Entry<K, V> lastReturned;
+
+		ViewIterator(AbstractSnapshotTrie<K, V> m, SubMap<K, V> range,
+				boolean descending) {
+			this.m = m;
+			this.range = range;
+			this.descending = descending;
+			TrieSnapshot<K, V> s = m.current();
+			if (range == null) {
+				it = new TrieSnapshot.EntryIterator<>(s, descending);
+			} else {
+				AbstractPatriciaTrie.Entry<K, V> first = descending ? range.hiNode(s) : range
+						.loNode(s);
+				it = first == null ? null : new TrieSnapshot.EntryIterator<>(
+						s, descending, first.key, true);
+			}
+			advance();
+		}
+
+		private void advance() {
+			AbstractPatriciaTrie.Entry<K, V> e = null;
+			if (it != null && it.hasNext()) {
+				e = it.next();
+				// The range is contiguous, so only its far end can be crossed
+				if (range != null
+						&& (descending ? range.tooLow(e.key) : range
+								.tooHigh(e.key)))
+					e = null;
+			}
+			next = e;
+		}
+
+		public final boolean hasNext() {
+			return next != null;
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> nextEntry() {
+			AbstractPatriciaTrie.Entry<K, V> e = next;
+			if (e == null)
+				throw new NoSuchElementException();
+			lastReturned = e;
+			advance();
+			return e;
+		}
+
+		public final void remove() {
+			AbstractPatriciaTrie.Entry<K, V> p = lastReturned;
+			if (p == null)
+				throw new IllegalStateException();
+			m.remove(p.key);
+			lastReturned = null;
+		}
+	}
+
+	// @formatter:off
+	private static final class EntryIterator<K, V> extends
+			ViewIterator<Map.Entry<K, V>, K, V> {
+		EntryIterator(AbstractSnapshotTrie<K, V> m, SubMap<K, V> range,
+				boolean descending) { super(m, range, descending); }
+		public Map.Entry<K, V> next() { return exportEntry(super.nextEntry()); }
+	}
+	private static final class KeyIterator<K, V> extends
+			ViewIterator<K, K, V> {
+		KeyIterator(AbstractSnapshotTrie<K, V> m, SubMap<K, V> range,
+				boolean descending) { super(m, range, descending); }
+		public K next() { return super.nextEntry().key; }
+	}
+	private static final class ValueIterator<K, V> extends
+			ViewIterator<V, K, V> {
+		ValueIterator(AbstractSnapshotTrie<K, V> m, SubMap<K, V> range,
+				boolean descending) { super(m, range, descending); }
+		public V next() { return super.nextEntry().value; }
+	}
+	// @formatter:on
+
+	/**
+	 * Iterator over the entries of a snapshot, or of a prefix view of it, in
+	 * increasing XOR distance to a key. See
+	 * {@link AbstractPatriciaTrie.NearestWalk}.
+	 */
+	private static final class NearestIterator<K, V> implements
+			Iterator<Map.Entry<K, V>> {
+		private final PrefixSubMap<K, V> range; // null for the whole map
+		private final AbstractPatriciaTrie.NearestWalk<K, V> walk;
+		private AbstractPatriciaTrie.Entry<K, V> next;
+
+		NearestIterator(BitwiseComparator<?> comparator,
+				PrefixSubMap<K, V> range, K key,
+				AbstractPatriciaTrie.Entry<K, V> track,
+				AbstractPatriciaTrie.Entry<K, V> first) {
+			this.range = range;
+			this.walk = new AbstractPatriciaTrie.NearestWalk<>(comparator, key,
+					track, first);
+			this.next = walk();
+		}
+
+		private AbstractPatriciaTrie.Entry<K, V> walk() {
+			AbstractPatriciaTrie.Entry<K, V> e = walk.nextEntry();
+			if (range != null)
+				while (e != null && !range.isPrefixed(e.key))
+					e = walk.nextEntry();
+			return e;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			AbstractPatriciaTrie.Entry<K, V> e = next;
+			if (e == null)
+				throw new NoSuchElementException();
+			next = walk();
+			return exportEntry(e);
+		}
+	}
+
+	/**
+	 * A view of a range of the map, ascending or descending. The range is
+	 * bounded by a low and a high key like the ones of {@code TreeMap}, and
+	 * possibly by a prefix its keys must have, in which case the range is the
+	 * intersection of both.
+	 *
+	 * @serial include
+	 */
+	static class SubMap<K, V> extends AbstractMap<K, V> implements
+			ConcurrentNavigableMap<K, V>, java.io.Serializable {
+		private static final long serialVersionUID = 6295264396302848226L;
+
+		/**
+		 * The backing map.
+		 */
+		final AbstractSnapshotTrie<K, V> m;
+
+		/**
+		 * Endpoints are represented as triples (fromStart, lo, loInclusive) and
+		 * (toEnd, hi, hiInclusive). If fromStart is true, then the low
+		 * (absolute) bound is the start of the backing map, and the other
+		 * values are ignored. Otherwise, if loInclusive is true, lo is the
+		 * inclusive bound, else lo is the exclusive bound. Similarly for the
+		 * upper bound.
+		 */
+		final K lo, hi;
+		final boolean fromStart, toEnd;
+		final boolean loInclusive, hiInclusive;
+
+		/**
+		 * The prefix of all keys of the range, or {@code null} if the range is
+		 * not limited to a prefix, and whether the prefix key itself is part of
+		 * the range.
+		 */
+		final K prefixKey;
+		final boolean prefixInclusive;
+
+		final boolean isDescending;
+
+		SubMap(AbstractSnapshotTrie<K, V> m, boolean fromStart, K lo,
+				boolean loInclusive, boolean toEnd, K hi, boolean hiInclusive,
+				K prefixKey, boolean prefixInclusive, boolean isDescending) {
+			if (!fromStart && !toEnd) {
+				if (m.comparator.compare(lo, hi) > 0)
+					throw new IllegalArgumentException("fromKey > toKey");
+			} else { // type check
+				if (!fromStart)
+					m.comparator.lengthBits(lo);
+				if (!toEnd)
+					m.comparator.lengthBits(hi);
+			}
+			this.m = m;
+			this.fromStart = fromStart;
+			this.lo = lo;
+			this.loInclusive = loInclusive;
+			this.toEnd = toEnd;
+			this.hi = hi;
+			this.hiInclusive = hiInclusive;
+			this.prefixKey = prefixKey;
+			this.prefixInclusive = prefixInclusive;
+			this.isDescending = isDescending;
+		}
+
+		// Internal utilities
+
+		final boolean tooLow(Object key) {
+			BitwiseComparator<? super Object> c = m.comparator;
+			if (!fromStart) {
+				int i = c.compare(key, lo);
+				if (i < 0 || (i == 0 && !loInclusive))
+					return true;
+			}
+			return prefixKey != null
+					&& !c.checkPrefixed(key, prefixKey, prefixInclusive)
+					&& c.compare(key, prefixKey) <= 0;
+		}
+
+		final boolean tooHigh(Object key) {
+			BitwiseComparator<? super Object> c = m.comparator;
+			if (!toEnd) {
+				int i = c.compare(key, hi);
+				if (i > 0 || (i == 0 && !hiInclusive))
+					return true;
+			}
+			return prefixKey != null
+					&& !c.checkPrefixed(key, prefixKey, prefixInclusive)
+					&& c.compare(key, prefixKey) > 0;
+		}
+
+		final boolean inRange(Object key) {
+			return !tooLow(key) && !tooHigh(key);
+		}
+
+		final boolean inClosedRange(Object key) {
+			BitwiseComparator<? super Object> c = m.comparator;
+			return (fromStart || c.compare(key, lo) >= 0)
+					&& (toEnd || c.compare(key, hi) <= 0)
+					&& (prefixKey == null || c.checkPrefixed(key, prefixKey,
+							true));
+		}
+
+		final boolean inRange(Object key, boolean inclusive) {
+			return inclusive ? inRange(key) : inClosedRange(key);
+		}
+
+		final void checkKeyInRange(Object key) {
+			if (key == null)
+				throw new NullPointerException();
+			if (!inRange(key))
+				throw new IllegalArgumentException("key out of range");
+		}
+
+		/*
+		 * Absolute versions of relation operations, on the given trie.
+		 * Relative operations map to these, inverting senses for descending
+		 * maps.
+		 */
+
+		final AbstractPatriciaTrie.Entry<K, V> loNode(TrieSnapshot<K, V> s) {
+			AbstractPatriciaTrie.Entry<K, V> e;
+			if (fromStart) {
+				e = prefixKey != null ? s.leastPrefixed(prefixKey,
+						prefixInclusive) : s.firstEntry();
+			} else {
+				e = s.ceilingEntry(lo, loInclusive);
+				if (e != null && prefixKey != null && tooLow(e.key))
+					e = s.leastPrefixed(prefixKey, prefixInclusive);
+			}
+			return e == null || tooHigh(e.key) ? null : e;
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> hiNode(TrieSnapshot<K, V> s) {
+			AbstractPatriciaTrie.Entry<K, V> e;
+			if (toEnd) {
+				e = prefixKey != null ? s.lastPrefixed(prefixKey,
+						prefixInclusive) : s.lastEntry();
+			} else {
+				e = s.floorEntry(hi, hiInclusive);
+				if (e != null && prefixKey != null && tooHigh(e.key))
+					e = s.lastPrefixed(prefixKey, prefixInclusive);
+			}
+			return e == null || tooLow(e.key) ? null : e;
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> ceilingNode(TrieSnapshot<K, V> s, K key,
+				boolean inclusive) {
+			if (tooLow(key))
+				return loNode(s);
+			AbstractPatriciaTrie.Entry<K, V> e = s.ceilingEntry(key, inclusive);
+			return e == null || tooHigh(e.key) ? null : e;
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> floorNode(TrieSnapshot<K, V> s, K key,
+				boolean inclusive) {
+			if (tooHigh(key))
+				return hiNode(s);
+			AbstractPatriciaTrie.Entry<K, V> e = s.floorEntry(key, inclusive);
+			return e == null || tooLow(e.key) ? null : e;
+		}
+
+		// Map methods
+
+		@Override
+		public boolean containsKey(Object key) {
+			return inRange(key) && m.containsKey(key);
+		}
+
+		@Override
+		public V get(Object key) {
+			return !inRange(key) ? null : m.get(key);
+		}
+
+		@Override
+		public V put(K key, V value) {
+			checkKeyInRange(key);
+			return m.put(key, value);
+		}
+
+		@Override
+		public V remove(Object key) {
+			return !inRange(key) ? null : m.remove(key);
+		}
+
+		@Override
+		public int size() {
+			long count = 0;
+			for (Iterator<K> i = keyIterator(); i.hasNext(); i.next())
+				count++;
+			return count < Integer.MAX_VALUE ? (int) count : Integer.MAX_VALUE;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return loNode(m.current()) == null;
+		}
+
+		@Override
+		public boolean containsValue(Object value) {
+			if (value == null)
+				throw new NullPointerException();
+			for (Iterator<V> i = valueIterator(); i.hasNext();) {
+				if (value.equals(i.next()))
+					return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			for (Iterator<K> i = keyIterator(); i.hasNext();)
+				m.remove(i.next());
+		}
+
+		// ConcurrentMap methods
+
+		@Override
+		public V putIfAbsent(K key, V value) {
+			checkKeyInRange(key);
+			return m.putIfAbsent(key, value);
+		}
+
+		@Override
+		public boolean remove(Object key, Object value) {
+			return inRange(key) && m.remove(key, value);
+		}
+
+		@Override
+		public boolean replace(K key, V oldValue, V newValue) {
+			checkKeyInRange(key);
+			return m.replace(key, oldValue, newValue);
+		}
+
+		@Override
+		public V replace(K key, V value) {
+			checkKeyInRange(key);
+			return m.replace(key, value);
+		}
+
+		// SortedMap methods
+
+		@Override
+		public Comparator<? super K> comparator() {
+			Comparator<? super K> c = m.comparator();
+			return isDescending ? Collections.reverseOrder(c) : c;
+		}
+
+		@Override
+		public K firstKey() {
+			return key(isDescending ? hiNode(m.current()) : loNode(m.current()));
+		}
+
+		@Override
+		public K lastKey() {
+			return key(isDescending ? loNode(m.current()) : hiNode(m.current()));
+		}
+
+		// NavigableMap methods
+
+		@Override
+		public Map.Entry<K, V> ceilingEntry(K key) {
+			return exportEntry(ceilingRelative(key, true));
+		}
+
+		@Override
+		public K ceilingKey(K key) {
+			return keyOrNull(ceilingRelative(key, true));
+		}
+
+		@Override
+		public Map.Entry<K, V> higherEntry(K key) {
+			return exportEntry(ceilingRelative(key, false));
+		}
+
+		@Override
+		public K higherKey(K key) {
+			return keyOrNull(ceilingRelative(key, false));
+		}
+
+		@Override
+		public Map.Entry<K, V> floorEntry(K key) {
+			return exportEntry(floorRelative(key, true));
+		}
+
+		@Override
+		public K floorKey(K key) {
+			return keyOrNull(floorRelative(key, true));
+		}
+
+		@Override
+		public Map.Entry<K, V> lowerEntry(K key) {
+			return exportEntry(floorRelative(key, false));
+		}
+
+		@Override
+		public K lowerKey(K key) {
+			return keyOrNull(floorRelative(key, false));
+		}
+
+		@Override
+		public Map.Entry<K, V> firstEntry() {
+			TrieSnapshot<K, V> s = m.current();
+			return exportEntry(isDescending ? hiNode(s) : loNode(s));
+		}
+
+		@Override
+		public Map.Entry<K, V> lastEntry() {
+			TrieSnapshot<K, V> s = m.current();
+			return exportEntry(isDescending ? loNode(s) : hiNode(s));
+		}
+
+		@Override
+		public Map.Entry<K, V> pollFirstEntry() {
+			return m.pollEntry(this, isDescending);
+		}
+
+		@Override
+		public Map.Entry<K, V> pollLastEntry() {
+			return m.pollEntry(this, !isDescending);
+		}
+
+		private AbstractPatriciaTrie.Entry<K, V> ceilingRelative(K key, boolean inclusive) {
+			TrieSnapshot<K, V> s = m.current();
+			return isDescending ? floorNode(s, key, inclusive) : ceilingNode(
+					s, key, inclusive);
+		}
+
+		private AbstractPatriciaTrie.Entry<K, V> floorRelative(K key, boolean inclusive) {
+			TrieSnapshot<K, V> s = m.current();
+			return isDescending ? ceilingNode(s, key, inclusive) : floorNode(
+					s, key, inclusive);
+		}
+
+		// Views
+
+		@Override
+		public ConcurrentNavigableMap<K, V> subMap(K fromKey,
+				boolean fromInclusive, K toKey, boolean toInclusive) {
+			if (fromKey == null || toKey == null)
+				throw new NullPointerException();
+			if (!inRange(fromKey, fromInclusive))
+				throw new IllegalArgumentException("fromKey out of range");
+			if (!inRange(toKey, toInclusive))
+				throw new IllegalArgumentException("toKey out of range");
+			if (isDescending)
+				return new SubMap<>(m, false, toKey, toInclusive, false,
+						fromKey, fromInclusive, prefixKey, prefixInclusive, true);
+			return new SubMap<>(m, false, fromKey, fromInclusive, false, toKey,
+					toInclusive, prefixKey, prefixInclusive, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+			if (toKey == null)
+				throw new NullPointerException();
+			if (!inRange(toKey, inclusive))
+				throw new IllegalArgumentException("toKey out of range");
+			if (isDescending)
+				return new SubMap<>(m, false, toKey, inclusive, toEnd, hi,
+						hiInclusive, prefixKey, prefixInclusive, true);
+			return new SubMap<>(m, fromStart, lo, loInclusive, false, toKey,
+					inclusive, prefixKey, prefixInclusive, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+			if (fromKey == null)
+				throw new NullPointerException();
+			if (!inRange(fromKey, inclusive))
+				throw new IllegalArgumentException("fromKey out of range");
+			if (isDescending)
+				return new SubMap<>(m, fromStart, lo, loInclusive, false,
+						fromKey, inclusive, prefixKey, prefixInclusive, true);
+			return new SubMap<>(m, false, fromKey, inclusive, toEnd, hi,
+					hiInclusive, prefixKey, prefixInclusive, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> subMap(K fromKey, K toKey) {
+			return subMap(fromKey, true, toKey, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> headMap(K toKey) {
+			return headMap(toKey, false);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> tailMap(K fromKey) {
+			return tailMap(fromKey, true);
+		}
+
+		@Override
+		public ConcurrentNavigableMap<K, V> descendingMap() {
+			return new SubMap<>(m, fromStart, lo, loInclusive, toEnd, hi,
+					hiInclusive, prefixKey, prefixInclusive, !isDescending);
+		}
+
+		transient KeySet<K> keySetView;
+		transient EntrySet<K, V> entrySetView;
+		transient Values<V> valuesView;
+
+		@Override
+		public NavigableSet<K> keySet() {
+			KeySet<K> ks = keySetView;
+			return (ks != null) ? ks : (keySetView = new KeySet<>(this));
+		}
+
+		@Override
+		public NavigableSet<K> navigableKeySet() {
+			return keySet();
+		}
+
+		@Override
+		public NavigableSet<K> descendingKeySet() {
+			return descendingMap().navigableKeySet();
+		}
+
+		@Override
+		public Collection<V> values() {
+			Values<V> vs = valuesView;
+			return (vs != null) ? vs : (valuesView = new Values<>(this));
+		}
+
+		@Override
+		public Set<Map.Entry<K, V>> entrySet() {
+			EntrySet<K, V> es = entrySetView;
+			return (es != null) ? es : (entrySetView = new EntrySet<>(this));
+		}
+
+		final Iterator<K> keyIterator() {
+			return new KeyIterator<>(m, this, isDescending);
+		}
+
+		final Iterator<V> valueIterator() {
+			return new ValueIterator<>(m, this, isDescending);
+		}
+
+		final Iterator<Map.Entry<K, V>> entryIterator() {
+			return new EntryIterator<>(m, this, isDescending);
+		}
+	}
+
+	/**
+	 * An ascending view of the keys prefixed by a key, supporting the
+	 * {@link BitwiseMap} queries within the prefix.
+	 *
+	 * @serial include
+	 */
+	static final class PrefixSubMap<K, V> extends SubMap<K, V> implements
+			BitwiseMap<K, V> {
+		private static final long serialVersionUID = -1769535318924606743L;
+
+		final int prefixLength;
+
+		PrefixSubMap(AbstractSnapshotTrie<K, V> m, K prefixKey,
+				boolean inclusive) {
+			super(m, true, null, false, true, null, false, prefixKey,
+					inclusive, false);
+			this.prefixLength = m.comparator.lengthBits(prefixKey);
+		}
+
+		final boolean isPrefixed(Object key) {
+			return m.comparator.checkPrefixed(key, prefixKey, prefixInclusive);
+		}
+
+		@Override
+		public BitwiseComparator<? super K> comparator() {
+			return m.comparator;
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> nearestNode(K key) {
+			TrieSnapshot<K, V> s = m.current();
+			AbstractPatriciaTrie.Entry<K, V> e = s.nearestEntry(key);
+			if (e != null && !isPrefixed(e.key))
+				return s.leastPrefixed(prefixKey, prefixInclusive);
+			return e;
+		}
+
+		@Override
+		public Map.Entry<K, V> nearestEntry(K key) {
+			return exportEntry(nearestNode(key));
+		}
+
+		@Override
+		public K nearestKey(K key) {
+			return keyOrNull(nearestNode(key));
+		}
+
+		@Override
+		public List<Map.Entry<K, V>> nearestEntries(K key, int k) {
+			return AbstractPatriciaTrie.firstEntries(nearestEntryIterator(key),
+					k);
+		}
+
+		@Override
+		public Iterator<Map.Entry<K, V>> nearestEntryIterator(K key) {
+			// The shallowest prefixed entry, the other ones being below its
+			// switches from the end of the prefix on
+			TrieSnapshot<K, V> s = m.current();
+			AbstractPatriciaTrie.Entry<K, V> e = prefixLength == 0 ? s.root
+					: s.leastPrefixed(prefixKey, true);
+			m.comparator.lengthBits(key); // Type (and possibly null) check
+			if (e == null)
+				return Collections.emptyIterator();
+			return new NearestIterator<>(m.comparator, this, key, e,
+					AbstractPatriciaTrie.switchFrom(e, prefixLength));
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> prefixNode(K key) {
+			AbstractPatriciaTrie.Entry<K, V> e = m.current().prefixEntry(key);
+			return e == null || !isPrefixed(e.key) ? null : e;
+		}
+
+		@Override
+		public Map.Entry<K, V> prefixEntry(K key) {
+			return exportEntry(prefixNode(key));
+		}
+
+		@Override
+		public K prefixKey(K key) {
+			return keyOrNull(prefixNode(key));
+		}
+
+		final AbstractPatriciaTrie.Entry<K, V> nextPrefixNode(K key) {
+			TrieSnapshot<K, V> s = m.current();
+			AbstractPatriciaTrie.Entry<K, V> e = s.nextPrefixEntry(key);
+			if (e == null || isPrefixed(e.key))
+				return e;
+			if (tooLow(e.key))
+				return s.leastPrefixed(prefixKey, prefixInclusive);
+			return null;
+		}
+
+		@Override
+		public Map.Entry<K, V> nextPrefixEntry(K key) {
+			return exportEntry(nextPrefixNode(key));
+		}
+
+		@Override
+		public K nextPrefixKey(K key) {
+			return keyOrNull(nextPrefixNode(key));
+		}
+
+		@Override
+		public Map.Entry<K, V> leastPrefixed(K key, boolean inclusive) {
+			BitwiseComparator<? super Object> c = m.comparator;
+			TrieSnapshot<K, V> s = m.current();
+			int i = c.contrast(key, prefixKey);
+			if (i < 0)
+				return exportEntry(s.leastPrefixed(key, inclusive
+						&& prefixInclusive));
+			if (i == prefixLength)
+				return exportEntry(s.leastPrefixed(key, inclusive));
+			if (i == c.lengthBits(key))
+				return exportEntry(s.leastPrefixed(prefixKey, prefixInclusive));
+			return null;
+		}
+
+		@Override
+		public Map.Entry<K, V> lastPrefixed(K key, boolean inclusive) {
+			BitwiseComparator<? super Object> c = m.comparator;
+			TrieSnapshot<K, V> s = m.current();
+			int i = c.contrast(key, prefixKey);
+			if (i < 0)
+				return exportEntry(s.lastPrefixed(key, inclusive
+						&& prefixInclusive));
+			if (i == prefixLength)
+				return exportEntry(s.lastPrefixed(key, inclusive));
+			if (i == c.lengthBits(key))
+				return exportEntry(s.lastPrefixed(prefixKey, prefixInclusive));
+			return null;
+		}
+
+		/**
+		 * @throws IllegalArgumentException if {@code prefixKey} is not
+		 *         prefixed by the prefix of this map
+		 */
+		@Override
+		public BitwiseMap<K, V> subMap(K key, boolean inclusive) {
+			if (key == null)
+				throw new NullPointerException();
+			BitwiseComparator<? super Object> c = m.comparator;
+			int i = c.contrast(key, prefixKey);
+			if (i < 0)
+				return new PrefixSubMap<>(m, key, inclusive && prefixInclusive);
+			if (i == prefixLength)
+				return new PrefixSubMap<>(m, key, inclusive);
+			throw new IllegalArgumentException("prefixKey out of range");
+		}
+	}
+
+}
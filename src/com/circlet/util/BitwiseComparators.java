@@ -3,6 +3,9 @@ package com.circlet.util;
 import static java.lang.Double.doubleToLongBits;
 import static java.lang.Float.floatToIntBits;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Provides ready-to-use {@link BitwiseComparator} implementations, as well as
  * public utility methods (on each inner classes) to help build other forms of
@@ -32,6 +35,12 @@ public class BitwiseComparators {
 	public static final Booleans FOR_BOOLEAN_ARRAY = Booleans.INSTANCE;
 	public static final StringBits FOR_STRING = StringBits.INSTANCE;
 
+	public static final CharSequenceBits FOR_CHAR_SEQUENCE = CharSequenceBits.INSTANCE;
+	public static final ByteBufferBits FOR_BYTE_BUFFER = ByteBufferBits.SIGNED;
+	public static final ByteBufferBits FOR_UBYTE_BUFFER = ByteBufferBits.UNSIGNED;
+
+	public static final IpPrefixBits FOR_IP_PREFIX = IpPrefixBits.INSTANCE;
+
 	// Basic implementations
 
 	private interface BaseInterface<T> extends BitwiseComparator<T>,
@@ -438,36 +447,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(char[] a1, char[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				char b1 = a1[i];
-				char b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + CharBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + CharBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(char[] a1, char[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				char b1 = a1[i];
-				char b2 = a2[i];
-				if (b1 != b2) {
-					return b1 - b2;
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return a1[i] - a2[i];
 			return len1 - len2;
 		}
 
@@ -480,14 +475,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				char b1 = a[i];
-				char b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -526,36 +514,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(byte[] a1, byte[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a1[i];
-				byte b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + ByteBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + ByteBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(byte[] a1, byte[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a1[i];
-				byte b2 = a2[i];
-				if (b1 != b2) {
-					return b1 - b2;
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return a1[i] - a2[i];
 			return len1 - len2;
 		}
 
@@ -568,14 +542,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a[i];
-				byte b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -614,36 +581,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(short[] a1, short[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				int b1 = a1[i];
-				int b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + ShortBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + ShortBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(short[] a1, short[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				short b1 = a1[i];
-				short b2 = a2[i];
-				if (b1 != b2) {
-					return b1 - b2;
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return a1[i] - a2[i];
 			return len1 - len2;
 		}
 
@@ -657,14 +610,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				int b1 = a[i];
-				int b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -703,36 +649,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(int[] a1, int[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				int b1 = a1[i];
-				int b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + IntBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + IntBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(int[] a1, int[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				int b1 = a1[i];
-				int b2 = a2[i];
-				if (b1 != b2) {
-					return Integer.compare(b1, b2);
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return Integer.compare(a1[i], a2[i]);
 			return len1 - len2;
 		}
 
@@ -745,14 +677,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				int b1 = a[i];
-				int b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -791,36 +716,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(long[] a1, long[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				long b1 = a1[i];
-				long b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + LongBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + LongBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(long[] a1, long[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				long b1 = a1[i];
-				long b2 = a2[i];
-				if (b1 != b2) {
-					return Long.compare(b1, b2);
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return Long.compare(a1[i], a2[i]);
 			return len1 - len2;
 		}
 
@@ -833,14 +744,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				long b1 = a[i];
-				long b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -1069,36 +973,22 @@ public class BitwiseComparators {
 
 		@Override
 		public int contrast(byte[] a1, byte[] a2) {
-			int len1 = a1.length;
-			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
-
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a1[i];
-				byte b2 = a2[i];
-				if (b1 != b2) {
-					return (i << SIZE_SHIFT) + ByteBits.indexOfBit(b1 ^ b2);
-				}
-			}
-
-			if (len1 == len2)
+			int i = Arrays.mismatch(a1, a2);
+			if (i < 0)
 				return -1;
-			return lim << SIZE_SHIFT;
+			if (i == a1.length || i == a2.length)
+				return i << SIZE_SHIFT;
+			return (i << SIZE_SHIFT) + ByteBits.indexOfBit(a1[i] ^ a2[i]);
 		}
 
 		@Override
 		public int compare(byte[] a1, byte[] a2) {
 			int len1 = a1.length;
 			int len2 = a2.length;
-			int lim = Math.min(len1, len2);
 
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a1[i];
-				byte b2 = a2[i];
-				if (b1 != b2) {
-					return (b1 & 0xFF) - (b2 & 0xFF);
-				}
-			}
+			int i = Arrays.mismatch(a1, a2);
+			if (i >= 0 && i < len1 && i < len2)
+				return (a1[i] & 0xFF) - (a2[i] & 0xFF);
 			return len1 - len2;
 		}
 
@@ -1111,14 +1001,7 @@ public class BitwiseComparators {
 			} else if (lim >= a.length)
 				return false;
 
-			for (int i = 0; i < lim; i++) {
-				byte b1 = a[i];
-				byte b2 = prefix[i];
-				if (b1 != b2) {
-					return false;
-				}
-			}
-			return true;
+			return Arrays.equals(a, 0, lim, prefix, 0, lim);
 		}
 
 		private Object readResolve() {
@@ -1269,4 +1152,310 @@ public class BitwiseComparators {
 			return INSTANCE;
 		}
 	}
+
+	// Flyweight implementations
+
+	/**
+	 * Compares any {@link CharSequence} the way {@link StringBits} compares
+	 * strings. A trie of {@code String} keys using this comparator can be
+	 * queried with a {@code StringBuilder} or a {@code CharBuffer} over the
+	 * chars at hand, without creating a {@code String} for every query.
+	 */
+	public static final class CharSequenceBits implements
+			BaseInterface<CharSequence> {
+		private static final long serialVersionUID = -2893560376622305816L;
+		public static final CharSequenceBits INSTANCE = new CharSequenceBits();
+
+		private CharSequenceBits() {}
+
+		public static final int SIZE_SHIFT = CharBits.SIZE_SHIFT;
+		public static final int MASK_INDEX = (1 << SIZE_SHIFT) - 1;
+		public static final int MASK_BIT = 1 << MASK_INDEX;
+
+		public static int bit(CharSequence s, int index) {
+			int i = index >> SIZE_SHIFT;
+			// CharSequence implementations differ on what they throw
+			if (i < 0 || i >= s.length())
+				throw new BitIndexOutOfBoundsException(index);
+			return s.charAt(i) & MASK_BIT >>> (index & MASK_INDEX);
+		}
+
+		@Override
+		public int lengthBits(CharSequence s) {
+			return s.length() << SIZE_SHIFT;
+		}
+
+		@Override
+		public boolean isBitSet(CharSequence s, int index) {
+			return bit(s, index) != 0;
+		}
+
+		@Override
+		public int contrast(CharSequence s1, CharSequence s2) {
+			if (s1 instanceof String && s2 instanceof String)
+				return StringBits.INSTANCE.contrast((String) s1, (String) s2);
+
+			int len1 = s1.length();
+			int len2 = s2.length();
+			int lim = Math.min(len1, len2);
+
+			for (int i = 0; i < lim; i++) {
+				char c1 = s1.charAt(i);
+				char c2 = s2.charAt(i);
+				if (c1 != c2) {
+					return (i << SIZE_SHIFT) + CharBits.indexOfBit(c1 ^ c2);
+				}
+			}
+
+			if (len1 == len2)
+				return -1;
+			return lim << SIZE_SHIFT;
+		}
+
+		@Override
+		public int compare(CharSequence s1, CharSequence s2) {
+			if (s1 instanceof String && s2 instanceof String)
+				return ((String) s1).compareTo((String) s2);
+			return CharSequence.compare(s1, s2);
+		}
+
+		@Override
+		public boolean checkPrefixed(CharSequence s, CharSequence prefix,
+				boolean inclusive) {
+			int lim = prefix.length();
+			if (inclusive) {
+				if (lim > s.length())
+					return false;
+			} else if (lim >= s.length())
+				return false;
+
+			for (int i = 0; i < lim; i++) {
+				if (s.charAt(i) != prefix.charAt(i))
+					return false;
+			}
+			return true;
+		}
+
+		private Object readResolve() {
+			return INSTANCE;
+		}
+	}
+
+	/**
+	 * Compares byte keys given either as byte arrays or as the remaining bytes
+	 * of a {@link ByteBuffer}, heap or direct, ordered as by {@link Bytes}
+	 * ({@link #SIGNED}) or by {@link UBytes} ({@link #UNSIGNED}). A trie of
+	 * {@code byte[]} keys using this comparator can be queried with a buffer
+	 * whose position and limit delimit the key, without copying the key out.
+	 * <p>
+	 * Buffers are only read through absolute gets, so their position and limit
+	 * are left untouched.
+	 */
+	public static final class ByteBufferBits implements BaseInterface<Object> {
+		private static final long serialVersionUID = 6124097563281049257L;
+		public static final ByteBufferBits SIGNED = new ByteBufferBits(true);
+		public static final ByteBufferBits UNSIGNED = new ByteBufferBits(false);
+
+		/** @serial */
+		private final boolean signed;
+		private final transient int flip;
+
+		private ByteBufferBits(boolean signed) {
+			this.signed = signed;
+			this.flip = signed ? MASK_BIT : 0;
+		}
+
+		public static final int SIZE_SHIFT = ByteBits.SIZE_SHIFT;
+		public static final int MASK_INDEX = (1 << SIZE_SHIFT) - 1;
+		public static final int MASK_BIT = 1 << MASK_INDEX;
+
+		/** Returns the length in bytes of a {@code byte[]} or buffer key. */
+		public static int length(Object o) {
+			if (o instanceof byte[])
+				return ((byte[]) o).length;
+			return ((ByteBuffer) o).remaining();
+		}
+
+		/** Returns the byte at the index of a {@code byte[]} or buffer key. */
+		public static byte byteAt(Object o, int i) {
+			if (o instanceof byte[])
+				return ((byte[]) o)[i];
+			ByteBuffer b = (ByteBuffer) o;
+			if (i < 0 || i >= b.remaining())
+				throw new IndexOutOfBoundsException();
+			return b.get(b.position() + i);
+		}
+
+		public int bit(Object o, int index) {
+			try {
+				return (byteAt(o, index >> SIZE_SHIFT) ^ flip)
+						& MASK_BIT >>> (index & MASK_INDEX);
+			} catch (IndexOutOfBoundsException e) {
+				throw new BitIndexOutOfBoundsException(index);
+			}
+		}
+
+		@Override
+		public int lengthBits(Object o) {
+			return length(o) << SIZE_SHIFT;
+		}
+
+		@Override
+		public boolean isBitSet(Object o, int index) {
+			return bit(o, index) != 0;
+		}
+
+		@Override
+		public int contrast(Object o1, Object o2) {
+			int len1 = length(o1);
+			int len2 = length(o2);
+			int lim = Math.min(len1, len2);
+
+			int i = mismatch(o1, o2, lim);
+			if (i >= 0) {
+				return (i << SIZE_SHIFT)
+						+ ByteBits.indexOfBit(byteAt(o1, i) ^ byteAt(o2, i));
+			}
+
+			if (len1 == len2)
+				return -1;
+			return lim << SIZE_SHIFT;
+		}
+
+		@Override
+		public int compare(Object o1, Object o2) {
+			int len1 = length(o1);
+			int len2 = length(o2);
+
+			int i = mismatch(o1, o2, Math.min(len1, len2));
+			if (i >= 0)
+				return ((byteAt(o1, i) ^ flip) & 0xFF)
+						- ((byteAt(o2, i) ^ flip) & 0xFF);
+			return len1 - len2;
+		}
+
+		@Override
+		public boolean checkPrefixed(Object o, Object prefix, boolean inclusive) {
+			int lim = length(prefix);
+			if (inclusive) {
+				if (lim > length(o))
+					return false;
+			} else if (lim >= length(o))
+				return false;
+
+			return mismatch(o, prefix, lim) < 0;
+		}
+
+		/**
+		 * Returns the index of the first byte below {@code lim} that differs
+		 * between the keys, or -1.
+		 */
+		private static int mismatch(Object o1, Object o2, int lim) {
+			if (o1 instanceof byte[]) {
+				byte[] a1 = (byte[]) o1;
+				if (o2 instanceof byte[])
+					return Arrays.mismatch(a1, 0, lim, (byte[]) o2, 0, lim);
+				return mismatch((ByteBuffer) o2, a1, lim);
+			}
+			ByteBuffer b1 = (ByteBuffer) o1;
+			if (o2 instanceof byte[])
+				return mismatch(b1, (byte[]) o2, lim);
+			int i = b1.mismatch((ByteBuffer) o2);
+			return i < lim ? i : -1;
+		}
+
+		private static int mismatch(ByteBuffer b, byte[] a, int lim) {
+			int pos = b.position();
+			if (b.hasArray()) {
+				int from = b.arrayOffset() + pos;
+				return Arrays.mismatch(b.array(), from, from + lim, a, 0, lim);
+			}
+			// Direct or read-only; wrapping the array would allocate
+			for (int i = 0; i < lim; i++) {
+				if (b.get(pos + i) != a[i])
+					return i;
+			}
+			return -1;
+		}
+
+		private Object readResolve() {
+			return signed ? SIGNED : UNSIGNED;
+		}
+	}
+
+	/**
+	 * Bitwise comparator of {@link IpPrefix} keys, whose bits are the first
+	 * {@code length()} bits of their address. The family of the prefixes is
+	 * not looked at, as IPv4 addresses take the first 32 of the 128 bits of
+	 * a prefix, so IPv4 and IPv6 prefixes are best kept apart.
+	 */
+	public static final class IpPrefixBits implements BaseInterface<IpPrefix> {
+		private static final long serialVersionUID = 5934216019473381640L;
+		public static final IpPrefixBits INSTANCE = new IpPrefixBits();
+
+		private IpPrefixBits() {}
+
+		/**
+		 * Returns whether the bit at the given index of a 128-bit address is
+		 * set.
+		 */
+		public static boolean isBitSet(long high, long low, int index) {
+			return (index < 64 ? high << index : low << index) < 0;
+		}
+
+		/**
+		 * Returns the index of the first bit that differs between two 128-bit
+		 * addresses, or 128 if there is none.
+		 */
+		public static int indexOfXOR(long high1, long low1, long high2,
+				long low2) {
+			long x = high1 ^ high2;
+			if (x != 0)
+				return Long.numberOfLeadingZeros(x);
+			return 64 + Long.numberOfLeadingZeros(low1 ^ low2);
+		}
+
+		@Override
+		public int lengthBits(IpPrefix o) {
+			return o.length;
+		}
+
+		@Override
+		public boolean isBitSet(IpPrefix o, int index) {
+			if (index < 0 || index >= o.length)
+				throw new BitIndexOutOfBoundsException(index);
+			return isBitSet(o.high, o.low, index);
+		}
+
+		@Override
+		public int contrast(IpPrefix o1, IpPrefix o2) {
+			int lim = Math.min(o1.length, o2.length);
+			int i = indexOfXOR(o1.high, o1.low, o2.high, o2.low);
+			if (i < lim)
+				return i;
+			return o1.length == o2.length ? -1 : lim;
+		}
+
+		@Override
+		public int compare(IpPrefix o1, IpPrefix o2) {
+			int lim = Math.min(o1.length, o2.length);
+			int i = indexOfXOR(o1.high, o1.low, o2.high, o2.low);
+			if (i < lim)
+				return isBitSet(o1.high, o1.low, i) ? 1 : -1;
+			return o1.length - o2.length;
+		}
+
+		@Override
+		public boolean checkPrefixed(IpPrefix o, IpPrefix prefix,
+				boolean inclusive) {
+			int lim = prefix.length;
+			if (inclusive ? lim > o.length : lim >= o.length)
+				return false;
+			return indexOfXOR(o.high, o.low, prefix.high, prefix.low) >= lim;
+		}
+
+		private Object readResolve() {
+			return INSTANCE;
+		}
+	}
 }
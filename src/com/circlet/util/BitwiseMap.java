@@ -1,5 +1,7 @@
 package com.circlet.util;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -72,6 +74,46 @@ public interface BitwiseMap<K, V> extends PrefixMap<K, V> {
 	 */
 	K nearestKey(K key);
 
+	/**
+	 * Returns the key-value mappings associated with the {@code k} closest
+	 * keys in a bitwise XOR metric to the given key, closest first, or all of
+	 * the mappings if there are fewer than {@code k} of them. See
+	 * {@link #nearestEntryIterator(Object)}.
+	 * 
+	 * @param key the key
+	 * @param k the number of mappings to return
+	 * @return the mappings of the {@code k} closest keys to {@code key}
+	 * @throws IllegalArgumentException if {@code k} is negative
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	List<Map.Entry<K, V>> nearestEntries(K key, int k);
+
+	/**
+	 * Returns an iterator over the mappings of this map in increasing bitwise
+	 * XOR distance of their keys to the given key. Keys of the same length as
+	 * the given one are returned in order of the XOR of their bits with its
+	 * bits. A key which is a prefix of others is treated as ending with a bit
+	 * unlike any other: it comes right after the keys it prefixes that agree
+	 * with the given key on the bit following it, and before the other ones,
+	 * unless the given key ends there as well, in which case it comes first.
+	 * <p>
+	 * Only the mappings returned are walked to, so taking the first few of
+	 * them does not visit the whole map. The iterator does not support the
+	 * {@code remove} operation.
+	 * 
+	 * @param key the key
+	 * @return an iterator over the mappings in increasing distance to
+	 *         {@code key}
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	Iterator<Map.Entry<K, V>> nearestEntryIterator(K key);
+
 	/**
 	 * @throws NullPointerException {@inheritDoc}
 	 * @throws ClassCastException {@inheritDoc}
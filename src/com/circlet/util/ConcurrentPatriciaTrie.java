@@ -0,0 +1,257 @@
+package com.circlet.util;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.circlet.util.TrieSnapshot.Path;
+
+/**
+ * A thread-safe {@link BitwiseMap}, implementing {@link ConcurrentNavigableMap}
+ * on the same Tracks and Switches layout as {@link PatriciaTrie}, as a
+ * copy-on-write map behind a single atomic reference.
+ * <p>
+ * This is not a concurrent trie in the sense of a Ctrie: there are no
+ * indirection nodes, nor any compare-and-set on the switch lists of the
+ * tracks, so updates of unrelated keys still contend for the one reference.
+ * The map is meant for workloads where lookups far outnumber updates, such
+ * as routing tables. Under many concurrent writers,
+ * {@link java.util.concurrent.ConcurrentSkipListMap} scales better.
+ * <p>
+ * The map holds an immutable trie, which is replaced as a whole on every
+ * update. Lookups read the current trie with a single volatile read and never
+ * retry nor block, so they are wait-free, {@code prefixEntry()} and the other
+ * prefix queries included. An update copies the entries on the path from the
+ * root down to the changed switch list, which takes time and memory
+ * proportional to the number of bits of the key, and publishes the new trie
+ * with a compare-and-set, retrying on the new trie if another update was
+ * published in the meantime. Updates are thus lock-free, but concurrent
+ * updates of the map are serialized by that compare-and-set, however far
+ * apart their keys are, and an update that loses the race copies its path
+ * again. The {@code writers} group of {@code ConcurrentBenchmark} measures
+ * this against {@code ConcurrentSkipListMap}, whose updates of different
+ * keys do not conflict.
+ * <p>
+ * Iterators and the views returned by {@code subMap(prefixKey, inclusive)}
+ * and the like are safe to use while the map is being updated. An iterator
+ * walks the trie as it was when the iterator was created, never throwing a
+ * {@link java.util.ConcurrentModificationException}. Bulk operations such as
+ * {@code putAll()} and the {@code clear()} of a view are not atomic.
+ * <p>
+ * Like most other concurrent collections, this map does not permit
+ * {@code null} keys or values. The entries returned by its methods and its
+ * iterators are snapshots of the mappings when they were read, and do not
+ * support {@code Entry.setValue()}.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentPatriciaTrie<K, V> extends AbstractSnapshotTrie<K, V> {
+	private static final long serialVersionUID = -4187358196604310592L;
+
+	/**
+	 * The current trie, replaced by every update
+	 */
+	private transient volatile TrieSnapshot<K, V> snapshot;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<ConcurrentPatriciaTrie, TrieSnapshot> SNAPSHOT = AtomicReferenceFieldUpdater
+			.newUpdater(ConcurrentPatriciaTrie.class, TrieSnapshot.class,
+					"snapshot");
+
+	public ConcurrentPatriciaTrie(BitwiseComparator<? super K> comparator) {
+		super(comparator);
+		this.snapshot = new TrieSnapshot<>(comparator);
+	}
+
+	/**
+	 * Constructs a new concurrent patricia trie containing the mappings of
+	 * the specified map, ordered according to the given comparator.
+	 *
+	 * @param comparator the comparator that will be used to order this map
+	 * @param m the map whose mappings are to be placed in this map
+	 * @throws NullPointerException if the specified map contains a
+	 *         {@code null} key or value
+	 */
+	public ConcurrentPatriciaTrie(BitwiseComparator<? super K> comparator,
+			Map<? extends K, ? extends V> m) {
+		this(comparator);
+		putAll(m);
+	}
+
+	@Override
+	final TrieSnapshot<K, V> current() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns an immutable copy of this map, taken in constant time.
+	 *
+	 * @return the mappings of this map at the time of the call
+	 */
+	public PersistentPatriciaTrie<K, V> snapshot() {
+		return new PersistentPatriciaTrie<>(comparator, snapshot);
+	}
+
+	final boolean casSnapshot(TrieSnapshot<K, V> expect,
+			TrieSnapshot<K, V> update) {
+		return SNAPSHOT.compareAndSet(this, expect, update);
+	}
+
+	// Updates
+
+	@Override
+	public V put(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e == null) {
+				if (casSnapshot(s, s.insert(p, key, value)))
+					return null;
+			} else if (casSnapshot(s, s.replace(p, value)))
+				return e.value;
+		}
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e != null)
+				return e.value;
+			if (casSnapshot(s, s.insert(p, key, value)))
+				return null;
+		}
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e == null)
+				return null;
+			if (casSnapshot(s, s.replace(p, value)))
+				return e.value;
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (key == null || oldValue == null || newValue == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e == null || !oldValue.equals(e.value))
+				return false;
+			if (casSnapshot(s, s.replace(p, newValue)))
+				return true;
+		}
+	}
+
+	@Override
+	public V remove(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e == null)
+				return null;
+			if (casSnapshot(s, s.delete(p)))
+				return e.value;
+		}
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (key == null)
+			throw new NullPointerException();
+		if (value == null)
+			return false;
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e = s.locate(key, p);
+			if (e == null || !value.equals(e.value))
+				return false;
+			if (casSnapshot(s, s.delete(p)))
+				return true;
+		}
+	}
+
+	@Override
+	public void clear() {
+		snapshot = new TrieSnapshot<>(comparator);
+	}
+
+	@Override
+	final Map.Entry<K, V> pollEntry(SubMap<K, V> range, boolean highest) {
+		Path<K, V> p = new Path<>();
+		for (;;) {
+			TrieSnapshot<K, V> s = snapshot;
+			AbstractPatriciaTrie.Entry<K, V> e;
+			if (range == null) {
+				e = highest ? s.lastEntry() : s.firstEntry();
+			} else
+				e = highest ? range.hiNode(s) : range.loNode(s);
+			if (e == null)
+				return null;
+			s.locate(e.key, p);
+			if (casSnapshot(s, s.delete(p)))
+				return exportEntry(e);
+		}
+	}
+
+	// Serialization and Deserialization
+
+	private void writeObject(java.io.ObjectOutputStream s) throws IOException {
+		// Write out the Comparator and any hidden stuff
+		s.defaultWriteObject();
+
+		TrieSnapshot<K, V> t = snapshot;
+		s.writeInt(t.size);
+		for (Iterator<AbstractPatriciaTrie.Entry<K, V>> i = new TrieSnapshot.EntryIterator<>(t,
+				false); i.hasNext();) {
+			AbstractPatriciaTrie.Entry<K, V> e = i.next();
+			s.writeObject(e.key);
+			s.writeObject(e.value);
+		}
+	}
+
+	private void readObject(final java.io.ObjectInputStream s)
+			throws java.io.IOException, ClassNotFoundException {
+		// Read in the Comparator and any hidden stuff
+		s.defaultReadObject();
+
+		TrieSnapshot<K, V> t = new TrieSnapshot<>(comparator);
+		Path<K, V> p = new Path<>();
+		for (int i = s.readInt(); i > 0; i--) {
+			K key = (K) s.readObject();
+			V value = (V) s.readObject();
+			if (key == null || value == null)
+				throw new java.io.StreamCorruptedException();
+			t = t.locate(key, p) == null ? t.insert(p, key, value) : t
+					.replace(p, value);
+		}
+		snapshot = t;
+	}
+}
@@ -0,0 +1,171 @@
+package com.circlet.util;
+
+import com.circlet.util.BitwiseComparators.CharSequenceBits;
+import com.circlet.util.BitwiseComparators.StringBits;
+
+/**
+ * A distance between keys which can be bounded knowing only the first bits of
+ * a key, so that a walk down a trie can skip all of the keys starting with
+ * bits already too far from the query. See
+ * {@link PatriciaTrie#fuzzyMatches(Object, int, DistanceMetric)}.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys measured
+ */
+public interface DistanceMetric<K> {
+	/**
+	 * The number of bits which differ between two keys of the same length.
+	 * Keys of different lengths are never within any distance of each other.
+	 */
+	DistanceMetric<Object> HAMMING = new Hamming();
+
+	/**
+	 * The number of single char insertions, deletions and substitutions
+	 * turning a key into another, for keys ordered by
+	 * {@link BitwiseComparators#FOR_STRING} or
+	 * {@link BitwiseComparators#FOR_CHAR_SEQUENCE}.
+	 */
+	DistanceMetric<CharSequence> LEVENSHTEIN = new Levenshtein();
+
+	/**
+	 * Returns a matcher of keys within the given distance of the query.
+	 *
+	 * @param comparator the comparator of the keys
+	 * @param query the key to measure keys against
+	 * @param maxDistance the maximum distance of the matched keys
+	 * @return a matcher
+	 * @throws IllegalArgumentException if the distance is negative, or if this
+	 *         metric does not apply to keys ordered by the comparator
+	 */
+	Matcher<K> matcher(BitwiseComparator<? super K> comparator, K query,
+			int maxDistance);
+
+	/**
+	 * Measures keys against a query a few bits at a time, the way they are
+	 * found walking down a trie. A state holds what is known of the distance
+	 * of the keys starting with some bits, and is never modified once
+	 * returned, so that keys sharing these bits can carry on from it. Also
+	 * used to match keys against a {@link Glob}.
+	 */
+	interface Matcher<K> {
+		/**
+		 * Returns the state of the comparison with the empty prefix.
+		 */
+		int[] start();
+
+		/**
+		 * Returns the state of the comparison of the keys starting with the
+		 * first {@code toBit} bits of the given key, from the state of the
+		 * ones starting with its first {@code fromBit} bits, or {@code null}
+		 * if none of these keys can be within the maximum distance.
+		 */
+		int[] advance(int[] state, K key, int fromBit, int toBit);
+
+		/**
+		 * Returns whether the given key is within the maximum distance, from
+		 * the state of its whole length.
+		 */
+		boolean matches(int[] state, K key);
+	}
+
+	/** @see DistanceMetric#HAMMING */
+	final class Hamming implements DistanceMetric<Object> {
+		Hamming() {}
+
+		@Override
+		public Matcher<Object> matcher(
+				BitwiseComparator<? super Object> comparator, Object query,
+				int maxDistance) {
+			if (maxDistance < 0)
+				throw new IllegalArgumentException("maxDistance < 0: "
+						+ maxDistance);
+			int length = comparator.lengthBits(query);
+			return new Matcher<Object>() {
+				// @formatter:off
+				public int[] start() { return new int[1]; }
+				// @formatter:on
+
+				public int[] advance(int[] state, Object key, int fromBit,
+						int toBit) {
+					if (toBit > length)
+						return null; // Longer than the query
+					int d = state[0];
+					for (int i = fromBit; i < toBit; i++) {
+						if (comparator.isBitSet(key, i) != comparator.isBitSet(
+								query, i) && ++d > maxDistance)
+							return null;
+					}
+					return d == state[0] ? state : new int[] { d };
+				}
+
+				public boolean matches(int[] state, Object key) {
+					return comparator.lengthBits(key) == length;
+				}
+			};
+		}
+	}
+
+	/** @see DistanceMetric#LEVENSHTEIN */
+	final class Levenshtein implements DistanceMetric<CharSequence> {
+		private static final int SIZE_SHIFT = StringBits.SIZE_SHIFT;
+
+		Levenshtein() {}
+
+		/**
+		 * The state is the last row of the distance matrix, the distances of
+		 * every prefix of the query to the chars of the key walked so far.
+		 * Only whole chars are walked, the ones within the first
+		 * {@code toBit >> SIZE_SHIFT} chars, and the keys starting with a row
+		 * whose least distance is too large are all too far.
+		 */
+		@Override
+		public Matcher<CharSequence> matcher(
+				BitwiseComparator<? super CharSequence> comparator,
+				CharSequence query, int maxDistance) {
+			if (maxDistance < 0)
+				throw new IllegalArgumentException("maxDistance < 0: "
+						+ maxDistance);
+			Object c = comparator; // Either is a BitwiseComparator of chars
+			if (!(c instanceof StringBits) && !(c instanceof CharSequenceBits))
+				throw new IllegalArgumentException(
+						"keys not ordered by chars: " + comparator);
+			int m = query.length();
+			return new Matcher<CharSequence>() {
+				public int[] start() {
+					int[] row = new int[m + 1];
+					for (int i = 0; i <= m; i++)
+						row[i] = i;
+					return row;
+				}
+
+				public int[] advance(int[] state, CharSequence key,
+						int fromBit, int toBit) {
+					int from = fromBit >> SIZE_SHIFT, to = toBit >> SIZE_SHIFT;
+					int[] row = state;
+					for (int j = from; j < to; j++) {
+						char c = key.charAt(j);
+						int[] next = new int[m + 1];
+						int min = next[0] = row[0] + 1;
+						for (int i = 1; i <= m; i++) {
+							int d = row[i - 1]
+									+ (query.charAt(i - 1) == c ? 0 : 1);
+							d = Math.min(d, Math.min(row[i], next[i - 1]) + 1);
+							next[i] = d;
+							if (d < min)
+								min = d;
+						}
+						if (min > maxDistance)
+							return null;
+						row = next;
+					}
+					return row;
+				}
+
+				public boolean matches(int[] state, CharSequence key) {
+					return state[m] <= maxDistance;
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,1025 @@
+package com.circlet.util;
+
+import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_ZERO_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.UNSET;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * A read-only {@link BitwiseMap} packing the tracks and switches of a
+ * {@link PatriciaTrie} into parallel arrays.
+ * <p>
+ * Entries are numbered in key order, and entry {@code i} is described by
+ * {@code keys[i]}, {@code values[i]}, {@code bits[i]}, {@code switches[i]}
+ * (the number of its first switch, or {@code -1}) and {@code nexts[i]} (the
+ * number of the next switch of its track, or {@code -1}). An entry thus takes
+ * three {@code int}s and two references, against an object with six fields
+ * for a {@code PatriciaTrie} entry, and tracks are walked through arrays
+ * rather than through scattered objects.
+ * <p>
+ * Key lookups, {@code prefixEntry()} and {@code nearestEntry()} walk the trie
+ * like {@code PatriciaTrie} does. Since entries are numbered in key order, the
+ * other navigation methods are binary searches, iteration is a scan of the
+ * arrays, and every view, whether bounded by keys or by a prefix, is a range of
+ * entry numbers sharing the arrays of the whole trie. Accordingly, the views
+ * never throw {@code IllegalArgumentException} for keys outside their bounds,
+ * they only return the part of their range within those keys.
+ * The {@link IndexedPrefixMap} methods of a view index its own entries,
+ * starting from 0, so a page of a prefix view is a range of that view.
+ * <p>
+ * All update methods throw {@link UnsupportedOperationException}. The entries
+ * returned by the methods of this class and its views do not support
+ * {@code Entry.setValue()}.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+@SuppressWarnings("unchecked")
+public final class FrozenPatriciaTrie<K, V> extends AbstractMap<K, V> implements
+		BitwiseMap<K, V>, IndexedPrefixMap<K, V>, java.io.Serializable {
+	private static final long serialVersionUID = -2530722843813581632L;
+
+	private static final int NONE = -1;
+
+	/**
+	 * The bitwise comparator used to maintain order in this map.
+	 *
+	 * @serial include
+	 */
+	@SuppressWarnings("rawtypes")
+	final BitwiseComparator comparator;
+
+	/*
+	 * The entries of the whole trie, shared by all views.
+	 */
+	final Object[] keys;
+	final Object[] values;
+	final int[] bits;
+	final int[] switches;
+	final int[] nexts;
+
+	/**
+	 * The number of the root entry, or {@code -1} if no key is empty, in which
+	 * case {@code head} is still the first switch of the root track.
+	 */
+	final int root;
+	final int head;
+
+	/**
+	 * The range of entry numbers of this map, {@code to} excluded.
+	 */
+	final int from, to;
+
+	private FrozenPatriciaTrie(BitwiseComparator<? super K> comparator,
+			Object[] keys, Object[] values, int[] bits, int[] switches,
+			int[] nexts, int root, int head) {
+		this.comparator = comparator;
+		this.keys = keys;
+		this.values = values;
+		this.bits = bits;
+		this.switches = switches;
+		this.nexts = nexts;
+		this.root = root;
+		this.head = head;
+		this.from = 0;
+		this.to = keys.length;
+	}
+
+	private FrozenPatriciaTrie(FrozenPatriciaTrie<K, V> m, int from, int to) {
+		this.comparator = m.comparator;
+		this.keys = m.keys;
+		this.values = m.values;
+		this.bits = m.bits;
+		this.switches = m.switches;
+		this.nexts = m.nexts;
+		this.root = m.root;
+		this.head = m.head;
+		this.from = from;
+		this.to = Math.max(from, to);
+	}
+
+	/**
+	 * Returns a frozen trie with the mappings of the specified sorted map,
+	 * which must be ordered by a {@link BitwiseComparator}.
+	 *
+	 * @param m the map whose mappings are to be placed in the frozen trie
+	 * @return a frozen trie with the mappings of the map
+	 * @throws IllegalArgumentException if the map is not ordered by a
+	 *         {@code BitwiseComparator}
+	 */
+	public static <K, V> FrozenPatriciaTrie<K, V> build(
+			SortedMap<K, ? extends V> m) {
+		Comparator<? super K> c = m.comparator();
+		if (!(c instanceof BitwiseComparator))
+			throw new IllegalArgumentException(
+					"map not ordered by a BitwiseComparator");
+		return build((BitwiseComparator<? super K>) c, m);
+	}
+
+	/**
+	 * Returns a frozen trie with the mappings of the specified map, ordered
+	 * according to the given comparator.
+	 *
+	 * @param comparator the comparator that will be used to order the map
+	 * @param m the map whose mappings are to be placed in the frozen trie
+	 * @return a frozen trie with the mappings of the map
+	 */
+	public static <K, V> FrozenPatriciaTrie<K, V> build(
+			BitwiseComparator<? super K> comparator,
+			Map<? extends K, ? extends V> m) {
+		if (m instanceof AbstractPatriciaTrie
+				&& ((AbstractPatriciaTrie<?, ?>) m).comparator == comparator)
+			return freeze((AbstractPatriciaTrie<K, V>) m);
+		PatriciaTrie<K, V> t = new PatriciaTrie<>(comparator);
+		t.putAll(m);
+		return freeze(t);
+	}
+
+	/**
+	 * Numbers the entries of the trie in key order, which is the in-order
+	 * walk of the binary tree whose left children are {@code next} switches
+	 * and whose right children are {@code switches}.
+	 */
+	static <K, V> FrozenPatriciaTrie<K, V> freeze(AbstractPatriciaTrie<K, V> t) {
+		int size = t.size;
+		Object[] keys = new Object[size];
+		Object[] values = new Object[size];
+		int[] bits = new int[size];
+		int[] switches = new int[size];
+		int[] nexts = new int[size];
+
+		AbstractPatriciaTrie.Entry<K, V> e = t.root;
+		boolean rootSet = e.bit != ROOT_UNSET;
+		if (!rootSet)
+			e = e.switches;
+		int head = NONE;
+
+		// Stacked entries wait for their next switches, which are less than
+		// them, to be numbered. 'link' tells where the number of an entry goes
+		// once known: -1 nowhere, >= 0 the switches of that entry, < -1 the
+		// 'left' slot of the stacked entry at -link - 2.
+		AbstractPatriciaTrie.Entry<K, V>[] stack = AbstractPatriciaTrie
+				.newEntryArray(16);
+		int[] links = new int[16];
+		int[] left = new int[16];
+		int top = 0, n = 0, link = NONE;
+		for (;;) {
+			for (; e != null; e = e.next) {
+				if (top == stack.length) {
+					stack = Arrays.copyOf(stack, top << 1);
+					links = Arrays.copyOf(links, top << 1);
+					left = Arrays.copyOf(left, top << 1);
+				}
+				stack[top] = e;
+				links[top] = link;
+				left[top] = NONE;
+				link = -(top++ + 2);
+			}
+			if (top == 0)
+				break;
+			e = stack[--top];
+			stack[top] = null;
+			int i = n++;
+			keys[i] = e.key;
+			values[i] = e.value;
+			bits[i] = e.bit;
+			nexts[i] = left[top];
+			switches[i] = NONE;
+			if ((link = links[top]) >= 0)
+				switches[link] = i;
+			else if (link < NONE)
+				left[-link - 2] = i;
+			else
+				head = i;
+			e = e.switches;
+			link = i;
+		}
+		if (rootSet)
+			return new FrozenPatriciaTrie<>(t.comparator(), keys, values, bits,
+					switches, nexts, 0, switches[0]);
+		return new FrozenPatriciaTrie<>(t.comparator(), keys, values, bits,
+				switches, nexts, NONE, head);
+	}
+
+	// Trie walks, over the whole trie
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#findNearest}, starting from the
+	 * specified track, which is {@code -1} for an unset root.
+	 */
+	private int findNearest(int track, Object key, int length) {
+		BitwiseComparator<? super Object> c = comparator;
+		int[] bits = this.bits, nexts = this.nexts;
+		int next = track < 0 ? head : switches[track];
+		while (next >= 0) {
+			int bit = bits[next];
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					next = nexts[next];
+					if (next < 0)
+						break;
+				}
+			} else {
+				if (length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = nexts[next];
+					continue;
+				}
+			}
+			next = switches[track = next]; // Change track
+		}
+		return track;
+	}
+
+	final int getIndex(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int i = findNearest(root, key, c.lengthBits(key));
+		return i >= 0 && c.compare(key, keys[i]) == 0 ? inRange(i) : NONE;
+	}
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#nearestEntry(Object, boolean)}.
+	 */
+	final int nearestIndex(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		int next;
+		int track = root;
+		if (length == 0 || (next = head) < 0)
+			return track;
+		if (c.isBitSet(key, 0)) {
+			if ((bits[next] & BIT_ZERO_FLAG) != UNSET)
+				return track < 0 ? next : track;
+		} else if ((bits[next] & BIT_ZERO_FLAG) == UNSET) {
+			int prev;
+			if ((next = nexts[prev = next]) < 0)
+				return track < 0 ? prev : track;
+		}
+		return findNearest(next, key, length);
+	}
+
+	/**
+	 * Same as {@link TrieSnapshot#prefixEntry(Object)}.
+	 */
+	final int prefixIndex(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		int track = findNearest(root, key, length);
+		if (track < 0)
+			return NONE;
+		int index = c.contrast(key, keys[track]);
+		if (index < 0 || index != length
+				&& index == c.lengthBits(keys[track]))
+			return track;
+
+		int prefix = NONE;
+		int next = (track = root) < 0 ? head : switches[track];
+		while (next >= 0) {
+			int bit = bits[next];
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (bitm > index || length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					if ((next = nexts[next]) < 0)
+						break;
+				}
+				prefix = track;
+			} else {
+				if (bit > index || length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = nexts[next];
+					continue;
+				}
+			}
+			next = switches[track = next]; // Change track
+		}
+		return prefix;
+	}
+
+	// Searches, within the range of this map
+
+	private int inRange(int i) {
+		return i >= from && i < to ? i : NONE;
+	}
+
+	/**
+	 * Returns the number of the first entry in range whose key is greater
+	 * than (or equal to, if inclusive) the specified key, or {@code to}.
+	 */
+	final int ceilingIndex(Object key, boolean inclusive) {
+		BitwiseComparator<? super Object> c = comparator;
+		c.lengthBits(key); // Type (and possibly null) check
+		Object[] keys = this.keys;
+		int lo = from, hi = to;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = c.compare(keys[mid], key);
+			if (cmp < 0 || cmp == 0 && !inclusive)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the number of the first entry in range, starting from the
+	 * specified one, whose key is not prefixed by the specified key. Keys
+	 * from the start up to that entry must be greater than or equal to the
+	 * prefix key.
+	 */
+	final int prefixEnd(Object prefixKey, int start) {
+		BitwiseComparator<? super Object> c = comparator;
+		Object[] keys = this.keys;
+		int lo = start, hi = to;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (c.checkPrefixed(keys[mid], prefixKey, true))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	final int leastPrefixedIndex(Object prefixKey, boolean inclusive) {
+		int i = ceilingIndex(prefixKey, inclusive);
+		return i < to
+				&& comparator.checkPrefixed(keys[i], prefixKey, inclusive) ? i
+				: NONE;
+	}
+
+	final int lastPrefixedIndex(Object prefixKey, boolean inclusive) {
+		int i = ceilingIndex(prefixKey, inclusive);
+		int end = prefixEnd(prefixKey, i);
+		return end > i ? end - 1 : NONE;
+	}
+
+	final int nextPrefixIndex(Object key) {
+		int i = prefixEnd(key, ceilingIndex(key, false));
+		return i < to ? i : NONE;
+	}
+
+	private Map.Entry<K, V> exportEntry(int i) {
+		return i < 0 ? null : new AbstractMap.SimpleImmutableEntry<>(
+				(K) keys[i], (V) values[i]);
+	}
+
+	private K keyOrNull(int i) {
+		return i < 0 ? null : (K) keys[i];
+	}
+
+	// Map methods
+
+	@Override
+	public BitwiseComparator<? super K> comparator() {
+		return comparator;
+	}
+
+	@Override
+	public int size() {
+		return to - from;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return from == to;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return getIndex(key) >= 0;
+	}
+
+	@Override
+	public V get(Object key) {
+		int i = getIndex(key);
+		return i >= 0 ? (V) values[i] : null;
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		Object[] values = this.values;
+		for (int i = from; i < to; i++) {
+			if (Objects.equals(value, values[i]))
+				return true;
+		}
+		return false;
+	}
+
+	// BitwiseMap methods
+
+	private int nearestInRange(K key) {
+		int i = nearestIndex(key);
+		if (i >= 0 && inRange(i) < 0)
+			return from < to ? from : NONE;
+		return i;
+	}
+
+	@Override
+	public Map.Entry<K, V> nearestEntry(K key) {
+		return exportEntry(nearestInRange(key));
+	}
+
+	@Override
+	public K nearestKey(K key) {
+		return keyOrNull(nearestInRange(key));
+	}
+
+	@Override
+	public List<Map.Entry<K, V>> nearestEntries(K key, int k) {
+		return AbstractPatriciaTrie.firstEntries(nearestEntryIterator(key), k);
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> nearestEntryIterator(K key) {
+		return new NearestIterator<>(this, key);
+	}
+
+	@Override
+	public Map.Entry<K, V> prefixEntry(K key) {
+		return exportEntry(inRange(prefixIndex(key)));
+	}
+
+	@Override
+	public K prefixKey(K key) {
+		return keyOrNull(inRange(prefixIndex(key)));
+	}
+
+	@Override
+	public Map.Entry<K, V> nextPrefixEntry(K key) {
+		return exportEntry(nextPrefixIndex(key));
+	}
+
+	@Override
+	public K nextPrefixKey(K key) {
+		return keyOrNull(nextPrefixIndex(key));
+	}
+
+	@Override
+	public Map.Entry<K, V> leastPrefixed(K prefixKey, boolean inclusive) {
+		return exportEntry(leastPrefixedIndex(prefixKey, inclusive));
+	}
+
+	@Override
+	public Map.Entry<K, V> lastPrefixed(K prefixKey, boolean inclusive) {
+		return exportEntry(lastPrefixedIndex(prefixKey, inclusive));
+	}
+
+	// NavigableMap methods
+
+	private int lowerIndex(K key, boolean inclusive) {
+		int i = ceilingIndex(key, !inclusive) - 1;
+		return i >= from ? i : NONE;
+	}
+
+	private int higherIndex(K key, boolean inclusive) {
+		int i = ceilingIndex(key, inclusive);
+		return i < to ? i : NONE;
+	}
+
+	@Override
+	public Map.Entry<K, V> lowerEntry(K key) {
+		return exportEntry(lowerIndex(key, false));
+	}
+
+	@Override
+	public K lowerKey(K key) {
+		return keyOrNull(lowerIndex(key, false));
+	}
+
+	@Override
+	public Map.Entry<K, V> floorEntry(K key) {
+		return exportEntry(lowerIndex(key, true));
+	}
+
+	@Override
+	public K floorKey(K key) {
+		return keyOrNull(lowerIndex(key, true));
+	}
+
+	@Override
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		return exportEntry(higherIndex(key, true));
+	}
+
+	@Override
+	public K ceilingKey(K key) {
+		return keyOrNull(higherIndex(key, true));
+	}
+
+	@Override
+	public Map.Entry<K, V> higherEntry(K key) {
+		return exportEntry(higherIndex(key, false));
+	}
+
+	@Override
+	public K higherKey(K key) {
+		return keyOrNull(higherIndex(key, false));
+	}
+
+	@Override
+	public Map.Entry<K, V> firstEntry() {
+		return from < to ? exportEntry(from) : null;
+	}
+
+	@Override
+	public Map.Entry<K, V> lastEntry() {
+		return from < to ? exportEntry(to - 1) : null;
+	}
+
+	@Override
+	public K firstKey() {
+		if (from == to)
+			throw new NoSuchElementException();
+		return (K) keys[from];
+	}
+
+	@Override
+	public K lastKey() {
+		if (from == to)
+			throw new NoSuchElementException();
+		return (K) keys[to - 1];
+	}
+
+	// IndexedPrefixMap methods, indexes being relative to 'from'
+
+	@Override
+	public int rank(K key) {
+		return ceilingIndex(key, true) - from;
+	}
+
+	@Override
+	public Map.Entry<K, V> select(int index) {
+		if (index < 0 || index >= to - from)
+			throw new IndexOutOfBoundsException("index: " + index);
+		return exportEntry(from + index);
+	}
+
+	@Override
+	public int countPrefixed(K prefixKey, boolean inclusive) {
+		int i = ceilingIndex(prefixKey, inclusive);
+		return prefixEnd(prefixKey, i) - i;
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator(int fromIndex) {
+		if (fromIndex < 0 || fromIndex > to - from)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex);
+		return new ViewIterator<>(this, ENTRIES, from + fromIndex);
+	}
+
+	@Override
+	public Map.Entry<K, V> pollFirstEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Map.Entry<K, V> pollLastEntry() {
+		throw new UnsupportedOperationException();
+	}
+
+	// Views
+	/**
+	 * Fields initialized to contain an instance of the view the first time
+	 * this view is requested. Views are stateless, so there's no reason to
+	 * create more than one.
+	 */
+	private transient KeySet<K> navigableKeySet;
+	private transient Values<V> valuesView;
+	private transient EntrySet<K, V> entrySet;
+	private transient DescendingMap<K, V> descendingMap;
+
+	@Override
+	public NavigableSet<K> keySet() {
+		return navigableKeySet();
+	}
+
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		KeySet<K> ks = navigableKeySet;
+		return (ks != null) ? ks : (navigableKeySet = new KeySet<>(this));
+	}
+
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	@Override
+	public Collection<V> values() {
+		Values<V> vs = valuesView;
+		return (vs != null) ? vs : (valuesView = new Values<>(this));
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		EntrySet<K, V> es = entrySet;
+		return (es != null) ? es : (entrySet = new EntrySet<>(this));
+	}
+
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		DescendingMap<K, V> dm = descendingMap;
+		return (dm != null) ? dm : (descendingMap = new DescendingMap<>(this));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if {@code fromKey} is greater than
+	 *         {@code toKey}
+	 */
+	@Override
+	public FrozenPatriciaTrie<K, V> subMap(K fromKey, boolean fromInclusive,
+			K toKey, boolean toInclusive) {
+		if (comparator.compare(fromKey, toKey) > 0)
+			throw new IllegalArgumentException("fromKey > toKey");
+		return new FrozenPatriciaTrie<>(this, ceilingIndex(fromKey,
+				fromInclusive), ceilingIndex(toKey, !toInclusive));
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> headMap(K toKey, boolean inclusive) {
+		return new FrozenPatriciaTrie<>(this, from, ceilingIndex(toKey,
+				!inclusive));
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> tailMap(K fromKey, boolean inclusive) {
+		return new FrozenPatriciaTrie<>(this, ceilingIndex(fromKey, inclusive),
+				to);
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	@Override
+	public FrozenPatriciaTrie<K, V> subMap(K prefixKey, boolean inclusive) {
+		int i = ceilingIndex(prefixKey, inclusive);
+		return new FrozenPatriciaTrie<>(this, i, prefixEnd(prefixKey, i));
+	}
+
+	final <T> Iterator<T> iterator(int kind, boolean descending) {
+		return new ViewIterator<>(this, kind, descending);
+	}
+
+	static final int KEYS = 0, VALUES = 1, ENTRIES = 2;
+
+	/**
+	 * Iterates over a range of entry numbers, in either direction.
+	 */
+	private static final class ViewIterator<T> implements Iterator<T> {
+		private final FrozenPatriciaTrie<?, ?> m;
+		private final int kind;
+		private final int step;
+		private int next;
+		private final int end;
+
+		ViewIterator(FrozenPatriciaTrie<?, ?> m, int kind, boolean descending) {
+			this.m = m;
+			this.kind = kind;
+			this.step = descending ? -1 : 1;
+			this.next = descending ? m.to - 1 : m.from;
+			this.end = descending ? m.from - 1 : m.to;
+		}
+
+		ViewIterator(FrozenPatriciaTrie<?, ?> m, int kind, int first) {
+			this.m = m;
+			this.kind = kind;
+			this.step = 1;
+			this.next = first;
+			this.end = m.to;
+		}
+
+		public boolean hasNext() {
+			return next != end;
+		}
+
+		public T next() {
+			int i = next;
+			if (i == end)
+				throw new NoSuchElementException();
+			next = i + step;
+			switch (kind) {
+			case KEYS:
+				return (T) m.keys[i];
+			case VALUES:
+				return (T) m.values[i];
+			default:
+				return (T) new AbstractMap.SimpleImmutableEntry<>(m.keys[i],
+						m.values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Same walk as {@link AbstractPatriciaTrie.NearestWalk}, over entry
+	 * numbers. The entries of a side left on the stack are numbered from its
+	 * track up to a fence, the switches of a track coming in decreasing key
+	 * order, so that the sides outside of the range of a view are skipped as
+	 * a whole.
+	 */
+	private static final class NearestIterator<K, V> implements
+			Iterator<Map.Entry<K, V>> {
+		private final FrozenPatriciaTrie<K, V> m;
+		private final Object key;
+		private final int length;
+		private int[] stack = new int[48]; // track, first switch and fence
+		private int depth;
+		private int next;
+
+		@SuppressWarnings("unchecked")
+		NearestIterator(FrozenPatriciaTrie<K, V> m, Object key) {
+			this.m = m;
+			this.key = key;
+			this.length = m.comparator.lengthBits(key); // Type check
+			int root = m.root;
+			defer(root, root < 0 ? m.head : m.switches[root], m.keys.length);
+			next = walk();
+		}
+
+		private void defer(int track, int first, int fence) {
+			if (track >= m.to || fence <= m.from)
+				return;
+			int n = depth;
+			if (n == stack.length)
+				stack = Arrays.copyOf(stack, n << 1);
+			stack[n] = track;
+			stack[n + 1] = first;
+			stack[n + 2] = fence;
+			depth = n + 3;
+		}
+
+		private int walk() {
+			BitwiseComparator<? super Object> c = m.comparator;
+			int[] bits = m.bits, switches = m.switches, nexts = m.nexts;
+			while (depth > 0) {
+				int fence = stack[--depth];
+				int next = stack[--depth];
+				int track = stack[--depth];
+				while (next >= 0) {
+					int bit = bits[next];
+					if (bit >= 0) {
+						if (bit < length && c.isBitSet(key, bit)) {
+							defer(track, nexts[next], next);
+							next = switches[track = next]; // Change track
+						} else {
+							defer(next, switches[next], fence);
+							fence = next;
+							next = nexts[next];
+						}
+						continue;
+					}
+					int bitm = bit & BIT_INDEX_MASK;
+					int one = NONE, zero = next;
+					if ((bit & BIT_ZERO_FLAG) == UNSET) {
+						one = next;
+						zero = nexts[next];
+					}
+					int oneFence = fence, zeroFence = one >= 0 ? one : fence;
+					int near = one, nearFence = oneFence;
+					int far = zero, farFence = zeroFence;
+					if (length <= bitm || !c.isBitSet(key, bitm)) {
+						near = zero;
+						nearFence = zeroFence;
+						far = one;
+						farFence = oneFence;
+					}
+					if (far >= 0)
+						defer(far, switches[far], farFence);
+					if (length <= bitm || near < 0) {
+						if (near >= 0)
+							defer(near, switches[near], nearFence);
+						next = NONE; // Stay on the track
+					} else {
+						defer(track, NONE, track + 1);
+						next = switches[track = near]; // Change track
+						fence = nearFence;
+					}
+				}
+				if (track >= m.from && track < m.to)
+					return track;
+			}
+			return NONE;
+		}
+
+		public boolean hasNext() {
+			return next >= 0;
+		}
+
+		public Map.Entry<K, V> next() {
+			int i = next;
+			if (i < 0)
+				throw new NoSuchElementException();
+			next = walk();
+			return m.exportEntry(i);
+		}
+	}
+
+	/**
+	 * Returns the ascending map backing the specified view.
+	 */
+	static <K, V> FrozenPatriciaTrie<K, V> ascending(NavigableMap<K, V> m) {
+		return m instanceof FrozenPatriciaTrie ? (FrozenPatriciaTrie<K, V>) m
+				: ((DescendingMap<K, V>) m).m;
+	}
+
+	static <T> Iterator<T> iterator(NavigableMap<?, ?> m, int kind) {
+		return ascending(m).iterator(kind, m instanceof DescendingMap);
+	}
+
+	static final class KeySet<E> extends AbstractSet<E> implements
+			NavigableSet<E> {
+		private final NavigableMap<E, ?> m;
+
+		// @formatter:off
+		KeySet(NavigableMap<E, ?> map) { m = map; }
+
+		public Iterator<E> iterator() { return FrozenPatriciaTrie.iterator(m, KEYS); }
+		public Iterator<E> descendingIterator() { return descendingSet().iterator(); }
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public boolean contains(Object o) { return m.containsKey(o); }
+		public boolean remove(Object o) { throw new UnsupportedOperationException(); }
+		public void clear() { throw new UnsupportedOperationException(); }
+		public E lower(E e) { return m.lowerKey(e); }
+		public E floor(E e) { return m.floorKey(e); }
+		public E ceiling(E e) { return m.ceilingKey(e); }
+		public E higher(E e) { return m.higherKey(e); }
+		public E first() { return m.firstKey(); }
+		public E last() { return m.lastKey(); }
+		public Comparator<? super E> comparator() { return m.comparator(); }
+		public E pollFirst() { throw new UnsupportedOperationException(); }
+		public E pollLast() { throw new UnsupportedOperationException(); }
+		public NavigableSet<E> subSet(E fromElement, boolean fromInclusive,
+									  E toElement,   boolean toInclusive) {
+			return new KeySet<>(m.subMap(fromElement, fromInclusive, toElement, toInclusive));
+		}
+		public NavigableSet<E> headSet(E toElement, boolean inclusive) {
+			return new KeySet<>(m.headMap(toElement, inclusive));
+		}
+		public NavigableSet<E> tailSet(E fromElement, boolean inclusive) {
+			return new KeySet<>(m.tailMap(fromElement, inclusive));
+		}
+		public SortedSet<E> subSet(E fromElement, E toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+		public SortedSet<E> headSet(E toElement) {
+			return headSet(toElement, false);
+		}
+		public SortedSet<E> tailSet(E fromElement) {
+			return tailSet(fromElement, true);
+		}
+		public NavigableSet<E> descendingSet() {
+			return new KeySet<>(m.descendingMap());
+		}
+		// @formatter:on
+	}
+
+	static final class Values<E> extends AbstractCollection<E> {
+		private final NavigableMap<?, E> m;
+
+		// @formatter:off
+		Values(NavigableMap<?, E> map) { m = map; }
+
+		public Iterator<E> iterator() { return FrozenPatriciaTrie.iterator(m, VALUES); }
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public boolean contains(Object o) { return m.containsValue(o); }
+		public void clear() { throw new UnsupportedOperationException(); }
+		// @formatter:on
+	}
+
+	static final class EntrySet<K, V> extends AbstractSet<Map.Entry<K, V>> {
+		private final NavigableMap<K, V> m;
+
+		EntrySet(NavigableMap<K, V> map) {
+			m = map;
+		}
+
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return FrozenPatriciaTrie.iterator(m, ENTRIES);
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			FrozenPatriciaTrie<K, V> a = ascending(m);
+			int i = a.getIndex(e.getKey());
+			return i >= 0 && Objects.equals(a.values[i], e.getValue());
+		}
+
+		// @formatter:off
+		public boolean remove(Object o) { throw new UnsupportedOperationException(); }
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public void clear() { throw new UnsupportedOperationException(); }
+		// @formatter:on
+	}
+
+	/**
+	 * The reverse order view of a frozen trie or of one of its views.
+	 */
+	static final class DescendingMap<K, V> extends AbstractMap<K, V> implements
+			NavigableMap<K, V>, java.io.Serializable {
+		private static final long serialVersionUID = 5021327964185716870L;
+
+		final FrozenPatriciaTrie<K, V> m;
+
+		DescendingMap(FrozenPatriciaTrie<K, V> m) {
+			this.m = m;
+		}
+
+		// @formatter:off
+		public Comparator<? super K> comparator() { return Collections.reverseOrder(m.comparator()); }
+		public int size() { return m.size(); }
+		public boolean isEmpty() { return m.isEmpty(); }
+		public boolean containsKey(Object key) { return m.containsKey(key); }
+		public boolean containsValue(Object value) { return m.containsValue(value); }
+		public V get(Object key) { return m.get(key); }
+
+		public K firstKey() { return m.lastKey(); }
+		public K lastKey() { return m.firstKey(); }
+		public Map.Entry<K, V> firstEntry() { return m.lastEntry(); }
+		public Map.Entry<K, V> lastEntry() { return m.firstEntry(); }
+		public Map.Entry<K, V> lowerEntry(K key) { return m.higherEntry(key); }
+		public K lowerKey(K key) { return m.higherKey(key); }
+		public Map.Entry<K, V> floorEntry(K key) { return m.ceilingEntry(key); }
+		public K floorKey(K key) { return m.ceilingKey(key); }
+		public Map.Entry<K, V> ceilingEntry(K key) { return m.floorEntry(key); }
+		public K ceilingKey(K key) { return m.floorKey(key); }
+		public Map.Entry<K, V> higherEntry(K key) { return m.lowerEntry(key); }
+		public K higherKey(K key) { return m.lowerKey(key); }
+		public Map.Entry<K, V> pollFirstEntry() { throw new UnsupportedOperationException(); }
+		public Map.Entry<K, V> pollLastEntry() { throw new UnsupportedOperationException(); }
+
+		public NavigableMap<K, V> descendingMap() { return m; }
+		public NavigableSet<K> keySet() { return navigableKeySet(); }
+		public NavigableSet<K> navigableKeySet() { return new KeySet<>(this); }
+		public NavigableSet<K> descendingKeySet() { return m.navigableKeySet(); }
+		public Collection<V> values() { return new Values<>(this); }
+		public Set<Map.Entry<K, V>> entrySet() { return new EntrySet<>(this); }
+
+		public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+			return m.subMap(toKey, toInclusive, fromKey, fromInclusive).descendingMap();
+		}
+		public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+			return m.tailMap(toKey, inclusive).descendingMap();
+		}
+		public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+			return m.headMap(fromKey, inclusive).descendingMap();
+		}
+		public SortedMap<K, V> subMap(K fromKey, K toKey) { return subMap(fromKey, true, toKey, false); }
+		public SortedMap<K, V> headMap(K toKey) { return headMap(toKey, false); }
+		public SortedMap<K, V> tailMap(K fromKey) { return tailMap(fromKey, true); }
+		// @formatter:on
+	}
+}
@@ -0,0 +1,270 @@
+package com.circlet.util;
+
+import java.util.Arrays;
+
+/**
+ * A compiled glob pattern over the chars of a key, such as a topic or a file
+ * path made of levels split by a separator char, {@code '/'} by default:
+ * <ul>
+ * <li>{@code ?} matches any char but the separator,
+ * <li>{@code *} matches any run of chars without the separator, that is,
+ * within a level,
+ * <li>{@code **} matches any run of chars, across levels,
+ * <li>{@code [a-z]} matches any char but the separator in the given ranges
+ * and chars, and {@code [!a-z]} (or {@code [^a-z]}) any char but the
+ * separator out of them; a {@code ]} right after the opening bracket (and the
+ * negation) stands for itself,
+ * <li>{@code \} escapes the next char, which stands for itself,
+ * <li>any other char stands for itself.
+ * </ul>
+ * A pattern matches a key if it matches all of its chars. See
+ * {@link PatriciaTrie#match(Glob)}.
+ *
+ * @author Jason
+ */
+public final class Glob {
+	private static final byte LITERAL = 0, ANY = 1, CLASS = 2, STAR = 3,
+			GLOBSTAR = 4;
+	private static final int SIZE_SHIFT = BitwiseComparators.StringBits.SIZE_SHIFT;
+
+	private final String pattern;
+	private final char separator;
+
+	/**
+	 * The tokens of the pattern: their kinds, chars of the literals, and
+	 * sorted, inclusive ranges of the classes.
+	 */
+	private final byte[] kinds;
+	private final char[] chars;
+	private final char[][] ranges;
+	private final boolean[] negated;
+
+	/**
+	 * The chars of the leading literals, which all matched keys start with
+	 */
+	final String prefix;
+
+	private Glob(String pattern, char separator) {
+		this.pattern = pattern;
+		this.separator = separator;
+		int length = pattern.length();
+		byte[] kinds = new byte[length];
+		char[] chars = new char[length];
+		char[][] ranges = new char[length][];
+		boolean[] negated = new boolean[length];
+		int n = 0;
+		for (int i = 0; i < length; n++) {
+			char c = pattern.charAt(i++);
+			switch (c) {
+			case '?':
+				kinds[n] = ANY;
+				break;
+			case '*':
+				kinds[n] = STAR;
+				if (i < length && pattern.charAt(i) == '*') {
+					kinds[n] = GLOBSTAR;
+					while (i < length && pattern.charAt(i) == '*')
+						i++;
+				}
+				break;
+			case '[':
+				kinds[n] = CLASS;
+				if (i < length && (pattern.charAt(i) == '!'
+						|| pattern.charAt(i) == '^')) {
+					negated[n] = true;
+					i++;
+				}
+				char[] r = new char[8];
+				int m = 0;
+				for (boolean first = true;; first = false) {
+					if (i == length)
+						throw new IllegalArgumentException("Unclosed class: "
+								+ pattern);
+					char lo = pattern.charAt(i++);
+					if (lo == ']' && !first)
+						break;
+					if (lo == '\\')
+						lo = escaped(pattern, i++);
+					char hi = lo;
+					if (i + 1 < length && pattern.charAt(i) == '-'
+							&& pattern.charAt(i + 1) != ']') {
+						hi = pattern.charAt(i + 1);
+						i += 2;
+						if (hi == '\\')
+							hi = escaped(pattern, i++);
+						if (hi < lo)
+							throw new IllegalArgumentException(
+									"Illegal range: " + lo + '-' + hi);
+					}
+					if (m == r.length)
+						r = Arrays.copyOf(r, m << 1);
+					r[m++] = lo;
+					r[m++] = hi;
+				}
+				ranges[n] = Arrays.copyOf(r, m);
+				break;
+			case '\\':
+				kinds[n] = LITERAL;
+				chars[n] = escaped(pattern, i++);
+				break;
+			default:
+				kinds[n] = LITERAL;
+				chars[n] = c;
+			}
+		}
+		this.kinds = Arrays.copyOf(kinds, n);
+		this.chars = Arrays.copyOf(chars, n);
+		this.ranges = Arrays.copyOf(ranges, n);
+		this.negated = Arrays.copyOf(negated, n);
+		int p = 0;
+		while (p < n && kinds[p] == LITERAL)
+			p++;
+		this.prefix = new String(chars, 0, p);
+	}
+
+	private static char escaped(String pattern, int i) {
+		if (i >= pattern.length())
+			throw new IllegalArgumentException("Trailing escape: " + pattern);
+		return pattern.charAt(i);
+	}
+
+	/**
+	 * Compiles the given pattern, whose levels are split by {@code '/'}.
+	 *
+	 * @param pattern the glob pattern
+	 * @return the compiled pattern
+	 * @throws IllegalArgumentException if the pattern is malformed
+	 */
+	public static Glob compile(String pattern) {
+		return new Glob(pattern, '/');
+	}
+
+	/**
+	 * Compiles the given pattern, whose levels are split by the given
+	 * separator, such as {@code '.'} for AMQP topics.
+	 *
+	 * @param pattern the glob pattern
+	 * @param separator the char which only literals match
+	 * @return the compiled pattern
+	 * @throws IllegalArgumentException if the pattern is malformed
+	 */
+	public static Glob compile(String pattern, char separator) {
+		return new Glob(pattern, separator);
+	}
+
+	/**
+	 * Returns whether this pattern matches all of the given chars.
+	 *
+	 * @param s the chars to match
+	 * @return {@code true} if the pattern matches
+	 */
+	public boolean matches(CharSequence s) {
+		int[] state = start();
+		for (int j = 0, n = s.length(); j < n && state != null; j++)
+			state = step(state, s.charAt(j));
+		return state != null && isSet(state, kinds.length);
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	// Matching over a set of token positions, the tokens up to which some
+	// match of the chars so far ends
+
+	private int[] start() {
+		int[] state = new int[(kinds.length >> 5) + 1];
+		state[0] = 1;
+		return close(state);
+	}
+
+	private static boolean isSet(int[] state, int i) {
+		return (state[i >> 5] & 1 << i) != 0;
+	}
+
+	/**
+	 * Adds the positions after the stars, which may match no char at all.
+	 */
+	private int[] close(int[] state) {
+		for (int i = 0; i < kinds.length; i++)
+			if (kinds[i] >= STAR && isSet(state, i))
+				state[i + 1 >> 5] |= 1 << i + 1;
+		return state;
+	}
+
+	/**
+	 * Returns the positions reached by matching one more char, or
+	 * {@code null} if there is none.
+	 */
+	private int[] step(int[] state, char c) {
+		int[] next = new int[state.length];
+		boolean any = false;
+		for (int i = 0; i < kinds.length; i++) {
+			if (!isSet(state, i))
+				continue;
+			int to; // The position reached, if any
+			switch (kinds[i]) {
+			case LITERAL:
+				to = c == chars[i] ? i + 1 : -1;
+				break;
+			case ANY:
+				to = c != separator ? i + 1 : -1;
+				break;
+			case CLASS:
+				to = c != separator && inClass(i, c) ? i + 1 : -1;
+				break;
+			case STAR:
+				to = c != separator ? i : -1;
+				break;
+			default: // GLOBSTAR
+				to = i;
+			}
+			if (to >= 0) {
+				next[to >> 5] |= 1 << to;
+				any = true;
+			}
+		}
+		return any ? close(next) : null;
+	}
+
+	private boolean inClass(int i, char c) {
+		char[] r = ranges[i];
+		for (int j = 0; j < r.length; j += 2)
+			if (c >= r[j] && c <= r[j + 1])
+				return !negated[i];
+		return negated[i];
+	}
+
+	private static char charAt(Object key, int index) {
+		return key instanceof char[] ? ((char[]) key)[index]
+				: ((CharSequence) key).charAt(index);
+	}
+
+	/**
+	 * Returns a matcher of this pattern, for keys ordered by
+	 * {@link BitwiseComparators#FOR_STRING},
+	 * {@link BitwiseComparators#FOR_CHAR_SEQUENCE} or
+	 * {@link BitwiseComparators#FOR_CHAR_ARRAY}, whose states are the
+	 * positions reached by the whole chars walked so far.
+	 */
+	<K> DistanceMetric.Matcher<K> matcher() {
+		return new DistanceMetric.Matcher<K>() {
+			public int[] start() {
+				return Glob.this.start();
+			}
+
+			public int[] advance(int[] state, K key, int fromBit, int toBit) {
+				int to = toBit >> SIZE_SHIFT;
+				for (int j = fromBit >> SIZE_SHIFT; j < to; j++)
+					if ((state = step(state, charAt(key, j))) == null)
+						return null;
+				return state;
+			}
+
+			public boolean matches(int[] state, K key) {
+				return isSet(state, kinds.length);
+			}
+		};
+	}
+}
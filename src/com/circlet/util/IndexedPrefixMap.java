@@ -0,0 +1,69 @@
+package com.circlet.util;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A {@link PrefixMap} whose entries can also be reached by index, the index of
+ * an entry being the number of keys lower than its own. Together with
+ * {@link #countPrefixed(Object, boolean)}, the entries prefixed by a key can be
+ * listed a page at a time, page {@code n} of the entries prefixed by
+ * {@code p} starting at index {@code rank(p) + n * pageSize}.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+public interface IndexedPrefixMap<K, V> extends PrefixMap<K, V> {
+	/**
+	 * Returns the number of keys in this map strictly lower than the given
+	 * key, which is the index of its entry if the key is in this map.
+	 *
+	 * @param key the key
+	 * @return the number of keys lower than {@code key}
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	int rank(K key);
+
+	/**
+	 * Returns the key-value mapping at the given index, in ascending key
+	 * order.
+	 *
+	 * @param index the index of the entry
+	 * @return the entry having {@code index} lower keys
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 *         ({@code index < 0 || index >= size()})
+	 */
+	Map.Entry<K, V> select(int index);
+
+	/**
+	 * Returns the number of keys in this map prefixed by (or equal to, if
+	 * {@code inclusive} is true) the given key. This is the size of
+	 * {@code subMap(prefixKey, inclusive)}.
+	 *
+	 * @param prefixKey the prefix of the keys to count
+	 * @param inclusive {@code true} if the prefix key itself is to be counted
+	 * @return the number of keys prefixed by {@code prefixKey}
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	int countPrefixed(K prefixKey, boolean inclusive);
+
+	/**
+	 * Returns an iterator over the entries of this map in ascending key order,
+	 * starting from the entry at the given index. The iterator supports
+	 * {@code remove()} if this map does.
+	 *
+	 * @param fromIndex the index of the first entry to be returned
+	 * @return an iterator over the entries from {@code fromIndex} on
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 *         ({@code fromIndex < 0 || fromIndex > size()})
+	 */
+	Iterator<Map.Entry<K, V>> entryIterator(int fromIndex);
+}
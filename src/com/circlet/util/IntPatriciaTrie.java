@@ -0,0 +1,346 @@
+package com.circlet.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A patricia trie based map specialized for {@code int} keys, ordered the same
+ * way as {@link BitwiseComparators#FOR_INT}. Keys are stored inline in the
+ * entries and are never boxed by the primitive operations, and bits are tested
+ * with shifts instead of going through a {@link BitwiseComparator}.
+ * <p>
+ * The trie uses the same Tracks and Switches layout as {@link PatriciaTrie}.
+ * Since every key is exactly 32 bits long, no key can be a prefix of another,
+ * so the only edge switches are the two root switches at bit index 0. The
+ * operations are shared with {@link LongPatriciaTrie}.
+ * <p>
+ * Keys are held by their bits left aligned in a {@code long}, which takes no
+ * more room in an entry than an {@code int} with compressed references.
+ * <p>
+ * The methods of the {@link Map} interface are supported for convenience, and
+ * box their arguments and results as usual. Primitive key returning methods,
+ * such as {@link #ceilingKey(int)}, throw a {@link NoSuchElementException}
+ * when there is no such key; use their entry counterparts to avoid it.
+ *
+ * @author Jason
+ *
+ * @param <V> the type of mapped values
+ */
+public class IntPatriciaTrie<V> extends
+		AbstractPrimitivePatriciaTrie<Integer, V> {
+	private static final long serialVersionUID = -2961532807183384170L;
+
+	public IntPatriciaTrie() {
+		super(BitwiseComparators.IntBits.SIZE_IN_BITS);
+	}
+
+	// @formatter:off
+	private static long bits(int key) { return (long) key << 32; }
+	private static int key(long bits) { return (int) (bits >>> 32); }
+	// @formatter:on
+
+	@Override
+	Entry<V> newEntry(long bits, V value) {
+		return new Entry<>(bits, value);
+	}
+
+	@Override
+	Entry<V> getEntry(Object key) {
+		return key instanceof Integer ? (Entry<V>) findEntry(bits((Integer) key))
+				: null;
+	}
+
+	@Override
+	void writeKey(java.io.ObjectOutputStream s, long bits) throws IOException {
+		s.writeInt(key(bits));
+	}
+
+	@Override
+	long readKey(java.io.ObjectInputStream s) throws IOException {
+		return bits(s.readInt());
+	}
+
+	public boolean containsKey(int key) {
+		return findEntry(bits(key)) != null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return getEntry(key) != null;
+	}
+
+	public V get(int key) {
+		AbstractPrimitivePatriciaTrie.Entry<Integer, V> e = findEntry(bits(key));
+		if (e != null)
+			return e.value;
+		return null;
+	}
+
+	@Override
+	public V get(Object key) {
+		Entry<V> e = getEntry(key);
+		return e != null ? e.value : null;
+	}
+
+	public V put(int key, V value) {
+		return putBits(bits(key), value);
+	}
+
+	@Override
+	public V put(Integer key, V value) {
+		return putBits(bits(key.intValue()), value);
+	}
+
+	public V remove(int key) {
+		return removeBits(bits(key));
+	}
+
+	@Override
+	public V remove(Object key) {
+		Entry<V> e = getEntry(key);
+		if (e == null)
+			return null;
+		deleteEntry(e);
+		return e.value;
+	}
+
+	// Navigation methods
+
+	/**
+	 * Returns the entry associated with the least key in this map, or
+	 * {@code null} if the map is empty.
+	 */
+	public Entry<V> firstEntry() {
+		return (Entry<V>) getFirstEntry();
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key in this map, or
+	 * {@code null} if the map is empty.
+	 */
+	public Entry<V> lastEntry() {
+		return (Entry<V>) getLastEntry();
+	}
+
+	/**
+	 * Returns the least key in this map.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 */
+	public int firstKey() {
+		return key(keyBits(getFirstEntry()));
+	}
+
+	/**
+	 * Returns the greatest key in this map.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 */
+	public int lastKey() {
+		return key(keyBits(getLastEntry()));
+	}
+
+	/**
+	 * Removes and returns the entry associated with the least key in this map,
+	 * or {@code null} if the map is empty.
+	 */
+	public Entry<V> pollFirstEntry() {
+		return (Entry<V>) pollEntry(getFirstEntry());
+	}
+
+	/**
+	 * Removes and returns the entry associated with the greatest key in this
+	 * map, or {@code null} if the map is empty.
+	 */
+	public Entry<V> pollLastEntry() {
+		return (Entry<V>) pollEntry(getLastEntry());
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key strictly less than
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> lowerEntry(int key) {
+		return (Entry<V>) headOf(bits(key), false);
+	}
+
+	/**
+	 * Returns the greatest key strictly less than the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public int lowerKey(int key) {
+		return key(keyBits(headOf(bits(key), false)));
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key less than or equal to
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> floorEntry(int key) {
+		return (Entry<V>) headOf(bits(key), true);
+	}
+
+	/**
+	 * Returns the greatest key less than or equal to the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public int floorKey(int key) {
+		return key(keyBits(headOf(bits(key), true)));
+	}
+
+	/**
+	 * Returns the entry associated with the least key greater than or equal to
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> ceilingEntry(int key) {
+		return (Entry<V>) tailOf(bits(key), true);
+	}
+
+	/**
+	 * Returns the least key greater than or equal to the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public int ceilingKey(int key) {
+		return key(keyBits(tailOf(bits(key), true)));
+	}
+
+	/**
+	 * Returns the entry associated with the least key strictly greater than
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> higherEntry(int key) {
+		return (Entry<V>) tailOf(bits(key), false);
+	}
+
+	/**
+	 * Returns the least key strictly greater than the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public int higherKey(int key) {
+		return key(keyBits(tailOf(bits(key), false)));
+	}
+
+	/**
+	 * Returns the entry associated with the closest key in a bitwise XOR
+	 * metric to the given key, or {@code null} if the map is empty.
+	 *
+	 * @see BitwiseMap#nearestEntry(Object)
+	 */
+	public Entry<V> nearestEntry(int key) {
+		return (Entry<V>) getNearestEntry(bits(key));
+	}
+
+	/**
+	 * Returns the closest key in a bitwise XOR metric to the given key.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 * @see BitwiseMap#nearestKey(Object)
+	 */
+	public int nearestKey(int key) {
+		return key(keyBits(getNearestEntry(bits(key))));
+	}
+
+	/**
+	 * Returns the entry associated with the key sharing the longest run of
+	 * leading bits with the given key, provided that at least
+	 * {@code prefixBits} leading bits are shared, or {@code null} if there is
+	 * no such key. In other words, this returns the longest match of the given
+	 * key among the stored keys, where only matches of at least
+	 * {@code prefixBits} bits count. A {@code prefixBits} of 32 is an exact
+	 * lookup, while 0 is the same as {@link #nearestEntry(int)}.
+	 *
+	 * @param key the key
+	 * @param prefixBits the minimum number of leading bits to match
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 32
+	 */
+	public Entry<V> prefixEntry(int key, int prefixBits) {
+		return (Entry<V>) getPrefixEntry(bits(key), prefixBits);
+	}
+
+	/**
+	 * Returns the entry associated with the least key whose leading
+	 * {@code prefixBits} bits are equal to those of the given prefix, or
+	 * {@code null} if there is no such key.
+	 *
+	 * @param prefix the prefix, only its leading {@code prefixBits} bits are
+	 *        considered
+	 * @param prefixBits the length of the prefix in bits
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 32
+	 * @see PrefixMap#leastPrefixed(Object, boolean)
+	 */
+	public Entry<V> leastPrefixed(int prefix, int prefixBits) {
+		return (Entry<V>) getLeastPrefixed(bits(prefix), prefixBits);
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key whose leading
+	 * {@code prefixBits} bits are equal to those of the given prefix, or
+	 * {@code null} if there is no such key.
+	 *
+	 * @param prefix the prefix, only its leading {@code prefixBits} bits are
+	 *        considered
+	 * @param prefixBits the length of the prefix in bits
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 32
+	 * @see PrefixMap#lastPrefixed(Object, boolean)
+	 */
+	public Entry<V> lastPrefixed(int prefix, int prefixBits) {
+		return (Entry<V>) getLastPrefixed(bits(prefix), prefixBits);
+	}
+
+	/**
+	 * A map entry of an {@link IntPatriciaTrie}, holding its key inline.
+	 *
+	 * @param <V> the type of mapped values
+	 */
+	public static final class Entry<V> extends
+			AbstractPrimitivePatriciaTrie.Entry<Integer, V> {
+		private static final long serialVersionUID = -4374939693436003052L;
+
+		Entry(long bits, V value) {
+			super(bits, value);
+		}
+
+		/**
+		 * Returns the key corresponding to this entry, without boxing it.
+		 */
+		public int getIntKey() {
+			return key(key);
+		}
+
+		@Override
+		public Integer getKey() {
+			return getIntKey();
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#equals(Object)
+		 */
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object k = e.getKey();
+			return k instanceof Integer && (Integer) k == getIntKey()
+					&& AbstractPatriciaTrie.eq(value, e.getValue());
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#hashCode()
+		 */
+		public int hashCode() {
+			return getIntKey() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return getIntKey() + "=" + value;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.circlet.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * An IPv4 or IPv6 address block in CIDR notation: the first
+ * {@link #length()} bits of an address. The bits are kept as the 128 bits of
+ * an IPv6 address, IPv4 addresses taking the first 32, and the bits past the
+ * length are always cleared. Prefixes are ordered, and split into bits, by
+ * {@link BitwiseComparators#FOR_IP_PREFIX}.
+ *
+ * @author Jason
+ * @see IpRoutingTable
+ */
+public final class IpPrefix implements java.io.Serializable {
+	private static final long serialVersionUID = -2370823357045893817L;
+
+	final long high, low;
+	final int length;
+	final boolean inet6;
+
+	private IpPrefix(long high, long low, int length, boolean inet6) {
+		if (length < 0 || length > (inet6 ? 128 : 32))
+			throw new IllegalArgumentException("Illegal prefix length: "
+					+ length);
+		// Clear the host bits
+		if (length < 64) {
+			high &= length == 0 ? 0 : -1L << 64 - length;
+			low = 0;
+		} else if (length < 128) {
+			low &= length == 64 ? 0 : -1L << 128 - length;
+		}
+		this.high = high;
+		this.low = low;
+		this.length = length;
+		this.inet6 = inet6;
+	}
+
+	/**
+	 * Returns the IPv4 prefix of the given length of the specified address.
+	 *
+	 * @param address the address, its first octet in the highest bits
+	 * @param length the number of bits of the prefix, from 0 to 32
+	 * @return the prefix
+	 * @throws IllegalArgumentException if the length is out of range
+	 */
+	public static IpPrefix of(int address, int length) {
+		return new IpPrefix((long) address << 32, 0, length, false);
+	}
+
+	/**
+	 * Returns the IPv6 prefix of the given length of the specified address.
+	 *
+	 * @param high the first 64 bits of the address
+	 * @param low the last 64 bits of the address
+	 * @param length the number of bits of the prefix, from 0 to 128
+	 * @return the prefix
+	 * @throws IllegalArgumentException if the length is out of range
+	 */
+	public static IpPrefix of(long high, long low, int length) {
+		return new IpPrefix(high, low, length, true);
+	}
+
+	/**
+	 * Returns the prefix of the given length of the specified address.
+	 *
+	 * @param address the IPv4 or IPv6 address
+	 * @param length the number of bits of the prefix
+	 * @return the prefix
+	 * @throws IllegalArgumentException if the length is out of range
+	 */
+	public static IpPrefix of(InetAddress address, int length) {
+		byte[] a = address.getAddress();
+		if (a.length == 4)
+			return new IpPrefix(toLong(a, 0, 4), 0, length, false);
+		return new IpPrefix(toLong(a, 0, 8), toLong(a, 8, 16), length, true);
+	}
+
+	/**
+	 * Parses a prefix in CIDR notation, such as {@code "10.0.0.0/8"} or
+	 * {@code "2001:db8::/32"}. A single address, without a length, is a
+	 * prefix of all of its bits.
+	 *
+	 * @param cidr the prefix
+	 * @return the prefix
+	 * @throws IllegalArgumentException if the string is not a valid prefix
+	 */
+	public static IpPrefix parse(String cidr) {
+		int slash = cidr.indexOf('/');
+		String address = slash < 0 ? cidr : cidr.substring(0, slash);
+		// Literal addresses only, so that no name gets looked up
+		if (address.isEmpty() || address.indexOf(':') < 0
+				&& !address.matches("[0-9.]+"))
+			throw new IllegalArgumentException("Not an IP address: " + cidr);
+		InetAddress a;
+		try {
+			a = InetAddress.getByName(address);
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Not an IP address: " + cidr, e);
+		}
+		int length = a instanceof Inet4Address ? 32 : 128;
+		if (slash >= 0) {
+			try {
+				length = Integer.parseInt(cidr.substring(slash + 1));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Illegal prefix length: "
+						+ cidr, e);
+			}
+		}
+		return of(a, length);
+	}
+
+	/** Returns the bytes in the given range, in the highest bits */
+	private static long toLong(byte[] a, int from, int to) {
+		long v = 0;
+		for (int i = from; i < to; i++)
+			v = v << 8 | a[i] & 0xff;
+		return v << (8 - (to - from)) * 8;
+	}
+
+	/**
+	 * Returns the number of bits of this prefix.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Returns {@code true} if this is an IPv6 prefix.
+	 */
+	public boolean isInet6() {
+		return inet6;
+	}
+
+	/**
+	 * Returns the IPv4 address of this prefix, with the host bits cleared.
+	 *
+	 * @throws IllegalStateException if this is an IPv6 prefix
+	 */
+	public int address() {
+		if (inet6)
+			throw new IllegalStateException("IPv6 prefix");
+		return (int) (high >>> 32);
+	}
+
+	/**
+	 * Returns the first 64 bits of the address of this prefix, which hold the
+	 * IPv4 address of an IPv4 prefix.
+	 */
+	public long high() {
+		return high;
+	}
+
+	/**
+	 * Returns the last 64 bits of the address of this prefix, which are 0 for
+	 * an IPv4 prefix.
+	 */
+	public long low() {
+		return low;
+	}
+
+	/**
+	 * Returns the address of this prefix, with the host bits cleared.
+	 */
+	public InetAddress toInetAddress() {
+		byte[] a = new byte[inet6 ? 16 : 4];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (byte) ((i < 8 ? high : low) >>> 56 - (i & 7) * 8);
+		try {
+			return InetAddress.getByAddress(a);
+		} catch (UnknownHostException e) {
+			throw new AssertionError(e); // The length is legal
+		}
+	}
+
+	/**
+	 * Returns {@code true} if the specified prefix is of the same family and
+	 * has all of the bits of this one.
+	 *
+	 * @param prefix the prefix to check
+	 * @return whether this prefix is a prefix of (or equal to) the other one
+	 */
+	public boolean contains(IpPrefix prefix) {
+		return inet6 == prefix.inet6
+				&& BitwiseComparators.FOR_IP_PREFIX.checkPrefixed(prefix, this,
+						true);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof IpPrefix))
+			return false;
+		IpPrefix p = (IpPrefix) o;
+		return high == p.high && low == p.low && length == p.length
+				&& inet6 == p.inet6;
+	}
+
+	@Override
+	public int hashCode() {
+		long h = high * 31 + low;
+		return (int) (h ^ h >>> 32) * 31 + length + (inet6 ? 1 : 0);
+	}
+
+	@Override
+	public String toString() {
+		return toInetAddress().getHostAddress() + '/' + length;
+	}
+}
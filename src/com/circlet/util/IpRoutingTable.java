@@ -0,0 +1,328 @@
+package com.circlet.util;
+
+import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_ZERO_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_SET;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.parentOf;
+import static com.circlet.util.BitwiseComparators.IpPrefixBits.indexOfXOR;
+import static com.circlet.util.BitwiseComparators.IpPrefixBits.isBitSet;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.circlet.util.AbstractPatriciaTrie.Entry;
+import com.circlet.util.AbstractPatriciaTrie.SwitchTable;
+
+/**
+ * A routing table mapping {@link IpPrefix} routes to values, answering
+ * longest-prefix matches of addresses. IPv4 and IPv6 routes are kept in two
+ * patricia tries with parent links, ordered by
+ * {@link BitwiseComparators#FOR_IP_PREFIX}.
+ * <p>
+ * The lookups of primitive addresses, {@link #longestMatch(int)} and
+ * {@link #longestMatch(long, long)}, walk the tries the same way as
+ * {@link PatriciaTrie#prefixEntry(Object)}, but test the bits of the address
+ * directly, so that they allocate nothing. The entries they return are the
+ * entries of the tries.
+ * <p>
+ * Like {@link PatriciaTrie}, this class is not synchronized.
+ *
+ * @author Jason
+ *
+ * @param <V> the type of route values
+ */
+public class IpRoutingTable<V> implements java.io.Serializable {
+	private static final long serialVersionUID = 3079285513846297617L;
+
+	private static final BitwiseComparators.IpPrefixBits COMPARATOR = BitwiseComparators.FOR_IP_PREFIX;
+
+	final PatriciaTrie<IpPrefix, V> inet4, inet6;
+
+	public IpRoutingTable() {
+		inet4 = new PatriciaTrie<>(COMPARATOR, true);
+		inet6 = new PatriciaTrie<>(COMPARATOR, true);
+	}
+
+	private PatriciaTrie<IpPrefix, V> trieOf(IpPrefix route) {
+		return route.inet6 ? inet6 : inet4;
+	}
+
+	/**
+	 * Returns the number of routes in this table.
+	 */
+	public int size() {
+		return inet4.size() + inet6.size();
+	}
+
+	public boolean isEmpty() {
+		return inet4.isEmpty() && inet6.isEmpty();
+	}
+
+	/**
+	 * Associates the specified value with the specified route.
+	 *
+	 * @param route the route
+	 * @param value the value
+	 * @return the previous value of the route, or {@code null} if there was
+	 *         none
+	 * @throws NullPointerException if the route is null
+	 */
+	public V put(IpPrefix route, V value) {
+		return trieOf(route).put(route, value);
+	}
+
+	/**
+	 * Adds all of the specified routes. The routes are sorted first, so that
+	 * each one is inserted from the insertion point of the previous one, as
+	 * with {@link PatriciaTrie#putAll(Map)} of a sorted map.
+	 *
+	 * @param routes the routes to add
+	 * @throws NullPointerException if a route is null
+	 */
+	public void putAll(Map<? extends IpPrefix, ? extends V> routes) {
+		TreeMap<IpPrefix, V> sorted4 = new TreeMap<>(COMPARATOR);
+		TreeMap<IpPrefix, V> sorted6 = new TreeMap<>(COMPARATOR);
+		for (Map.Entry<? extends IpPrefix, ? extends V> e : routes.entrySet()) {
+			IpPrefix route = e.getKey();
+			(route.inet6 ? sorted6 : sorted4).put(route, e.getValue());
+		}
+		inet4.putAll(sorted4);
+		inet6.putAll(sorted6);
+	}
+
+	/**
+	 * Returns the value of the specified route, or {@code null} if there is no
+	 * such route.
+	 *
+	 * @param route the route
+	 * @return the value of the route
+	 * @throws NullPointerException if the route is null
+	 */
+	public V get(IpPrefix route) {
+		return trieOf(route).get(route);
+	}
+
+	/**
+	 * Removes the specified route.
+	 *
+	 * @param route the route
+	 * @return the value of the route, or {@code null} if there was none
+	 * @throws NullPointerException if the route is null
+	 */
+	public V remove(IpPrefix route) {
+		return trieOf(route).remove(route);
+	}
+
+	/**
+	 * Removes all of the routes from this table.
+	 */
+	public void clear() {
+		inet4.clear();
+		inet6.clear();
+	}
+
+	/**
+	 * Returns the most specific route containing the given IPv4 address.
+	 *
+	 * @param address the address, its first octet in the highest bits
+	 * @return the route with the longest prefix of the address, or
+	 *         {@code null} if there is none
+	 */
+	public Map.Entry<IpPrefix, V> longestMatch(int address) {
+		return longestMatch(inet4.root, (long) address << 32, 0, 32);
+	}
+
+	/**
+	 * Returns the most specific route containing the given IPv6 address.
+	 *
+	 * @param high the first 64 bits of the address
+	 * @param low the last 64 bits of the address
+	 * @return the route with the longest prefix of the address, or
+	 *         {@code null} if there is none
+	 */
+	public Map.Entry<IpPrefix, V> longestMatch(long high, long low) {
+		return longestMatch(inet6.root, high, low, 128);
+	}
+
+	/**
+	 * Returns the most specific route containing the given address.
+	 *
+	 * @param address the IPv4 or IPv6 address
+	 * @return the route with the longest prefix of the address, or
+	 *         {@code null} if there is none
+	 */
+	public Map.Entry<IpPrefix, V> longestMatch(InetAddress address) {
+		IpPrefix a = IpPrefix.of(address, address.getAddress().length * 8);
+		return longestMatch(trieOf(a).root, a.high, a.low, a.length);
+	}
+
+	/**
+	 * Returns all of the routes containing the given IPv4 address, from the
+	 * least specific to the most specific.
+	 *
+	 * @param address the address, its first octet in the highest bits
+	 * @return the routes with a prefix of the address
+	 */
+	public List<Map.Entry<IpPrefix, V>> allMatches(int address) {
+		return allMatches(longestMatch(address));
+	}
+
+	/**
+	 * Returns all of the routes containing the given IPv6 address, from the
+	 * least specific to the most specific.
+	 *
+	 * @param high the first 64 bits of the address
+	 * @param low the last 64 bits of the address
+	 * @return the routes with a prefix of the address
+	 */
+	public List<Map.Entry<IpPrefix, V>> allMatches(long high, long low) {
+		return allMatches(longestMatch(high, low));
+	}
+
+	/**
+	 * Returns all of the routes containing the given address, from the least
+	 * specific to the most specific.
+	 *
+	 * @param address the IPv4 or IPv6 address
+	 * @return the routes with a prefix of the address
+	 */
+	public List<Map.Entry<IpPrefix, V>> allMatches(InetAddress address) {
+		return allMatches(longestMatch(address));
+	}
+
+	/**
+	 * Returns a view of the routes contained in the given one, including
+	 * itself. The view is backed by this table.
+	 *
+	 * @param cidr the covering prefix
+	 * @return the routes prefixed by {@code cidr}
+	 * @throws NullPointerException if the prefix is null
+	 */
+	public BitwiseMap<IpPrefix, V> coveredRoutes(IpPrefix cidr) {
+		return trieOf(cidr).subMap(cidr, true);
+	}
+
+	@Override
+	public String toString() {
+		return "IPv4: " + inet4 + ", IPv6: " + inet6;
+	}
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#prefixEntry(Object, boolean)},
+	 * inlining the bit tests and the contrast of the address.
+	 */
+	static <V> Entry<IpPrefix, V> longestMatch(Entry<IpPrefix, V> track,
+			long high, long low, int length) {
+		// Same as findNearest(), for the bits of the address
+		Entry<IpPrefix, V> next = track.switches;
+		while (next != null) {
+			SwitchTable<IpPrefix, V> table = track.table;
+			if (table != null) {
+				next = findNearest(table, high, low, length);
+				if (next == null)
+					break;
+				next = (track = next).switches; // Change track
+				continue;
+			}
+			int bit = next.bit;
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (length <= bitm)
+					break;
+				if (isBitSet(high, low, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					next = next.next;
+					if (next == null) {
+						break;
+					}
+				}
+			} else {
+				if (length <= bit)
+					break;
+				if (!isBitSet(high, low, bit)) {
+					next = next.next;
+					continue;
+				}
+			}
+			next = (track = next).switches; // Change track
+		}
+
+		if (track.bit == ROOT_UNSET)
+			return null;
+		IpPrefix otherKey = track.key;
+		int index = indexOfXOR(high, low, otherKey.high, otherKey.low);
+		if (index >= otherKey.length)
+			return track; // The address is full length, so never shorter
+		for (;;) {
+			int bit = track.bit;
+			track = parentOf(track);
+			if (bit < 0 && (bit & BIT_INDEX_MASK) <= index)
+				break;
+		}
+		return track.bit != ROOT_UNSET ? track : null;
+	}
+
+	/**
+	 * Same as {@link SwitchTable#findNearest}, for the bits of the address.
+	 */
+	private static <V> Entry<IpPrefix, V> findNearest(
+			SwitchTable<IpPrefix, V> table, long high, long low, int length) {
+		int[] bits = table.bits;
+		for (int i = 0, n = table.size; i < n; i++) {
+			int bit = bits[i];
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (length <= bitm)
+					return null;
+				if (isBitSet(high, low, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						return null;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					if (++i == n)
+						return null;
+				}
+				return table.nodes[i];
+			}
+			if (length <= bit)
+				return null;
+			if (isBitSet(high, low, bit))
+				return table.nodes[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the routes from the root down to the given longest match, each
+	 * being the nearest edge switch ancestor of the next one.
+	 */
+	private static <V> List<Map.Entry<IpPrefix, V>> allMatches(
+			Map.Entry<IpPrefix, V> match) {
+		if (match == null)
+			return Collections.emptyList();
+		List<Map.Entry<IpPrefix, V>> matches = new ArrayList<>();
+		Entry<IpPrefix, V> track = (Entry<IpPrefix, V>) match;
+		for (;;) {
+			matches.add(track);
+			if (track.bit == ROOT_SET)
+				break; // The default route
+			for (;;) {
+				int bit = track.bit;
+				track = parentOf(track);
+				if (bit < 0)
+					break;
+			}
+			if (track.bit == ROOT_UNSET)
+				break;
+		}
+		Collections.reverse(matches);
+		return matches;
+	}
+}
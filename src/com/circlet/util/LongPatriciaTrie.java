@@ -0,0 +1,344 @@
+package com.circlet.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A patricia trie based map specialized for {@code long} keys, ordered the same
+ * way as {@link BitwiseComparators#FOR_LONG}. Keys are stored inline in the
+ * entries and are never boxed by the primitive operations, and bits are tested
+ * with shifts instead of going through a {@link BitwiseComparator}.
+ * <p>
+ * The trie uses the same Tracks and Switches layout as {@link PatriciaTrie}.
+ * Since every key is exactly 64 bits long, no key can be a prefix of another,
+ * so the only edge switches are the two root switches at bit index 0. The
+ * operations are shared with {@link IntPatriciaTrie}.
+ * <p>
+ * The methods of the {@link Map} interface are supported for convenience, and
+ * box their arguments and results as usual. Primitive key returning methods,
+ * such as {@link #ceilingKey(long)}, throw a {@link NoSuchElementException}
+ * when there is no such key; use their entry counterparts to avoid it.
+ *
+ * @author Jason
+ *
+ * @param <V> the type of mapped values
+ */
+public class LongPatriciaTrie<V> extends
+		AbstractPrimitivePatriciaTrie<Long, V> {
+	private static final long serialVersionUID = 5163712083957326409L;
+
+	public LongPatriciaTrie() {
+		super(BitwiseComparators.LongBits.SIZE_IN_BITS);
+	}
+
+	// @formatter:off
+	private static long bits(long key) { return key; }
+	private static long key(long bits) { return bits; }
+	// @formatter:on
+
+	@Override
+	Entry<V> newEntry(long bits, V value) {
+		return new Entry<>(bits, value);
+	}
+
+	@Override
+	Entry<V> getEntry(Object key) {
+		return key instanceof Long ? (Entry<V>) findEntry(bits((Long) key))
+				: null;
+	}
+
+	@Override
+	void writeKey(java.io.ObjectOutputStream s, long bits) throws IOException {
+		s.writeLong(key(bits));
+	}
+
+	@Override
+	long readKey(java.io.ObjectInputStream s) throws IOException {
+		return bits(s.readLong());
+	}
+
+	public boolean containsKey(long key) {
+		return findEntry(bits(key)) != null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return getEntry(key) != null;
+	}
+
+	public V get(long key) {
+		AbstractPrimitivePatriciaTrie.Entry<Long, V> e = findEntry(bits(key));
+		if (e != null)
+			return e.value;
+		return null;
+	}
+
+	@Override
+	public V get(Object key) {
+		Entry<V> e = getEntry(key);
+		return e != null ? e.value : null;
+	}
+
+	public V put(long key, V value) {
+		return putBits(bits(key), value);
+	}
+
+	@Override
+	public V put(Long key, V value) {
+		return putBits(bits(key.longValue()), value);
+	}
+
+	public V remove(long key) {
+		return removeBits(bits(key));
+	}
+
+	@Override
+	public V remove(Object key) {
+		Entry<V> e = getEntry(key);
+		if (e == null)
+			return null;
+		deleteEntry(e);
+		return e.value;
+	}
+
+	// Navigation methods
+
+	/**
+	 * Returns the entry associated with the least key in this map, or
+	 * {@code null} if the map is empty.
+	 */
+	public Entry<V> firstEntry() {
+		return (Entry<V>) getFirstEntry();
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key in this map, or
+	 * {@code null} if the map is empty.
+	 */
+	public Entry<V> lastEntry() {
+		return (Entry<V>) getLastEntry();
+	}
+
+	/**
+	 * Returns the least key in this map.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 */
+	public long firstKey() {
+		return key(keyBits(getFirstEntry()));
+	}
+
+	/**
+	 * Returns the greatest key in this map.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 */
+	public long lastKey() {
+		return key(keyBits(getLastEntry()));
+	}
+
+	/**
+	 * Removes and returns the entry associated with the least key in this map,
+	 * or {@code null} if the map is empty.
+	 */
+	public Entry<V> pollFirstEntry() {
+		return (Entry<V>) pollEntry(getFirstEntry());
+	}
+
+	/**
+	 * Removes and returns the entry associated with the greatest key in this
+	 * map, or {@code null} if the map is empty.
+	 */
+	public Entry<V> pollLastEntry() {
+		return (Entry<V>) pollEntry(getLastEntry());
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key strictly less than
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> lowerEntry(long key) {
+		return (Entry<V>) headOf(bits(key), false);
+	}
+
+	/**
+	 * Returns the greatest key strictly less than the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public long lowerKey(long key) {
+		return key(keyBits(headOf(bits(key), false)));
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key less than or equal to
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> floorEntry(long key) {
+		return (Entry<V>) headOf(bits(key), true);
+	}
+
+	/**
+	 * Returns the greatest key less than or equal to the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public long floorKey(long key) {
+		return key(keyBits(headOf(bits(key), true)));
+	}
+
+	/**
+	 * Returns the entry associated with the least key greater than or equal to
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> ceilingEntry(long key) {
+		return (Entry<V>) tailOf(bits(key), true);
+	}
+
+	/**
+	 * Returns the least key greater than or equal to the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public long ceilingKey(long key) {
+		return key(keyBits(tailOf(bits(key), true)));
+	}
+
+	/**
+	 * Returns the entry associated with the least key strictly greater than
+	 * the given key, or {@code null} if there is no such key.
+	 */
+	public Entry<V> higherEntry(long key) {
+		return (Entry<V>) tailOf(bits(key), false);
+	}
+
+	/**
+	 * Returns the least key strictly greater than the given key.
+	 *
+	 * @throws NoSuchElementException if there is no such key
+	 */
+	public long higherKey(long key) {
+		return key(keyBits(tailOf(bits(key), false)));
+	}
+
+	/**
+	 * Returns the entry associated with the closest key in a bitwise XOR
+	 * metric to the given key, or {@code null} if the map is empty.
+	 *
+	 * @see BitwiseMap#nearestEntry(Object)
+	 */
+	public Entry<V> nearestEntry(long key) {
+		return (Entry<V>) getNearestEntry(bits(key));
+	}
+
+	/**
+	 * Returns the closest key in a bitwise XOR metric to the given key.
+	 *
+	 * @throws NoSuchElementException if this map is empty
+	 * @see BitwiseMap#nearestKey(Object)
+	 */
+	public long nearestKey(long key) {
+		return key(keyBits(getNearestEntry(bits(key))));
+	}
+
+	/**
+	 * Returns the entry associated with the key sharing the longest run of
+	 * leading bits with the given key, provided that at least
+	 * {@code prefixBits} leading bits are shared, or {@code null} if there is
+	 * no such key. In other words, this returns the longest match of the given
+	 * key among the stored keys, where only matches of at least
+	 * {@code prefixBits} bits count. A {@code prefixBits} of 64 is an exact
+	 * lookup, while 0 is the same as {@link #nearestEntry(long)}.
+	 *
+	 * @param key the key
+	 * @param prefixBits the minimum number of leading bits to match
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 64
+	 */
+	public Entry<V> prefixEntry(long key, int prefixBits) {
+		return (Entry<V>) getPrefixEntry(bits(key), prefixBits);
+	}
+
+	/**
+	 * Returns the entry associated with the least key whose leading
+	 * {@code prefixBits} bits are equal to those of the given prefix, or
+	 * {@code null} if there is no such key.
+	 *
+	 * @param prefix the prefix, only its leading {@code prefixBits} bits are
+	 *        considered
+	 * @param prefixBits the length of the prefix in bits
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 64
+	 * @see PrefixMap#leastPrefixed(Object, boolean)
+	 */
+	public Entry<V> leastPrefixed(long prefix, int prefixBits) {
+		return (Entry<V>) getLeastPrefixed(bits(prefix), prefixBits);
+	}
+
+	/**
+	 * Returns the entry associated with the greatest key whose leading
+	 * {@code prefixBits} bits are equal to those of the given prefix, or
+	 * {@code null} if there is no such key.
+	 *
+	 * @param prefix the prefix, only its leading {@code prefixBits} bits are
+	 *        considered
+	 * @param prefixBits the length of the prefix in bits
+	 * @throws BitIndexOutOfBoundsException if {@code prefixBits} is not within
+	 *         0 and 64
+	 * @see PrefixMap#lastPrefixed(Object, boolean)
+	 */
+	public Entry<V> lastPrefixed(long prefix, int prefixBits) {
+		return (Entry<V>) getLastPrefixed(bits(prefix), prefixBits);
+	}
+
+	/**
+	 * A map entry of an {@link LongPatriciaTrie}, holding its key inline.
+	 *
+	 * @param <V> the type of mapped values
+	 */
+	public static final class Entry<V> extends
+			AbstractPrimitivePatriciaTrie.Entry<Long, V> {
+		private static final long serialVersionUID = -8204416583213796725L;
+
+		Entry(long bits, V value) {
+			super(bits, value);
+		}
+
+		/**
+		 * Returns the key corresponding to this entry, without boxing it.
+		 */
+		public long getLongKey() {
+			return key(key);
+		}
+
+		@Override
+		public Long getKey() {
+			return getLongKey();
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#equals(Object)
+		 */
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object k = e.getKey();
+			return k instanceof Long && (Long) k == getLongKey()
+					&& AbstractPatriciaTrie.eq(value, e.getValue());
+		}
+
+		/**
+		 * @see AbstractPatriciaTrie.Entry#hashCode()
+		 */
+		public int hashCode() {
+			return Long.hashCode(getLongKey())
+					^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return getLongKey() + "=" + value;
+		}
+	}
+}
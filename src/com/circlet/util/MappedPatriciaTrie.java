@@ -0,0 +1,814 @@
+package com.circlet.util;
+
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_ZERO_SPEC;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_ZERO_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_SET;
+import static com.circlet.util.AbstractPatriciaTrie.UNSET;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+import com.circlet.util.BitwiseComparators.ByteBufferBits;
+
+/**
+ * A read-only trie of byte string keys and values, answering queries straight
+ * from a memory-mapped file written by {@link #write(Path, Map)} or
+ * {@link #write(Path, Iterator)}.
+ * <p>
+ * The file holds the entries of a trie numbered in key order, like those of a
+ * {@link FrozenPatriciaTrie}, ordered by
+ * {@link BitwiseComparators#FOR_UBYTE_ARRAY}: the key and value bytes of
+ * every entry in key order, followed by a node table, with the bit, the first
+ * switch, the next switch and the data offset of every entry. Opening a file
+ * only maps it, so it takes constant time whatever the size of the trie, and
+ * the pages are read on demand through the page cache of the operating
+ * system, which is shared by every process mapping the same file. The file is
+ * mapped in chunks of at most 1 GiB, so it may be larger than 2 GiB, up to
+ * 32 GiB.
+ * <p>
+ * Keys are searched for with {@code byte[]} or {@link ByteBuffer} keys, the
+ * bytes remaining in a buffer making the key, and are compared as unsigned
+ * bytes. Keys and values are returned as read-only buffers over the mapped
+ * file, never copied to the heap. {@link #get(Object)} and
+ * {@link #prefixEntry(Object)} walk the tracks and switches of the trie like
+ * {@code PatriciaTrie} does, while the navigation methods and the prefix scans
+ * are binary searches over the entries, which are numbered in key order.
+ * <p>
+ * This class is immutable and safe to use by any number of threads. The file
+ * must not be changed while it is mapped.
+ *
+ * @author Jason
+ */
+public final class MappedPatriciaTrie {
+
+	private static final int MAGIC = 0x546E5350; // "TnSP"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int NODE_SIZE = 16;
+	private static final int NODE_SHIFT = 4;
+	private static final int DATA_SHIFT = 3;
+	private static final int DATA_ALIGN = (1 << DATA_SHIFT) - 1;
+
+	/** 1 GiB mapped chunks, small enough to be mapped by a single buffer */
+	static final int DEFAULT_CHUNK_SHIFT = 30;
+	private static final int MIN_CHUNK_SHIFT = 5;
+
+	private static final int NONE = -1;
+
+	private static final ByteBufferBits comparator = ByteBufferBits.UNSIGNED;
+
+	private final ByteBuffer[] chunks;
+	private final int chunkShift;
+	private final int chunkMask;
+
+	private final int size;
+	private final int root;
+	private final int head;
+	private final long nodes;
+
+	private MappedPatriciaTrie(ByteBuffer[] chunks, int chunkShift, int size,
+			int root, int head, long nodes) {
+		this.chunks = chunks;
+		this.chunkShift = chunkShift;
+		this.chunkMask = (1 << chunkShift) - 1;
+		this.nodes = nodes;
+		this.size = size;
+		this.root = root;
+		this.head = head;
+	}
+
+	/**
+	 * Maps the specified trie file.
+	 *
+	 * @param file a file written by {@link #write(Path, Map)}
+	 * @return the trie of the file
+	 * @throws IOException if the file cannot be mapped, or is not a trie file
+	 */
+	public static MappedPatriciaTrie open(Path file) throws IOException {
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			long length = fc.size();
+			if (length < HEADER_SIZE)
+				throw new IOException("Not a trie file: " + file);
+			ByteBuffer header = fc.map(FileChannel.MapMode.READ_ONLY, 0,
+					HEADER_SIZE);
+			if (header.getInt(0) != MAGIC)
+				throw new IOException("Not a trie file: " + file);
+			if (header.getInt(4) != VERSION)
+				throw new IOException("Unsupported trie file version: "
+						+ header.getInt(4));
+			int chunkShift = header.getInt(8);
+			int size = header.getInt(12);
+			int root = header.getInt(16);
+			int head = header.getInt(20);
+			long nodes = header.getLong(24);
+			if (chunkShift < MIN_CHUNK_SHIFT
+					|| chunkShift > DEFAULT_CHUNK_SHIFT || size < 0
+					|| nodes < HEADER_SIZE || nodes > length
+					|| (nodes & NODE_SIZE - 1) != 0
+					|| nodes + ((long) size << NODE_SHIFT) > length
+					|| root < NONE || root >= size || head < NONE
+					|| head >= size)
+				throw new IOException("Corrupted trie file: " + file);
+
+			long chunk = 1L << chunkShift;
+			ByteBuffer[] chunks = new ByteBuffer[(int) ((length + chunk - 1) >>> chunkShift)];
+			for (int i = 0; i < chunks.length; i++) {
+				long position = (long) i << chunkShift;
+				chunks[i] = fc.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(chunk, length - position));
+			}
+			return new MappedPatriciaTrie(chunks, chunkShift, size, root, head,
+					nodes);
+		}
+	}
+
+	/**
+	 * Writes the mappings of the specified map to a trie file, replacing the
+	 * file if it exists. The mappings are sorted first, unless the map is
+	 * already a {@link SortedMap} ordered by
+	 * {@link BitwiseComparators#FOR_UBYTE_ARRAY}, such as a
+	 * {@link PatriciaTrie}, whose entries are written as they are iterated.
+	 *
+	 * @param file the file to write
+	 * @param m the mappings to be written
+	 * @throws IOException if the file cannot be written
+	 * @throws IllegalArgumentException if a key and its value take more than
+	 *         1 GiB, or the trie more than 32 GiB
+	 * @throws NullPointerException if the map contains a {@code null} key or
+	 *         value
+	 * @see #write(Path, Iterator)
+	 */
+	public static void write(Path file, Map<byte[], byte[]> m)
+			throws IOException {
+		write(file, m, DEFAULT_CHUNK_SHIFT);
+	}
+
+	static void write(Path file, Map<byte[], byte[]> m, int chunkShift)
+			throws IOException {
+		if (!(m instanceof SortedMap && ((SortedMap<byte[], byte[]>) m)
+				.comparator() == BitwiseComparators.FOR_UBYTE_ARRAY)) {
+			PatriciaTrie<byte[], byte[]> t = new PatriciaTrie<>(
+					BitwiseComparators.FOR_UBYTE_ARRAY);
+			t.putAll(m);
+			m = t;
+		}
+		write(file, m.entrySet().iterator(), chunkShift);
+	}
+
+	/**
+	 * Writes the mappings returned by the specified iterator, whose keys must
+	 * be in strictly ascending {@link BitwiseComparators#FOR_UBYTE_ARRAY}
+	 * order, to a trie file, replacing the file if it exists. The keys and
+	 * values are written as they are iterated, while the trie is built the
+	 * way {@link PatriciaTrie.Builder} does, by keeping only the tracks from
+	 * the root down to the previous key. The node table goes through a
+	 * temporary file next to the trie file, so that only those tracks are
+	 * held in memory, whatever the number of mappings.
+	 *
+	 * @param file the file to write
+	 * @param entries the mappings to be written, in ascending key order
+	 * @throws IOException if the file cannot be written
+	 * @throws IllegalArgumentException if the keys are not in ascending order,
+	 *         a key and its value take more than 1 GiB, or the trie more than
+	 *         32 GiB, in which case the file is deleted
+	 * @throws NullPointerException if a key or value is {@code null}
+	 */
+	public static void write(Path file,
+			Iterator<? extends Map.Entry<byte[], byte[]>> entries)
+			throws IOException {
+		write(file, entries, DEFAULT_CHUNK_SHIFT);
+	}
+
+	static void write(Path file,
+			Iterator<? extends Map.Entry<byte[], byte[]>> entries,
+			int chunkShift) throws IOException {
+		Path nodes = Files.createTempFile(file.toAbsolutePath().getParent(),
+				file.getFileName().toString(), ".nodes");
+		boolean done = false;
+		try (FileChannel fc = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				FileChannel nc = FileChannel.open(nodes,
+						StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			Writer w = new Writer(fc, nc, chunkShift);
+			while (entries.hasNext()) {
+				Map.Entry<byte[], byte[]> e = entries.next();
+				w.add(e.getKey(), e.getValue());
+			}
+			w.finish();
+			done = true;
+		} finally {
+			Files.delete(nodes);
+			if (!done)
+				Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * Writes a trie file from keys added in strictly ascending order. The
+	 * key and value of an entry are written to the file as soon as it is
+	 * added, and its node as well, to the node file, but for its first switch,
+	 * which changes with every greater key added to its switch list. Like
+	 * {@link PatriciaTrie.Builder}, a key goes either into the switch list of
+	 * the previous key, or into that of the track where the two keys part, on
+	 * the way back up from the previous key. The tracks from the root down to
+	 * the previous key, which are the only ones to which keys may still be
+	 * added, are thus kept on a stack with their first switches, and the
+	 * first switch of a track is set in the node file once the track is left
+	 * behind. The node table is appended to the file when done, followed by
+	 * the header at the start of the file.
+	 */
+	private static final class Writer {
+		private static final int BLOCK_SHIFT = 12;
+
+		private final FileChannel file;
+		private final FileChannel nodes;
+		private final DataOutputStream out;
+		private final int chunkShift;
+		private long position = HEADER_SIZE;
+
+		/**
+		 * The nodes from {@code flushed} on, not yet written to the node file
+		 */
+		private final ByteBuffer block = ByteBuffer
+				.allocate(NODE_SIZE << BLOCK_SHIFT);
+		private int flushed;
+		private int size;
+
+		/**
+		 * The tracks from the root down to the previous key, with the bit
+		 * index and the first switch of each. The root is at 0, and is
+		 * {@code NONE} unless the empty key was added.
+		 */
+		private int[] tracks = new int[16];
+		private int[] indexes = new int[16];
+		private int[] firsts = new int[16];
+		private int top;
+
+		private byte[] last;
+		private int lastLength;
+
+		Writer(FileChannel file, FileChannel nodes, int chunkShift)
+				throws IOException {
+			this.file = file;
+			this.nodes = nodes;
+			this.chunkShift = chunkShift;
+			out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(file), 1 << 16));
+			out.write(new byte[HEADER_SIZE]); // Written when done
+			tracks[0] = NONE;
+			firsts[0] = NONE;
+		}
+
+		void add(byte[] key, byte[] value) throws IOException {
+			BitwiseComparator<byte[]> c = BitwiseComparators.FOR_UBYTE_ARRAY;
+			int length = c.lengthBits(key), bit, next = NONE;
+			if (last == null && length == 0) {
+				tracks[0] = size; // The root is set
+				bit = ROOT_SET;
+			} else {
+				int index = last == null ? 0 : c.contrast(key, last);
+				if (index == lastLength) {
+					// The previous key is a prefix
+					bit = c.isBitSet(key, index) ? index | BIT_EDGE_FLAG
+							: index | BIT_EDGE_ZERO_SPEC;
+				} else {
+					if (index < 0 || index == length
+							|| !c.isBitSet(key, index))
+						throw new IllegalArgumentException(
+								"keys not in ascending order");
+					// Climb to the track where the keys part, setting the
+					// first switches of the tracks left behind
+					int child = NONE;
+					for (; top > 0 && indexes[top] >= index; top--) {
+						child = indexes[top];
+						setSwitches(tracks[top], firsts[top]);
+					}
+					bit = child == index ? index | BIT_EDGE_FLAG : index;
+				}
+				if (size == Integer.MAX_VALUE)
+					throw new IllegalArgumentException("Trie too large: "
+							+ size + " entries");
+				// Enlisted as the first switch of its track
+				next = firsts[top];
+				firsts[top] = size;
+				if (++top == tracks.length) {
+					tracks = Arrays.copyOf(tracks, top << 1);
+					indexes = Arrays.copyOf(indexes, top << 1);
+					firsts = Arrays.copyOf(firsts, top << 1);
+				}
+				tracks[top] = size;
+				indexes[top] = bit & BIT_INDEX_MASK;
+				firsts[top] = NONE;
+			}
+			int at = (size - flushed) << NODE_SHIFT;
+			block.putInt(at, bit).putInt(at + 4, NONE).putInt(at + 8, next)
+					.putInt(at + 12, (int) (writeData(key, value) >>> DATA_SHIFT));
+			last = key;
+			lastLength = length;
+			if (++size - flushed == 1 << BLOCK_SHIFT)
+				flush();
+		}
+
+		/**
+		 * Writes the key and value of an entry, so that it does not straddle
+		 * two mapped chunks, and returns its offset.
+		 */
+		private long writeData(byte[] key, byte[] value) throws IOException {
+			int length = dataLength(key, value);
+			if (length > 1 << chunkShift)
+				throw new IllegalArgumentException("Entry too large: " + length
+						+ " bytes");
+			long end = position + length - 1;
+			if (position >>> chunkShift != end >>> chunkShift) {
+				for (long chunk = end >>> chunkShift << chunkShift; position < chunk; position++)
+					out.write(0);
+				end = position + length - 1;
+			}
+			if (end >>> DATA_SHIFT > 0xFFFFFFFFL)
+				throw new IllegalArgumentException("Trie too large: "
+						+ (end + 1) + " bytes");
+			long offset = position;
+			out.writeInt(key.length);
+			out.writeInt(value.length);
+			out.write(key);
+			out.write(value);
+			for (int pad = length - 8 - key.length - value.length; pad > 0; pad--)
+				out.write(0);
+			position += length;
+			return offset;
+		}
+
+		/**
+		 * Sets the first switch of a node, in the node file if the node was
+		 * already written there.
+		 */
+		private void setSwitches(int i, int first) throws IOException {
+			if (i >= flushed) {
+				block.putInt((i - flushed << NODE_SHIFT) + 4, first);
+				return;
+			}
+			ByteBuffer b = ByteBuffer.allocate(4).putInt(0, first);
+			long at = ((long) i << NODE_SHIFT) + 4;
+			while (b.hasRemaining())
+				at += nodes.write(b, at);
+		}
+
+		private void flush() throws IOException {
+			block.limit(size - flushed << NODE_SHIFT).position(0);
+			while (block.hasRemaining())
+				nodes.write(block);
+			block.clear();
+			flushed = size;
+		}
+
+		void finish() throws IOException {
+			int root = tracks[0];
+			int head = firsts[0];
+			for (; top >= 0; top--)
+				if (tracks[top] != NONE)
+					setSwitches(tracks[top], firsts[top]);
+			flush();
+
+			// The node table, 16-byte aligned after the data
+			for (; (position & NODE_SIZE - 1) != 0; position++)
+				out.write(0);
+			out.flush();
+			long table = position, count = (long) size << NODE_SHIFT;
+			for (long done = 0; done < count;)
+				done += file.transferFrom(nodes.position(done), table + done,
+						count - done);
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(chunkShift)
+					.putInt(size).putInt(root).putInt(head).putLong(table)
+					.flip();
+			for (long at = 0; header.hasRemaining();)
+				at += file.write(header, at);
+			file.force(false);
+		}
+	}
+
+	/**
+	 * Returns the length of the data of an entry, its key and value lengths,
+	 * key and value, padded to 8 bytes.
+	 */
+	private static int dataLength(byte[] key, byte[] value) {
+		if (value == null)
+			throw new NullPointerException();
+		long length = 8L + key.length + value.length + DATA_ALIGN & ~DATA_ALIGN;
+		return (int) Math.min(length, Integer.MAX_VALUE);
+	}
+
+	// Reading the mapped file
+
+	private int nodeInt(int i, int field) {
+		long position = nodes + ((long) i << NODE_SHIFT) + field;
+		return chunks[(int) (position >>> chunkShift)]
+				.getInt((int) position & chunkMask);
+	}
+
+	private int bit(int i) {
+		return nodeInt(i, 0);
+	}
+
+	private int switches(int i) {
+		return nodeInt(i, 4);
+	}
+
+	private int next(int i) {
+		return nodeInt(i, 8);
+	}
+
+	/**
+	 * Returns the position in the file of the data of an entry, which never
+	 * straddles two chunks.
+	 */
+	private long dataPosition(int i) {
+		return (nodeInt(i, 12) & 0xFFFFFFFFL) << DATA_SHIFT;
+	}
+
+	private ByteBuffer chunkAt(long position) {
+		return chunks[(int) (position >>> chunkShift)];
+	}
+
+	/**
+	 * Returns the key (if {@code value} is false) or the value of an entry,
+	 * as a read-only buffer over the mapped file.
+	 */
+	private ByteBuffer data(int i, boolean value) {
+		long position = dataPosition(i);
+		ByteBuffer chunk = chunkAt(position);
+		int offset = (int) position & chunkMask;
+		int keyLength = chunk.getInt(offset);
+		int from = offset + 8, length = keyLength;
+		if (value) {
+			from += keyLength;
+			length = chunk.getInt(offset + 4);
+		}
+		ByteBuffer b = chunk.duplicate();
+		b.limit(from + length).position(from);
+		return b.slice();
+	}
+
+	private ByteBuffer key(int i) {
+		return data(i, false);
+	}
+
+	// Comparing keys in place, as by the comparator, without the buffer
+	// that key(i) would allocate for every comparison of a search
+
+	private int keyLength(int i) {
+		long position = dataPosition(i);
+		return chunkAt(position).getInt((int) position & chunkMask);
+	}
+
+	/**
+	 * Same as {@code comparator.compare(key(i), key)}.
+	 */
+	private int compareKey(int i, Object key) {
+		long position = dataPosition(i);
+		ByteBuffer chunk = chunkAt(position);
+		int offset = (int) position & chunkMask;
+		int length = chunk.getInt(offset), keyLength = ByteBufferBits.length(key);
+		int from = offset + 8;
+		int j = mismatch(chunk, from, key, Math.min(length, keyLength));
+		if (j >= 0) // Unsigned bytes
+			return (chunk.get(from + j) & 0xFF)
+					- (ByteBufferBits.byteAt(key, j) & 0xFF);
+		return length - keyLength;
+	}
+
+	/**
+	 * Same as {@code comparator.contrast(key, key(i))}.
+	 */
+	private int contrastKey(Object key, int i) {
+		long position = dataPosition(i);
+		ByteBuffer chunk = chunkAt(position);
+		int offset = (int) position & chunkMask;
+		int length = chunk.getInt(offset), keyLength = ByteBufferBits.length(key);
+		int from = offset + 8, lim = Math.min(length, keyLength);
+		int j = mismatch(chunk, from, key, lim);
+		if (j >= 0)
+			return (j << ByteBufferBits.SIZE_SHIFT)
+					+ BitwiseComparators.ByteBits.indexOfBit(ByteBufferBits
+							.byteAt(key, j) ^ chunk.get(from + j));
+		if (length == keyLength)
+			return -1;
+		return lim << ByteBufferBits.SIZE_SHIFT;
+	}
+
+	/**
+	 * Same as {@code comparator.checkPrefixed(key(i), prefix, true)}.
+	 */
+	private boolean isKeyPrefixed(int i, Object prefix) {
+		long position = dataPosition(i);
+		ByteBuffer chunk = chunkAt(position);
+		int offset = (int) position & chunkMask;
+		int lim = ByteBufferBits.length(prefix);
+		return lim <= chunk.getInt(offset)
+				&& mismatch(chunk, offset + 8, prefix, lim) < 0;
+	}
+
+	/**
+	 * Returns the index of the first of the first {@code lim} bytes that
+	 * differs between the bytes of the chunk from the specified offset and
+	 * the key, or -1. Only absolute gets are used.
+	 */
+	private static int mismatch(ByteBuffer chunk, int from, Object key,
+			int lim) {
+		if (key instanceof byte[]) {
+			byte[] a = (byte[]) key;
+			for (int j = 0; j < lim; j++) {
+				if (chunk.get(from + j) != a[j])
+					return j;
+			}
+			return -1;
+		}
+		ByteBuffer b = (ByteBuffer) key;
+		int pos = b.position();
+		for (int j = 0; j < lim; j++) {
+			if (chunk.get(from + j) != b.get(pos + j))
+				return j;
+		}
+		return -1;
+	}
+
+	private Map.Entry<ByteBuffer, ByteBuffer> exportEntry(int i) {
+		return i < 0 ? null : new AbstractMap.SimpleImmutableEntry<>(key(i),
+				data(i, true));
+	}
+
+	// Trie walks
+
+	/**
+	 * Same as {@link FrozenPatriciaTrie#findNearest}.
+	 */
+	private int findNearest(int track, Object key, int length) {
+		ByteBufferBits c = comparator;
+		int next = track < 0 ? head : switches(track);
+		while (next >= 0) {
+			int bit = bit(next);
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					next = next(next);
+					if (next < 0)
+						break;
+				}
+			} else {
+				if (length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = next(next);
+					continue;
+				}
+			}
+			next = switches(track = next); // Change track
+		}
+		return track;
+	}
+
+	private int getIndex(Object key) {
+		ByteBufferBits c = comparator;
+		int i = findNearest(root, key, c.lengthBits(key));
+		return i >= 0 && compareKey(i, key) == 0 ? i : NONE;
+	}
+
+	/**
+	 * Same as {@link FrozenPatriciaTrie#prefixIndex}.
+	 */
+	private int prefixIndex(Object key) {
+		ByteBufferBits c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		int track = findNearest(root, key, length);
+		if (track < 0)
+			return NONE;
+		int index = contrastKey(key, track);
+		if (index < 0 || index != length
+				&& index == keyLength(track) << ByteBufferBits.SIZE_SHIFT)
+			return track;
+
+		int prefix = NONE;
+		int next = (track = root) < 0 ? head : switches(track);
+		while (next >= 0) {
+			int bit = bit(next);
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (bitm > index || length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					if ((next = next(next)) < 0)
+						break;
+				}
+				prefix = track;
+			} else {
+				if (bit > index || length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = next(next);
+					continue;
+				}
+			}
+			next = switches(track = next); // Change track
+		}
+		return prefix;
+	}
+
+	// Binary searches
+
+	/**
+	 * Returns the number of the first entry whose key is greater than (or
+	 * equal to, if inclusive) the specified key, or {@code size}.
+	 */
+	private int ceilingIndex(Object key, boolean inclusive) {
+		comparator.lengthBits(key); // Type (and possibly null) check
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compareKey(mid, key);
+			if (cmp < 0 || cmp == 0 && !inclusive)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Same as {@link FrozenPatriciaTrie#prefixEnd}.
+	 */
+	private int prefixEnd(Object prefixKey, int start) {
+		int lo = start, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (isKeyPrefixed(mid, prefixKey))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	// Queries
+
+	/**
+	 * Returns the number of entries of this trie.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns {@code true} if this trie contains the specified key.
+	 *
+	 * @param key a {@code byte[]} or {@code ByteBuffer} key
+	 * @throws ClassCastException if the key is of another type
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public boolean containsKey(Object key) {
+		return getIndex(key) >= 0;
+	}
+
+	/**
+	 * Returns the value of the specified key, or {@code null} if this trie
+	 * does not contain the key.
+	 *
+	 * @param key a {@code byte[]} or {@code ByteBuffer} key
+	 * @return a read-only buffer holding the value, or {@code null}
+	 * @throws ClassCastException if the key is of another type
+	 * @throws NullPointerException if the key is {@code null}
+	 */
+	public ByteBuffer get(Object key) {
+		int i = getIndex(key);
+		return i >= 0 ? data(i, true) : null;
+	}
+
+	/**
+	 * Returns the entry with the longest key prefixing the specified key,
+	 * the key itself included, or {@code null} if there is none.
+	 *
+	 * @see PrefixMap#prefixEntry(Object)
+	 */
+	public Map.Entry<ByteBuffer, ByteBuffer> prefixEntry(Object key) {
+		return exportEntry(prefixIndex(key));
+	}
+
+	/**
+	 * Returns the entry with the least key greater than or equal to the
+	 * specified key, or {@code null} if there is none.
+	 */
+	public Map.Entry<ByteBuffer, ByteBuffer> ceilingEntry(Object key) {
+		int i = ceilingIndex(key, true);
+		return exportEntry(i < size ? i : NONE);
+	}
+
+	/**
+	 * Returns the entry with the least key strictly greater than the
+	 * specified key, or {@code null} if there is none.
+	 */
+	public Map.Entry<ByteBuffer, ByteBuffer> higherEntry(Object key) {
+		int i = ceilingIndex(key, false);
+		return exportEntry(i < size ? i : NONE);
+	}
+
+	/**
+	 * Returns the entry with the greatest key less than or equal to the
+	 * specified key, or {@code null} if there is none.
+	 */
+	public Map.Entry<ByteBuffer, ByteBuffer> floorEntry(Object key) {
+		return exportEntry(ceilingIndex(key, false) - 1);
+	}
+
+	/**
+	 * Returns the entry with the greatest key strictly less than the
+	 * specified key, or {@code null} if there is none.
+	 */
+	public Map.Entry<ByteBuffer, ByteBuffer> lowerEntry(Object key) {
+		return exportEntry(ceilingIndex(key, true) - 1);
+	}
+
+	public Map.Entry<ByteBuffer, ByteBuffer> firstEntry() {
+		return exportEntry(size > 0 ? 0 : NONE);
+	}
+
+	public Map.Entry<ByteBuffer, ByteBuffer> lastEntry() {
+		return exportEntry(size - 1);
+	}
+
+	/**
+	 * Returns an iterator over the entries of this trie, in key order.
+	 */
+	public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> iterator() {
+		return new EntryIterator(0, size);
+	}
+
+	/**
+	 * Returns an iterator over the entries whose keys are prefixed by the
+	 * specified key, in key order.
+	 *
+	 * @param prefixKey a {@code byte[]} or {@code ByteBuffer} key
+	 * @param inclusive {@code true} if the prefix key itself is to be
+	 *        included
+	 * @see PrefixMap#subMap(Object, boolean)
+	 */
+	public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> prefixIterator(
+			Object prefixKey, boolean inclusive) {
+		int from = ceilingIndex(prefixKey, inclusive);
+		return new EntryIterator(from, prefixEnd(prefixKey, from));
+	}
+
+	/**
+	 * Iterates over a range of entry numbers.
+	 */
+	private final class EntryIterator implements
+			Iterator<Map.Entry<ByteBuffer, ByteBuffer>> {
+		private int next;
+		private final int end;
+
+		EntryIterator(int from, int to) {
+			this.next = from;
+			this.end = to;
+		}
+
+		public boolean hasNext() {
+			return next < end;
+		}
+
+		public Map.Entry<ByteBuffer, ByteBuffer> next() {
+			if (next >= end)
+				throw new NoSuchElementException();
+			return exportEntry(next++);
+		}
+	}
+}
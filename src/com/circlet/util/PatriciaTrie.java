@@ -1,25 +1,122 @@
 package com.circlet.util;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
 import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
 
 @SuppressWarnings("unchecked")
 public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
-		java.io.Serializable {
+		Cloneable, java.io.Serializable {
 	private static final long serialVersionUID = 4746504995846960416L;
 
 	public PatriciaTrie(BitwiseComparator<? super K> comparator) {
-		super(comparator);
+		super(comparator, false, false);
+	}
+
+	/**
+	 * Constructs a new, empty patricia trie, ordered according to the given
+	 * comparator. If {@code parentLinks} is {@code true}, every entry also
+	 * keeps a direct reference to its parent track, trading one reference per
+	 * entry for constant time upward navigation. This speeds up descending
+	 * iteration, {@code floorEntry()} and the like, insertions and removals
+	 * when tracks have many switches.
+	 * 
+	 * @param comparator the comparator that will be used to order this map
+	 * @param parentLinks whether entries link directly to their parent tracks
+	 */
+	public PatriciaTrie(BitwiseComparator<? super K> comparator,
+			boolean parentLinks) {
+		super(comparator, parentLinks, false);
+	}
+
+	/**
+	 * Constructs a new, empty patricia trie, ordered according to the given
+	 * comparator, with or without parent links. If {@code counted} is
+	 * {@code true}, every entry also keeps the number of entries below it,
+	 * trading one {@code int} per entry and a walk up to the root on every
+	 * insertion and removal for {@code size()} of range and prefix views, and
+	 * the {@link IndexedPrefixMap} methods, in time proportional to the depth
+	 * of the entries involved, rather than to the number of entries between
+	 * them.
+	 * 
+	 * @param comparator the comparator that will be used to order this map
+	 * @param parentLinks whether entries link directly to their parent tracks
+	 * @param counted whether entries keep the number of entries below them
+	 */
+	public PatriciaTrie(BitwiseComparator<? super K> comparator,
+			boolean parentLinks, boolean counted) {
+		super(comparator, parentLinks, counted);
+	}
+
+	/**
+	 * Constructs a new, empty scored patricia trie, ordered according to the
+	 * given comparator. Every entry also keeps the score of its value and the
+	 * highest score of the values below it, trading two {@code long}s per
+	 * entry and a walk up to the root on every insertion, removal and value
+	 * change for {@link #topK(Object, int)}. Null values are not passed to the
+	 * scorer, and score the lowest. A scored trie has neither parent links
+	 * nor subtree counts.
+	 * 
+	 * @param comparator the comparator that will be used to order this map
+	 * @param scorer the score of a value, which must not change while the
+	 *        value is in the map
+	 */
+	public PatriciaTrie(BitwiseComparator<? super K> comparator,
+			ToLongFunction<? super V> scorer) {
+		super(comparator, false, false, Objects.requireNonNull(scorer));
+	}
+
+	PatriciaTrie(BitwiseComparator<? super K> comparator, boolean parentLinks,
+			boolean counted, ToLongFunction<? super V> scorer) {
+		super(comparator, parentLinks, counted, scorer);
+	}
+
+	/**
+	 * Returns a new, empty trie created with the same arguments as this one.
+	 */
+	private PatriciaTrie<K, V> newAlike() {
+		return new PatriciaTrie<>(comparator, parentLinks, counted, scorer);
+	}
+
+	/**
+	 * Returns a new patricia trie with the mappings returned by the specified
+	 * iterator, whose keys must be in strictly ascending order according to
+	 * the given comparator. See {@link Builder}.
+	 * 
+	 * @param comparator the comparator that will be used to order the trie
+	 * @param entries the mappings to be placed in the trie, in key order
+	 * @return a trie with the mappings
+	 * @throws IllegalArgumentException if the keys are not in strictly
+	 *         ascending order
+	 */
+	public static <K, V> PatriciaTrie<K, V> fromSorted(
+			BitwiseComparator<? super K> comparator,
+			Iterator<? extends Map.Entry<? extends K, ? extends V>> entries) {
+		Builder<K, V> builder = new Builder<>(comparator, false, false);
+		while (entries.hasNext()) {
+			Map.Entry<? extends K, ? extends V> e = entries.next();
+			builder.add(e.getKey(), e.getValue());
+		}
+		return builder.build();
 	}
 
 	@Override
@@ -55,6 +152,125 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		return super.nearestEntry(key, true).key;
 	}
 
+	@Override
+	public List<Map.Entry<K, V>> nearestEntries(K key, int k) {
+		return firstEntries(nearestEntryIterator(key), k);
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> nearestEntryIterator(K key) {
+		return new NearestIterator<>(this, null, key, root, root.switches);
+	}
+
+	/**
+	 * Returns an iterator over the mappings of this map whose keys are within
+	 * the given distance of the given key, in ascending key order. The keys
+	 * sharing a track up to a switch share these bits, so they are measured
+	 * once for all of them, and none of them is walked to once the metric
+	 * finds them all too far. The iterator does not support the
+	 * {@code remove} operation.
+	 *
+	 * @param key the key
+	 * @param maxDistance the maximum distance of the returned keys
+	 * @param metric the distance between keys
+	 * @return an iterator over the mappings of the keys within
+	 *         {@code maxDistance} of {@code key}
+	 * @throws IllegalArgumentException if {@code maxDistance} is negative, or
+	 *         if the metric does not apply to the keys of this map
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key or metric is null
+	 * @see DistanceMetric#HAMMING
+	 * @see DistanceMetric#LEVENSHTEIN
+	 */
+	public Iterator<Map.Entry<K, V>> fuzzyMatches(K key, int maxDistance,
+			DistanceMetric<? super K> metric) {
+		DistanceMetric.Matcher<K> matcher = ((DistanceMetric<K>) metric)
+				.matcher(comparator, key, maxDistance);
+		return new MatchIterator<>(this, matcher, root, root.switches, matcher
+				.start(), 0);
+	}
+
+	/**
+	 * Returns an iterator over the mappings of this map whose keys are matched
+	 * by the given glob pattern, in ascending key order. Only the keys
+	 * prefixed by the leading literals of the pattern are walked to, and the
+	 * keys sharing a track up to a switch are matched once for all of them,
+	 * none of them being walked to once the pattern fails. The iterator does
+	 * not support the {@code remove} operation.
+	 *
+	 * @param glob the pattern
+	 * @return an iterator over the mappings of the matched keys
+	 * @throws IllegalArgumentException if the keys of this map are not
+	 *         ordered by {@link BitwiseComparators#FOR_STRING},
+	 *         {@link BitwiseComparators#FOR_CHAR_SEQUENCE} or
+	 *         {@link BitwiseComparators#FOR_CHAR_ARRAY}
+	 * @throws NullPointerException if the pattern is null
+	 */
+	public Iterator<Map.Entry<K, V>> match(Glob glob) {
+		Object c = comparator; // Any of them is a BitwiseComparator of chars
+		K prefixKey;
+		if (c instanceof BitwiseComparators.StringBits
+				|| c instanceof BitwiseComparators.CharSequenceBits)
+			prefixKey = (K) glob.prefix;
+		else if (c instanceof BitwiseComparators.Chars)
+			prefixKey = (K) glob.prefix.toCharArray();
+		else
+			throw new IllegalArgumentException("keys not ordered by chars: "
+					+ c);
+		int length = comparator.lengthBits(prefixKey);
+		Entry<K, V> e = length == 0 ? root : super.getLeastPrefixed(prefixKey,
+				true);
+		if (e == null)
+			return Collections.emptyIterator();
+		// 'e' is the shallowest entry whose key is prefixed, all of the other
+		// ones are below its switches from the end of the prefix on
+		DistanceMetric.Matcher<K> matcher = glob.matcher();
+		return new MatchIterator<>(this, matcher, e, switchFrom(e, length),
+				matcher.advance(matcher.start(), prefixKey, 0, length), length);
+	}
+
+	/**
+	 * Returns the mappings of the {@code k} highest scores among the keys
+	 * prefixed by (or equal to) the specified key, in descending score order.
+	 * Mappings of equal scores come in no particular order. The prefixed keys
+	 * are walked best first, from the highest scores kept by the entries for
+	 * their subtrees, so that a subtree is only entered if it may hold one of
+	 * the {@code k} mappings, however many keys share the prefix.
+	 * 
+	 * @param prefixKey the prefix of the keys
+	 * @param k the number of mappings to return
+	 * @return the mappings of the highest scores, at most {@code k} of them
+	 * @throws IllegalStateException if this trie is not scored
+	 * @throws IllegalArgumentException if {@code k} is negative
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 * @see #PatriciaTrie(BitwiseComparator, ToLongFunction)
+	 */
+	public List<Map.Entry<K, V>> topK(K prefixKey, int k) {
+		if (scorer == null)
+			throw new IllegalStateException("not a scored trie");
+		if (k < 0)
+			throw new IllegalArgumentException("k < 0: " + k);
+		int length = comparator.lengthBits(prefixKey);
+		Entry<K, V> e = length == 0 ? root : super.getLeastPrefixed(prefixKey,
+				true);
+		List<Map.Entry<K, V>> top = new java.util.ArrayList<>(Math.min(k, 32));
+		if (e == null || k == 0)
+			return top;
+		// 'e' is the shallowest entry whose key is prefixed, all of the other
+		// ones are below its switches from the end of the prefix on
+		TopWalk<K, V> walk = new TopWalk<>(this);
+		if (e.bit != ROOT_UNSET)
+			walk.offer(e, e == root ? scoreOf(e.value) : walk.scoreOf(e), true);
+		walk.offerSubtree(switchFrom(e, length));
+		for (Entry<K, V> x; top.size() < k && (x = walk.poll()) != null;)
+			top.add(x);
+		return top;
+	}
+
 	@Override
 	public Map.Entry<K, V> prefixEntry(K key) {
 		return super.prefixEntry(key, false);
@@ -125,6 +341,179 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		return super.getLastPrefixed(prefixKey, inclusive);
 	}
 
+	// Flyweight key lookups
+	/**
+	 * Returns the entry mapped to the key viewed by the specified
+	 * {@code CharSequence}, or {@code null} if there is none. Together with the
+	 * other {@code CharSequence} lookups, this lets a trie of {@code String}
+	 * keys be queried without creating a {@code String} for every query.
+	 * These lookups are named apart from the ones taking a key, which would
+	 * otherwise be ambiguous for a trie of {@code CharSequence} keys.
+	 * <p>
+	 * The comparator of this trie must accept {@code CharSequence} keys, as
+	 * {@link BitwiseComparators#FOR_CHAR_SEQUENCE} does.
+	 * 
+	 * @param key the key view
+	 * @return the entry with the viewed key, or {@code null}
+	 * @throws ClassCastException if the comparator of this trie does not
+	 *         accept {@code CharSequence} keys
+	 */
+	public Map.Entry<K, V> getEntryByView(CharSequence key) {
+		return super.getEntry(key);
+	}
+
+	/**
+	 * {@code CharSequence} counterpart of {@link #prefixEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(CharSequence)
+	 */
+	public Map.Entry<K, V> prefixEntryByView(CharSequence key) {
+		return super.prefixEntry(key, false);
+	}
+
+	/**
+	 * {@code CharSequence} counterpart of {@link #nearestEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(CharSequence)
+	 */
+	public Map.Entry<K, V> nearestEntryByView(CharSequence key) {
+		return super.nearestEntry(key, false);
+	}
+
+	/**
+	 * {@code CharSequence} counterpart of {@link #ceilingEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(CharSequence)
+	 */
+	public Map.Entry<K, V> ceilingEntryByView(CharSequence key) {
+		return super.tailOf(key, S_INCLUSIVE);
+	}
+
+	/**
+	 * Returns the entry mapped to the key made of the remaining bytes of the
+	 * specified buffer, or {@code null} if there is none. Together with the
+	 * other {@code ByteBuffer} lookups, this lets a trie of {@code byte[]} keys
+	 * be queried with keys sitting in a larger (heap or direct) buffer, by
+	 * setting its position and limit around the key, without copying it out.
+	 * The position and limit of the buffer are left untouched.
+	 * <p>
+	 * The comparator of this trie must accept {@code ByteBuffer} keys, as
+	 * {@link BitwiseComparators#FOR_BYTE_BUFFER} and
+	 * {@link BitwiseComparators#FOR_UBYTE_BUFFER} do.
+	 * 
+	 * @param key the buffer holding the key between its position and limit
+	 * @return the entry with the viewed key, or {@code null}
+	 * @throws ClassCastException if the comparator of this trie does not
+	 *         accept {@code ByteBuffer} keys
+	 */
+	public Map.Entry<K, V> getEntryByView(ByteBuffer key) {
+		return super.getEntry(key);
+	}
+
+	/**
+	 * {@code ByteBuffer} counterpart of {@link #prefixEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(ByteBuffer)
+	 */
+	public Map.Entry<K, V> prefixEntryByView(ByteBuffer key) {
+		return super.prefixEntry(key, false);
+	}
+
+	/**
+	 * {@code ByteBuffer} counterpart of {@link #nearestEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(ByteBuffer)
+	 */
+	public Map.Entry<K, V> nearestEntryByView(ByteBuffer key) {
+		return super.nearestEntry(key, false);
+	}
+
+	/**
+	 * {@code ByteBuffer} counterpart of {@link #ceilingEntry(Object)}.
+	 * 
+	 * @see #getEntryByView(ByteBuffer)
+	 */
+	public Map.Entry<K, V> ceilingEntryByView(ByteBuffer key) {
+		return super.tailOf(key, S_INCLUSIVE);
+	}
+
+	/**
+	 * Returns a read-only copy of this map, packed into arrays. See
+	 * {@link FrozenPatriciaTrie}.
+	 *
+	 * @return a frozen copy of this map
+	 */
+	public FrozenPatriciaTrie<K, V> freeze() {
+		return FrozenPatriciaTrie.freeze(this);
+	}
+
+	/**
+	 * Returns a shallow copy of this {@code PatriciaTrie} instance. (The keys
+	 * and values themselves are not cloned.) The entries are copied link by
+	 * link, so the copy has the shape of this trie without searching for any
+	 * key.
+	 * 
+	 * @return a shallow copy of this map
+	 */
+	@Override
+	public PatriciaTrie<K, V> clone() {
+		PatriciaTrie<K, V> clone;
+		try {
+			clone = (PatriciaTrie<K, V>) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new InternalError(e);
+		}
+		// Put clone into "virgin" state (except for comparator)
+		clone.entrySet = null;
+		clone.navigableKeySet = null;
+		clone.descendingMap = null;
+		clone.values = null;
+		clone.modCount = 0;
+		clone.root = copyEntries();
+		return clone;
+	}
+
+	/**
+	 * Compares the specified object with this map for equality. If it is a
+	 * {@code PatriciaTrie} with an equal comparator, both tries are walked
+	 * together in key order instead of looking up each key of one of them in
+	 * the other.
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (!(o instanceof PatriciaTrie))
+			return super.equals(o);
+		PatriciaTrie<?, ?> m = (PatriciaTrie<?, ?>) o;
+		BitwiseComparator<Object> c = comparator;
+		if (!c.equals(m.comparator))
+			return super.equals(o);
+		if (size != m.size)
+			return false;
+		Entry<K, V> x = getFirstEntry();
+		Entry<?, ?> y = m.getFirstEntry();
+		for (int n = size; n > 0; n--) {
+			if (c.compare(x.key, y.key) != 0
+					|| !Objects.equals(x.value, y.value))
+				return false;
+			x = successorOf(x);
+			y = successorOf(y);
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 0;
+		Entry<K, V> e = getFirstEntry();
+		for (int n = size; n > 0; n--) {
+			h += e.hashCode();
+			e = successorOf(e);
+		}
+		return h;
+	}
+
 	@Override
 	public Map.Entry<K, V> firstEntry() {
 		return super.getFirstEntry();
@@ -135,6 +524,356 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		return super.getLastEntry();
 	}
 
+	/**
+	 * Removes all of the mappings whose keys are prefixed by (or equal to, if
+	 * {@code inclusive} is true) the specified key, the same as clearing
+	 * {@code subMap(prefixKey, inclusive)}. The prefixed keys below the
+	 * shallowest one are unlinked from the trie as a whole, then walked
+	 * through once to count them and null out their links, as by
+	 * {@link #clear()}, so that a removed entry still referenced outside of
+	 * the trie does not retain the others.
+	 * 
+	 * @param prefixKey the prefix of the keys to remove
+	 * @param inclusive {@code true} if the prefix key itself is to be removed
+	 * @return the number of mappings removed
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	public int removePrefixed(K prefixKey, boolean inclusive) {
+		int length = comparator.lengthBits(prefixKey);
+		Entry<K, V> e = length == 0 ? root : super.getLeastPrefixed(prefixKey,
+				true);
+		if (e == null)
+			return 0;
+		// 'e' is the shallowest entry whose key is prefixed, all of the other
+		// ones are below its switches from the end of the prefix on
+		int removed = super.cutSwitches(e, switchFrom(e, length), true);
+		if (e.bit != ROOT_UNSET
+				&& (inclusive || comparator.lengthBits(e.key) != length)) {
+			super.deleteEntry(e);
+			removed++;
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes all of the mappings whose keys are prefixed by (or equal to, if
+	 * {@code inclusive} is true) the specified key, and returns them in a new
+	 * trie, with the same comparator, parent links, subtree counts and scorer
+	 * as this
+	 * one. The new trie takes over the entries of this one, the prefixed keys
+	 * below the shallowest one being unlinked as a whole, as with
+	 * {@link #removePrefixed(Object, boolean)}.
+	 * 
+	 * @param prefixKey the prefix of the keys to move
+	 * @param inclusive {@code true} if the prefix key itself is to be moved
+	 * @return a trie with the mappings removed from this one
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null and this map
+	 *         does not permit null keys
+	 */
+	public PatriciaTrie<K, V> splitOff(K prefixKey, boolean inclusive) {
+		PatriciaTrie<K, V> m = newAlike();
+		int length = comparator.lengthBits(prefixKey);
+		Entry<K, V> e = length == 0 ? root : super.getLeastPrefixed(prefixKey,
+				true);
+		if (e == null)
+			return m;
+		Entry<K, V> s = switchFrom(e, length);
+		int moved = super.cutSwitches(e, s, false);
+		Entry<K, V> top; // The entry becoming the first switch of the new root
+		if (e.bit != ROOT_UNSET
+				&& (inclusive || comparator.lengthBits(e.key) != length)) {
+			super.deleteEntry(e);
+			moved++;
+			top = e;
+		} else if (s == null) {
+			return m;
+		} else {
+			// A placeholder in place of the prefix key, removed right after
+			top = m.newEntry(e.key, null);
+		}
+		m.size = moved;
+		if (length == 0) {
+			// 'top' is the old root, if any
+			if (top.bit == ROOT_SET)
+				m.root = top;
+			if (s != null)
+				(m.root.switches = s).prev = m.root;
+			setParents(m.root);
+			return m;
+		}
+		top.bit = comparator.isBitSet(top.key, 0) ? BIT_EDGE_FLAG
+				: BIT_EDGE_ZERO_SPEC;
+		(m.root.switches = top).prev = m.root;
+		setParent(top, m.root);
+		if (s != null) {
+			(top.switches = s).prev = top;
+			setParents(top);
+			top.table = SwitchTable.of(top);
+		}
+		recount(top);
+		if (top != e)
+			detach(top);
+		return m;
+	}
+
+	/**
+	 * Moves all of the mappings of the specified trie into this one, leaving
+	 * it empty. This trie takes over the entries of the other one, which must
+	 * have been created with an equal comparator, and the same parent links,
+	 * subtree counts and scorer. None of the keys of this trie may be prefixed by
+	 * the longest prefix shared by all the keys of the other one, so that the
+	 * other trie is spliced in as a whole. A trie returned by
+	 * {@link #splitOff(Object, boolean)} can always be grafted back.
+	 * 
+	 * @param other the trie whose mappings are to be moved into this one
+	 * @throws IllegalArgumentException if the tries are not alike, or if a key
+	 *         of this trie is prefixed by the keys shared prefix of the other
+	 */
+	public void graft(PatriciaTrie<K, V> other) {
+		BitwiseComparator<? super K> c = comparator;
+		if (other == this || !c.equals(other.comparator)
+				|| parentLinks != other.parentLinks || counted != other.counted
+				|| scorer != other.scorer)
+			throw new IllegalArgumentException("tries not alike");
+		if (other.isEmpty())
+			return;
+		Entry<K, V> first = other.getFirstEntry();
+		K key = first.key;
+		int length = c.contrast(key, other.getLastEntry().key);
+		if (length < 0)
+			length = c.lengthBits(key);
+		// Check for a key of this trie having the shared prefix, the same
+		// way as getLeastPrefixed()
+		Entry<K, V> track = findNearest(c, root, key, length);
+		int index;
+		if (length == 0 ? !isEmpty() : track.bit != ROOT_UNSET
+				&& ((index = c.contrast(key, track.key)) < 0 || index >= length))
+			throw new IllegalArgumentException("shared prefix present");
+
+		modCount++;
+		other.modCount++;
+		int size = other.size;
+		other.size = 0;
+		if (length == 0) {
+			// This trie is empty
+			root = other.root;
+			other.root = new Entry<>();
+			this.size = size;
+			return;
+		}
+		// The first key is the only switch of the other root, all of the other
+		// ones are below its switches from the end of the shared prefix on
+		other.root = new Entry<>();
+		put(key, first.value);
+		Entry<K, V> e = getEntry(key);
+		Entry<K, V> s = first.switches;
+		first.switches = first.prev = null;
+		setParent(first, null);
+		if (s != null) {
+			Entry<K, V> last = e.switches;
+			if (last == null) {
+				(e.switches = s).prev = e;
+				last = e;
+			} else
+				((last = lastLinked(last)).next = s).prev = last;
+			setParents(e);
+			e.table = SwitchTable.of(e);
+			recount(last);
+		}
+		this.size += size - 1;
+	}
+
+	// Set operations, merging both tries in key order into a Builder. The
+	// tracks are not spliced: entries are linked into exactly one trie, so a
+	// kept region has to be copied entry by entry anyway.
+
+	/**
+	 * Returns a new trie with the mappings of both specified tries, which
+	 * must have been created with equal comparators. The values of a key
+	 * found in both tries are merged with the given function, which is passed
+	 * the value from {@code a} first. The new trie is created with the parent
+	 * links, subtree counts and scorer of {@code a}.
+	 * <p>
+	 * This is not a structural merge of the tracks and switches of the tries:
+	 * both are walked in key order with their successor links, and the keys
+	 * are appended to a {@link Builder}, which takes O(n + m) time for tries
+	 * of n and m entries, without a search per key. Since the entries of a
+	 * trie cannot be shared, the regions found in one trie only are copied
+	 * as well.
+	 * 
+	 * @param a the first trie
+	 * @param b the second trie
+	 * @param mergeFn the function merging the values of a key in both tries
+	 * @return a trie with the keys of either trie
+	 * @throws IllegalArgumentException if the comparators are not equal
+	 */
+	public static <K, V> PatriciaTrie<K, V> union(PatriciaTrie<K, V> a,
+			PatriciaTrie<K, V> b,
+			BiFunction<? super V, ? super V, ? extends V> mergeFn) {
+		Objects.requireNonNull(mergeFn);
+		BitwiseComparator<? super K> c = comparatorOf(a, b);
+		Builder<K, V> builder = new Builder<>(a.newAlike());
+		Entry<K, V> x = firstOf(a), y = firstOf(b);
+		while (x != DUMMY && y != DUMMY) {
+			int cmp = c.compare(x.key, y.key);
+			if (cmp < 0) {
+				builder.add(x.key, x.value);
+				x = successorOf(x);
+			} else if (cmp > 0) {
+				builder.add(y.key, y.value);
+				y = successorOf(y);
+			} else {
+				builder.add(x.key, mergeFn.apply(x.value, y.value));
+				x = successorOf(x);
+				y = successorOf(y);
+			}
+		}
+		for (; x != DUMMY; x = successorOf(x))
+			builder.add(x.key, x.value);
+		for (; y != DUMMY; y = successorOf(y))
+			builder.add(y.key, y.value);
+		return builder.build();
+	}
+
+	/**
+	 * Returns a new trie with the mappings of {@code a} whose keys are also
+	 * in {@code b}. Both tries are merged in key order, as by
+	 * {@link #union(PatriciaTrie, PatriciaTrie, BiFunction) union}, except
+	 * that a run of keys found in only one of the tries is skipped with a
+	 * single search, rather than walked. The tries must be alike, as for
+	 * {@code union}.
+	 * 
+	 * @param a the trie whose mappings are to be kept
+	 * @param b the trie whose keys are to be kept
+	 * @return a trie with the keys of both tries
+	 * @throws IllegalArgumentException if the comparators are not equal
+	 */
+	public static <K, V> PatriciaTrie<K, V> intersect(PatriciaTrie<K, V> a,
+			PatriciaTrie<K, ?> b) {
+		return filter(a, b, true);
+	}
+
+	/**
+	 * Returns a new trie with the mappings of {@code a} whose keys are not in
+	 * {@code b}. Both tries are merged in key order, as by
+	 * {@link #union(PatriciaTrie, PatriciaTrie, BiFunction) union}, except
+	 * that a run of keys found in {@code b} only is skipped with a single
+	 * search, rather than walked. The tries must be alike, as for
+	 * {@code union}.
+	 * 
+	 * @param a the trie whose mappings are to be kept
+	 * @param b the trie whose keys are to be left out
+	 * @return a trie with the keys of {@code a} only
+	 * @throws IllegalArgumentException if the comparators are not equal
+	 */
+	public static <K, V> PatriciaTrie<K, V> difference(PatriciaTrie<K, V> a,
+			PatriciaTrie<K, ?> b) {
+		return filter(a, b, false);
+	}
+
+	private static <K, V, W> PatriciaTrie<K, V> filter(PatriciaTrie<K, V> a,
+			PatriciaTrie<K, W> b, boolean common) {
+		BitwiseComparator<? super K> c = comparatorOf(a, b);
+		Builder<K, V> builder = new Builder<>(a.newAlike());
+		Entry<K, V> x = firstOf(a);
+		Entry<K, W> y = firstOf(b);
+		while (x != DUMMY && y != DUMMY) {
+			int cmp = c.compare(x.key, y.key);
+			if (cmp < 0) {
+				if (common)
+					x = skipTo(a, x, y.key);
+				else {
+					builder.add(x.key, x.value);
+					x = successorOf(x);
+				}
+			} else if (cmp > 0) {
+				y = skipTo(b, y, x.key);
+			} else {
+				if (common)
+					builder.add(x.key, x.value);
+				x = successorOf(x);
+				y = successorOf(y);
+			}
+		}
+		if (!common) {
+			for (; x != DUMMY; x = successorOf(x))
+				builder.add(x.key, x.value);
+		}
+		return builder.build();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <K> BitwiseComparator<? super K> comparatorOf(
+			PatriciaTrie<K, ?> a, PatriciaTrie<K, ?> b) {
+		BitwiseComparator<? super K> c = a.comparator;
+		if (!c.equals(b.comparator))
+			throw new IllegalArgumentException("tries not alike");
+		return c;
+	}
+
+	/**
+	 * Returns the first entry of the specified trie, or {@code DUMMY} if it
+	 * is empty, which is also where {@code successorOf} ends.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K, V> Entry<K, V> firstOf(PatriciaTrie<K, V> m) {
+		Entry<K, V> e = m.getFirstEntry();
+		return e != null ? e : DUMMY;
+	}
+
+	/**
+	 * Returns the first entry of the specified trie whose key is not lower
+	 * than the given one, which is greater than the key of the specified
+	 * entry, or {@code DUMMY} if there is none. The successor of the entry is
+	 * tried first, and the trie is searched if it is still too low, so that
+	 * a run of lower keys costs one search.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K, V> Entry<K, V> skipTo(PatriciaTrie<K, V> m,
+			Entry<K, V> e, K key) {
+		e = successorOf(e);
+		if (e == DUMMY || m.comparator.compare(e.key, key) >= 0)
+			return e;
+		e = m.tailOf(key, S_INCLUSIVE);
+		return e != null ? e : DUMMY;
+	}
+
+	// IndexedPrefixMap methods, walking from the first entry unless counted
+
+	@Override
+	public int rank(K key) {
+		Entry<K, V> e = super.tailOf(key, S_INCLUSIVE);
+		return e == null ? size : super.rankOf(e);
+	}
+
+	@Override
+	public Map.Entry<K, V> select(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("index: " + index);
+		return super.entryAt(index);
+	}
+
+	@Override
+	public int countPrefixed(K prefixKey, boolean inclusive) {
+		Entry<K, V> e = super.getLeastPrefixed(prefixKey, inclusive);
+		if (e == null)
+			return 0;
+		return super.countRange(e, getLastPrefixed(prefixKey, inclusive));
+	}
+
+	@Override
+	public Iterator<Map.Entry<K, V>> entryIterator(int fromIndex) {
+		if (fromIndex < 0 || fromIndex > size)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex);
+		return new AscEntryIterator<>(this, fromIndex == size ? DUMMY
+				: super.entryAt(fromIndex));
+	}
+
 	// Views
 	/**
 	 * Fields initialized to contain an instance of the entry set view the first
@@ -144,6 +883,7 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 	private transient EntrySet entrySet;
 	private transient KeySet<K> navigableKeySet;
 	private transient NavigableMap<K, V> descendingMap;
+	private transient Values values;
 
 	@Override
 	public Set<K> keySet() {
@@ -242,6 +982,12 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		return new AscPrefixSubMap<>(this, prefixKey, inclusive);
 	}
 
+	@Override
+	public Collection<V> values() {
+		Values vs = values;
+		return (vs != null) ? vs : (values = new Values());
+	}
+
 	@Override
 	public Set<Map.Entry<K, V>> entrySet() {
 		EntrySet es = entrySet;
@@ -257,6 +1003,12 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 			return new AscEntryIterator<>(PatriciaTrie.this);
 		}
 
+		@Override
+		public Spliterator<Map.Entry<K, V>> spliterator() {
+			return new EntrySpliterator<>(PatriciaTrie.this,
+					firstOf(PatriciaTrie.this), DUMMY, size, true);
+		}
+
 		public boolean contains(Object o) {
 			if (!(o instanceof Map.Entry))
 				return false;
@@ -288,6 +1040,19 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		}
 	}
 
+	private final class Values extends AbstractCollection<V> {
+		// @formatter:off
+		public Iterator<V> iterator() { return new AscValueIterator<>(PatriciaTrie.this); }
+		public int size() { return PatriciaTrie.this.size(); }
+		public boolean contains(Object o) { return containsValue(o); }
+		public void clear() { PatriciaTrie.this.clear(); }
+		public Spliterator<V> spliterator() {
+			return new ValueSpliterator<>(PatriciaTrie.this,
+					firstOf(PatriciaTrie.this), DUMMY, size, true);
+		}
+		// @formatter:on
+	}
+
 	final Iterator<K> keyIterator() {
 		return new AscKeyIterator<>(this);
 	}
@@ -296,6 +1061,10 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		return new DescKeyIterator<>(this);
 	}
 
+	final Spliterator<K> keySpliterator() {
+		return new KeySpliterator<>(this, firstOf(this), DUMMY, size, true);
+	}
+
 	private static final class KeySet<E> extends AbstractSet<E> implements
 			NavigableSet<E> {
 		private final AbstractNavigableMap<E, ?> m;
@@ -306,6 +1075,7 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 	
 		public Iterator<E> iterator() { return m.keyIterator(); }
 		public Iterator<E> descendingIterator() { return m.descKeyIterator(); }
+		public Spliterator<E> spliterator() { return m.keySpliterator(); }
 		public int size() { return m.size(); }
 		public boolean isEmpty() { return m.isEmpty(); }
 		public boolean contains(Object o) { return m.containsKey(o); }
@@ -355,6 +1125,148 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 	    // @formatter:on
 	}
 
+	/**
+	 * Builds a patricia trie from keys added in strictly ascending order, in
+	 * time linear in the number of keys. Each key is compared only with the
+	 * previous one, which is the greatest so far, so it goes right after it:
+	 * either as the first switch of the previous key, or as the first switch
+	 * of the track, on the way back up from the previous key, where the two
+	 * keys part. Since the tracks left behind are never visited again, the
+	 * climbs add up to at most one per key. The switch tables and subtree
+	 * counts are then made in a single pass by {@link #build()}.
+	 * 
+	 * @author Jason
+	 * 
+	 * @param <K> the type of keys maintained by the trie
+	 * @param <V> the type of mapped values
+	 */
+	public static final class Builder<K, V> {
+		private PatriciaTrie<K, V> trie;
+
+		/**
+		 * The greatest entry so far, and the length of its key
+		 */
+		private Entry<K, V> last;
+		private int lastLength;
+
+		/**
+		 * Constructs a new builder of a trie created with the given arguments.
+		 * 
+		 * @param comparator the comparator that will be used to order the trie
+		 * @param parentLinks whether entries link directly to their parent
+		 *        tracks
+		 * @param counted whether entries keep the number of entries below them
+		 * @see PatriciaTrie#PatriciaTrie(BitwiseComparator, boolean, boolean)
+		 */
+		public Builder(BitwiseComparator<? super K> comparator,
+				boolean parentLinks, boolean counted) {
+			trie = new PatriciaTrie<>(comparator, parentLinks, counted);
+		}
+
+		/**
+		 * Constructs a new builder of a scored trie.
+		 * 
+		 * @param comparator the comparator that will be used to order the trie
+		 * @param scorer the score of a value
+		 * @see PatriciaTrie#PatriciaTrie(BitwiseComparator, ToLongFunction)
+		 */
+		public Builder(BitwiseComparator<? super K> comparator,
+				ToLongFunction<? super V> scorer) {
+			trie = new PatriciaTrie<>(comparator, scorer);
+		}
+
+		private Builder(PatriciaTrie<K, V> trie) {
+			this.trie = trie;
+		}
+
+		/**
+		 * Adds the specified mapping, whose key must be greater than all of
+		 * the keys added so far.
+		 * 
+		 * @param key the key
+		 * @param value the value
+		 * @return this builder
+		 * @throws IllegalArgumentException if the key is not greater than the
+		 *         previous one
+		 * @throws IllegalStateException if the trie was already built
+		 */
+		public Builder<K, V> add(K key, V value) {
+			PatriciaTrie<K, V> t = trie;
+			if (t == null)
+				throw new IllegalStateException("already built");
+			@SuppressWarnings("unchecked")
+			BitwiseComparator<? super K> c = t.comparator;
+			int length = c.lengthBits(key); // Type (and possibly null) check
+
+			Entry<K, V> prev = last;
+			Entry<K, V> entry;
+			if (prev == null) {
+				Entry<K, V> root = t.root;
+				if (length == 0) {
+					root.bit = ROOT_SET;
+					root.key = key;
+					root.value = value;
+					entry = root;
+				} else {
+					entry = t.newEntry(key, value);
+					entry.bit = c.isBitSet(key, 0) ? BIT_EDGE_FLAG
+							: BIT_EDGE_ZERO_SPEC;
+					(root.switches = entry).prev = root;
+					setParent(entry, root);
+				}
+			} else {
+				int index = c.contrast(key, prev.key);
+				if (index == lastLength) {
+					// The previous key is a prefix
+					entry = t.newEntry(key, value);
+					entry.bit = c.isBitSet(key, index) ? index | BIT_EDGE_FLAG
+							: index | BIT_EDGE_ZERO_SPEC;
+					(prev.switches = entry).prev = prev;
+					setParent(entry, prev);
+				} else {
+					if (index < 0 || index == length || !c.isBitSet(key, index))
+						throw new IllegalArgumentException(
+								"keys not in ascending order");
+					// Climb to the track where the keys part, whose switches
+					// with a lower index, if any, would be greater
+					Entry<K, V> track = prev, child = null;
+					while ((track.bit & BIT_INDEX_MASK) >= index
+							&& track != t.root)
+						track = parentOf(child = track);
+					entry = t.newEntry(key, value);
+					// Parting at the end of the track, next to its 0-bit edge
+					// switch, or in the middle of the track
+					entry.bit = child != null
+							&& (child.bit & BIT_INDEX_MASK) == index ? index
+							| BIT_EDGE_FLAG : index;
+					enlist(track, entry);
+				}
+			}
+			last = entry;
+			lastLength = length;
+			t.size++;
+			return this;
+		}
+
+		/**
+		 * Returns the trie holding the mappings added so far. No mappings may
+		 * be added afterwards.
+		 * 
+		 * @return the trie
+		 * @throws IllegalStateException if the trie was already built
+		 */
+		public PatriciaTrie<K, V> build() {
+			PatriciaTrie<K, V> t = trie;
+			if (t == null)
+				throw new IllegalStateException("already built");
+			trie = null;
+			buildTables(t.root);
+			if (t.counted || t.scorer != null)
+				countAll(t.root);
+			return t;
+		}
+	}
+
 	/**
 	 * Base class for PatriciaTrie Iterators
 	 */
@@ -429,6 +1341,7 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 	private static final class AscEntryIterator<K, V> extends
 			PrivateIterator<Map.Entry<K, V>, K, V> {
 		AscEntryIterator(PatriciaTrie<K, V> trie) { super(trie); }
+		AscEntryIterator(PatriciaTrie<K, V> trie, Entry<K, V> first) { super(trie, first); }
 		public Map.Entry<K, V> next() { return super.nextEntry(); }
 	}
 	private static final class AscKeyIterator<K, V> extends
@@ -436,6 +1349,11 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		AscKeyIterator(PatriciaTrie<K, V> trie) { super(trie); }
 		public K next() { return super.nextEntry().key; }
 	}
+	private static final class AscValueIterator<K, V> extends
+			PrivateIterator<V, K, V> {
+		AscValueIterator(PatriciaTrie<K, V> trie) { super(trie); }
+		public V next() { return super.nextEntry().value; }
+	}
 	private static final class DescEntryIterator<K, V> extends
 			PrivateIterator<Map.Entry<K, V>, K, V> {
 		DescEntryIterator(PatriciaTrie<K, V> trie) {
@@ -448,7 +1366,393 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		DescKeyIterator(PatriciaTrie<K, V> trie) {
 			super(trie, apexOf(trie.root));
 		}
-		public K next() { return super.nextEntry().key; }
+		public K next() { return super.prevEntry().key; }
+	}
+	// @formatter:on
+
+	/**
+	 * Iterator over the entries of a trie, or of a prefix view of it, in
+	 * increasing XOR distance to a key. See {@link NearestWalk}.
+	 */
+	private static final class NearestIterator<K, V> implements
+			Iterator<Map.Entry<K, V>> {
+		private final PatriciaTrie<K, V> trie;
+		private final PrefixSubMap<K, V> m; // null for the whole trie
+		private final NearestWalk<K, V> walk;
+		private Entry<K, V> next;
+		private final int expectedModCount;
+
+		NearestIterator(PatriciaTrie<K, V> trie, PrefixSubMap<K, V> m, K key,
+				Entry<K, V> track, Entry<K, V> first) {
+			this.trie = trie;
+			this.m = m;
+			this.walk = new NearestWalk<>(trie.comparator, key, track, first);
+			this.expectedModCount = trie.modCount;
+			this.next = walk();
+		}
+
+		private Entry<K, V> walk() {
+			Entry<K, V> e = walk.nextEntry();
+			if (m != null)
+				while (e != null && !m.inRange(e.key))
+					e = walk.nextEntry();
+			return e;
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			Entry<K, V> e = next;
+			if (e == null)
+				throw new NoSuchElementException();
+			if (trie.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			next = walk();
+			return e;
+		}
+	}
+
+	/**
+	 * Iterator over the entries of a trie, or of the region of a track from
+	 * one of its switches on, whose keys are matched by a
+	 * {@link DistanceMetric.Matcher}. Each track is taken with the state of
+	 * the bits it shares with its parent track, up to its own switch bit. Its
+	 * switches are then deferred in turn, each with the state of the track
+	 * key up to its bit, until no key can match any more, and the track key
+	 * is matched last. Since the last switches hold the least keys, and a
+	 * track key is the least of its subtree, the entries come in ascending
+	 * key order.
+	 */
+	private static final class MatchIterator<K, V> implements
+			Iterator<Map.Entry<K, V>> {
+		private final PatriciaTrie<K, V> trie;
+		private final DistanceMetric.Matcher<K> matcher;
+		private Entry<K, V>[] tracks;
+		private int[][] states;
+		private int[] bits;
+		private int depth;
+		private Entry<K, V> next;
+		private final int expectedModCount;
+
+		/**
+		 * Starts from the given switch of the given track, with the state of
+		 * the first {@code bit} bits of its key.
+		 */
+		MatchIterator(PatriciaTrie<K, V> trie,
+				DistanceMetric.Matcher<K> matcher, Entry<K, V> track,
+				Entry<K, V> first, int[] state, int bit) {
+			this.trie = trie;
+			this.matcher = matcher;
+			this.tracks = newEntryArray(16);
+			this.states = new int[16][];
+			this.bits = new int[16];
+			this.expectedModCount = trie.modCount;
+			this.next = enter(track, first, state, bit) ? track : walk();
+		}
+
+		private void defer(Entry<K, V> track, int[] state, int bit) {
+			int n = depth;
+			if (n == tracks.length) {
+				tracks = java.util.Arrays.copyOf(tracks, n << 1);
+				states = java.util.Arrays.copyOf(states, n << 1);
+				bits = java.util.Arrays.copyOf(bits, n << 1);
+			}
+			tracks[n] = track;
+			states[n] = state;
+			bits[n] = bit;
+			depth = n + 1;
+		}
+
+		private Entry<K, V> walk() {
+			while (depth > 0) {
+				Entry<K, V> track = tracks[--depth];
+				int[] state = states[depth];
+				int from = bits[depth];
+				tracks[depth] = null;
+				states[depth] = null;
+				if (enter(track, track.switches, state, from))
+					return track;
+			}
+			return null;
+		}
+
+		/**
+		 * Defers the switches of the given track from the given one on, and
+		 * returns whether the track key is matched.
+		 */
+		private boolean enter(Entry<K, V> track, Entry<K, V> s, int[] state,
+				int from) {
+			DistanceMetric.Matcher<K> m = matcher;
+			K key = track.key;
+			for (; s != null; s = s.next) {
+				int bit = s.bit & BIT_INDEX_MASK;
+				if ((state = m.advance(state, key, from, bit)) == null)
+					return false; // Neither this switch nor the next ones
+				defer(s, state, from = bit);
+			}
+			if (track.bit == ROOT_UNSET)
+				return false;
+			state = m.advance(state, key, from, trie.comparator.lengthBits(key));
+			return state != null && m.matches(state, key);
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			Entry<K, V> e = next;
+			if (e == null)
+				throw new NoSuchElementException();
+			if (trie.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			next = walk();
+			return e;
+		}
+	}
+
+	/**
+	 * Best first walk of a scored trie, over a heap of entries, each taken
+	 * either alone, with its own score, or with its subtree (itself, its
+	 * {@code next} switches and everything below its own switches), with the
+	 * highest score in it. Opening a subtree offers the entry alone and the
+	 * subtrees of its two links, so every entry is offered alone before any
+	 * entry of a lower score is polled. Entries scored again on the way are
+	 * left where they are in the heap, whose scores remain upper bounds.
+	 */
+	private static final class TopWalk<K, V> {
+		private final PatriciaTrie<K, V> trie;
+		private Entry<K, V>[] nodes;
+		private long[] scores;
+		private boolean[] alone;
+		private int size;
+
+		TopWalk(PatriciaTrie<K, V> trie) {
+			this.trie = trie;
+			this.nodes = newEntryArray(64);
+			this.scores = new long[64];
+			this.alone = new boolean[64];
+		}
+
+		long scoreOf(Entry<K, V> e) {
+			long score = ((ScoredEntry<K, V>) e).score;
+			return score != UNSCORED ? score : trie.rescore(e);
+		}
+
+		void offerSubtree(Entry<K, V> s) {
+			if (s != null)
+				offer(s, maxScoreOf(s), false);
+		}
+
+		/**
+		 * Returns the entry of the next highest score, or {@code null} if
+		 * there is none left.
+		 */
+		Entry<K, V> poll() {
+			while (size > 0) {
+				Entry<K, V> e = nodes[0];
+				boolean single = alone[0];
+				removeTop();
+				if (single)
+					return e;
+				offer(e, scoreOf(e), true);
+				offerSubtree(e.next);
+				offerSubtree(e.switches);
+			}
+			return null;
+		}
+
+		/**
+		 * Whether the item at {@code i} comes before the one at {@code j}:
+		 * higher scores first, then single entries.
+		 */
+		private boolean before(int i, int j) {
+			return scores[i] > scores[j] || scores[i] == scores[j]
+					&& alone[i] && !alone[j];
+		}
+
+		void offer(Entry<K, V> e, long score, boolean single) {
+			int i = size++;
+			if (i == nodes.length) {
+				nodes = java.util.Arrays.copyOf(nodes, i << 1);
+				scores = java.util.Arrays.copyOf(scores, i << 1);
+				alone = java.util.Arrays.copyOf(alone, i << 1);
+			}
+			set(i, e, score, single);
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(i, parent))
+					break;
+				swap(i, parent);
+				i = parent;
+			}
+		}
+
+		private void removeTop() {
+			int n = --size;
+			set(0, nodes[n], scores[n], alone[n]);
+			nodes[n] = null;
+			for (int i = 0;;) {
+				int child = (i << 1) + 1;
+				if (child >= n)
+					break;
+				if (child + 1 < n && before(child + 1, child))
+					child++;
+				if (!before(child, i))
+					break;
+				swap(i, child);
+				i = child;
+			}
+		}
+
+		private void set(int i, Entry<K, V> e, long score, boolean single) {
+			nodes[i] = e;
+			scores[i] = score;
+			alone[i] = single;
+		}
+
+		private void swap(int i, int j) {
+			Entry<K, V> e = nodes[i];
+			long score = scores[i];
+			boolean single = alone[i];
+			set(i, nodes[j], scores[j], alone[j]);
+			set(j, e, score, single);
+		}
+	}
+
+	/**
+	 * Base class for PatriciaTrie Spliterators, covering the entries from
+	 * {@code current} up to {@code fence} excluded. Read as a binary tree
+	 * whose left and right children are the {@code next} and {@code switches}
+	 * links, a trie is in key order, so a range is split at the highest node
+	 * of that tree inside it, found from the root: the part handed off is
+	 * then everything on the 0-bit side of the first bit where the keys of
+	 * the range differ, and the part kept is the switch subtree on the 1-bit
+	 * side. Sizes are exact for the whole trie, and for every part of a
+	 * counted trie.
+	 */
+	private static abstract class PrivateSpliterator<T, K, V> implements
+			Spliterator<T> {
+		final PatriciaTrie<K, V> trie;
+		private Entry<K, V> current;
+		private final Entry<K, V> fence;
+		private int est; // size estimate, -1 until first use
+		private boolean sized; // whether est is exact, if not counted
+		private final int expectedModCount;
+
+		PrivateSpliterator(PatriciaTrie<K, V> trie, Entry<K, V> first,
+				Entry<K, V> fence, int est, boolean sized) {
+			this.trie = trie;
+			this.current = first;
+			this.fence = first.bit == ROOT_UNSET ? first : fence;
+			this.est = est;
+			this.sized = sized;
+			this.expectedModCount = trie.modCount;
+		}
+
+		abstract T elementOf(Entry<K, V> e);
+
+		abstract PrivateSpliterator<T, K, V> newSpliterator(Entry<K, V> first,
+				Entry<K, V> fence, int est, boolean sized);
+
+		private int getEstimate() {
+			int s = est;
+			if (s < 0) {
+				PatriciaTrie<K, V> t = trie;
+				est = s = t.counted ? rankOf(fence) - rankOf(current) : t.size;
+			}
+			return s;
+		}
+
+		private int rankOf(Entry<K, V> e) {
+			return e == DUMMY ? trie.size : trie.rankOf(e);
+		}
+
+		public final PrivateSpliterator<T, K, V> trySplit() {
+			Entry<K, V> e = current, f = fence;
+			if (e == f)
+				return null;
+			int est = getEstimate();
+			BitwiseComparator<Object> c = trie.comparator;
+			Entry<K, V> s = trie.root;
+			while (s != null) {
+				if (s.bit == ROOT_UNSET || c.compare(s.key, e.key) <= 0)
+					s = s.switches;
+				else if (f != DUMMY && c.compare(s.key, f.key) >= 0)
+					s = s.next;
+				else
+					break;
+			}
+			if (s == null)
+				return null;
+			int n;
+			if (trie.counted) {
+				n = rankOf(s) - rankOf(e);
+				this.est = est - n;
+			} else {
+				n = this.est = est >>> 1;
+				sized = false;
+			}
+			current = s;
+			return newSpliterator(e, s, n, sized);
+		}
+
+		public final boolean tryAdvance(Consumer<? super T> action) {
+			Objects.requireNonNull(action);
+			Entry<K, V> e = current;
+			if (e == fence)
+				return false;
+			current = successorOf(e);
+			action.accept(elementOf(e));
+			if (trie.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			return true;
+		}
+
+		public final void forEachRemaining(Consumer<? super T> action) {
+			Objects.requireNonNull(action);
+			Entry<K, V> e = current, f = fence;
+			current = f;
+			for (; e != f; e = successorOf(e))
+				action.accept(elementOf(e));
+			if (trie.modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+
+		public final long estimateSize() {
+			return getEstimate();
+		}
+
+		public int characteristics() {
+			return (trie.counted ? Spliterator.SIZED | Spliterator.SUBSIZED
+					: sized ? Spliterator.SIZED : 0) | Spliterator.ORDERED;
+		}
+	}
+
+	// @formatter:off
+	private static final class EntrySpliterator<K, V> extends
+			PrivateSpliterator<Map.Entry<K, V>, K, V> {
+		EntrySpliterator(PatriciaTrie<K, V> trie, Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { super(trie, first, fence, est, sized); }
+		Map.Entry<K, V> elementOf(Entry<K, V> e) { return e; }
+		EntrySpliterator<K, V> newSpliterator(Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { return new EntrySpliterator<>(trie, first, fence, est, sized); }
+		public int characteristics() { return super.characteristics() | Spliterator.DISTINCT | Spliterator.SORTED; }
+		public Comparator<Map.Entry<K, V>> getComparator() { return Map.Entry.comparingByKey(trie.comparator); }
+	}
+	private static final class KeySpliterator<K, V> extends
+			PrivateSpliterator<K, K, V> {
+		KeySpliterator(PatriciaTrie<K, V> trie, Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { super(trie, first, fence, est, sized); }
+		K elementOf(Entry<K, V> e) { return e.key; }
+		KeySpliterator<K, V> newSpliterator(Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { return new KeySpliterator<>(trie, first, fence, est, sized); }
+		public int characteristics() { return super.characteristics() | Spliterator.DISTINCT | Spliterator.SORTED; }
+		public Comparator<? super K> getComparator() { return trie.comparator; }
+	}
+	private static final class ValueSpliterator<K, V> extends
+			PrivateSpliterator<V, K, V> {
+		ValueSpliterator(PatriciaTrie<K, V> trie, Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { super(trie, first, fence, est, sized); }
+		V elementOf(Entry<K, V> e) { return e.value; }
+		ValueSpliterator<K, V> newSpliterator(Entry<K, V> first, Entry<K, V> fence, int est, boolean sized) { return new ValueSpliterator<>(trie, first, fence, est, sized); }
 	}
 	// @formatter:on
 
@@ -722,6 +2026,8 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 
 		abstract Iterator<Map.Entry<K, V>> entryIterator();
 
+		abstract Spliterator<Map.Entry<K, V>> entrySpliterator();
+
 		private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
 			private transient int size, sizeModCount = -1;
 
@@ -732,9 +2038,15 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 				return entryIterator();
 			}
 
+			public Spliterator<Map.Entry<K, V>> spliterator() {
+				return entrySpliterator();
+			}
+
 			public int size() {
 				if (fromStart && toEnd)
 					return t.size();
+				if (t.counted)
+					return t.countRange(absLowest(false), absHighest(false));
 				if (sizeModCount < 0 || sizeModCount != t.modCount) {
 					sizeModCount = t.modCount;
 					int size = 0;
@@ -832,6 +2144,12 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		Iterator<K> descKeyIterator() {
 			return new DescSubMapKeyIterator<>(t, absHighest(true), absLowFence());
 		}
+		Spliterator<Map.Entry<K, V>> entrySpliterator() {
+			return new EntrySpliterator<>(t, absLowest(true), absHighFence(), -1, false);
+		}
+		Spliterator<K> keySpliterator() {
+			return new KeySpliterator<>(t, absLowest(true), absHighFence(), -1, false);
+		}
 		public Map.Entry<K, V> firstEntry()			{ return absLowest(false); }
 		public Map.Entry<K, V> lastEntry()			{ return absHighest(false); }
 		public K firstKey()							{ return absLowest(true).key; }
@@ -905,6 +2223,14 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		Iterator<K> descKeyIterator() {
 			return new AscSubMapKeyIterator<>(t, absLowest(true), absHighFence());
 		}
+		Spliterator<Map.Entry<K, V>> entrySpliterator() {
+			return Spliterators.spliteratorUnknownSize(entryIterator(),
+					Spliterator.DISTINCT | Spliterator.ORDERED);
+		}
+		Spliterator<K> keySpliterator() {
+			return Spliterators.spliteratorUnknownSize(keyIterator(),
+					Spliterator.DISTINCT | Spliterator.ORDERED);
+		}
 		public Map.Entry<K, V> firstEntry()			{ return absHighest(false); }
 		public Map.Entry<K, V> lastEntry()			{ return absLowest(false); }
 		public K firstKey()							{ return absHighest(true).key; }
@@ -1155,12 +2481,14 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		}
 
 		public final void clear() {
-			PatriciaTrie.Entry<K, V> e = t.getLeastPrefixed(loKey, true);
-			if (e != null && (e = e.switches) != null
-					&& (e = lastLinked(e)).bit < 0) {
-				t.modCount++;
-				t.size -= destroyLinks(e);
+			if (prefixLength == loLength) {
+				t.removePrefixed(loKey, loInclusive);
+				return;
 			}
+			// Keys prefixed by the low key are all in range
+			PatriciaTrie.Entry<K, V> e = t.getLeastPrefixed(loKey, true);
+			if (e != null)
+				t.cutSwitches(e, switchFrom(e, loLength), true);
 			// Handle the remaining entries
 			if ((e = absLowest(false)) != null)
 				t.rangeClear(e, absHighFence());
@@ -1189,6 +2517,22 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 			return key;
 		}
 
+		public final List<Map.Entry<K, V>> nearestEntries(K key, int k) {
+			return firstEntries(nearestEntryIterator(key), k);
+		}
+
+		public final Iterator<Map.Entry<K, V>> nearestEntryIterator(K key) {
+			// The shallowest prefixed entry, the other ones being below its
+			// switches from the end of the prefix on
+			PatriciaTrie.Entry<K, V> e = prefixLength == 0 ? t.root : t
+					.getLeastPrefixed(prefixKey, true);
+			t.comparator.lengthBits(key); // Type (and possibly null) check
+			if (e == null)
+				return Collections.emptyIterator();
+			return new NearestIterator<>(t, this, key, e, switchFrom(e,
+					prefixLength));
+		}
+
 		public final Map.Entry<K, V> prefixEntry(K key) {
 			PatriciaTrie.Entry<K, V> e = t.prefixEntry(key, false);
 			return e == null || !isPrefixedByLowKey(e.key) ? null : e;
@@ -1286,6 +2630,8 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 
 		abstract Iterator<Map.Entry<K, V>> entryIterator();
 
+		abstract Spliterator<Map.Entry<K, V>> entrySpliterator();
+
 		private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
 			private transient int size, sizeModCount = -1;
 
@@ -1296,7 +2642,13 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 				return entryIterator();
 			}
 
+			public Spliterator<Map.Entry<K, V>> spliterator() {
+				return entrySpliterator();
+			}
+
 			public int size() {
+				if (t.counted)
+					return t.countRange(absLowest(false), absHighest(false));
 				if (sizeModCount < 0 || sizeModCount != t.modCount) {
 					sizeModCount = t.modCount;
 					int size = 0;
@@ -1404,6 +2756,12 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		Iterator<K> descKeyIterator() {
 			return new DescSubMapKeyIterator<>(t, absHighest(true), absLowFence());
 		}
+		Spliterator<Map.Entry<K, V>> entrySpliterator() {
+			return new EntrySpliterator<>(t, absLowest(true), absHighFence(), -1, false);
+		}
+		Spliterator<K> keySpliterator() {
+			return new KeySpliterator<>(t, absLowest(true), absHighFence(), -1, false);
+		}
 		public Map.Entry<K, V> firstEntry()			{ return absLowest(false); }
 		public Map.Entry<K, V> lastEntry()			{ return absHighest(false); }
 		public K firstKey()							{ return absLowest(true).key; }
@@ -1482,6 +2840,14 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 		Iterator<K> descKeyIterator() {
 			return new AscSubMapKeyIterator<>(t, absLowest(true), absHighFence());
 		}
+		Spliterator<Map.Entry<K, V>> entrySpliterator() {
+			return Spliterators.spliteratorUnknownSize(entryIterator(),
+					Spliterator.DISTINCT | Spliterator.ORDERED);
+		}
+		Spliterator<K> keySpliterator() {
+			return Spliterators.spliteratorUnknownSize(keyIterator(),
+					Spliterator.DISTINCT | Spliterator.ORDERED);
+		}
 		public Map.Entry<K, V> firstEntry()			{ return absHighest(false); }
 		public Map.Entry<K, V> lastEntry()			{ return absLowest(false); }
 		public K firstKey()							{ return absHighest(true).key; }
@@ -1586,7 +2952,7 @@ public class PatriciaTrie<K, V> extends AbstractPatriciaTrie<K, V> implements
 				Entry<K, V> last, Entry<K, V> fence) {
 			super(t, last, fence);
 		}
-		public K next() { return super.nextEntry().key; }
+		public K next() { return super.prevEntry().key; }
 	}
 	// @formatter:on
 }
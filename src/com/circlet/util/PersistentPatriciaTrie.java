@@ -0,0 +1,230 @@
+package com.circlet.util;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import com.circlet.util.TrieSnapshot.Path;
+
+/**
+ * An immutable {@link BitwiseMap} on the same Tracks and Switches layout as
+ * {@link PatriciaTrie}, updated by creating new maps.
+ * <p>
+ * {@link #with(Object, Object)} and {@link #without(Object)} return a new map
+ * sharing every entry with this one, except for the entries on the path from
+ * the root down to the changed switch list, which are copied. An update thus
+ * takes time and memory proportional to the number of bits of the key rather
+ * than to the size of the map, and the map it was made from is left as it
+ * was. Since a map never changes, it can be shared by any number of threads
+ * without synchronization, and iterating it or any of its views always sees
+ * the same entries.
+ * <p>
+ * The {@link java.util.Map} update methods, including those of the views and
+ * of the iterators, throw {@link UnsupportedOperationException}. This map
+ * does not permit {@code null} keys or values. The entries returned by its
+ * methods and its iterators do not support {@code Entry.setValue()}.
+ * <p>
+ * A {@link ConcurrentPatriciaTrie} holds the same kind of trie, so
+ * {@link ConcurrentPatriciaTrie#snapshot()} returns one of these in constant
+ * time.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys maintained by this map
+ * @param <V> the type of mapped values
+ */
+@SuppressWarnings("unchecked")
+public final class PersistentPatriciaTrie<K, V> extends
+		AbstractSnapshotTrie<K, V> {
+	private static final long serialVersionUID = 7418839210437046522L;
+
+	private final transient TrieSnapshot<K, V> trie;
+
+	/**
+	 * Constructs a new, empty persistent patricia trie, ordered according to
+	 * the given comparator.
+	 *
+	 * @param comparator the comparator that will be used to order this map
+	 */
+	public PersistentPatriciaTrie(BitwiseComparator<? super K> comparator) {
+		this(comparator, new TrieSnapshot<K, V>(comparator));
+	}
+
+	PersistentPatriciaTrie(BitwiseComparator<? super K> comparator,
+			TrieSnapshot<K, V> trie) {
+		super(comparator);
+		this.trie = trie;
+	}
+
+	@Override
+	final TrieSnapshot<K, V> current() {
+		return trie;
+	}
+
+	/**
+	 * Returns a map with the mappings of this map, and the specified value
+	 * associated with the specified key. If this map already maps the key to
+	 * the same value instance, this map is returned.
+	 *
+	 * @param key key with which the specified value is to be associated
+	 * @param value value to be associated with the specified key
+	 * @return a map with the mapping for the key
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key or value is null
+	 */
+	public PersistentPatriciaTrie<K, V> with(K key, V value) {
+		if (key == null || value == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		AbstractPatriciaTrie.Entry<K, V> e = trie.locate(key, p);
+		if (e == null)
+			return new PersistentPatriciaTrie<>(comparator, trie.insert(p, key,
+					value));
+		if (e.value == value)
+			return this;
+		return new PersistentPatriciaTrie<>(comparator, trie.replace(p, value));
+	}
+
+	/**
+	 * Returns a map with the mappings of this map and of the specified map,
+	 * the latter replacing the former for the keys found in both.
+	 *
+	 * @param m mappings to be stored in the returned map
+	 * @return a map with the mappings of both maps
+	 * @throws NullPointerException if the specified map is null, or contains
+	 *         a null key or value
+	 */
+	public PersistentPatriciaTrie<K, V> withAll(Map<? extends K, ? extends V> m) {
+		TrieSnapshot<K, V> t = trie;
+		Path<K, V> p = new Path<>();
+		for (Map.Entry<? extends K, ? extends V> e : m.entrySet()) {
+			K key = e.getKey();
+			V value = e.getValue();
+			if (key == null || value == null)
+				throw new NullPointerException();
+			t = t.locate(key, p) == null ? t.insert(p, key, value) : t
+					.replace(p, value);
+		}
+		return t == trie ? this : new PersistentPatriciaTrie<>(comparator, t);
+	}
+
+	/**
+	 * Returns a map with the mappings of this map, except for the specified
+	 * key. If this map has no mapping for the key, this map is returned.
+	 *
+	 * @param key key whose mapping is to be left out
+	 * @return a map without a mapping for the key
+	 * @throws ClassCastException if the specified key cannot be compared with
+	 *         the keys currently in the map
+	 * @throws NullPointerException if the specified key is null
+	 */
+	public PersistentPatriciaTrie<K, V> without(Object key) {
+		if (key == null)
+			throw new NullPointerException();
+		Path<K, V> p = new Path<>();
+		if (trie.locate(key, p) == null)
+			return this;
+		return new PersistentPatriciaTrie<>(comparator, trie.delete(p));
+	}
+
+	/**
+	 * Returns an empty map with the same comparator as this map.
+	 */
+	public PersistentPatriciaTrie<K, V> empty() {
+		return trie.size == 0 ? this : new PersistentPatriciaTrie<K, V>(
+				comparator);
+	}
+
+	@Override
+	final Map.Entry<K, V> pollEntry(SubMap<K, V> range, boolean highest) {
+		throw new UnsupportedOperationException();
+	}
+
+	// @formatter:off
+	@Override public V put(K key, V value) { throw new UnsupportedOperationException(); }
+	@Override public void putAll(Map<? extends K, ? extends V> m) { throw new UnsupportedOperationException(); }
+	@Override public V putIfAbsent(K key, V value) { throw new UnsupportedOperationException(); }
+	@Override public V replace(K key, V value) { throw new UnsupportedOperationException(); }
+	@Override public boolean replace(K key, V oldValue, V newValue) { throw new UnsupportedOperationException(); }
+	@Override public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) { throw new UnsupportedOperationException(); }
+	@Override public V remove(Object key) { throw new UnsupportedOperationException(); }
+	@Override public boolean remove(Object key, Object value) { throw new UnsupportedOperationException(); }
+	@Override public void clear() { throw new UnsupportedOperationException(); }
+	@Override public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) { throw new UnsupportedOperationException(); }
+	@Override public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) { throw new UnsupportedOperationException(); }
+	@Override public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) { throw new UnsupportedOperationException(); }
+	@Override public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) { throw new UnsupportedOperationException(); }
+	// @formatter:on
+
+	// Serialization and Deserialization
+
+	private Object writeReplace() {
+		return new SerializationProxy<>(this);
+	}
+
+	private void readObject(java.io.ObjectInputStream s)
+			throws InvalidObjectException {
+		throw new InvalidObjectException("Proxy required");
+	}
+
+	/**
+	 * The serialized form of a persistent trie: its comparator, its size and
+	 * its mappings in key order.
+	 */
+	private static final class SerializationProxy<K, V> implements
+			java.io.Serializable {
+		private static final long serialVersionUID = -3062286302453549837L;
+
+		/**
+		 * @serial include
+		 */
+		@SuppressWarnings("rawtypes")
+		private final BitwiseComparator comparator;
+
+		private transient PersistentPatriciaTrie<K, V> map;
+
+		SerializationProxy(PersistentPatriciaTrie<K, V> map) {
+			this.comparator = map.comparator;
+			this.map = map;
+		}
+
+		private void writeObject(java.io.ObjectOutputStream s)
+				throws IOException {
+			s.defaultWriteObject();
+
+			TrieSnapshot<K, V> t = map.trie;
+			s.writeInt(t.size);
+			for (Iterator<AbstractPatriciaTrie.Entry<K, V>> i = new TrieSnapshot.EntryIterator<>(
+					t, false); i.hasNext();) {
+				AbstractPatriciaTrie.Entry<K, V> e = i.next();
+				s.writeObject(e.key);
+				s.writeObject(e.value);
+			}
+		}
+
+		private void readObject(java.io.ObjectInputStream s)
+				throws IOException, ClassNotFoundException {
+			s.defaultReadObject();
+
+			TrieSnapshot<K, V> t = new TrieSnapshot<>(comparator);
+			Path<K, V> p = new Path<>();
+			for (int i = s.readInt(); i > 0; i--) {
+				K key = (K) s.readObject();
+				V value = (V) s.readObject();
+				if (key == null || value == null)
+					throw new java.io.StreamCorruptedException();
+				t = t.locate(key, p) == null ? t.insert(p, key, value) : t
+						.replace(p, value);
+			}
+			map = new PersistentPatriciaTrie<>(comparator, t);
+		}
+
+		private Object readResolve() {
+			return map;
+		}
+	}
+}
@@ -0,0 +1,403 @@
+package com.circlet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * A compact binary form of {@link AbstractPatriciaTrie patricia tries},
+ * written and read through {@link DataOutput} and {@link DataInput} streams
+ * or byte channels, with keys and values encoded by pluggable {@link Codec}s.
+ * <p>
+ * The trie is written entry by entry, in the same track-walking order as its
+ * {@link java.io.Serializable serialized form}, so that it is read back
+ * without comparing keys nor rebalancing anything. Each entry starts with a
+ * variable-length header packing its bit index, its flags and whether it has
+ * next or alternative switches, which takes a single byte for bit indexes
+ * under 16. Keys are front coded: as every key is written right after a key
+ * sharing most of its bits, such as the key of its parent track, key codecs
+ * may write only the part that differs from the previous key. The codecs
+ * provided here for {@code String}s and arrays do, in elements.
+ * <p>
+ * The form does not hold the comparator, which is the one of the trie read
+ * into. The form is self-delimiting, but reading from a channel buffers ahead,
+ * so the channel should not be read further afterwards.
+ *
+ * @author Jason
+ *
+ * @param <K> the type of keys of the tries
+ * @param <V> the type of values of the tries
+ */
+public final class TrieCodec<K, V> {
+
+	/**
+	 * Writes and reads objects of some type, as keys or values of a trie.
+	 *
+	 * @param <T> the type of encoded objects
+	 */
+	public interface Codec<T> {
+		/**
+		 * Writes the specified object, which is never {@code null}.
+		 */
+		void write(DataOutput out, T o) throws IOException;
+
+		/**
+		 * Reads an object written by {@link #write(DataOutput, Object)}.
+		 */
+		T read(DataInput in) throws IOException;
+
+		/**
+		 * Writes the specified key, knowing that it is read back right after
+		 * the previous key. By default, writes the whole key.
+		 *
+		 * @param previous the previous key written, or {@code null}
+		 */
+		default void write(DataOutput out, T o, T previous) throws IOException {
+			write(out, o);
+		}
+
+		/**
+		 * Reads a key written by {@link #write(DataOutput, Object, Object)}.
+		 *
+		 * @param previous the previous key read, or {@code null}
+		 */
+		default T read(DataInput in, T previous) throws IOException {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Front coded strings, each char taking a byte if ASCII.
+	 */
+	public static final Codec<String> STRINGS = new Codec<String>() {
+		public void write(DataOutput out, String s) throws IOException {
+			writeChars(out, s, 0);
+		}
+
+		public String read(DataInput in) throws IOException {
+			return readChars(in, "", 0);
+		}
+
+		public void write(DataOutput out, String s, String previous)
+				throws IOException {
+			int shared = 0;
+			if (previous != null) {
+				int lim = Math.min(s.length(), previous.length());
+				while (shared < lim
+						&& s.charAt(shared) == previous.charAt(shared))
+					shared++;
+			}
+			writeVarInt(out, shared);
+			writeChars(out, s, shared);
+		}
+
+		public String read(DataInput in, String previous) throws IOException {
+			return readChars(in, previous, readVarInt(in));
+		}
+
+		private void writeChars(DataOutput out, String s, int from)
+				throws IOException {
+			int length = s.length() - from;
+			byte[] ascii = new byte[length];
+			for (int i = 0; i < length; i++) {
+				char c = s.charAt(from + i);
+				if (c >= 0x80) {
+					writeVarInt(out, length << 1 | 1);
+					for (i = from; i < s.length(); i++)
+						writeVarInt(out, s.charAt(i));
+					return;
+				}
+				ascii[i] = (byte) c;
+			}
+			writeVarInt(out, length << 1);
+			out.write(ascii);
+		}
+
+		private String readChars(DataInput in, String previous, int shared)
+				throws IOException {
+			int header = readVarInt(in);
+			char[] a = new char[sharedLength(previous == null ? 0 : previous
+					.length(), shared, header >>> 1)];
+			if (shared > 0)
+				previous.getChars(0, shared, a, 0);
+			readSuffix(in, a, shared, (header & 1) == 0);
+			return new String(a);
+		}
+	};
+
+	/**
+	 * Front coded {@code char} arrays, each char taking a byte if ASCII.
+	 */
+	public static final Codec<char[]> CHAR_ARRAYS = new Codec<char[]>() {
+		public void write(DataOutput out, char[] a) throws IOException {
+			writeChars(out, a, 0);
+		}
+
+		public char[] read(DataInput in) throws IOException {
+			return readChars(in, null, 0);
+		}
+
+		public void write(DataOutput out, char[] a, char[] previous)
+				throws IOException {
+			int shared = previous == null ? 0 : Arrays.mismatch(a, previous);
+			if (shared < 0)
+				shared = a.length;
+			writeVarInt(out, shared);
+			writeChars(out, a, shared);
+		}
+
+		public char[] read(DataInput in, char[] previous) throws IOException {
+			return readChars(in, previous, readVarInt(in));
+		}
+
+		private void writeChars(DataOutput out, char[] a, int from)
+				throws IOException {
+			int length = a.length - from;
+			byte[] ascii = new byte[length];
+			for (int i = 0; i < length; i++) {
+				char c = a[from + i];
+				if (c >= 0x80) {
+					writeVarInt(out, length << 1 | 1);
+					for (i = from; i < a.length; i++)
+						writeVarInt(out, a[i]);
+					return;
+				}
+				ascii[i] = (byte) c;
+			}
+			writeVarInt(out, length << 1);
+			out.write(ascii);
+		}
+
+		private char[] readChars(DataInput in, char[] previous, int shared)
+				throws IOException {
+			int header = readVarInt(in);
+			char[] a = new char[sharedLength(previous == null ? 0
+					: previous.length, shared, header >>> 1)];
+			if (shared > 0)
+				System.arraycopy(previous, 0, a, 0, shared);
+			readSuffix(in, a, shared, (header & 1) == 0);
+			return a;
+		}
+	};
+
+	/**
+	 * Front coded {@code byte} arrays, signed or not.
+	 */
+	public static final Codec<byte[]> BYTE_ARRAYS = new Codec<byte[]>() {
+		public void write(DataOutput out, byte[] a) throws IOException {
+			writeVarInt(out, a.length);
+			out.write(a);
+		}
+
+		public byte[] read(DataInput in) throws IOException {
+			return read(in, null, 0);
+		}
+
+		public void write(DataOutput out, byte[] a, byte[] previous)
+				throws IOException {
+			int shared = previous == null ? 0 : Arrays.mismatch(a, previous);
+			if (shared < 0)
+				shared = a.length;
+			writeVarInt(out, shared);
+			writeVarInt(out, a.length - shared);
+			out.write(a, shared, a.length - shared);
+		}
+
+		public byte[] read(DataInput in, byte[] previous) throws IOException {
+			return read(in, previous, readVarInt(in));
+		}
+
+		private byte[] read(DataInput in, byte[] previous, int shared)
+				throws IOException {
+			byte[] a = new byte[sharedLength(previous == null ? 0
+					: previous.length, shared, readVarInt(in))];
+			if (shared > 0)
+				System.arraycopy(previous, 0, a, 0, shared);
+			in.readFully(a, shared, a.length - shared);
+			return a;
+		}
+	};
+
+	/**
+	 * {@code Integer}s, small magnitudes taking fewer bytes.
+	 */
+	public static final Codec<Integer> INTEGERS = new Codec<Integer>() {
+		public void write(DataOutput out, Integer i) throws IOException {
+			int v = i;
+			writeVarInt(out, v << 1 ^ v >> 31);
+		}
+
+		public Integer read(DataInput in) throws IOException {
+			int v = readVarInt(in);
+			return v >>> 1 ^ -(v & 1);
+		}
+	};
+
+	/**
+	 * {@code Long}s, small magnitudes taking fewer bytes.
+	 */
+	public static final Codec<Long> LONGS = new Codec<Long>() {
+		public void write(DataOutput out, Long l) throws IOException {
+			long v = l;
+			writeVarLong(out, v << 1 ^ v >> 63);
+		}
+
+		public Long read(DataInput in) throws IOException {
+			long v = readVarLong(in);
+			return v >>> 1 ^ -(v & 1);
+		}
+	};
+
+	final Codec<K> keys;
+	final Codec<V> values;
+
+	/**
+	 * Creates a codec for tries of the specified keys and values.
+	 *
+	 * @param keys the codec of the keys
+	 * @param values the codec of the non-null values
+	 */
+	public TrieCodec(Codec<K> keys, Codec<V> values) {
+		if (keys == null || values == null)
+			throw new NullPointerException();
+		this.keys = keys;
+		this.values = values;
+	}
+
+	/**
+	 * Writes the entries of the specified trie.
+	 *
+	 * @param t the trie to write
+	 * @param out the output to write to
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(AbstractPatriciaTrie<K, V> t, DataOutput out)
+			throws IOException {
+		t.writeEntries(out, this);
+	}
+
+	/**
+	 * Writes the entries of the specified trie to a channel.
+	 *
+	 * @param t the trie to write
+	 * @param ch the channel to write to, which is left open
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(AbstractPatriciaTrie<K, V> t, WritableByteChannel ch)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Channels.newOutputStream(ch), 1 << 16));
+		t.writeEntries(out, this);
+		out.flush();
+	}
+
+	/**
+	 * Reads entries into the specified empty trie, which orders them.
+	 *
+	 * @param in the input to read from
+	 * @param t the trie to read into
+	 * @return the trie
+	 * @throws IOException if an I/O error occurs, or the input is corrupted
+	 * @throws IllegalArgumentException if the trie is not empty
+	 */
+	public <T extends AbstractPatriciaTrie<K, V>> T read(DataInput in, T t)
+			throws IOException {
+		if (!t.isEmpty())
+			throw new IllegalArgumentException("trie not empty");
+		t.readEntries(in, this);
+		return t;
+	}
+
+	/**
+	 * Reads entries from a channel into the specified empty trie.
+	 *
+	 * @param ch the channel to read from, which is left open
+	 * @param t the trie to read into
+	 * @return the trie
+	 * @throws IOException if an I/O error occurs, or the input is corrupted
+	 * @throws IllegalArgumentException if the trie is not empty
+	 */
+	public <T extends AbstractPatriciaTrie<K, V>> T read(
+			ReadableByteChannel ch, T t) throws IOException {
+		return read(new DataInputStream(new BufferedInputStream(
+				Channels.newInputStream(ch), 1 << 16)), t);
+	}
+
+	// Variable-length integers, 7 bits per byte, least significant first
+
+	static void writeVarInt(DataOutput out, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.writeByte(v & 0x7f | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	static int readVarInt(DataInput in) throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readByte();
+			v |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return v;
+		}
+		throw new StreamCorruptedException();
+	}
+
+	static void writeVarLong(DataOutput out, long v) throws IOException {
+		while ((v & ~0x7fL) != 0) {
+			out.writeByte((int) v & 0x7f | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long v = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readByte();
+			v |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return v;
+		}
+		throw new StreamCorruptedException();
+	}
+
+	/**
+	 * Reads the chars of an array from the specified index on, written as
+	 * bytes if all ASCII, as variable-length integers otherwise.
+	 */
+	static void readSuffix(DataInput in, char[] a, int from, boolean ascii)
+			throws IOException {
+		if (ascii) {
+			byte[] b = new byte[a.length - from];
+			in.readFully(b);
+			for (int i = 0; i < b.length; i++)
+				a[from + i] = (char) b[i];
+		} else {
+			for (int i = from; i < a.length; i++)
+				a[i] = (char) readVarInt(in);
+		}
+	}
+
+	/**
+	 * Returns the length of a front coded key, checking that its shared part
+	 * is within the previous key.
+	 */
+	static int sharedLength(int previousLength, int shared, int length)
+			throws StreamCorruptedException {
+		if (shared < 0 || shared > previousLength || length < 0
+				|| length > Integer.MAX_VALUE - shared)
+			throw new StreamCorruptedException();
+		return shared + length;
+	}
+}
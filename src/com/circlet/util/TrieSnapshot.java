@@ -0,0 +1,684 @@
+package com.circlet.util;
+
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_EDGE_ZERO_SPEC;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
+import static com.circlet.util.AbstractPatriciaTrie.BIT_ZERO_FLAG;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_SET;
+import static com.circlet.util.AbstractPatriciaTrie.ROOT_UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.apexOf;
+import static com.circlet.util.AbstractPatriciaTrie.findNearest;
+import static com.circlet.util.AbstractPatriciaTrie.lastLinked;
+import static com.circlet.util.AbstractPatriciaTrie.newEntryArray;
+import static com.circlet.util.AbstractPatriciaTrie.nextOrNode;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.circlet.util.AbstractPatriciaTrie.Entry;
+
+/**
+ * An immutable Tracks and Switches trie. The entries are laid out the same way
+ * as in {@link AbstractPatriciaTrie}, but are never modified once reachable
+ * from a root: an update copies the entries on the path from the root down to
+ * the changed switch list, and returns a new snapshot sharing every other
+ * entry with this one. Only the {@code key}, {@code value}, {@code bit},
+ * {@code switches} and {@code next} fields are used; there are no
+ * {@code prev} links, parent links or switch tables, so a snapshot can be
+ * read by any number of threads without synchronization.
+ * <p>
+ * Seen as a binary tree whose left child is {@code next} and whose right
+ * child is {@code switches}, the entries are in key order, which is what the
+ * ordered lookups and the iterators walk.
+ *
+ * @author Jason
+ */
+final class TrieSnapshot<K, V> {
+	/**
+	 * The bitwise comparator used to maintain order in this snapshot.
+	 */
+	@SuppressWarnings("rawtypes")
+	final BitwiseComparator comparator;
+
+	final Entry<K, V> root;
+
+	/**
+	 * The number of entries in the snapshot
+	 */
+	final int size;
+
+	TrieSnapshot(BitwiseComparator<? super K> comparator) {
+		this(comparator, new Entry<K, V>(null, null), 0);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private TrieSnapshot(BitwiseComparator comparator, Entry<K, V> root,
+			int size) {
+		this.comparator = comparator;
+		this.root = root;
+		this.size = size;
+	}
+
+	final TrieSnapshot<K, V> empty() {
+		return size == 0 ? this : new TrieSnapshot<K, V>(comparator,
+				new Entry<K, V>(null, null), 0);
+	}
+
+	// Lookups
+
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> getEntry(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+		Entry<K, V> e = findNearest(c, root, key, length);
+		if (e.bit == ROOT_UNSET || c.compare(key, e.key) != 0)
+			return null;
+		return e;
+	}
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#nearestEntry(Object, boolean)}.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> nearestEntry(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		Entry<K, V> next;
+		Entry<K, V> track = root;
+		if (length == 0 || (next = track.switches) == null)
+			return track.bit != ROOT_UNSET ? track : null;
+		if (c.isBitSet(key, 0)) {
+			if ((next.bit & BIT_ZERO_FLAG) != UNSET)
+				return track.bit == ROOT_UNSET ? next : track;
+		} else if ((next.bit & BIT_ZERO_FLAG) == UNSET) {
+			Entry<K, V> prev;
+			if ((next = (prev = next).next) == null)
+				return track.bit == ROOT_UNSET ? prev : track;
+		}
+		return findNearest(c, next, key, length);
+	}
+
+	/**
+	 * Returns the entry with the longest key that is a prefix of or equal to
+	 * the specified key. Without {@code prev} links to climb back from the
+	 * nearest track, the path is walked a second time, up to the mismatch.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> prefixEntry(Object key) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		Entry<K, V> track = findNearest(c, root, key, length);
+		if (track.bit == ROOT_UNSET)
+			return null;
+		int index = c.contrast(key, track.key);
+		if (index < 0 || index != length
+				&& index == c.lengthBits(track.key))
+			return track;
+
+		// The longest prefix is the deepest track left through an edge switch
+		// whose index is not past the mismatch. The following is the same
+		// walk as findNearest(), stopping at the first such index.
+		Entry<K, V> prefix = null;
+		Entry<K, V> next = (track = root).switches;
+		while (next != null) {
+			int bit = next.bit;
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (bitm > index || length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					if ((next = next.next) == null)
+						break;
+				}
+				prefix = track;
+			} else {
+				if (bit > index || length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = next.next;
+					continue;
+				}
+			}
+			next = (track = next).switches; // Change track
+		}
+		return prefix == null || prefix.bit == ROOT_UNSET ? null : prefix;
+	}
+
+	final Entry<K, V> firstEntry() {
+		Entry<K, V> first = root;
+		if (first.bit == ROOT_UNSET) {
+			first = first.switches;
+			if (first != null)
+				return nextOrNode(first);
+			return null;
+		}
+		return first;
+	}
+
+	final Entry<K, V> lastEntry() {
+		Entry<K, V> last = apexOf(root);
+		return last.bit == UNSET ? null : last;
+	}
+
+	/**
+	 * Returns the entry with the least key greater than (or equal to, if
+	 * {@code inclusive} is true) the specified key, descending the entries as
+	 * a binary search tree.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> ceilingEntry(Object key, boolean inclusive) {
+		BitwiseComparator<? super Object> c = comparator;
+		c.lengthBits(key); // Type (and possibly null) check
+		Entry<K, V> e = root, found = null;
+		if (e.bit == ROOT_UNSET)
+			e = e.switches;
+		while (e != null) {
+			int i = c.compare(key, e.key);
+			if (i < 0 || i == 0 && inclusive) {
+				if (i == 0)
+					return e;
+				e = (found = e).next;
+			} else
+				e = e.switches;
+		}
+		return found;
+	}
+
+	/**
+	 * Returns the entry with the greatest key less than (or equal to, if
+	 * {@code inclusive} is true) the specified key.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> floorEntry(Object key, boolean inclusive) {
+		BitwiseComparator<? super Object> c = comparator;
+		c.lengthBits(key); // Type (and possibly null) check
+		Entry<K, V> e = root, found = null;
+		if (e.bit == ROOT_UNSET)
+			e = e.switches;
+		while (e != null) {
+			int i = c.compare(key, e.key);
+			if (i > 0 || i == 0 && inclusive) {
+				if (i == 0)
+					return e;
+				e = (found = e).switches;
+			} else
+				e = e.next;
+		}
+		return found;
+	}
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#getLeastPrefixed(Object, boolean)}.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> leastPrefixed(Object prefixKey, boolean inclusive) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(prefixKey); // Type (and possibly null) check
+
+		Entry<K, V> e = root;
+		search: if (length == 0) {
+			if (inclusive && e.bit != ROOT_UNSET)
+				return e;
+			if ((e = e.switches) != null)
+				return nextOrNode(e);
+		} else if ((e = e.switches) != null) {
+			if (c.isBitSet(prefixKey, 0)) {
+				if ((e.bit & BIT_ZERO_FLAG) != UNSET)
+					break search;
+			} else if ((e.bit & BIT_ZERO_FLAG) == UNSET) {
+				if ((e = e.next) == null)
+					break search;
+			}
+			int index = c.contrast(prefixKey,
+					(e = findNearest(c, e, prefixKey, length)).key);
+			if (index < 0) {
+				if (inclusive || (e = e.switches) != null
+						&& (e = lastLinked(e)).bit < 0)
+					return e;
+			} else if (index == length) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Same as {@link AbstractPatriciaTrie#getLastPrefixed(Object, boolean)},
+	 * looking for the first edge switch from the start of the list instead of
+	 * from its end.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> lastPrefixed(Object prefixKey, boolean inclusive) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(prefixKey); // Type (and possibly null) check
+
+		Entry<K, V> e = root;
+		search: if (length == 0) {
+			if (inclusive) {
+				if (e.bit != ROOT_UNSET || (e = e.switches) != null)
+					return apexOf(e);
+			} else if ((e = e.switches) != null)
+				return apexOf(e);
+		} else if ((e = e.switches) != null) {
+			if (c.isBitSet(prefixKey, 0)) {
+				if ((e.bit & BIT_ZERO_FLAG) != UNSET)
+					break search;
+			} else if ((e.bit & BIT_ZERO_FLAG) == UNSET) {
+				if ((e = e.next) == null)
+					break search;
+			}
+			int index = c.contrast(prefixKey,
+					(e = findNearest(c, e, prefixKey, length)).key);
+			if (index < 0) {
+				Entry<K, V> cur = e.switches;
+				while (cur != null && cur.bit >= 0)
+					cur = cur.next;
+				if (cur != null)
+					return apexOf(cur);
+				if (inclusive) {
+					return e;
+				} else
+					break search;
+			} else if (index == length) {
+				for (Entry<K, V> cur = e.switches; cur != null; cur = cur.next) {
+					if ((cur.bit & BIT_INDEX_MASK) >= length)
+						return apexOf(cur);
+				}
+				return e;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the entry with the least key strictly greater than, but not
+	 * prefixed by, the specified key: the successor of the greatest key
+	 * prefixed by it, if any.
+	 */
+	final Entry<K, V> nextPrefixEntry(Object key) {
+		Entry<K, V> e = lastPrefixed(key, true);
+		return ceilingEntry(e != null ? e.key : key, false);
+	}
+
+	// Updates
+
+	/**
+	 * The tracks on the path to the nearest track of a key, as found by
+	 * {@link TrieSnapshot#locate(Object, Path)} and used by the update
+	 * operations that follow it.
+	 */
+	static final class Path<K, V> {
+		Entry<K, V>[] tracks = newEntryArray(16);
+
+		/**
+		 * The position of the nearest track in {@link #tracks}
+		 */
+		int depth;
+
+		/**
+		 * The length of the located key
+		 */
+		int length;
+
+		/**
+		 * The index of the first bit differing between the located key and
+		 * the key of the nearest track, or -1 if they are equal.
+		 */
+		int index;
+
+		final void push(Entry<K, V> track) {
+			Entry<K, V>[] t = tracks;
+			int d = ++depth;
+			if (d == t.length)
+				tracks = t = java.util.Arrays.copyOf(t, d << 1);
+			t[d] = track;
+		}
+	}
+
+	/**
+	 * Walks down to the nearest track of the specified key, the same way as
+	 * {@link AbstractPatriciaTrie#findNearest}, recording the tracks passed
+	 * in the specified path. Returns the entry with the key, or {@code null}
+	 * if there is none.
+	 */
+	@SuppressWarnings("unchecked")
+	final Entry<K, V> locate(Object key, Path<K, V> p) {
+		BitwiseComparator<? super Object> c = comparator;
+		int length = c.lengthBits(key); // Type (and possibly null) check
+
+		Entry<K, V> track = root;
+		p.depth = 0;
+		p.tracks[0] = track;
+		p.length = length;
+		Entry<K, V> next = track.switches;
+		while (next != null) {
+			int bit = next.bit;
+			if (bit < 0) {
+				int bitm = bit & BIT_INDEX_MASK;
+				if (length <= bitm)
+					break;
+				if (c.isBitSet(key, bitm)) {
+					if ((bit & BIT_ZERO_FLAG) != UNSET)
+						break;
+				} else if ((bit & BIT_ZERO_FLAG) == UNSET) {
+					if ((next = next.next) == null)
+						break;
+				}
+			} else {
+				if (length <= bit)
+					break;
+				if (!c.isBitSet(key, bit)) {
+					next = next.next;
+					continue;
+				}
+			}
+			p.push(track = next);
+			next = track.switches;
+		}
+
+		if (track.bit == ROOT_UNSET) {
+			p.index = length == 0 ? -1 : 0;
+			return null;
+		}
+		int index = p.index = c.contrast(key, track.key);
+		return index < 0 ? track : null;
+	}
+
+	/**
+	 * Returns a snapshot with the specified key, which {@link #locate} did
+	 * not find along the specified path, mapped to the specified value. The
+	 * cases are the same as the ones of {@link AbstractPatriciaTrie#put}.
+	 */
+	@SuppressWarnings("unchecked")
+	final TrieSnapshot<K, V> insert(Path<K, V> p, K key, V value) {
+		BitwiseComparator<? super K> c = comparator;
+		Entry<K, V>[] tracks = p.tracks;
+		int depth = p.depth;
+		Entry<K, V> track = tracks[depth];
+		int length = p.length;
+		int index = p.index;
+		int otherLength;
+
+		if (track.bit == ROOT_UNSET) {
+			if (length == 0) {
+				Entry<K, V> r = copyOf(track);
+				r.bit = ROOT_SET;
+				r.key = key;
+				r.value = value;
+				return new TrieSnapshot<>(c, r, size + 1);
+			}
+			index = otherLength = 0;
+		} else {
+			if (index == length) {
+				// Query key is a prefix. The new entry takes the place of the
+				// track, which becomes its edge switch.
+				Entry<K, V> entry = new Entry<>(key, value);
+				entry.bit = track.bit;
+				entry.next = track.next;
+				Entry<K, V> moved = copyOf(track);
+				moved.next = null;
+				moved.bit = c.isBitSet(track.key, length) ? length
+						| BIT_EDGE_FLAG : length | BIT_EDGE_ZERO_SPEC;
+				entry.switches = transferSwitches(track, length, moved);
+				return new TrieSnapshot<>(c, rebuild(tracks, depth, entry),
+						size + 1);
+			}
+			otherLength = c.lengthBits(track.key);
+		}
+
+		Entry<K, V> entry = new Entry<>(key, value);
+		if (index == otherLength) {
+			// Existing key is a prefix
+			boolean one = c.isBitSet(key, index);
+			Entry<K, V> t = copyOf(track);
+			Entry<K, V> first = track.switches;
+			Entry<K, V> last;
+			if (one && first != null
+					&& ((last = lastLinked(first)).bit & BIT_ZERO_FLAG) != UNSET) {
+				// Found 0-bit edge switch! Prepend to it.
+				entry.bit = index | BIT_EDGE_FLAG;
+				entry.next = last;
+				t.switches = relink(first, last, entry);
+			} else {
+				entry.bit = one ? index | BIT_EDGE_FLAG : index
+						| BIT_EDGE_ZERO_SPEC;
+				t.switches = relink(first, null, entry);
+			}
+			return new TrieSnapshot<>(c, rebuild(tracks, depth, t), size + 1);
+		}
+
+		// The query key has a prefix that is a prefix of an existing key.
+		// Same as backwardsRetrace(), the path holding the parent tracks.
+		while ((tracks[depth].bit & BIT_INDEX_MASK) > index)
+			depth--;
+		track = tracks[depth];
+
+		if (c.isBitSet(key, index)) {
+			// Simply insert to the list
+			entry.bit = index;
+			Entry<K, V> next = track.switches;
+			while (next != null && (next.bit & BIT_INDEX_MASK) <= index)
+				next = next.next;
+			entry.next = next;
+			Entry<K, V> t = copyOf(track);
+			t.switches = relink(track.switches, next, entry);
+			return new TrieSnapshot<>(c, rebuild(tracks, depth, t), size + 1);
+		}
+		// The new entry takes the place of the track, which becomes its
+		// middle switch
+		entry.bit = track.bit;
+		entry.next = track.next;
+		Entry<K, V> moved = copyOf(track);
+		moved.next = null;
+		moved.bit = index;
+		entry.switches = transferSwitches(track, index, moved);
+		return new TrieSnapshot<>(c, rebuild(tracks, depth, entry), size + 1);
+	}
+
+	/**
+	 * Returns a snapshot with the value of the entry found by {@link #locate}
+	 * along the specified path replaced.
+	 */
+	final TrieSnapshot<K, V> replace(Path<K, V> p, V value) {
+		int depth = p.depth;
+		Entry<K, V> e = copyOf(p.tracks[depth]);
+		e.value = value;
+		return new TrieSnapshot<>(comparator, rebuild(p.tracks, depth, e),
+				size);
+	}
+
+	/**
+	 * Returns a snapshot without the entry found by {@link #locate} along the
+	 * specified path. The cases are the same as the ones of
+	 * {@link AbstractPatriciaTrie#detach}.
+	 */
+	final TrieSnapshot<K, V> delete(Path<K, V> p) {
+		Entry<K, V>[] tracks = p.tracks;
+		int depth = p.depth;
+		Entry<K, V> entry = tracks[depth];
+		Entry<K, V> next = entry.switches;
+		if (depth == 0) {
+			Entry<K, V> r = new Entry<>(null, null);
+			r.switches = next;
+			return new TrieSnapshot<>(comparator, r, size - 1);
+		}
+		if (next == null) {
+			Entry<K, V> owner = tracks[--depth];
+			Entry<K, V> t = copyOf(owner);
+			t.switches = relink(owner.switches, entry, entry.next);
+			return new TrieSnapshot<>(comparator, rebuild(tracks, depth, t),
+					size - 1);
+		}
+		// Promote the last switch, which takes the other switches of the
+		// entry before its own
+		Entry<K, V> last = lastLinked(next);
+		Entry<K, V> repl = copyOf(last);
+		repl.bit = entry.bit;
+		repl.next = entry.next;
+		if (next != last) {
+			Entry<K, V> head = copyOf(next), prev = head;
+			while ((next = next.next) != last)
+				prev = prev.next = copyOf(next);
+			prev.bit &= BIT_INDEX_MASK;
+			prev.next = last.switches;
+			repl.switches = head;
+		}
+		return new TrieSnapshot<>(comparator, rebuild(tracks, depth, repl),
+				size - 1);
+	}
+
+	// Path copying
+
+	static <K, V> Entry<K, V> copyOf(Entry<K, V> e) {
+		Entry<K, V> copy = new Entry<>(e.key, e.value);
+		copy.bit = e.bit;
+		copy.switches = e.switches;
+		copy.next = e.next;
+		return copy;
+	}
+
+	/**
+	 * Copies the switches of a list up to but excluding {@code node}, linking
+	 * the last copy to {@code tail}. Returns the head of the new list, which
+	 * is {@code tail} itself if {@code node} is the first switch.
+	 */
+	static <K, V> Entry<K, V> relink(Entry<K, V> first, Entry<K, V> node,
+			Entry<K, V> tail) {
+		if (first == node)
+			return tail;
+		Entry<K, V> head = copyOf(first), prev = head;
+		for (Entry<K, V> e = first.next; e != node; e = e.next)
+			prev = prev.next = copyOf(e);
+		prev.next = tail;
+		return head;
+	}
+
+	/**
+	 * Copies the switches of the track up to the specified index, followed by
+	 * {@code moved}, which is given the remaining switches. A middle switch at
+	 * the index is marked as an edge switch. Returns the head of the new list.
+	 */
+	static <K, V> Entry<K, V> transferSwitches(Entry<K, V> track, int index,
+			Entry<K, V> moved) {
+		Entry<K, V> s = track.switches;
+		Entry<K, V> head = moved, prev = null;
+		for (; s != null && (s.bit & BIT_INDEX_MASK) <= index; s = s.next) {
+			Entry<K, V> e = copyOf(s);
+			if ((e.bit & BIT_INDEX_MASK) == index)
+				e.bit |= BIT_EDGE_FLAG; // Mark new edge switch
+			if (prev == null)
+				head = e;
+			else
+				prev.next = e;
+			prev = e;
+		}
+		if (prev != null)
+			prev.next = moved;
+		moved.switches = s;
+		return head;
+	}
+
+	/**
+	 * Replaces the track at the specified depth of the path with
+	 * {@code repl}, copying every track above it. Returns the new root.
+	 */
+	static <K, V> Entry<K, V> rebuild(Entry<K, V>[] tracks, int depth,
+			Entry<K, V> repl) {
+		while (depth > 0) {
+			Entry<K, V> node = tracks[depth];
+			Entry<K, V> owner = tracks[--depth];
+			Entry<K, V> t = copyOf(owner);
+			t.switches = relink(owner.switches, node, repl);
+			repl = t;
+		}
+		return repl;
+	}
+
+	// Iteration
+
+	/**
+	 * An in-order iterator over the entries of a snapshot, ascending or
+	 * descending, keeping the entries still to visit in a stack.
+	 */
+	static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+		private Entry<K, V>[] stack = newEntryArray(16);
+		private int top;
+		private final boolean descending;
+
+		/**
+		 * Creates an iterator over all the entries of the snapshot.
+		 */
+		EntryIterator(TrieSnapshot<K, V> s, boolean descending) {
+			this.descending = descending;
+			Entry<K, V> e = s.root;
+			if (e.bit == ROOT_UNSET)
+				e = e.switches;
+			pushAll(e);
+		}
+
+		/**
+		 * Creates an iterator starting from the entries whose keys are
+		 * greater (or less, if descending) than or equal to (if
+		 * {@code inclusive} is true) the specified key.
+		 */
+		@SuppressWarnings("unchecked")
+		EntryIterator(TrieSnapshot<K, V> s, boolean descending, Object key,
+				boolean inclusive) {
+			this.descending = descending;
+			BitwiseComparator<? super Object> c = s.comparator;
+			Entry<K, V> e = s.root;
+			if (e.bit == ROOT_UNSET)
+				e = e.switches;
+			while (e != null) {
+				int i = c.compare(key, e.key);
+				if (descending)
+					i = -i;
+				if (i < 0 || i == 0 && inclusive) {
+					push(e);
+					if (i == 0)
+						break;
+					e = descending ? e.switches : e.next;
+				} else
+					e = descending ? e.next : e.switches;
+			}
+		}
+
+		private void push(Entry<K, V> e) {
+			Entry<K, V>[] s = stack;
+			if (top == s.length)
+				stack = s = java.util.Arrays.copyOf(s, top << 1);
+			s[top++] = e;
+		}
+
+		private void pushAll(Entry<K, V> e) {
+			if (descending) {
+				for (; e != null; e = e.switches)
+					push(e);
+			} else {
+				for (; e != null; e = e.next)
+					push(e);
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return top != 0;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (top == 0)
+				throw new NoSuchElementException();
+			Entry<K, V> e = stack[--top];
+			stack[top] = null;
+			pushAll(descending ? e.next : e.switches);
+			return e;
+		}
+	}
+}
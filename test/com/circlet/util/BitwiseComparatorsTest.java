@@ -0,0 +1,321 @@
+package com.circlet.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of the array and string {@link BitwiseComparators} against
+ * a bit by bit reference built on {@code lengthBits} and {@code isBitSet}.
+ * Keys are long enough to span several words, and pairs differ in a single
+ * bit or length late in the keys. The {@code CharSequence} and
+ * {@code ByteBuffer} comparators are also checked against their array and
+ * string counterparts, and trie lookups through key views against lookups
+ * through the keys themselves.
+ */
+public class BitwiseComparatorsTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			for (int i = 0; i < 200; i++) {
+				long[] v1 = randomValues();
+				long[] v2 = variant(v1);
+				check(BitwiseComparators.FOR_BYTE_ARRAY, bytes(v1), bytes(v2));
+				check(BitwiseComparators.FOR_UBYTE_ARRAY, bytes(v1), bytes(v2));
+				check(BitwiseComparators.FOR_CHAR_ARRAY, chars(v1), chars(v2));
+				check(BitwiseComparators.FOR_SHORT_ARRAY, shorts(v1), shorts(v2));
+				check(BitwiseComparators.FOR_INT_ARRAY, ints(v1), ints(v2));
+				check(BitwiseComparators.FOR_LONG_ARRAY, v1, v2);
+				check(BitwiseComparators.FOR_STRING, new String(chars(v1)),
+						new String(chars(v2)));
+				testViews(v1, v2);
+			}
+			for (int i = 0; i < 200; i++)
+				testIpPrefixes();
+			testLookups();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	private long[] randomValues() {
+		long[] v = new long[rn.nextInt(100)];
+		for (int i = 0; i < v.length; i++)
+			v[i] = rn.nextLong();
+		return v;
+	}
+
+	/** A copy of the values, truncated, extended or with a bit flipped */
+	private long[] variant(long[] v) {
+		long[] w = java.util.Arrays.copyOf(v, rn.nextBoolean() ? v.length
+				: rn.nextInt(v.length + 20));
+		for (int i = v.length; i < w.length; i++)
+			w[i] = rn.nextLong();
+		int lim = Math.min(v.length, w.length);
+		if (lim > 0 && rn.nextInt(4) != 0) {
+			// Mostly late, where the keys of a deep switch differ
+			int i = rn.nextBoolean() ? lim - 1 - rn.nextInt(Math.min(lim, 9))
+					: rn.nextInt(lim);
+			// Often within a byte, so that the narrower keys differ too
+			w[i] ^= 1L << rn.nextInt(rn.nextBoolean() ? 8 : 64);
+		}
+		return rn.nextBoolean() ? w : v.clone();
+	}
+
+	private void testViews(long[] v1, long[] v2) {
+		String s1 = new String(chars(v1)), s2 = new String(chars(v2));
+		CharSequence c1 = charView(s1), c2 = charView(s2);
+		check(BitwiseComparators.FOR_CHAR_SEQUENCE, c1, c2);
+		check(BitwiseComparators.FOR_CHAR_SEQUENCE, s1, c2);
+		checkSame(BitwiseComparators.FOR_STRING, s1, s2,
+				BitwiseComparators.FOR_CHAR_SEQUENCE, c1, c2);
+
+		byte[] a1 = bytes(v1), a2 = bytes(v2);
+		ByteBuffer b1 = byteView(a1), b2 = byteView(a2);
+		check(BitwiseComparators.FOR_BYTE_BUFFER, b1, b2);
+		check(BitwiseComparators.FOR_BYTE_BUFFER, a1, b2);
+		check(BitwiseComparators.FOR_UBYTE_BUFFER, b1, a2);
+		checkSame(BitwiseComparators.FOR_BYTE_ARRAY, a1, a2,
+				BitwiseComparators.FOR_BYTE_BUFFER, b1, b2);
+		checkSame(BitwiseComparators.FOR_UBYTE_ARRAY, a1, a2,
+				BitwiseComparators.FOR_UBYTE_BUFFER, a1, b2);
+	}
+
+	/** Queries a trie through key views and through the keys themselves */
+	private void testLookups() {
+		PatriciaTrie<String, Integer> strings = new PatriciaTrie<>(
+				BitwiseComparators.FOR_CHAR_SEQUENCE, rn.nextBoolean());
+		PatriciaTrie<byte[], Integer> bytes = new PatriciaTrie<>(
+				BitwiseComparators.FOR_UBYTE_BUFFER, rn.nextBoolean());
+		for (int i = rn.nextInt(300); i > 0; i--) {
+			byte[] key = randomKey();
+			strings.put(latin1(key), i);
+			bytes.put(key, i);
+		}
+		for (int i = 0; i < 300; i++) {
+			byte[] key = randomKey();
+			String s = latin1(key);
+			CharSequence cs = charView(s);
+			assert strings.getEntryByView(cs) == (strings.containsKey(s) ? strings
+					.ceilingEntry(s) : null);
+			assert strings.prefixEntryByView(cs) == strings.prefixEntry(s);
+			assert strings.nearestEntryByView(cs) == strings.nearestEntry(s);
+			assert strings.ceilingEntryByView(cs) == strings.ceilingEntry(s);
+
+			ByteBuffer b = byteView(key);
+			int position = b.position(), limit = b.limit();
+			assert bytes.getEntryByView(b) == (bytes.containsKey(key) ? bytes
+					.ceilingEntry(key) : null);
+			assert bytes.prefixEntryByView(b) == bytes.prefixEntry(key);
+			assert bytes.nearestEntryByView(b) == bytes.nearestEntry(key);
+			assert bytes.ceilingEntryByView(b) == bytes.ceilingEntry(key);
+			assert b.position() == position && b.limit() == limit;
+		}
+		testViewKeys();
+	}
+
+	/** Tries keyed by the views themselves, through the ordinary lookups */
+	private void testViewKeys() {
+		PatriciaTrie<CharSequence, Integer> chars = new PatriciaTrie<>(
+				BitwiseComparators.FOR_CHAR_SEQUENCE);
+		PatriciaTrie<ByteBuffer, Integer> buffers = new PatriciaTrie<>(
+				BitwiseComparators.FOR_BYTE_BUFFER);
+		TreeMap<String, Integer> expected = new TreeMap<>(
+				BitwiseComparators.FOR_STRING);
+		for (int i = rn.nextInt(300); i > 0; i--) {
+			byte[] key = randomKey();
+			String s = latin1(key);
+			assert eq(chars.put(charView(s), i), expected.put(s, i));
+			buffers.put(byteView(key), i);
+		}
+		for (int i = 0; i < 300; i++) {
+			byte[] key = randomKey();
+			String s = latin1(key);
+			CharSequence cs = charView(s);
+			assert eq(chars.get(cs), expected.get(s));
+			assert sameKey(chars.ceilingEntry(cs), expected.ceilingEntry(s));
+			assert sameKey(chars.floorEntry(cs), expected.floorEntry(s));
+			assert chars.prefixEntry(cs) == chars.prefixEntryByView(cs);
+			assert chars.nearestEntry(cs) == chars.nearestEntryByView(cs);
+
+			ByteBuffer b = byteView(key);
+			assert eq(buffers.get(b), expected.get(s));
+			assert buffers.ceilingEntry(b) == buffers.ceilingEntryByView(b);
+			assert buffers.prefixEntry(b) == buffers.prefixEntryByView(b);
+			assert buffers.nearestEntry(b) == buffers.nearestEntryByView(b);
+		}
+	}
+
+	private static boolean sameKey(Map.Entry<? extends CharSequence, ?> e1,
+			Map.Entry<? extends CharSequence, ?> e2) {
+		return e1 == null ? e2 == null : e2 != null
+				&& e1.getKey().toString().equals(e2.getKey().toString());
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	/** Short keys over a small alphabet, so that lookups often hit */
+	private byte[] randomKey() {
+		byte[] key = new byte[rn.nextInt(6)];
+		for (int i = 0; i < key.length; i++)
+			key[i] = (byte) (rn.nextBoolean() ? 'a' : 0xE0 + rn.nextInt(2));
+		return key;
+	}
+
+	private static String latin1(byte[] a) {
+		char[] chars = new char[a.length];
+		for (int i = 0; i < a.length; i++)
+			chars[i] = (char) (a[i] & 0xFF);
+		return new String(chars);
+	}
+
+	/** Views the string as a string, a builder or a slice of a char buffer */
+	private CharSequence charView(String s) {
+		switch (rn.nextInt(3)) {
+		case 0:
+			return s;
+		case 1:
+			return new StringBuilder(s);
+		default:
+			int off = rn.nextInt(4);
+			char[] padded = new char[off + s.length() + rn.nextInt(4)];
+			s.getChars(0, s.length(), padded, off);
+			return CharBuffer.wrap(padded, off, s.length());
+		}
+	}
+
+	/** Views the bytes as the remaining bytes of a larger buffer */
+	private ByteBuffer byteView(byte[] a) {
+		int off = rn.nextInt(9);
+		int capacity = off + a.length + rn.nextInt(9);
+		ByteBuffer b;
+		switch (rn.nextInt(3)) {
+		case 0:
+			b = ByteBuffer.allocate(capacity);
+			break;
+		case 1:
+			b = ByteBuffer.allocateDirect(capacity);
+			break;
+		default:
+			b = ByteBuffer.allocate(capacity + 3);
+			b.position(3);
+			b = b.slice(); // Non-zero array offset
+		}
+		b.position(off);
+		b.put(a);
+		b.position(off);
+		b.limit(off + a.length);
+		return rn.nextInt(4) == 0 ? b.asReadOnlyBuffer() : b;
+	}
+
+	/** Checks that two comparators agree on the corresponding keys */
+	private static <T, U> void checkSame(BitwiseComparator<T> c, T o1, T o2,
+			BitwiseComparator<U> d, U p1, U p2) {
+		assert c.contrast(o1, o2) == d.contrast(p1, p2);
+		assert Integer.signum(c.compare(o1, o2)) == Integer.signum(d.compare(
+				p1, p2));
+		assert c.checkPrefixed(o1, o2, true) == d.checkPrefixed(p1, p2, true);
+		assert c.checkPrefixed(o2, o1, false) == d.checkPrefixed(p2, p1, false);
+	}
+
+	private static <T> void check(BitwiseComparator<T> c, T o1, T o2) {
+		check0(c, o1, o2);
+		check0(c, o2, o1);
+		check0(c, o1, o1);
+	}
+
+	private static <T> void check0(BitwiseComparator<T> c, T o1, T o2) {
+		int len1 = c.lengthBits(o1);
+		int len2 = c.lengthBits(o2);
+		int lim = Math.min(len1, len2);
+		int diff = lim;
+		for (int i = 0; i < lim; i++) {
+			if (c.isBitSet(o1, i) != c.isBitSet(o2, i)) {
+				diff = i;
+				break;
+			}
+		}
+		if (diff == lim && len1 == len2)
+			diff = -1;
+		assert c.contrast(o1, o2) == diff;
+
+		int order = diff < 0 ? 0 : diff == lim ? len1 - len2 : c.isBitSet(
+				o1, diff) ? 1 : -1;
+		assert Integer.signum(c.compare(o1, o2)) == Integer.signum(order);
+
+		assert c.checkPrefixed(o1, o2, true) == (diff < 0 || diff == len2
+				&& len2 < len1);
+		assert c.checkPrefixed(o1, o2, false) == (diff == len2 && len2 < len1);
+
+		try {
+			c.isBitSet(o1, len1);
+			assert false;
+		} catch (BitIndexOutOfBoundsException e) {
+		}
+	}
+
+	/** Prefixes of a random address, or of one with a bit flipped */
+	private void testIpPrefixes() {
+		long high = rn.nextLong(), low = rn.nextLong();
+		boolean inet6 = rn.nextBoolean();
+		int max = inet6 ? 128 : 32;
+		IpPrefix p1 = inet6 ? IpPrefix.of(high, low, rn.nextInt(max + 1))
+				: IpPrefix.of((int) (high >>> 32), rn.nextInt(max + 1));
+		if (rn.nextBoolean()) {
+			int bit = rn.nextInt(max);
+			if (bit < 64)
+				high ^= Long.MIN_VALUE >>> bit;
+			else
+				low ^= Long.MIN_VALUE >>> bit - 64;
+		}
+		IpPrefix p2 = inet6 ? IpPrefix.of(high, low, rn.nextInt(max + 1))
+				: IpPrefix.of((int) (high >>> 32), rn.nextInt(max + 1));
+		check(BitwiseComparators.FOR_IP_PREFIX, p1, p2);
+		assert p1.contains(p2) == BitwiseComparators.FOR_IP_PREFIX
+				.checkPrefixed(p2, p1, true);
+		assert p1.equals(IpPrefix.parse(p1.toString()));
+	}
+
+	private static byte[] bytes(long[] v) {
+		byte[] a = new byte[v.length];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (byte) v[i];
+		return a;
+	}
+
+	private static char[] chars(long[] v) {
+		char[] a = new char[v.length];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (char) v[i];
+		return a;
+	}
+
+	private static short[] shorts(long[] v) {
+		short[] a = new short[v.length];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (short) v[i];
+		return a;
+	}
+
+	private static int[] ints(long[] v) {
+		int[] a = new int[v.length];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (int) v[i];
+		return a;
+	}
+}
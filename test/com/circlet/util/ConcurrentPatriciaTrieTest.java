@@ -0,0 +1,298 @@
+package com.circlet.util;
+
+import static com.circlet.util.PatriciaTrieTest.eq;
+import static com.circlet.util.PatriciaTrieTest.mismatchMsg;
+import static com.circlet.util.PatriciaTrieTest.testEndPoints;
+import static com.circlet.util.PatriciaTrieTest.testOrder;
+import static com.circlet.util.PatriciaTrieTest.testQueryMethods;
+import static com.circlet.util.PatriciaTrieTest.testReverseOrder;
+import static com.circlet.util.PatriciaTrieTest.testSerialization;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.CountDownLatch;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link ConcurrentPatriciaTrie} against a
+ * {@link MockPrefixMap}, on the map and on its range, prefix and descending
+ * views, followed by a few threads updating disjoint sets of keys of a shared
+ * map while others iterate and query it.
+ */
+@SuppressWarnings("unchecked")
+public class ConcurrentPatriciaTrieTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testSequential();
+			testThreads();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	/** A binary string, often prefixed by one of a few short strings */
+	private String randomKey() {
+		StringBuilder sb = new StringBuilder();
+		if (rn.nextBoolean())
+			sb.append(rn.nextBoolean() ? "0110" : "10");
+		for (int i = rn.nextInt(10); i > 0; i--)
+			sb.append(rn.nextBoolean() ? '1' : '0');
+		return sb.toString();
+	}
+
+	private void testSequential() {
+		BitwiseComparator<String> c = BinaryStringBitsComparator.INSTANCE;
+		ConcurrentPatriciaTrie<String, Integer> trie = new ConcurrentPatriciaTrie<>(
+				c);
+		MockPrefixMap<String, Integer> tree = new MockPrefixMap<>(c);
+
+		int count = rn.nextInt(400);
+		for (int i = 0; i < count; i++) {
+			String key = randomKey();
+			Integer a, b;
+			switch (rn.nextInt(6)) {
+			case 0:
+				a = trie.putIfAbsent(key, i);
+				b = tree.putIfAbsent(key, i);
+				break;
+			case 1:
+				a = trie.remove(key);
+				b = tree.remove(key);
+				break;
+			case 2:
+				a = trie.replace(key, i);
+				b = tree.replace(key, i);
+				break;
+			default:
+				a = trie.put(key, i);
+				b = tree.put(key, i);
+			}
+			assert eq(a, b) : mismatchMsg(key, a, b);
+			assert trie.size() == tree.size();
+		}
+		for (String key : new ArrayList<>(tree.keySet())) {
+			if (rn.nextInt(4) == 0) {
+				Integer v = tree.get(key);
+				assert !trie.replace(key, v + 1, v);
+				assert trie.replace(key, v, v + 1);
+				assert !trie.remove(key, v);
+				assert trie.remove(key, v + 1);
+				assert trie.putIfAbsent(key, v) == null;
+			}
+		}
+		assert trie.equals(tree) && tree.equals(trie);
+
+		ArrayList<Map.Entry<String, Integer>> queries = new ArrayList<>();
+		for (int i = 0; i < 200; i++)
+			queries.add(new AbstractMap.SimpleEntry<>(randomKey(), 0));
+		testMap(trie, tree, queries, 2, 0);
+
+		// Removal through the views, and snapshot iteration while removing
+		Iterator<String> it = trie.keySet().iterator();
+		while (it.hasNext()) {
+			String key = it.next();
+			if (rn.nextBoolean()) {
+				it.remove();
+				tree.remove(key);
+			}
+		}
+		assert trie.equals(tree);
+		if (!tree.isEmpty()) {
+			String prefix = tree.firstKey().substring(0,
+					Math.min(2, tree.firstKey().length()));
+			trie.subMap(prefix, true).clear();
+			tree.subMap(prefix, true).keySet().forEach(tree::remove);
+			assert trie.equals(tree);
+		}
+		Iterator<Map.Entry<String, Integer>> ei = trie.entrySet().iterator();
+		trie.clear();
+		while (ei.hasNext())
+			assert tree.containsKey(ei.next().getKey());
+		assert trie.isEmpty() && trie.firstEntry() == null;
+	}
+
+	private void testMap(NavigableMap<String, Integer> testMap,
+			NavigableMap<String, Integer> checkMap,
+			ArrayList<Map.Entry<String, Integer>> queries, int depth,
+			int prefixLength) {
+		ArrayList<Map.Entry<String, Integer>> ordered = new ArrayList<>(
+				checkMap.entrySet());
+		assert testMap.size() == checkMap.size();
+		assert testMap.isEmpty() == checkMap.isEmpty();
+		testOrder(testMap, ordered);
+		testReverseOrder(testMap, ordered);
+		testEndPoints(testMap, checkMap);
+		ArrayList<Map.Entry<String, Integer>> keys = new ArrayList<>(ordered);
+		keys.addAll(queries);
+		if (checkMap instanceof PrefixMap)
+			testQueryMethods((PrefixMap<String, Integer>) testMap,
+					(PrefixMap<String, Integer>) checkMap, keys);
+		else
+			testQueryMethods(testMap, checkMap, keys);
+		testPoll(testMap, checkMap);
+		testSerialization(testMap);
+		assert testMap.equals(checkMap) && checkMap.equals(testMap);
+
+		if (depth-- <= 0 || ordered.isEmpty())
+			return;
+		testMap(testMap.descendingMap(), checkMap.descendingMap(), queries,
+				depth, prefixLength);
+
+		String from = ordered.get(rn.nextInt(ordered.size())).getKey();
+		String to = ordered.get(rn.nextInt(ordered.size())).getKey();
+		if (testMap.comparator().compare(from, to) > 0) {
+			String t = from;
+			from = to;
+			to = t;
+		}
+		boolean fromInclusive = rn.nextBoolean(), toInclusive = rn.nextBoolean();
+		testMap(testMap.tailMap(from, fromInclusive), checkMap.tailMap(from,
+				fromInclusive), queries, depth, prefixLength);
+		testMap(testMap.headMap(to, toInclusive), checkMap.headMap(to,
+				toInclusive), queries, depth, prefixLength);
+		testMap(testMap.subMap(from, fromInclusive, to, toInclusive),
+				checkMap.subMap(from, fromInclusive, to, toInclusive), queries,
+				depth, prefixLength);
+
+		if (checkMap instanceof PrefixMap) {
+			String key = ordered.get(rn.nextInt(ordered.size())).getKey();
+			// Nested prefix views must be within the enclosing prefix
+			String prefix = key.substring(0, prefixLength
+					+ rn.nextInt(key.length() - prefixLength + 1));
+			boolean inclusive = rn.nextBoolean();
+			PrefixMap<String, Integer> a = ((PrefixMap<String, Integer>) testMap)
+					.subMap(prefix, inclusive);
+			PrefixMap<String, Integer> b = ((PrefixMap<String, Integer>) checkMap)
+					.subMap(prefix, inclusive);
+			assert a instanceof ConcurrentNavigableMap;
+			testMap((NavigableMap<String, Integer>) a,
+					(NavigableMap<String, Integer>) b, queries, depth,
+					prefix.length());
+			String inside = prefix + "1";
+			Integer old = b.get(inside);
+			try {
+				assert eq(a.put(inside, -1), old);
+			} catch (IllegalArgumentException e) {
+				assert false : e;
+			}
+			if (old == null)
+				a.remove(inside);
+			else
+				a.put(inside, old);
+			if (!prefix.isEmpty()) {
+				String outside = prefix.substring(0, prefix.length() - 1)
+						+ (prefix.endsWith("1") ? '0' : '1');
+				try {
+					a.put(outside, 0);
+					assert false;
+				} catch (IllegalArgumentException e) {
+				}
+			}
+		}
+	}
+
+	private void testPoll(NavigableMap<String, Integer> testMap,
+			NavigableMap<String, Integer> checkMap) {
+		TreeMap<String, Integer> check = new TreeMap<>(checkMap);
+		Map.Entry<String, Integer> a, b;
+		do {
+			if (rn.nextBoolean()) {
+				a = testMap.pollFirstEntry();
+				b = check.pollFirstEntry();
+			} else {
+				a = testMap.pollLastEntry();
+				b = check.pollLastEntry();
+			}
+			assert eq(a, b) : mismatchMsg(a, b);
+		} while (a != null);
+		assert testMap.isEmpty();
+		testMap.putAll(checkMap); // restore
+		assert testMap.equals(checkMap);
+	}
+
+	/**
+	 * Writers own the keys ending with their number, so that each can check
+	 * its own updates, while readers check that every iteration is ordered
+	 * and that the map and its views stay consistent.
+	 */
+	private void testThreads() throws InterruptedException {
+		ConcurrentPatriciaTrie<String, Integer> trie = new ConcurrentPatriciaTrie<>(
+				BinaryStringBitsComparator.INSTANCE);
+		final int writers = 4, readers = 2;
+		final String[] suffixes = { "00", "01", "10", "11" };
+		final long[] seeds = new long[writers + readers];
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = rn.nextLong();
+		final Throwable[] failure = new Throwable[1];
+		final CountDownLatch done = new CountDownLatch(writers);
+		ArrayList<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < writers; t++) {
+			final int id = t;
+			threads.add(new Thread(() -> {
+				Random r = new Random(seeds[id]);
+				TreeMap<String, Integer> own = new TreeMap<>(trie.comparator());
+				try {
+					for (int i = 0; i < 2000; i++) {
+						StringBuilder sb = new StringBuilder();
+						for (int j = r.nextInt(8); j > 0; j--)
+							sb.append(r.nextBoolean() ? '1' : '0');
+						String key = sb.append(suffixes[id]).toString();
+						if (r.nextInt(3) == 0)
+							assert eq(trie.remove(key), own.remove(key));
+						else
+							assert eq(trie.put(key, i), own.put(key, i));
+					}
+					for (Map.Entry<String, Integer> e : own.entrySet())
+						assert eq(trie.get(e.getKey()), e.getValue());
+				} catch (Throwable e) {
+					failure[0] = e;
+				} finally {
+					done.countDown();
+				}
+			}));
+		}
+		for (int t = 0; t < readers; t++) {
+			threads.add(new Thread(() -> {
+				try {
+					while (done.getCount() > 0) {
+						String prev = null;
+						for (String key : trie.keySet()) {
+							assert prev == null
+									|| trie.comparator().compare(prev, key) < 0;
+							prev = key;
+						}
+						Map.Entry<String, Integer> e = trie.prefixEntry("0101");
+						assert e == null || "0101".startsWith(e.getKey());
+						for (String key : trie.subMap("01", true).keySet())
+							assert key.startsWith("01");
+					}
+				} catch (Throwable e) {
+					failure[0] = e;
+				}
+			}));
+		}
+		for (Thread t : threads)
+			t.start();
+		for (Thread t : threads)
+			t.join();
+		if (failure[0] != null)
+			throw new AssertionError(failure[0]);
+	}
+}
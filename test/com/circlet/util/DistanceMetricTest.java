@@ -0,0 +1,156 @@
+package com.circlet.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link PatriciaTrie#fuzzyMatches} against a linear scan
+ * of the keys.
+ */
+public class DistanceMetricTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testHamming();
+			testLevenshtein();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	private void testHamming() throws Exception {
+		// Keys of a few lengths, near a few random keys so that some are close
+		PatriciaTrie<byte[], Integer> bytes = new PatriciaTrie<>(
+				BitwiseComparators.FOR_BYTE_ARRAY, rn.nextBoolean());
+		byte[][] bases = new byte[1 + rn.nextInt(4)][];
+		for (int i = 0; i < bases.length; i++) {
+			bases[i] = new byte[1 + rn.nextInt(4)];
+			rn.nextBytes(bases[i]);
+		}
+		for (int i = rn.nextInt(500); i > 0; i--) {
+			byte[] key = bases[rn.nextInt(bases.length)];
+			key = java.util.Arrays.copyOf(key, rn.nextInt(8) == 0 ? rn
+					.nextInt(key.length + 2) : key.length);
+			for (int j = rn.nextInt(4); j > 0 && key.length > 0; j--)
+				key[rn.nextInt(key.length)] ^= 1 << rn.nextInt(8);
+			bytes.put(key, i);
+		}
+		for (int i = 0; i < 50; i++) {
+			byte[] key = bases[rn.nextInt(bases.length)].clone();
+			if (key.length > 0 && rn.nextBoolean())
+				key[rn.nextInt(key.length)] ^= 1 << rn.nextInt(8);
+			check(bytes, key, rn.nextInt(5), DistanceMetric.HAMMING);
+		}
+
+		PatriciaTrie<long[], Integer> longs = new PatriciaTrie<>(
+				BitwiseComparators.FOR_LONG_ARRAY);
+		long base = rn.nextLong();
+		for (int i = rn.nextInt(500); i > 0; i--) {
+			long k = base;
+			for (int j = rn.nextInt(6); j > 0; j--)
+				k ^= 1L << rn.nextInt(64);
+			longs.put(new long[] { k }, i);
+		}
+		for (int i = 0; i < 20; i++) {
+			long[] key = { base ^ 1L << rn.nextInt(64) };
+			check(longs, key, rn.nextInt(4), DistanceMetric.HAMMING);
+		}
+	}
+
+	private void testLevenshtein() throws Exception {
+		PatriciaTrie<String, Integer> strings = new PatriciaTrie<>(
+				BitwiseComparators.FOR_STRING, rn.nextBoolean());
+		for (int i = rn.nextInt(500); i > 0; i--)
+			strings.put(randomString(), i);
+		for (int i = 0; i < 50; i++)
+			check(strings, randomString(), rn.nextInt(4),
+					DistanceMetric.LEVENSHTEIN);
+
+		PatriciaTrie<CharSequence, Integer> sequences = new PatriciaTrie<>(
+				BitwiseComparators.FOR_CHAR_SEQUENCE);
+		sequences.putAll(strings);
+		check(sequences, randomString(), rn.nextInt(4),
+				DistanceMetric.LEVENSHTEIN);
+
+		try {
+			new PatriciaTrie<String, Integer>(
+					BinaryStringBitsComparator.INSTANCE)
+					.fuzzyMatches("a", 1, DistanceMetric.LEVENSHTEIN);
+			assert false;
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			strings.fuzzyMatches("a", -1, DistanceMetric.LEVENSHTEIN);
+			assert false;
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	private String randomString() {
+		char[] a = new char[rn.nextInt(7)];
+		for (int i = 0; i < a.length; i++)
+			a[i] = (char) ('a' + rn.nextInt(4));
+		return new String(a);
+	}
+
+	private static <K> void check(PatriciaTrie<K, Integer> trie, K key,
+			int maxDistance, DistanceMetric<? super K> metric) {
+		List<K> expected = new ArrayList<>();
+		for (K k : trie.keySet())
+			if (distance(trie.comparator(), key, k, metric) <= maxDistance)
+				expected.add(k);
+		Iterator<Map.Entry<K, Integer>> it = trie.fuzzyMatches(key,
+				maxDistance, metric);
+		for (K k : expected) {
+			Map.Entry<K, Integer> e = it.next();
+			assert e.getKey() == k && e.getValue() == trie.get(k);
+		}
+		assert !it.hasNext();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int distance(BitwiseComparator<?> comparator, Object key1,
+			Object key2, DistanceMetric<?> metric) {
+		BitwiseComparator<Object> c = (BitwiseComparator<Object>) comparator;
+		if (metric == DistanceMetric.HAMMING) {
+			int length = c.lengthBits(key1);
+			if (c.lengthBits(key2) != length)
+				return Integer.MAX_VALUE;
+			int d = 0;
+			for (int i = 0; i < length; i++)
+				if (c.isBitSet(key1, i) != c.isBitSet(key2, i))
+					d++;
+			return d;
+		}
+		CharSequence s = (CharSequence) key1, t = (CharSequence) key2;
+		int[] row = new int[s.length() + 1];
+		for (int i = 0; i <= s.length(); i++)
+			row[i] = i;
+		for (int j = 1; j <= t.length(); j++) {
+			int diagonal = row[0];
+			row[0] = j;
+			for (int i = 1; i <= s.length(); i++) {
+				int d = Math.min(row[i], row[i - 1]) + 1;
+				d = Math.min(d, diagonal
+						+ (s.charAt(i - 1) == t.charAt(j - 1) ? 0 : 1));
+				diagonal = row[i];
+				row[i] = d;
+			}
+		}
+		return row[s.length()];
+	}
+}
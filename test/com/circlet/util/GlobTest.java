@@ -0,0 +1,157 @@
+package com.circlet.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link Glob} against an equivalent regular expression,
+ * and of {@link PatriciaTrie#match} against a linear scan of the keys.
+ */
+public class GlobTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testMatches();
+			testMatch();
+			testIllegal();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	private void testMatches() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			StringBuilder regex = new StringBuilder();
+			Glob glob = Glob.compile(randomPattern(regex));
+			Pattern p = Pattern.compile(regex.toString(), Pattern.DOTALL);
+			for (int j = 0; j < 20; j++) {
+				String s = randomKey();
+				assert glob.matches(s) == p.matcher(s).matches() : glob + " "
+						+ s;
+			}
+		}
+		assert Glob.compile("a.*.c", '.').matches("a.b.c");
+		assert !Glob.compile("a.*.c", '.').matches("a.b.b.c");
+		assert Glob.compile("a.**.c", '.').matches("a.b.b.c");
+		assert Glob.compile("[]a]\\*").matches("]*");
+		assert !Glob.compile("[!a-b]").matches("/");
+	}
+
+	private void testMatch() throws Exception {
+		PatriciaTrie<String, Integer> strings = new PatriciaTrie<>(
+				BitwiseComparators.FOR_STRING, rn.nextBoolean());
+		for (int i = rn.nextInt(500); i > 0; i--)
+			strings.put(randomKey(), i);
+		PatriciaTrie<CharSequence, Integer> sequences = new PatriciaTrie<>(
+				BitwiseComparators.FOR_CHAR_SEQUENCE);
+		sequences.putAll(strings);
+		PatriciaTrie<char[], Integer> chars = new PatriciaTrie<>(
+				BitwiseComparators.FOR_CHAR_ARRAY);
+		for (Map.Entry<String, Integer> e : strings.entrySet())
+			chars.put(e.getKey().toCharArray(), e.getValue());
+		for (int i = 0; i < 50; i++) {
+			Glob glob = Glob.compile(randomPattern(new StringBuilder()));
+			check(strings, glob);
+			check(sequences, glob);
+			check(chars, glob);
+		}
+	}
+
+	private void testIllegal() {
+		for (String pattern : new String[] { "a[b", "[b-a]", "a\\", "[a\\" }) {
+			try {
+				Glob.compile(pattern);
+				assert false : pattern;
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		try {
+			new PatriciaTrie<String, Integer>(BinaryStringBitsComparator.INSTANCE)
+					.match(Glob.compile("a*"));
+			assert false;
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	/**
+	 * Returns a random pattern over a few chars, and appends the regular
+	 * expression it stands for to the given builder.
+	 */
+	private String randomPattern(StringBuilder regex) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = rn.nextInt(6); i > 0; i--) {
+			int token = rn.nextInt(8);
+			if (token <= 2 && sb.length() > 0
+					&& sb.charAt(sb.length() - 1) == '*')
+				token = 0; // Adjacent stars would be one globstar
+			switch (token) {
+			case 0:
+				sb.append('?');
+				regex.append("[^/]");
+				break;
+			case 1:
+				sb.append('*');
+				regex.append("[^/]*");
+				break;
+			case 2:
+				sb.append("**");
+				regex.append(".*");
+				break;
+			case 3:
+				boolean negated = rn.nextBoolean();
+				char lo = (char) ('a' + rn.nextInt(3)), hi = (char) (lo + rn
+						.nextInt(2));
+				sb.append(negated ? "[!" : "[").append(lo).append('-')
+						.append(hi).append(']');
+				regex.append(negated ? "[^/" : "[").append(lo).append('-')
+						.append(hi).append(']');
+				break;
+			case 4:
+				sb.append('/');
+				regex.append('/');
+				break;
+			default:
+				char c = (char) ('a' + rn.nextInt(3));
+				sb.append(c);
+				regex.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private String randomKey() {
+		char[] a = new char[rn.nextInt(7)];
+		for (int i = 0; i < a.length; i++)
+			a[i] = rn.nextInt(4) == 0 ? '/' : (char) ('a' + rn.nextInt(3));
+		return new String(a);
+	}
+
+	private static <K> void check(PatriciaTrie<K, Integer> trie, Glob glob) {
+		List<K> expected = new ArrayList<>();
+		for (K k : trie.keySet())
+			if (glob.matches(k instanceof char[] ? new String((char[]) k)
+					: (CharSequence) k))
+				expected.add(k);
+		Iterator<Map.Entry<K, Integer>> it = trie.match(glob);
+		for (K k : expected) {
+			Map.Entry<K, Integer> e = it.next();
+			assert e.getKey() == k && e.getValue() == trie.get(k) : glob;
+		}
+		assert !it.hasNext() : glob;
+	}
+}
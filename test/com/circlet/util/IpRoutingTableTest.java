@@ -0,0 +1,149 @@
+package com.circlet.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link IpRoutingTable} against a linear scan of its
+ * routes.
+ */
+public class IpRoutingTableTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testRoutes();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	// Routes and probes near a few random addresses, so that routes nest and
+	// share prefixes.
+
+	private long[] bases;
+
+	private long[] randomAddress(boolean inet6) {
+		int i = rn.nextInt(bases.length / 2) * 2;
+		long high = bases[i], low = inet6 ? bases[i + 1] : 0;
+		int bit = rn.nextInt(inet6 ? 160 : 40);
+		if (bit < 64)
+			high ^= rn.nextLong() >>> bit;
+		else if (bit < 128)
+			low ^= rn.nextLong() >>> bit - 64;
+		return new long[] { inet6 ? high : high & -1L << 32, low };
+	}
+
+	private IpPrefix randomRoute() {
+		boolean inet6 = rn.nextInt(3) == 0;
+		long[] a = randomAddress(inet6);
+		int length = rn.nextInt(rn.nextBoolean() ? 9 : inet6 ? 129 : 33);
+		return inet6 ? IpPrefix.of(a[0], a[1], length) : IpPrefix.of(
+				(int) (a[0] >>> 32), length);
+	}
+
+	private void testRoutes() throws Exception {
+		bases = new long[2 + 2 * rn.nextInt(6)];
+		for (int i = 0; i < bases.length; i++)
+			bases[i] = rn.nextLong();
+
+		Map<IpPrefix, Integer> routes = new HashMap<>();
+		IpRoutingTable<Integer> table = new IpRoutingTable<>();
+		IpRoutingTable<Integer> loaded = new IpRoutingTable<>();
+		int count = rn.nextInt(400);
+		for (int i = 0; i < count; i++) {
+			IpPrefix route = randomRoute();
+			assert eq(table.put(route, i), routes.put(route, i));
+		}
+		// Half in bulk into an empty table, then the rest into a filled one
+		Map<IpPrefix, Integer> half = new HashMap<>();
+		for (Map.Entry<IpPrefix, Integer> e : routes.entrySet())
+			if (rn.nextBoolean())
+				half.put(e.getKey(), e.getValue());
+		loaded.putAll(half);
+		loaded.putAll(routes);
+		assert table.size() == routes.size() && loaded.size() == routes.size();
+		check(table, routes);
+		check(loaded, routes);
+
+		for (int i = rn.nextInt(count + 1); i > 0; i--) {
+			IpPrefix route = randomRoute();
+			assert eq(table.remove(route), routes.remove(route));
+		}
+		assert table.size() == routes.size();
+		check(table, routes);
+
+		table.clear();
+		assert table.isEmpty() && table.longestMatch(rn.nextInt()) == null;
+	}
+
+	private void check(IpRoutingTable<Integer> table,
+			Map<IpPrefix, Integer> routes) throws Exception {
+		for (Map.Entry<IpPrefix, Integer> e : routes.entrySet())
+			assert eq(table.get(e.getKey()), e.getValue());
+
+		for (int i = 0; i < 300; i++) {
+			boolean inet6 = rn.nextBoolean();
+			long[] a = randomAddress(inet6);
+			IpPrefix address = inet6 ? IpPrefix.of(a[0], a[1], 128) : IpPrefix
+					.of((int) (a[0] >>> 32), 32);
+			List<IpPrefix> expected = new ArrayList<>();
+			for (IpPrefix route : routes.keySet())
+				if (route.contains(address))
+					expected.add(route);
+			expected.sort((p1, p2) -> p1.length() - p2.length());
+
+			List<Map.Entry<IpPrefix, Integer>> matches = inet6 ? table
+					.allMatches(a[0], a[1]) : table.allMatches(address.address());
+			assert matches.size() == expected.size();
+			for (int j = 0; j < matches.size(); j++) {
+				Map.Entry<IpPrefix, Integer> e = matches.get(j);
+				assert e.getKey().equals(expected.get(j));
+				assert e.getValue().equals(routes.get(e.getKey()));
+			}
+			Map.Entry<IpPrefix, Integer> longest = inet6 ? table.longestMatch(
+					a[0], a[1]) : table.longestMatch(address.address());
+			assert expected.isEmpty() ? longest == null : longest.getKey()
+					.equals(expected.get(expected.size() - 1));
+			InetAddress inet = address.toInetAddress();
+			assert table.longestMatch(inet) == longest;
+			assert table.allMatches(inet).equals(matches);
+		}
+
+		for (int i = 0; i < 50; i++) {
+			IpPrefix cidr = randomRoute();
+			TreeMap<IpPrefix, Integer> expected = new TreeMap<>(
+					BitwiseComparators.FOR_IP_PREFIX);
+			for (Map.Entry<IpPrefix, Integer> e : routes.entrySet())
+				if (cidr.contains(e.getKey()))
+					expected.put(e.getKey(), e.getValue());
+			BitwiseMap<IpPrefix, Integer> covered = table.coveredRoutes(cidr);
+			assert covered.size() == expected.size();
+			Iterator<Map.Entry<IpPrefix, Integer>> it = covered.entrySet()
+					.iterator();
+			for (Map.Entry<IpPrefix, Integer> e : expected.entrySet())
+				assert it.next().equals(e);
+			assert !it.hasNext();
+		}
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+}
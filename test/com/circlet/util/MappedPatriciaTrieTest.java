@@ -0,0 +1,215 @@
+package com.circlet.util;
+
+import static com.circlet.util.PatriciaTrieTest.mismatchMsg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link MappedPatriciaTrie} files, written with small
+ * mapped chunks so that entries are kept from straddling them, against
+ * {@link MockPrefixMap}. Queries are made with both {@code byte[]} and
+ * {@code ByteBuffer} keys.
+ */
+public class MappedPatriciaTrieTest implements RandomizedTest {
+
+	private static final byte[] BYTES = { 0, 1, 'a', (byte) 0x80, (byte) 0xFF };
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testFile();
+			testStream();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	private byte[] randomBytes(int maxLength) {
+		byte[] a = new byte[rn.nextInt(maxLength + 1)];
+		for (int i = 0; i < a.length; i++)
+			a[i] = BYTES[rn.nextInt(BYTES.length)];
+		return a;
+	}
+
+	/** The key as is, or in a heap or direct buffer not starting at 0 */
+	private Object queryKey(byte[] key) {
+		switch (rn.nextInt(3)) {
+		case 0:
+			return key;
+		case 1:
+			ByteBuffer b = ByteBuffer.allocate(key.length + 2);
+			b.put((byte) 7).put(key).flip().get();
+			return b;
+		default:
+			ByteBuffer d = ByteBuffer.allocateDirect(key.length + 1);
+			d.put((byte) 7).put(key).flip().get();
+			return d;
+		}
+	}
+
+	private static boolean eq(Map.Entry<ByteBuffer, ByteBuffer> a,
+			Map.Entry<byte[], byte[]> b) {
+		if (a == null || b == null)
+			return a == null && b == null;
+		return a.getKey().equals(ByteBuffer.wrap(b.getKey()))
+				&& a.getValue().equals(ByteBuffer.wrap(b.getValue()));
+	}
+
+	private static String str(Map.Entry<?, ?> e) {
+		if (e == null)
+			return "null";
+		Object k = e.getKey();
+		return k instanceof byte[] ? Arrays.toString((byte[]) k) : k
+				.toString();
+	}
+
+	private void testFile() throws IOException {
+		MockPrefixMap<byte[], byte[]> tree = new MockPrefixMap<>(
+				BitwiseComparators.FOR_UBYTE_ARRAY);
+		for (int i = rn.nextInt(300); i > 0; i--)
+			tree.put(randomBytes(6), randomBytes(8));
+		PatriciaTrie<byte[], byte[]> source = new PatriciaTrie<>(
+				BitwiseComparators.FOR_UBYTE_ARRAY);
+		source.putAll(tree);
+
+		Path file = Files.createTempFile("trie", ".tns");
+		try {
+			switch (rn.nextInt(3)) {
+			case 0:
+				MappedPatriciaTrie.write(file, tree);
+				break;
+			case 1:
+				MappedPatriciaTrie.write(file, source, 6 + rn.nextInt(4));
+				break;
+			default:
+				MappedPatriciaTrie.write(file, tree.entrySet().iterator(),
+						6 + rn.nextInt(4));
+			}
+			MappedPatriciaTrie trie = MappedPatriciaTrie.open(file);
+			assert trie.size() == tree.size();
+			assert trie.isEmpty() == tree.isEmpty();
+			assert eq(trie.firstEntry(), tree.firstEntry());
+			assert eq(trie.lastEntry(), tree.lastEntry());
+			testIteration(trie.iterator(), tree.entrySet().iterator());
+
+			ArrayList<byte[]> keys = new ArrayList<>(tree.keySet());
+			for (int i = 0; i < 200; i++)
+				keys.add(randomBytes(7));
+			for (byte[] key : keys) {
+				ByteBuffer v = trie.get(queryKey(key));
+				byte[] w = tree.get(key);
+				assert w == null ? v == null : v.equals(ByteBuffer.wrap(w));
+				assert v == null || v.isReadOnly();
+				assert trie.containsKey(queryKey(key)) == (w != null);
+
+				Map.Entry<ByteBuffer, ByteBuffer> a;
+				Map.Entry<byte[], byte[]> b;
+				assert eq(a = trie.prefixEntry(queryKey(key)),
+						b = tree.prefixEntry(key)) : mismatchMsg(str(a), str(b));
+				assert eq(a = trie.ceilingEntry(queryKey(key)),
+						b = tree.ceilingEntry(key)) : mismatchMsg(str(a), str(b));
+				assert eq(a = trie.higherEntry(queryKey(key)),
+						b = tree.higherEntry(key)) : mismatchMsg(str(a), str(b));
+				assert eq(a = trie.floorEntry(queryKey(key)),
+						b = tree.floorEntry(key)) : mismatchMsg(str(a), str(b));
+				assert eq(a = trie.lowerEntry(queryKey(key)),
+						b = tree.lowerEntry(key)) : mismatchMsg(str(a), str(b));
+
+				boolean inclusive = rn.nextBoolean();
+				byte[] prefix = Arrays.copyOf(key, rn.nextInt(key.length + 1));
+				testIteration(trie.prefixIterator(queryKey(prefix), inclusive),
+						((MockPrefixMap<byte[], byte[]>) tree.subMap(prefix,
+								inclusive)).entrySet().iterator());
+			}
+
+			// A truncated file is rejected
+			Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 8));
+			try {
+				MappedPatriciaTrie.open(file);
+				assert false;
+			} catch (IOException e) {
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Writes enough entries from an iterator for the nodes to go through the
+	 * node file, and checks that keys out of order are rejected.
+	 */
+	private void testStream() throws IOException {
+		PatriciaTrie<byte[], byte[]> source = new PatriciaTrie<>(
+				BitwiseComparators.FOR_UBYTE_ARRAY);
+		for (int i = 5000 + rn.nextInt(10000); i > 0; i--)
+			source.put(randomBytes(10), randomBytes(3));
+
+		Path file = Files.createTempFile("trie", ".tns");
+		try {
+			MappedPatriciaTrie.write(file, source.entrySet().iterator());
+			MappedPatriciaTrie trie = MappedPatriciaTrie.open(file);
+			assert trie.size() == source.size();
+			testIteration(trie.iterator(), source.entrySet().iterator());
+			for (Map.Entry<byte[], byte[]> e : source.entrySet()) {
+				byte[] key = e.getKey();
+				assert trie.get(queryKey(key)).equals(
+						ByteBuffer.wrap(e.getValue()));
+				byte[] prefix = Arrays.copyOf(key, rn.nextInt(key.length + 1));
+				Map.Entry<ByteBuffer, ByteBuffer> a;
+				Map.Entry<byte[], byte[]> b;
+				assert eq(a = trie.prefixEntry(queryKey(prefix)),
+						b = source.prefixEntry(prefix)) : mismatchMsg(str(a),
+						str(b));
+			}
+
+			ArrayList<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(
+					source.entrySet());
+			if (entries.size() > 1) {
+				int i = rn.nextInt(entries.size() - 1);
+				if (rn.nextBoolean())
+					Collections.swap(entries, i, i + 1);
+				else
+					entries.set(i, entries.get(i + 1));
+				try {
+					MappedPatriciaTrie.write(file, entries.iterator());
+					assert false;
+				} catch (IllegalArgumentException expected) {
+				}
+				assert !Files.exists(file);
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	private static void testIteration(
+			Iterator<Map.Entry<ByteBuffer, ByteBuffer>> a,
+			Iterator<Map.Entry<byte[], byte[]>> b) {
+		while (b.hasNext()) {
+			assert a.hasNext();
+			Map.Entry<ByteBuffer, ByteBuffer> x = a.next();
+			Map.Entry<byte[], byte[]> y = b.next();
+			assert eq(x, y) : mismatchMsg(str(x), str(y));
+		}
+		assert !a.hasNext();
+	}
+}
@@ -3,26 +3,45 @@ package com.circlet.util;
 import static com.circlet.util.AbstractPatriciaTrie.BIT_INDEX_MASK;
 import static com.circlet.util.AbstractPatriciaTrie.DUMMY;
 import static com.circlet.util.AbstractPatriciaTrie.ROOT_UNSET;
+import static com.circlet.util.AbstractPatriciaTrie.UNSCORED;
+import static com.circlet.util.AbstractPatriciaTrie.countOf;
 import static com.circlet.util.AbstractPatriciaTrie.lastLinked;
+import static com.circlet.util.AbstractPatriciaTrie.maxScoreOf;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.SortedMap;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
+import com.circlet.util.AbstractPatriciaTrie.CountedEntry;
+import com.circlet.util.AbstractPatriciaTrie.CountedParentLinkedEntry;
 import com.circlet.util.AbstractPatriciaTrie.Entry;
+import com.circlet.util.AbstractPatriciaTrie.ParentLinkedEntry;
+import com.circlet.util.AbstractPatriciaTrie.ScoredEntry;
+import com.circlet.util.AbstractPatriciaTrie.SwitchTable;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
-public abstract class PatriciaTrieTest<K> {
+public abstract class PatriciaTrieTest<K> implements RandomizedTest {
 
 	private final Random rn = new Random();
 	private final BitwiseComparator<K> comparator;
@@ -35,12 +54,30 @@ public abstract class PatriciaTrieTest<K> {
 
 	private static final TreeMap<String, Integer> EMPTY = new TreeMap<>();
 
+	/**
+	 * The scores of scored tries, unrelated to the order of the values, and
+	 * serializable along with the tries.
+	 */
+	enum Score implements ToLongFunction<Integer> {
+		INSTANCE;
+
+		@Override
+		public long applyAsLong(Integer value) {
+			return Integer.reverse(value) >> 24;
+		}
+	}
+
 	public PatriciaTrieTest(BitwiseComparator<K> comparator) {
 		this.comparator = comparator;
 	}
 
 	protected abstract void fill(MockPrefixMap<K, Integer> map);
 
+	/**
+	 * Returns the codec of the keys, for the compact binary form tests.
+	 */
+	protected abstract TrieCodec.Codec<K> keyCodec();
+
 	private void newRandomContent() {
 		fill(tree = new MockPrefixMap<>(comparator));
 
@@ -87,7 +124,9 @@ public abstract class PatriciaTrieTest<K> {
 		Collections.shuffle(queryList, rn);
 		Collections.shuffle(removeList, rn);
 
-		testPut(trie = new PatriciaTrie<>(comparator), shuffled, false);
+		testPut(trie = rn.nextInt(4) == 0 ? new PatriciaTrie<>(comparator,
+				Score.INSTANCE) : new PatriciaTrie<>(comparator,
+				rn.nextBoolean(), rn.nextBoolean()), shuffled, false);
 		assert trie.equals(tree);
 		assert tree.equals(trie);
 	}
@@ -106,6 +145,29 @@ public abstract class PatriciaTrieTest<K> {
 			// We pass the random seed so that when debugging and dropping stack
 			// frames, we would be able to restore the random generator state.
 			testMap(trie, tree, 2, rn.rnd);
+			testIndexed(trie, tree);
+			testRemovePrefixed();
+			testSplitOff();
+			testBuilder();
+			testMerge();
+			testSetOperations();
+			testClone();
+			testNearest();
+			testTopK();
+			testCodec();
+			FrozenPatriciaTrie<K, Integer> frozen = trie.freeze();
+			testIndexed(frozen, tree);
+			if (!ordered.isEmpty()) {
+				K prefixKey = shuffled.get(0).getKey();
+				boolean inclusive = rn.nextBoolean();
+				testIndexed(frozen.subMap(prefixKey, inclusive),
+						tree.subMap(prefixKey, inclusive));
+			}
+			for (Map.Entry<K, Integer> e : queryList) {
+				K key = e.getKey();
+				assert eq(frozen.nearestEntry(key), trie.nearestEntry(key));
+			}
+			testFrozen(frozen, tree, 2);
 			testEdges();
 			testOrder();
 		} catch (Throwable t) {
@@ -138,6 +200,7 @@ public abstract class PatriciaTrieTest<K> {
 		}
 		testPoll(testMap, checkMap, rn.rnd);
 		testEndPoints(testMap, checkMap);
+		testSpliterator(testMap, checkMap);
 		testDestroyLinks(testMap, checkMap);
 		testSerialization(testMap);
 
@@ -206,6 +269,156 @@ public abstract class PatriciaTrieTest<K> {
 		assert testMap.equals(checkMap);
 	}
 
+	/**
+	 * Splits the spliterators of the views of the test map at random, and
+	 * checks that the parts hold the elements of the check map in order, with
+	 * the exact sizes they report.
+	 */
+	private void testSpliterator(NavigableMap<K, Integer> testMap,
+			NavigableMap<K, Integer> checkMap) {
+		ArrayList<Object> list = new ArrayList<>();
+		split(testMap.entrySet().spliterator(), list, 0);
+		assert list.equals(new ArrayList<>(checkMap.entrySet()));
+		list.clear();
+		split(testMap.navigableKeySet().spliterator(), list, 0);
+		assert list.equals(new ArrayList<>(checkMap.keySet()));
+		list.clear();
+		split(testMap.values().spliterator(), list, 0);
+		assert list.equals(new ArrayList<>(checkMap.values()));
+		assert testMap.keySet().parallelStream().collect(Collectors.toList())
+				.equals(new ArrayList<>(checkMap.keySet()));
+
+		if (testMap instanceof PatriciaTrie) {
+			Spliterator<K> s = testMap.navigableKeySet().spliterator();
+			assert s.hasCharacteristics(Spliterator.SORTED
+					| Spliterator.DISTINCT | Spliterator.ORDERED
+					| Spliterator.SIZED);
+			assert s.getComparator() == testMap.comparator();
+			assert s.hasCharacteristics(Spliterator.SUBSIZED) == trie.counted;
+		}
+	}
+
+	private <T> void split(Spliterator<T> s, ArrayList<Object> list,
+			int depth) {
+		long size = s.getExactSizeIfKnown();
+		int from = list.size();
+		Spliterator<T> prefix;
+		if (depth < 6 && (prefix = s.trySplit()) != null) {
+			split(prefix, list, depth + 1);
+			split(s, list, depth + 1);
+		} else {
+			while (rn.nextBoolean() && s.tryAdvance(list::add))
+				;
+			s.forEachRemaining(list::add);
+		}
+		assert size < 0 || size == list.size() - from;
+	}
+
+	/**
+	 * Same as {@link #testMap}, leaving out the tests that update the map.
+	 */
+	private void testFrozen(NavigableMap<K, Integer> testMap,
+			NavigableMap<K, Integer> checkMap, int subMapTestDepth) {
+		if (checkMap instanceof PrefixMap) {
+			PrefixMap<K, Integer> testPrefixMap = (PrefixMap<K, Integer>) testMap;
+			PrefixMap<K, Integer> checkPrefixMap = (PrefixMap<K, Integer>) checkMap;
+			testQueryMethods(testPrefixMap, checkPrefixMap, queryList);
+			testQueryMethods(testPrefixMap, checkPrefixMap, shuffled);
+		} else {
+			testQueryMethods(testMap, checkMap, queryList);
+			testQueryMethods(testMap, checkMap, shuffled);
+		}
+		ArrayList<Map.Entry<K, Integer>> entries = new ArrayList<>(
+				checkMap.entrySet());
+		testOrder(testMap, entries);
+		testReverseOrder(testMap, entries);
+		testEndPoints(testMap, checkMap);
+		testSerialization(testMap);
+		assert testMap.equals(checkMap);
+		assert checkMap.equals(testMap);
+		assert testMap.hashCode() == checkMap.hashCode();
+		try {
+			testMap.pollFirstEntry();
+			assert false;
+		} catch (UnsupportedOperationException e) {
+		}
+
+		if (subMapTestDepth-- <= 0) return;
+		testFrozen(testMap.descendingMap(), checkMap.descendingMap(),
+				subMapTestDepth);
+
+		Object[] choices = checkMap.keySet().toArray();
+		int length = choices.length;
+		if (length == 0) return;
+
+		K fromKey = (K) choices[rn.nextInt(length)];
+		K toKey = (K) choices[rn.nextInt(length)];
+		if (testMap.comparator().compare(fromKey, toKey) > 0) {
+			K key = fromKey;
+			fromKey = toKey;
+			toKey = key;
+		}
+		boolean fromInclusive = rn.nextBoolean();
+		boolean toInclusive = rn.nextBoolean();
+		testFrozen(testMap.tailMap(fromKey, fromInclusive), checkMap.tailMap(
+				fromKey, fromInclusive), subMapTestDepth);
+		testFrozen(testMap.headMap(toKey, toInclusive), checkMap.headMap(toKey,
+				toInclusive), subMapTestDepth);
+		testFrozen(testMap.subMap(fromKey, fromInclusive, toKey, toInclusive),
+				checkMap.subMap(fromKey, fromInclusive, toKey, toInclusive),
+				subMapTestDepth);
+
+		if (checkMap instanceof PrefixMap) {
+			K prefixKey = (K) choices[rn.nextInt(length)];
+			boolean prefixInclusive = rn.nextBoolean();
+			testFrozen(((PrefixMap<K, Integer>) testMap).subMap(prefixKey,
+					prefixInclusive), ((PrefixMap<K, Integer>) checkMap).subMap(
+					prefixKey, prefixInclusive), subMapTestDepth);
+		}
+	}
+
+	/**
+	 * Checks the indexed access methods against the sizes of the views of the
+	 * check map.
+	 */
+	private void testIndexed(IndexedPrefixMap<K, Integer> testMap,
+			PrefixMap<K, Integer> checkMap) {
+		ArrayList<Map.Entry<K, Integer>> entries = new ArrayList<>(
+				checkMap.entrySet());
+		int size = entries.size();
+		for (Map.Entry<K, Integer> e : queryList) {
+			K key = e.getKey();
+			boolean inclusive = rn.nextBoolean();
+			assert testMap.rank(key) == checkMap.headMap(key, false).size() : causeMsg(key);
+			assert testMap.countPrefixed(key, inclusive) == checkMap.subMap(
+					key, inclusive).size() : causeMsg(key);
+		}
+		for (int i = 0; i < size; i++) {
+			Map.Entry<K, Integer> a = testMap.select(i), b = entries.get(i);
+			assert eq(a, b) : mismatchMsg(a, b);
+			assert testMap.rank(a.getKey()) == i : causeMsg(a);
+		}
+		int from = rn.nextInt(size + 1);
+		Iterator<Map.Entry<K, Integer>> i = testMap.entryIterator(from);
+		while (from < size) {
+			Map.Entry<K, Integer> a = i.next(), b = entries.get(from++);
+			assert eq(a, b) : mismatchMsg(a, b);
+		}
+		assert !i.hasNext();
+		for (int index : new int[] { -1, size }) {
+			try {
+				testMap.select(index);
+				assert false;
+			} catch (IndexOutOfBoundsException e) {
+			}
+		}
+		try {
+			testMap.entryIterator(size + 1);
+			assert false;
+		} catch (IndexOutOfBoundsException e) {
+		}
+	}
+
 	static <K> void testPut(Map<K, Integer> testMap,
 			ArrayList<Map.Entry<K, Integer>> putList, boolean clearBeforeInsert) {
 		if (clearBeforeInsert) testMap.clear();
@@ -245,6 +458,8 @@ public abstract class PatriciaTrieTest<K> {
 			NavigableMap<K, Integer> checkMap) {
 		assert eq(testMap.firstEntry(), checkMap.firstEntry());
 		assert eq(testMap.lastEntry(), checkMap.lastEntry());
+		assert testMap.size() == checkMap.size();
+		assert testMap.isEmpty() == checkMap.isEmpty();
 	}
 
 	static <K> void testQueryMethods(NavigableMap<K, Integer> testMap,
@@ -313,6 +528,9 @@ public abstract class PatriciaTrieTest<K> {
 			assert e.prev == null || e.prev == DUMMY;
 			assert e.switches == null;
 			assert e.next == null;
+			assert e.table == null;
+			assert !(e instanceof ParentLinkedEntry)
+					|| ((ParentLinkedEntry<K, Integer>) e).parent == null;
 		}
 		testPutAll(testMap, checkMap, false); // restore
 	}
@@ -329,11 +547,434 @@ public abstract class PatriciaTrieTest<K> {
 			Map<K, Integer> newMap = (Map<K, Integer>) in.readObject();
 			assert testMap.equals(newMap);
 			assert newMap.equals(testMap);
+			if (testMap instanceof PatriciaTrie) {
+				PatriciaTrie<K, Integer> trie = (PatriciaTrie<K, Integer>) newMap;
+				assert trie.parentLinks == ((PatriciaTrie<K, Integer>) testMap).parentLinks;
+				assert trie.counted == ((PatriciaTrie<K, Integer>) testMap).counted;
+				testLinks(trie.root);
+			}
 		} catch (ClassNotFoundException | IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Writes the trie in its compact binary form, with a null value, and
+	 * reads it back with or without parent links and subtree counts.
+	 */
+	private void testCodec() throws IOException {
+		TrieCodec<K, Integer> codec = new TrieCodec<>(keyCodec(),
+				TrieCodec.INTEGERS);
+		PatriciaTrie<K, Integer> testMap = new PatriciaTrie<>(comparator,
+				trie.parentLinks, trie.counted);
+		testMap.putAll(trie);
+		TreeMap<K, Integer> checkMap = new TreeMap<>(tree);
+		if (!checkMap.isEmpty()) {
+			K key = shuffled.get(rn.nextInt(shuffled.size())).getKey();
+			testMap.put(key, null);
+			checkMap.put(key, null);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		if (rn.nextBoolean())
+			codec.write(testMap, new DataOutputStream(bytes));
+		else
+			codec.write(testMap, Channels.newChannel(bytes));
+		bytes.write(0x55); // Must not be read
+
+		PatriciaTrie<K, Integer> newMap = new PatriciaTrie<>(comparator,
+				rn.nextBoolean(), rn.nextBoolean());
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		assert codec.read(in, newMap) == newMap;
+		assert in.read() == 0x55;
+		assert newMap.size() == checkMap.size();
+		assert newMap.equals(checkMap) : mismatchMsg(newMap, checkMap);
+		testLinks(newMap.root);
+		testOrder(newMap, new ArrayList<>(checkMap.entrySet()));
+
+		if (!newMap.isEmpty()) {
+			try {
+				codec.read(in, newMap);
+				assert false;
+			} catch (IllegalArgumentException e) {
+			}
+		}
+	}
+
+	/**
+	 * Removes the keys prefixed by some query keys from a copy of the trie.
+	 */
+	private void testRemovePrefixed() {
+		PatriciaTrie<K, Integer> testMap = new PatriciaTrie<>(comparator,
+				trie.parentLinks, trie.counted);
+		testMap.putAll(trie);
+		TreeMap<K, Integer> checkMap = new TreeMap<>(tree);
+		for (int i = Math.min(queryList.size(), 4); --i >= 0;) {
+			K key = queryList.get(i).getKey();
+			boolean inclusive = rn.nextBoolean();
+			Collection<K> removed = new ArrayList<>(tree.subMap(key,
+					inclusive).keySet());
+			removed.retainAll(checkMap.keySet());
+			assert testMap.removePrefixed(key, inclusive) == removed.size() : causeMsg(key);
+			checkMap.keySet().removeAll(removed);
+			assert testMap.equals(checkMap) : mismatchMsg(testMap, checkMap);
+			testLinks(testMap.root);
+		}
+	}
+
+	/**
+	 * Splits the keys prefixed by some query keys off a copy of the trie, and
+	 * grafts them back.
+	 */
+	private void testSplitOff() {
+		PatriciaTrie<K, Integer> testMap = new PatriciaTrie<>(comparator,
+				trie.parentLinks, trie.counted);
+		testMap.putAll(trie);
+		for (int i = Math.min(queryList.size(), 4); --i >= 0;) {
+			K key = queryList.get(i).getKey();
+			boolean inclusive = rn.nextBoolean();
+			SortedMap<K, Integer> split = tree.subMap(key, inclusive);
+			PatriciaTrie<K, Integer> m = testMap.splitOff(key, inclusive);
+			assert m.equals(split) : mismatchMsg(m, split);
+			assert testMap.size() == tree.size() - split.size();
+			assert Collections.disjoint(testMap.keySet(), split.keySet());
+			testLinks(testMap.root);
+			testLinks(m.root);
+			testOrder(m, new ArrayList<>(split.entrySet()));
+			testReverseOrder(m, new ArrayList<>(split.entrySet()));
+
+			if (!testMap.isEmpty() && !m.isEmpty()) {
+				// A key already there cannot be grafted
+				PatriciaTrie<K, Integer> n = new PatriciaTrie<>(comparator,
+						trie.parentLinks, trie.counted);
+				n.put(testMap.firstKey(), 0);
+				try {
+					testMap.graft(n);
+					assert false;
+				} catch (IllegalArgumentException e) {
+				}
+			}
+			testMap.graft(m);
+			assert m.isEmpty();
+			assert testMap.equals(tree) : mismatchMsg(testMap, tree);
+			testLinks(testMap.root);
+			testReverseOrder(testMap, ordered);
+		}
+	}
+
+	private void testBuilder() {
+		boolean parentLinks = rn.nextBoolean(), counted = rn.nextBoolean();
+		PatriciaTrie.Builder<K, Integer> builder = new PatriciaTrie.Builder<>(
+				comparator, parentLinks, counted);
+		for (Map.Entry<K, Integer> e : ordered)
+			builder.add(e.getKey(), e.getValue());
+		PatriciaTrie<K, Integer> testMap = builder.build();
+		assert testMap.equals(tree) : mismatchMsg(testMap, tree);
+		assert testMap.parentLinks == parentLinks
+				&& testMap.counted == counted;
+		testLinks(testMap.root);
+		testReverseOrder(testMap, ordered);
+		try {
+			builder.add(null, 0);
+			assert false;
+		} catch (IllegalStateException e) {
+		}
+
+		// Same shape as the trie built by put()
+		FrozenPatriciaTrie<K, Integer> a = testMap.freeze(), b = trie.freeze();
+		assert a.root == b.root && a.head == b.head;
+		assert Arrays.equals(a.bits, b.bits);
+		assert Arrays.equals(a.switches, b.switches);
+		assert Arrays.equals(a.nexts, b.nexts);
+
+		testMap = PatriciaTrie.fromSorted(comparator, ordered.iterator());
+		assert testMap.equals(tree) : mismatchMsg(testMap, tree);
+
+		if (ordered.size() > 1) {
+			// Out of order and repeated keys
+			int i = rn.nextInt(ordered.size() - 1);
+			Map.Entry<K, Integer> e = ordered.get(rn.nextInt(i + 1));
+			builder = new PatriciaTrie.Builder<>(comparator, parentLinks,
+					counted);
+			for (Map.Entry<K, Integer> f : ordered.subList(0, i + 1))
+				builder.add(f.getKey(), f.getValue());
+			try {
+				builder.add(e.getKey(), e.getValue());
+				assert false;
+			} catch (IllegalArgumentException ex) {
+			}
+		}
+	}
+
+	private void testMerge() {
+		PatriciaTrie<K, Integer> testMap = new PatriciaTrie<>(comparator,
+				rn.nextBoolean(), rn.nextBoolean());
+		TreeMap<K, Integer> checkMap = new TreeMap<>(comparator);
+		for (Map.Entry<K, Integer> e : holed) {
+			testMap.put(e.getKey(), e.getValue());
+			checkMap.put(e.getKey(), e.getValue());
+		}
+		// A delta of new keys and replaced values, from each kind of source
+		TreeMap<K, Integer> delta = new TreeMap<>(comparator);
+		for (Map.Entry<K, Integer> e : queryList)
+			delta.put(e.getKey(), -e.getValue());
+		for (Map.Entry<K, Integer> e : removeList)
+			if (rn.nextBoolean())
+				delta.put(e.getKey(), -e.getValue() - 1);
+		for (Map.Entry<K, Integer> e : shuffled)
+			if (rn.nextInt(4) == 0)
+				delta.put(e.getKey(), -e.getValue() - 1);
+		SortedMap<K, Integer> source;
+		switch (rn.nextInt(3)) {
+		case 0:
+			source = delta;
+			break;
+		case 1:
+			source = new PatriciaTrie<>(comparator);
+			source.putAll(delta);
+			break;
+		default:
+			source = new PatriciaTrie<>(comparator);
+			source.putAll(delta);
+			source = ((PatriciaTrie<K, Integer>) source).freeze();
+		}
+		testMap.putAll(source);
+		checkMap.putAll(delta);
+		assert testMap.equals(checkMap) : mismatchMsg(testMap, checkMap);
+		assert testMap.size() == checkMap.size();
+		testLinks(testMap.root);
+		testOrder(testMap, new ArrayList<>(checkMap.entrySet()));
+		testReverseOrder(testMap, new ArrayList<>(checkMap.entrySet()));
+	}
+
+	private void testSetOperations() {
+		PatriciaTrie<K, Integer> other = new PatriciaTrie<>(comparator,
+				rn.nextBoolean(), rn.nextBoolean());
+		TreeMap<K, Integer> checkOther = new TreeMap<>(comparator);
+		for (Map.Entry<K, Integer> e : queryList)
+			checkOther.put(e.getKey(), -e.getValue());
+		for (Map.Entry<K, Integer> e : removeList)
+			checkOther.put(e.getKey(), -e.getValue());
+		other.putAll(checkOther);
+
+		TreeMap<K, Integer> checkMap = new TreeMap<>(tree);
+		for (Map.Entry<K, Integer> e : checkOther.entrySet())
+			checkMap.merge(e.getKey(), e.getValue(), Integer::sum);
+		testSetOperation(PatriciaTrie.union(trie, other, Integer::sum),
+				checkMap, trie);
+		checkMap = new TreeMap<>(checkOther);
+		for (Map.Entry<K, Integer> e : tree.entrySet())
+			checkMap.merge(e.getKey(), e.getValue(), Integer::sum);
+		testSetOperation(PatriciaTrie.union(other, trie, Integer::sum),
+				checkMap, other);
+
+		checkMap = new TreeMap<>(tree);
+		checkMap.keySet().retainAll(checkOther.keySet());
+		testSetOperation(PatriciaTrie.intersect(trie, other), checkMap, trie);
+		checkMap = new TreeMap<>(checkOther);
+		checkMap.keySet().retainAll(tree.keySet());
+		testSetOperation(PatriciaTrie.intersect(other, trie), checkMap, other);
+
+		checkMap = new TreeMap<>(tree);
+		checkMap.keySet().removeAll(checkOther.keySet());
+		testSetOperation(PatriciaTrie.difference(trie, other), checkMap, trie);
+		checkMap = new TreeMap<>(checkOther);
+		checkMap.keySet().removeAll(tree.keySet());
+		testSetOperation(PatriciaTrie.difference(other, trie), checkMap,
+				other);
+		testSetOperation(PatriciaTrie.difference(trie, trie),
+				new TreeMap<>(comparator), trie);
+	}
+
+	private static <K> void testSetOperation(PatriciaTrie<K, Integer> testMap,
+			TreeMap<K, Integer> checkMap, PatriciaTrie<K, Integer> a) {
+		assert testMap.equals(checkMap) : mismatchMsg(testMap, checkMap);
+		assert testMap.parentLinks == a.parentLinks
+				&& testMap.counted == a.counted;
+		testLinks(testMap.root);
+		testReverseOrder(testMap, new ArrayList<>(checkMap.entrySet()));
+	}
+
+	private void testClone() {
+		PatriciaTrie<K, Integer> testMap = trie.clone();
+		assert testMap.equals(trie) && trie.equals(testMap);
+		assert testMap.equals(tree) && tree.equals(testMap);
+		assert testMap.hashCode() == tree.hashCode();
+		assert testMap.parentLinks == trie.parentLinks
+				&& testMap.counted == trie.counted;
+		testLinks(testMap.root);
+		testOrder(testMap, ordered);
+		testReverseOrder(testMap, ordered);
+
+		// Not sharing any entry
+		testPut(testMap, queryList, false);
+		for (Map.Entry<K, Integer> e : ordered)
+			if (rn.nextBoolean())
+				testMap.remove(e.getKey());
+		assert trie.equals(tree) : mismatchMsg(trie, tree);
+		testLinks(trie.root);
+
+		// Equal keys with one value changed
+		testMap = trie.clone();
+		if (!ordered.isEmpty()) {
+			K key = shuffled.get(0).getKey();
+			testMap.put(key, -1);
+			assert !testMap.equals(trie) && !trie.equals(testMap);
+			testMap.put(key, tree.get(key));
+		}
+		PatriciaTrie<K, Integer> other = new PatriciaTrie<>(comparator,
+				!trie.parentLinks, !trie.counted);
+		other.putAll(tree);
+		assert other.equals(testMap) && testMap.equals(other);
+		if (!queryList.isEmpty()) {
+			other.put(queryList.get(0).getKey(), 0);
+			assert !other.equals(testMap) && !testMap.equals(other);
+		}
+	}
+
+	private void testNearest() {
+		ArrayList<Map.Entry<K, Integer>> entries = new ArrayList<>(
+				tree.entrySet());
+		FrozenPatriciaTrie<K, Integer> frozen = trie.freeze();
+		PersistentPatriciaTrie<K, Integer> persistent = new PersistentPatriciaTrie<K, Integer>(
+				comparator).withAll(tree);
+		K prefixKey = entries.isEmpty() ? null : shuffled.get(0).getKey();
+		boolean inclusive = rn.nextBoolean();
+		ArrayList<Map.Entry<K, Integer>> prefixed = new ArrayList<>();
+		for (Map.Entry<K, Integer> e : entries)
+			if (prefixKey != null
+					&& comparator.checkPrefixed(e.getKey(), prefixKey, inclusive))
+				prefixed.add(e);
+
+		for (int i = 0; i < 10 && i < queryList.size() + entries.size(); i++) {
+			K key = (i < queryList.size() ? queryList.get(i) : entries.get(i
+					- queryList.size())).getKey();
+			testNearest(trie, entries, key, true);
+			testNearest(frozen, entries, key, true);
+			testNearest(persistent, entries, key, true);
+			if (prefixKey != null) {
+				testNearest(trie.subMap(prefixKey, inclusive), prefixed, key,
+						false);
+				testNearest(frozen.subMap(prefixKey, inclusive), prefixed, key,
+						false);
+				testNearest(persistent.subMap(prefixKey, inclusive), prefixed,
+						key, false);
+			}
+		}
+		if (!entries.isEmpty() && !queryList.isEmpty()) {
+			K key = queryList.get(0).getKey();
+			Iterator<Map.Entry<K, Integer>> it = trie.nearestEntryIterator(key);
+			trie.remove(key);
+			trie.put(key, 0);
+			try {
+				it.next();
+				assert false;
+			} catch (ConcurrentModificationException e) {
+			}
+			trie.remove(key);
+			if (tree.containsKey(key))
+				trie.put(key, tree.get(key));
+		}
+	}
+
+	private void testNearest(BitwiseMap<K, Integer> testMap,
+			ArrayList<Map.Entry<K, Integer>> entries, K key, boolean whole) {
+		ArrayList<Map.Entry<K, Integer>> checkList = new ArrayList<>(entries);
+		checkList.sort((e1, e2) -> compareDistance(comparator, key,
+				e1.getKey(), e2.getKey()));
+		ArrayList<Map.Entry<K, Integer>> a = new ArrayList<>();
+		testMap.nearestEntryIterator(key).forEachRemaining(a::add);
+		assert a.equals(checkList) : a + " != " + checkList;
+		int k = rn.nextInt(checkList.size() + 2);
+		assert testMap.nearestEntries(key, k).equals(
+				checkList.subList(0, Math.min(k, checkList.size())));
+		if (whole && comparator.lengthBits(key) > 0)
+			assert eq(testMap.nearestEntry(key), checkList.isEmpty() ? null
+					: checkList.get(0));
+	}
+
+	/**
+	 * Compares two keys by their XOR distance to a key. A key prefixing the
+	 * other one is as far as it if they both disagree with the key on the bit
+	 * following the prefix, and closer otherwise.
+	 */
+	static <K> int compareDistance(BitwiseComparator<? super K> c, K key,
+			K k1, K k2) {
+		int i = c.contrast(k1, k2);
+		if (i < 0)
+			return 0;
+		int length = c.lengthBits(key);
+		if (i == c.lengthBits(k1))
+			return i < length && c.isBitSet(k2, i) == c.isBitSet(key, i) ? 1
+					: -1;
+		if (i == c.lengthBits(k2))
+			return i < length && c.isBitSet(k1, i) == c.isBitSet(key, i) ? -1
+					: 1;
+		boolean bit = i < length && c.isBitSet(key, i);
+		return c.isBitSet(k1, i) == bit ? -1 : 1;
+	}
+
+	private void testTopK() {
+		if (trie.scorer == null) {
+			if (!ordered.isEmpty()) {
+				try {
+					trie.topK(ordered.get(0).getKey(), 1);
+					assert false;
+				} catch (IllegalStateException e) {
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < 5 && i < shuffled.size(); i++) {
+			K prefixKey = shuffled.get(i).getKey();
+			testTopK(prefixKey);
+			// Values put, or changed behind the scorer's back and scored
+			// again once walked to
+			IdentityHashMap<Map.Entry<K, Integer>, Integer> changed = new IdentityHashMap<>();
+			for (Map.Entry<K, Integer> e : trie.entrySet())
+				if (rn.nextInt(4) == 0) {
+					Integer value = rn.nextInt();
+					changed.put(e, rn.nextBoolean() ? e.setValue(value) : trie
+							.put(e.getKey(), value));
+					tree.put(e.getKey(), value);
+				}
+			testTopK(prefixKey);
+			testLinks(trie.root);
+			for (Map.Entry<Map.Entry<K, Integer>, Integer> e : changed.entrySet()) {
+				e.getKey().setValue(e.getValue());
+				tree.put(e.getKey().getKey(), e.getValue());
+			}
+		}
+		if (!queryList.isEmpty())
+			testTopK(queryList.get(0).getKey());
+		try {
+			trie.topK(shuffled.isEmpty() ? null : shuffled.get(0).getKey(), -1);
+			assert false;
+		} catch (IllegalArgumentException | NullPointerException e) {
+		}
+	}
+
+	private void testTopK(K prefixKey) {
+		ArrayList<Long> expected = new ArrayList<>();
+		for (Map.Entry<K, Integer> e : tree.entrySet())
+			if (comparator.checkPrefixed(e.getKey(), prefixKey, true))
+				expected.add(Score.INSTANCE.applyAsLong(e.getValue()));
+		expected.sort(Collections.reverseOrder());
+		int k = rn.nextInt(expected.size() + 2);
+		java.util.List<Map.Entry<K, Integer>> top = trie.topK(prefixKey, k);
+		assert top.size() == Math.min(k, expected.size());
+		IdentityHashMap<Map.Entry<K, Integer>, Boolean> seen = new IdentityHashMap<>();
+		for (int i = 0; i < top.size(); i++) {
+			Map.Entry<K, Integer> e = top.get(i);
+			assert seen.put(e, true) == null;
+			assert comparator.checkPrefixed(e.getKey(), prefixKey, true);
+			assert e.getValue().equals(tree.get(e.getKey()));
+			assert Score.INSTANCE.applyAsLong(e.getValue()) == expected.get(i) : top
+					+ " != " + expected;
+		}
+	}
+
 	private void testOrder() {
 		testOrder(trie, ordered);
 		testReverseOrder(trie, ordered);
@@ -347,6 +988,8 @@ public abstract class PatriciaTrieTest<K> {
 			return;
 		}
 
+		testLinks(trie.root);
+
 		// The following uses an unordered traversal similar to destoryLinks()
 
 		outer: for (;;) {
@@ -385,6 +1028,67 @@ public abstract class PatriciaTrieTest<K> {
 		}
 	}
 
+	/**
+	 * Checks the parent links, subtree counts and switch tables of all
+	 * entries.
+	 */
+	static <K> void testLinks(Entry<K, Integer> node) {
+		// The following uses an unordered traversal similar to destoryLinks()
+
+		outer: for (;;) {
+			testSwitchTable(node);
+			if (node instanceof CountedEntry
+					|| node instanceof CountedParentLinkedEntry)
+				assert countOf(node) == 1 + countOf(node.next)
+						+ countOf(node.switches) : causeMsg(node);
+			if (node instanceof ScoredEntry) {
+				ScoredEntry<K, Integer> e = (ScoredEntry<K, Integer>) node;
+				assert e.score == UNSCORED || e.score == (e.value == null
+						? Long.MIN_VALUE : Score.INSTANCE.applyAsLong(e.value)) : causeMsg(node);
+				assert e.max == Math.max(e.score, Math.max(
+						maxScoreOf(node.next), maxScoreOf(node.switches))) : causeMsg(node);
+			}
+			for (Entry<K, Integer> e = node.switches; e != null; e = e.next) {
+				if (e instanceof ParentLinkedEntry)
+					assert ((ParentLinkedEntry<K, Integer>) e).parent == node : causeMsg(e);
+			}
+			Entry<K, Integer> link = node.next;
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			link = node.switches;
+			if (link != null) {
+				node = link;
+				continue;
+			}
+			for (;;) {
+				Entry<K, Integer> prev = node.prev;
+				link = prev.switches;
+				if (link != null && link != node) {
+					if (link == prev) break outer; // Found DUMMY
+					node = link;
+					continue outer;
+				}
+				node = prev;
+			}
+		}
+	}
+
+	private static <K> void testSwitchTable(Entry<K, Integer> track) {
+		SwitchTable<K, Integer> table = track.table;
+		if (table == null)
+			return;
+		int i = 0;
+		for (Entry<K, Integer> e = track.switches; e != null; e = e.next, i++) {
+			assert i < table.size : causeMsg(track);
+			assert table.nodes[i] == e : causeMsg(e);
+			assert table.bits[i] == e.bit : causeMsg(e);
+		}
+		assert i == table.size : causeMsg(track);
+		assert i >= SwitchTable.UNTABLE_THRESHOLD : causeMsg(track);
+	}
+
 	private void testRemove() {
 		PrefixMap<K, Integer> testMap = trie;
 		for (Map.Entry<K, Integer> e : removeList) {
@@ -1,5 +1,8 @@
 package com.circlet.util;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.TreeMap;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -8,6 +11,11 @@ public class PatriciaTrieTestRunner {
 	public static void main(String[] args) throws InterruptedException {
 		PatriciaTrieTestRunner.class.getClassLoader()
 				.setDefaultAssertionStatus(true);
+		if (args.length > 0) {
+			// Bounded run, used by the build
+			runRounds(Integer.parseInt(args[0]));
+			return;
+		}
 		final boolean DEBUG = !true;
 		if (DEBUG) {
 			new BinaryStringTester().runTestLoop();
@@ -30,6 +38,31 @@ public class PatriciaTrieTestRunner {
 		}
 	}
 
+	/**
+	 * A randomized test, run for some rounds by {@link #runRounds(int)}.
+	 */
+	interface RandomizedTest {
+		/** Runs one round with a new seed */
+		void test();
+	}
+
+	static void runRounds(int rounds) {
+		RandomizedTest[] tests = { new BinaryStringTester(),
+				new ByteBitsTester(), new WideTrackTester(),
+				new PrimitivePatriciaTrieTest(), new BitwiseComparatorsTest(),
+				new ConcurrentPatriciaTrieTest(),
+				new PersistentPatriciaTrieTest(), new MappedPatriciaTrieTest(),
+				new TrieCodecTest(), new IpRoutingTableTest(),
+				new DistanceMetricTest(), new GlobTest() };
+		for (RandomizedTest test : tests) {
+			for (int i = 0; i < rounds; i++)
+				test.test();
+			System.out.append(test.getClass().getSimpleName())
+					.append(": passed ").append(String.valueOf(rounds))
+					.println(" rounds");
+		}
+	}
+
 	static class ProgressStatus {
 		static final ProgressStatus CURRENT = new ProgressStatus();
 
@@ -102,6 +135,55 @@ public class PatriciaTrieTestRunner {
 		protected void fill(MockPrefixMap<String, Integer> map) {
 			map.putAll(CONTENT);
 		}
+
+		@Override
+		protected TrieCodec.Codec<String> keyCodec() {
+			return TrieCodec.STRINGS;
+		}
+	}
+
+	/**
+	 * Keys with at most 2 one bits, so that tracks of zeros get dozens of
+	 * switches, along with their prefixes of zeros and of a single one bit.
+	 */
+	static final class WideTrackTester extends PatriciaTrieTest<String> {
+		static final TreeMap<String, Integer> CONTENT;
+
+		static {
+			TreeMap<String, Integer> map = new TreeMap<>();
+			final int length = 40;
+
+			char[] key = new char[length];
+			java.util.Arrays.fill(key, '0');
+			map.put(new String(key), 0);
+			for (int i = 0; i < length; i++) {
+				map.put(new String(key, 0, i), 0);
+				key[i] = '1';
+				map.put(new String(key, 0, i + 1), 0);
+				map.put(new String(key), 0);
+				for (int j = i + 1; j < length; j++) {
+					key[j] = '1';
+					map.put(new String(key), 0);
+					key[j] = '0';
+				}
+				key[i] = '0';
+			}
+			CONTENT = map;
+		}
+
+		public WideTrackTester() {
+			super(BinaryStringBitsComparator.INSTANCE);
+		}
+
+		@Override
+		protected void fill(MockPrefixMap<String, Integer> map) {
+			map.putAll(CONTENT);
+		}
+
+		@Override
+		protected TrieCodec.Codec<String> keyCodec() {
+			return TrieCodec.STRINGS;
+		}
 	}
 
 	static final class ByteBitsTester extends PatriciaTrieTest<Byte> {
@@ -125,5 +207,18 @@ public class PatriciaTrieTestRunner {
 		protected void fill(MockPrefixMap<Byte, Integer> map) {
 			map.putAll(CONTENT);
 		}
+
+		@Override
+		protected TrieCodec.Codec<Byte> keyCodec() {
+			return new TrieCodec.Codec<Byte>() {
+				public void write(DataOutput out, Byte b) throws IOException {
+					out.writeByte(b);
+				}
+
+				public Byte read(DataInput in) throws IOException {
+					return in.readByte();
+				}
+			};
+		}
 	}
 }
@@ -0,0 +1,186 @@
+package com.circlet.util;
+
+import static com.circlet.util.PatriciaTrieTest.eq;
+import static com.circlet.util.PatriciaTrieTest.mismatchMsg;
+import static com.circlet.util.PatriciaTrieTest.testEndPoints;
+import static com.circlet.util.PatriciaTrieTest.testOrder;
+import static com.circlet.util.PatriciaTrieTest.testQueryMethods;
+import static com.circlet.util.PatriciaTrieTest.testReverseOrder;
+import static com.circlet.util.PatriciaTrieTest.testSerialization;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link PersistentPatriciaTrie} against
+ * {@link MockPrefixMap}, checking that every version of the map keeps its
+ * mappings while newer versions are derived from it, and that snapshots of a
+ * {@link ConcurrentPatriciaTrie} are unaffected by later updates.
+ */
+@SuppressWarnings("unchecked")
+public class PersistentPatriciaTrieTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testVersions();
+			testSnapshots();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	/** A binary string, often prefixed by one of a few short strings */
+	private String randomKey() {
+		StringBuilder sb = new StringBuilder();
+		if (rn.nextBoolean())
+			sb.append(rn.nextBoolean() ? "0110" : "10");
+		for (int i = rn.nextInt(10); i > 0; i--)
+			sb.append(rn.nextBoolean() ? '1' : '0');
+		return sb.toString();
+	}
+
+	private void testVersions() {
+		BitwiseComparator<String> c = BinaryStringBitsComparator.INSTANCE;
+		ArrayList<PersistentPatriciaTrie<String, Integer>> versions = new ArrayList<>();
+		ArrayList<MockPrefixMap<String, Integer>> checks = new ArrayList<>();
+		PersistentPatriciaTrie<String, Integer> trie = new PersistentPatriciaTrie<>(
+				c);
+		MockPrefixMap<String, Integer> tree = new MockPrefixMap<>(c);
+
+		int count = rn.nextInt(400);
+		for (int i = 0; i < count; i++) {
+			String key = randomKey();
+			PersistentPatriciaTrie<String, Integer> next;
+			if (rn.nextInt(3) == 0) {
+				next = trie.without(key);
+				assert (next == trie) == (tree.remove(key) == null);
+			} else {
+				next = trie.with(key, i);
+				tree.put(key, i);
+				assert next != trie;
+			}
+			trie = next;
+			assert trie.size() == tree.size();
+			if (rn.nextInt(20) == 0) {
+				versions.add(trie);
+				checks.add((MockPrefixMap<String, Integer>) tree.clone());
+			}
+		}
+		if (!trie.isEmpty()) {
+			String key = trie.firstKey();
+			assert trie.with(key, trie.get(key)) == trie;
+		}
+		assert trie.withAll(tree).equals(tree);
+		assert trie.empty().isEmpty();
+		versions.add(trie);
+		checks.add(tree);
+
+		ArrayList<Map.Entry<String, Integer>> queries = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			queries.add(new AbstractMap.SimpleEntry<>(randomKey(), 0));
+		for (int i = 0; i < versions.size(); i++)
+			testMap(versions.get(i), checks.get(i), queries, 2);
+
+		if (!trie.isEmpty()) {
+			testUnsupported(trie);
+			testUnsupported(trie.subMap("", true));
+			testUnsupported(trie.descendingMap());
+		}
+	}
+
+	private void testMap(NavigableMap<String, Integer> testMap,
+			NavigableMap<String, Integer> checkMap,
+			ArrayList<Map.Entry<String, Integer>> queries, int depth) {
+		ArrayList<Map.Entry<String, Integer>> ordered = new ArrayList<>(
+				checkMap.entrySet());
+		assert testMap.size() == checkMap.size();
+		testOrder(testMap, ordered);
+		testReverseOrder(testMap, ordered);
+		testEndPoints(testMap, checkMap);
+		ArrayList<Map.Entry<String, Integer>> keys = new ArrayList<>(ordered);
+		keys.addAll(queries);
+		if (checkMap instanceof PrefixMap)
+			testQueryMethods((PrefixMap<String, Integer>) testMap,
+					(PrefixMap<String, Integer>) checkMap, keys);
+		else
+			testQueryMethods(testMap, checkMap, keys);
+		testSerialization(testMap);
+		assert testMap.equals(checkMap) && checkMap.equals(testMap);
+		assert testMap.hashCode() == checkMap.hashCode();
+
+		if (depth-- <= 0 || ordered.isEmpty())
+			return;
+		testMap(testMap.descendingMap(), checkMap.descendingMap(), queries,
+				depth);
+		String key = ordered.get(rn.nextInt(ordered.size())).getKey();
+		boolean inclusive = rn.nextBoolean();
+		testMap(testMap.tailMap(key, inclusive), checkMap.tailMap(key,
+				inclusive), queries, depth);
+		if (testMap instanceof PersistentPatriciaTrie) {
+			String prefix = key.substring(0, rn.nextInt(key.length() + 1));
+			testMap((NavigableMap<String, Integer>) ((PrefixMap<String, Integer>) testMap)
+					.subMap(prefix, inclusive),
+					(NavigableMap<String, Integer>) ((PrefixMap<String, Integer>) checkMap)
+							.subMap(prefix, inclusive), queries, depth);
+		}
+	}
+
+	private static void testUnsupported(NavigableMap<String, Integer> m) {
+		String key = m.firstKey();
+		Runnable[] updates = { () -> m.put(key, 0), () -> m.remove(key),
+				() -> m.pollFirstEntry(), () -> m.putIfAbsent("11", 0),
+				() -> m.clear(), () -> m.keySet().remove(key),
+				() -> m.entrySet().clear(), () -> {
+					Iterator<String> it = m.keySet().iterator();
+					it.next();
+					it.remove();
+				} };
+		for (Runnable update : updates) {
+			try {
+				update.run();
+				assert false;
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+	}
+
+	private void testSnapshots() {
+		BitwiseComparator<String> c = BinaryStringBitsComparator.INSTANCE;
+		ConcurrentPatriciaTrie<String, Integer> trie = new ConcurrentPatriciaTrie<>(
+				c);
+		MockPrefixMap<String, Integer> tree = new MockPrefixMap<>(c);
+		for (int i = rn.nextInt(200); i > 0; i--) {
+			String key = randomKey();
+			trie.put(key, i);
+			tree.put(key, i);
+		}
+		PersistentPatriciaTrie<String, Integer> snapshot = trie.snapshot();
+		for (int i = rn.nextInt(200); i > 0; i--) {
+			String key = randomKey();
+			if (rn.nextBoolean())
+				trie.put(key, -i);
+			else
+				trie.remove(key);
+		}
+		trie.pollFirstEntry();
+		assert snapshot.equals(tree) : mismatchMsg(snapshot, tree);
+		assert eq(snapshot.prefixEntry("0110"), tree.prefixEntry("0110"));
+		trie.clear();
+		assert snapshot.size() == tree.size();
+	}
+}
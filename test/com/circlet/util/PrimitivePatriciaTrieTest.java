@@ -0,0 +1,294 @@
+package com.circlet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized tests of {@link IntPatriciaTrie} and {@link LongPatriciaTrie}
+ * against a {@link TreeMap}.
+ */
+@SuppressWarnings("unchecked")
+public class PrimitivePatriciaTrieTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			testInt();
+			testLong();
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	// Keys sharing a few random prefixes of random lengths, so that the tries
+	// get deep tracks as well as wide switch lists.
+
+	private int randomInt(int[] prefixes) {
+		int p = prefixes[rn.nextInt(prefixes.length)];
+		int shift = rn.nextInt(33);
+		int low = shift == 32 ? rn.nextInt() : rn.nextInt() & ~(-1 << shift);
+		return shift == 32 ? low : (p & -1 << shift) | low;
+	}
+
+	private long randomLong(long[] prefixes) {
+		long p = prefixes[rn.nextInt(prefixes.length)];
+		int shift = rn.nextInt(65);
+		long low = shift == 64 ? rn.nextLong() : rn.nextLong() & ~(-1L << shift);
+		return shift == 64 ? low : (p & -1L << shift) | low;
+	}
+
+	private void testInt() throws IOException, ClassNotFoundException {
+		int[] prefixes = new int[1 + rn.nextInt(8)];
+		for (int i = 0; i < prefixes.length; i++)
+			prefixes[i] = rn.nextInt();
+		prefixes[0] = rn.nextBoolean() ? Integer.MIN_VALUE : 0;
+
+		TreeMap<Integer, Integer> tree = new TreeMap<>();
+		IntPatriciaTrie<Integer> trie = new IntPatriciaTrie<>();
+		int count = rn.nextInt(600);
+		for (int i = 0; i < count; i++) {
+			int key = randomInt(prefixes);
+			assert eq(trie.put(key, Integer.valueOf(i)), tree.put(key, i));
+		}
+		checkInt(trie, tree);
+
+		for (int i = 0; i < 500; i++) {
+			int key = rn.nextBoolean() ? randomInt(prefixes)
+					: rn.nextInt(5) - 2 + (rn.nextBoolean() ? Integer.MIN_VALUE
+							: Integer.MAX_VALUE);
+			assert trie.containsKey(key) == tree.containsKey(key);
+			assert eq(trie.get(key), tree.get(key));
+			assert eq(trie.lowerEntry(key), tree.lowerEntry(key));
+			assert eq(trie.floorEntry(key), tree.floorEntry(key));
+			assert eq(trie.ceilingEntry(key), tree.ceilingEntry(key));
+			assert eq(trie.higherEntry(key), tree.higherEntry(key));
+			Map.Entry<Integer, Integer> ceiling = tree.ceilingEntry(key);
+			try {
+				assert trie.ceilingKey(key) == ceiling.getKey();
+			} catch (NoSuchElementException e) {
+				assert ceiling == null;
+			}
+
+			Map.Entry<Integer, Integer> nearest = null;
+			for (Map.Entry<Integer, Integer> e : tree.entrySet()) {
+				if (nearest == null
+						|| (key ^ e.getKey() ^ Integer.MIN_VALUE) < (key
+								^ nearest.getKey() ^ Integer.MIN_VALUE))
+					nearest = e;
+			}
+			assert eq(trie.nearestEntry(key), nearest);
+
+			int prefixBits = rn.nextInt(33);
+			int mask = prefixBits == 0 ? 0 : -1 << 32 - prefixBits;
+			Map.Entry<Integer, Integer> least = null, last = null;
+			for (Map.Entry<Integer, Integer> e : tree.entrySet()) {
+				if (((e.getKey() ^ key) & mask) == 0) {
+					if (least == null)
+						least = e;
+					last = e;
+				}
+			}
+			assert eq(trie.leastPrefixed(key, prefixBits), least);
+			assert eq(trie.lastPrefixed(key, prefixBits), last);
+			assert eq(trie.prefixEntry(key, prefixBits), least != null ? nearest
+					: null);
+		}
+
+		// Removal, through the map, the iterator and polling
+		for (int i = count >> 1; i > 0; i--) {
+			int key = randomInt(prefixes);
+			assert eq(trie.remove(key), tree.remove(key));
+		}
+		// Boxed keys through the Map methods, and keys of another type
+		Map<Integer, Integer> map = trie;
+		for (int i = 0; i < 20; i++) {
+			Integer key = randomInt(prefixes);
+			assert map.containsKey(key) == tree.containsKey(key);
+			assert eq(map.get(key), tree.get(key));
+			Long other = Long.valueOf(key);
+			assert !map.containsKey(other) && map.get(other) == null
+					&& map.remove(other) == null;
+		}
+		checkInt(trie, tree);
+		Iterator<Map.Entry<Integer, Integer>> it = trie.entrySet().iterator();
+		Iterator<Map.Entry<Integer, Integer>> expected = tree.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			assert eq(it.next(), expected.next());
+			if (rn.nextInt(3) == 0) {
+				it.remove();
+				expected.remove();
+			}
+		}
+		checkInt(trie, tree);
+		assert eq(trie.pollFirstEntry(), tree.pollFirstEntry());
+		assert eq(trie.pollLastEntry(), tree.pollLastEntry());
+		checkInt(trie, tree);
+
+		trie = (IntPatriciaTrie<Integer>) deserialize(serialize(trie));
+		checkInt(trie, tree);
+		trie.clear();
+		tree.clear();
+		checkInt(trie, tree);
+	}
+
+	private void testLong() throws IOException, ClassNotFoundException {
+		long[] prefixes = new long[1 + rn.nextInt(8)];
+		for (int i = 0; i < prefixes.length; i++)
+			prefixes[i] = rn.nextLong();
+		prefixes[0] = rn.nextBoolean() ? Long.MIN_VALUE : 0;
+
+		TreeMap<Long, Integer> tree = new TreeMap<>();
+		LongPatriciaTrie<Integer> trie = new LongPatriciaTrie<>();
+		int count = rn.nextInt(600);
+		for (int i = 0; i < count; i++) {
+			long key = randomLong(prefixes);
+			assert eq(trie.put(key, Integer.valueOf(i)), tree.put(key, i));
+		}
+		checkLong(trie, tree);
+
+		for (int i = 0; i < 500; i++) {
+			long key = rn.nextBoolean() ? randomLong(prefixes)
+					: rn.nextInt(5) - 2 + (rn.nextBoolean() ? Long.MIN_VALUE
+							: Long.MAX_VALUE);
+			assert trie.containsKey(key) == tree.containsKey(key);
+			assert eq(trie.get(key), tree.get(key));
+			assert eq(trie.lowerEntry(key), tree.lowerEntry(key));
+			assert eq(trie.floorEntry(key), tree.floorEntry(key));
+			assert eq(trie.ceilingEntry(key), tree.ceilingEntry(key));
+			assert eq(trie.higherEntry(key), tree.higherEntry(key));
+			Map.Entry<Long, Integer> floor = tree.floorEntry(key);
+			try {
+				assert trie.floorKey(key) == floor.getKey();
+			} catch (NoSuchElementException e) {
+				assert floor == null;
+			}
+
+			Map.Entry<Long, Integer> nearest = null;
+			for (Map.Entry<Long, Integer> e : tree.entrySet()) {
+				if (nearest == null
+						|| (key ^ e.getKey() ^ Long.MIN_VALUE) < (key
+								^ nearest.getKey() ^ Long.MIN_VALUE))
+					nearest = e;
+			}
+			assert eq(trie.nearestEntry(key), nearest);
+
+			int prefixBits = rn.nextInt(65);
+			long mask = prefixBits == 0 ? 0 : -1L << 64 - prefixBits;
+			Map.Entry<Long, Integer> least = null, last = null;
+			for (Map.Entry<Long, Integer> e : tree.entrySet()) {
+				if (((e.getKey() ^ key) & mask) == 0) {
+					if (least == null)
+						least = e;
+					last = e;
+				}
+			}
+			assert eq(trie.leastPrefixed(key, prefixBits), least);
+			assert eq(trie.lastPrefixed(key, prefixBits), last);
+			assert eq(trie.prefixEntry(key, prefixBits), least != null ? nearest
+					: null);
+		}
+
+		for (int i = count >> 1; i > 0; i--) {
+			long key = randomLong(prefixes);
+			assert eq(trie.remove(key), tree.remove(key));
+		}
+		// Boxed keys through the Map methods, and keys of another type
+		Map<Long, Integer> map = trie;
+		for (int i = 0; i < 20; i++) {
+			Long key = randomLong(prefixes);
+			assert map.containsKey(key) == tree.containsKey(key);
+			assert eq(map.get(key), tree.get(key));
+			Integer other = Integer.valueOf((int) (long) key);
+			assert !map.containsKey(other) && map.get(other) == null
+					&& map.remove(other) == null;
+		}
+		checkLong(trie, tree);
+		Iterator<Map.Entry<Long, Integer>> it = trie.entrySet().iterator();
+		Iterator<Map.Entry<Long, Integer>> expected = tree.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			assert eq(it.next(), expected.next());
+			if (rn.nextInt(3) == 0) {
+				it.remove();
+				expected.remove();
+			}
+		}
+		checkLong(trie, tree);
+		assert eq(trie.pollFirstEntry(), tree.pollFirstEntry());
+		assert eq(trie.pollLastEntry(), tree.pollLastEntry());
+		checkLong(trie, tree);
+
+		trie = (LongPatriciaTrie<Integer>) deserialize(serialize(trie));
+		checkLong(trie, tree);
+		trie.clear();
+		tree.clear();
+		checkLong(trie, tree);
+	}
+
+	private static void checkInt(IntPatriciaTrie<Integer> trie,
+			TreeMap<Integer, Integer> tree) {
+		assert trie.size() == tree.size();
+		assert trie.equals(tree) && tree.equals(trie);
+		assert trie.hashCode() == tree.hashCode();
+		assert eq(trie.firstEntry(), tree.firstEntry());
+		assert eq(trie.lastEntry(), tree.lastEntry());
+		Iterator<Map.Entry<Integer, Integer>> expected = tree.entrySet()
+				.iterator();
+		for (Map.Entry<Integer, Integer> e : trie.entrySet())
+			assert eq(e, expected.next());
+		assert !expected.hasNext();
+	}
+
+	private static void checkLong(LongPatriciaTrie<Integer> trie,
+			TreeMap<Long, Integer> tree) {
+		assert trie.size() == tree.size();
+		assert trie.equals(tree) && tree.equals(trie);
+		assert trie.hashCode() == tree.hashCode();
+		assert eq(trie.firstEntry(), tree.firstEntry());
+		assert eq(trie.lastEntry(), tree.lastEntry());
+		Iterator<Map.Entry<Long, Integer>> expected = tree.entrySet()
+				.iterator();
+		for (Map.Entry<Long, Integer> e : trie.entrySet())
+			assert eq(e, expected.next());
+		assert !expected.hasNext();
+	}
+
+	private static boolean eq(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
+	private static byte[] serialize(Object o) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(o);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Object deserialize(byte[] bytes) throws IOException,
+			ClassNotFoundException {
+		try (ObjectInputStream in = new ObjectInputStream(
+				new ByteArrayInputStream(bytes))) {
+			return in.readObject();
+		}
+	}
+}
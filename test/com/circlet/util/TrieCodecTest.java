@@ -0,0 +1,95 @@
+package com.circlet.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.circlet.util.PatriciaTrieTest.TestFailed;
+import com.circlet.util.PatriciaTrieTestRunner.RandomizedTest;
+
+/**
+ * Randomized round trips of the {@link TrieCodec} key and value codecs, front
+ * coded or not, over sorted keys sharing prefixes, ASCII or not. Tries
+ * themselves are written and read by {@link PatriciaTrieTest}.
+ */
+public class TrieCodecTest implements RandomizedTest {
+
+	private final Random seeds = new Random();
+	private Random rn;
+
+	public final void test() {
+		test(seeds.nextLong());
+	}
+
+	public final void test(long seed) {
+		rn = new Random(seed);
+		try {
+			ArrayList<String> strings = new ArrayList<>();
+			for (int i = rn.nextInt(100); i > 0; i--)
+				strings.add(randomString());
+			strings.sort(null);
+			testRoundTrip(TrieCodec.STRINGS, strings);
+
+			ArrayList<char[]> chars = new ArrayList<>();
+			ArrayList<byte[]> bytes = new ArrayList<>();
+			for (String s : strings) {
+				chars.add(s.toCharArray());
+				bytes.add(s.getBytes("UTF-8"));
+			}
+			testRoundTrip(TrieCodec.CHAR_ARRAYS, chars);
+			testRoundTrip(TrieCodec.BYTE_ARRAYS, bytes);
+
+			ArrayList<Integer> ints = new ArrayList<>();
+			ArrayList<Long> longs = new ArrayList<>();
+			for (int i = rn.nextInt(100); i > 0; i--) {
+				ints.add(rn.nextBoolean() ? rn.nextInt() : rn.nextInt(256) - 128);
+				longs.add(rn.nextBoolean() ? rn.nextLong() : rn.nextInt());
+			}
+			ints.add(Integer.MIN_VALUE);
+			longs.add(Long.MAX_VALUE);
+			testRoundTrip(TrieCodec.INTEGERS, ints);
+			testRoundTrip(TrieCodec.LONGS, longs);
+		} catch (Throwable t) {
+			throw new TestFailed(seed, t);
+		}
+	}
+
+	private String randomString() {
+		final String chars = "ab/é中";
+		StringBuilder sb = new StringBuilder();
+		if (rn.nextBoolean())
+			sb.append("http://a/");
+		for (int i = rn.nextInt(8); i > 0; i--)
+			sb.append(chars.charAt(rn.nextInt(rn.nextInt(4) == 0 ? chars
+					.length() : 3)));
+		return sb.toString();
+	}
+
+	private static <T> void testRoundTrip(TrieCodec.Codec<T> codec,
+			ArrayList<T> list) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		T previous = null;
+		for (T o : list) {
+			codec.write(out, o, previous);
+			codec.write(out, o);
+			previous = o;
+		}
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		previous = null;
+		for (T o : list) {
+			T a = codec.read(in, previous);
+			T b = codec.read(in);
+			assert Arrays.deepEquals(new Object[] { o, o },
+					new Object[] { a, b }) : o;
+			previous = a;
+		}
+		assert in.read() < 0;
+	}
+}